@@ -0,0 +1,27 @@
+package org.embulk.input.marketo;
+
+/**
+ * Read a CSV file record by record and column by column.
+ */
+public interface CsvRecordTokenizer
+{
+    /**
+     * Move to the next record, empty lines are skipped
+     * @return false at the end of file
+     */
+    boolean nextRecord();
+
+    boolean hasNextColumn();
+
+    String nextColumn();
+
+    /**
+     * @return value of the next column, null when it is the null string
+     */
+    String nextColumnOrNull();
+
+    /**
+     * Move to the next column without building its value
+     */
+    void skipColumn();
+}
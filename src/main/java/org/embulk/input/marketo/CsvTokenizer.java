@@ -23,7 +23,7 @@ import java.util.Optional;
 /**
  * Created by tai.khuu on 9/15/17.
  */
-public class CsvTokenizer
+public class CsvTokenizer implements CsvRecordTokenizer
 {
     enum RecordState
     {
@@ -104,6 +104,10 @@ public class CsvTokenizer
     private boolean wasQuotedColumn = false;
     private final List<String> quotedValueLines = new ArrayList<>();
     private final Deque<String> unreadLines = new ArrayDeque<>();
+    // value of the current quoted column, only built when the column is materialized
+    private final StringBuilder quotedValue = new StringBuilder();
+    private int quotedValueLength = 0;
+    private boolean materializeColumn = true;
 
     public CsvTokenizer(LineDecoder input, PluginTask task)
     {
@@ -193,6 +197,7 @@ public class CsvTokenizer
     }
 
     // used by guess-csv
+    @Override
     public boolean nextRecord()
     {
         return nextRecord(true);
@@ -239,12 +244,28 @@ public class CsvTokenizer
         }
     }
 
+    @Override
     public boolean hasNextColumn()
     {
         return recordState == RecordState.NOT_END;
     }
 
+    @Override
     public String nextColumn()
+    {
+        return readColumn(true);
+    }
+
+    /**
+     * Move to the next column without building its value.
+     */
+    @Override
+    public void skipColumn()
+    {
+        readColumn(false);
+    }
+
+    private String readColumn(boolean materialize)
     {
         if (!hasNextColumn()) {
             throw new TooFewColumnsException("Too few columns");
@@ -253,11 +274,13 @@ public class CsvTokenizer
         // reset last state
         wasQuotedColumn = false;
         quotedValueLines.clear();
+        materializeColumn = materialize;
+        quotedValue.setLength(0);
+        quotedValueLength = 0;
 
         // local state
         int valueStartPos = linePos;
         int valueEndPos = 0;  // initialized by VALUE state and used by LAST_TRIM_OR_VALUE and
-        StringBuilder quotedValue = null;  // initial by VALUE or FIRST_TRIM state and used by QUOTED_VALUE state
         ColumnState columnState = ColumnState.BEGIN;
 
         while (true) {
@@ -288,7 +311,6 @@ public class CsvTokenizer
                     else if (isQuote(c)) {
                         valueStartPos = linePos;  // == 1
                         wasQuotedColumn = true;
-                        quotedValue = new StringBuilder();
                         columnState = ColumnState.QUOTED_VALUE;
                     }
                     else {
@@ -317,7 +339,6 @@ public class CsvTokenizer
                         // column has heading spaces and quoted. TODO should this be rejected?
                         valueStartPos = linePos;
                         wasQuotedColumn = true;
-                        quotedValue = new StringBuilder();
                         columnState = ColumnState.QUOTED_VALUE;
                     }
                     else if (isSpace(c)) {
@@ -331,10 +352,10 @@ public class CsvTokenizer
                 case VALUE:
                     if (isDelimiter(c)) {
                         if (delimiterFollowingString == null) {
-                            return line.substring(valueStartPos, linePos - 1);
+                            return columnValue(valueStartPos, linePos - 1);
                         }
                         else if (isDelimiterFollowingFrom(linePos)) {
-                            String value = line.substring(valueStartPos, linePos - 1);
+                            String value = columnValue(valueStartPos, linePos - 1);
                             linePos += delimiterFollowingString.length();
                             return value;
                         }
@@ -342,7 +363,7 @@ public class CsvTokenizer
                     }
                     if (isEndOfLine(c)) {
                         recordState = RecordState.END;
-                        return line.substring(valueStartPos, linePos);
+                        return columnValue(valueStartPos, linePos);
                     }
                     else if (isSpace(c) && trimIfNotQuoted) {
                         valueEndPos = linePos - 1;  // this is possibly end of value
@@ -362,11 +383,11 @@ public class CsvTokenizer
                 case LAST_TRIM_OR_VALUE:
                     if (isDelimiter(c)) {
                         if (delimiterFollowingString == null) {
-                            return line.substring(valueStartPos, valueEndPos);
+                            return columnValue(valueStartPos, valueEndPos);
                         }
                         else if (isDelimiterFollowingFrom(linePos)) {
                             linePos += delimiterFollowingString.length();
-                            return line.substring(valueStartPos, valueEndPos);
+                            return columnValue(valueStartPos, valueEndPos);
                         }
                         else {
                             // not a delimiter
@@ -374,7 +395,7 @@ public class CsvTokenizer
                     }
                     if (isEndOfLine(c)) {
                         recordState = RecordState.END;
-                        return line.substring(valueStartPos, valueEndPos);
+                        return columnValue(valueStartPos, valueEndPos);
                     }
                     else if (isSpace(c)) {
                         // keep LAST_TRIM_OR_VALUE state
@@ -387,8 +408,8 @@ public class CsvTokenizer
                 case QUOTED_VALUE:
                     if (isEndOfLine(c)) {
                         // multi-line quoted value
-                        quotedValue.append(line.substring(valueStartPos, linePos));
-                        quotedValue.append(newline);
+                        appendQuotedValue(valueStartPos, linePos);
+                        appendQuotedValue(newline);
                         quotedValueLines.add(line);
                         if (!nextLine(false)) {
                             throw new InvalidValueException("Unexpected end of line during parsing a quoted value");
@@ -399,11 +420,11 @@ public class CsvTokenizer
                         char next = peekNextChar();
                         if (this.quotesInQuotedFields == QuotesInQuotedFields.NONE) {
                             if (isQuote(next)) {
-                                quotedValue.append(line.substring(valueStartPos, linePos));
+                                appendQuotedValue(valueStartPos, linePos);
                                 valueStartPos = ++linePos;
                             }
                             else {
-                                quotedValue.append(line.substring(valueStartPos, linePos - 1));
+                                appendQuotedValue(valueStartPos, linePos - 1);
                                 columnState = ColumnState.AFTER_QUOTED_VALUE;
                             }
                         }
@@ -416,19 +437,19 @@ public class CsvTokenizer
                                 // A quote just before a delimiter or an end of line is recognized as a functional quote,
                                 // not just as a non-escaped stray "quote character" included the field, even if
                                 // ACCEPT_STRAY_QUOTES_ASSUMING_NO_DELIMITERS_IN_FIELDS is specified.
-                                quotedValue.append(this.line.substring(valueStartPos, this.linePos));
+                                appendQuotedValue(valueStartPos, this.linePos);
                                 valueStartPos = ++this.linePos;
                             }
                             else if (this.quotesInQuotedFields == QuotesInQuotedFields.ACCEPT_STRAY_QUOTES_ASSUMING_NO_DELIMITERS_IN_FIELDS
                                     && !(this.isDelimiter(next) || this.isEndOfLine(next))) {
                                 // A non-escaped stray "quote character" in the field is processed as a regular character
                                 // if ACCEPT_STRAY_QUOTES_ASSUMING_NO_DELIMITERS_IN_FIELDS is specified,
-                                if ((this.linePos - valueStartPos) + quotedValue.length() > this.maxQuotedSizeLimit) {
+                                if ((this.linePos - valueStartPos) + quotedValueLength > this.maxQuotedSizeLimit) {
                                     throw new QuotedSizeLimitExceededException("The size of the quoted value exceeds the limit size (" + maxQuotedSizeLimit + ")");
                                 }
                             }
                             else {
-                                quotedValue.append(this.line.substring(valueStartPos, this.linePos - 1));
+                                appendQuotedValue(valueStartPos, this.linePos - 1);
                                 columnState = ColumnState.AFTER_QUOTED_VALUE;
                             }
                         }
@@ -438,7 +459,7 @@ public class CsvTokenizer
                         char next = peekNextChar();
                         if (isEndOfLine(c)) {
                             // escape end of line. TODO assuming multi-line quoted value without newline?
-                            quotedValue.append(line.substring(valueStartPos, linePos));
+                            appendQuotedValue(valueStartPos, linePos);
                             quotedValueLines.add(line);
                             if (!nextLine(false)) {
                                 throw new InvalidValueException("Unexpected end of line during parsing a quoted value");
@@ -446,13 +467,13 @@ public class CsvTokenizer
                             valueStartPos = 0;
                         }
                         else if (isQuote(next) || isEscape(next)) { // escaped quote
-                            quotedValue.append(line.substring(valueStartPos, linePos - 1));
-                            quotedValue.append(next);
+                            appendQuotedValue(valueStartPos, linePos - 1);
+                            appendQuotedValue(next);
                             valueStartPos = ++linePos;
                         }
                     }
                     else {
-                        if ((linePos - valueStartPos) + quotedValue.length() > maxQuotedSizeLimit) {
+                        if ((linePos - valueStartPos) + quotedValueLength > maxQuotedSizeLimit) {
                             throw new QuotedSizeLimitExceededException("The size of the quoted value exceeds the limit size (" + maxQuotedSizeLimit + ")");
                         }
                         // keep QUOTED_VALUE state
@@ -462,17 +483,17 @@ public class CsvTokenizer
                 case AFTER_QUOTED_VALUE:
                     if (isDelimiter(c)) {
                         if (delimiterFollowingString == null) {
-                            return quotedValue.toString();
+                            return quotedColumnValue();
                         }
                         else if (isDelimiterFollowingFrom(linePos)) {
                             linePos += delimiterFollowingString.length();
-                            return quotedValue.toString();
+                            return quotedColumnValue();
                         }
                         // not a delimiter
                     }
                     if (isEndOfLine(c)) {
                         recordState = RecordState.END;
-                        return quotedValue.toString();
+                        return quotedColumnValue();
                     }
                     else if (isSpace(c)) {
                         // column has trailing spaces and quoted. TODO should this be rejected?
@@ -487,6 +508,41 @@ public class CsvTokenizer
         }
     }
 
+    private String columnValue(int beginIndex, int endIndex)
+    {
+        return materializeColumn ? line.substring(beginIndex, endIndex) : null;
+    }
+
+    private String quotedColumnValue()
+    {
+        return materializeColumn ? quotedValue.toString() : null;
+    }
+
+    private void appendQuotedValue(int beginIndex, int endIndex)
+    {
+        if (materializeColumn) {
+            quotedValue.append(line, beginIndex, endIndex);
+        }
+        quotedValueLength += endIndex - beginIndex;
+    }
+
+    private void appendQuotedValue(String value)
+    {
+        if (materializeColumn) {
+            quotedValue.append(value);
+        }
+        quotedValueLength += value.length();
+    }
+
+    private void appendQuotedValue(char c)
+    {
+        if (materializeColumn) {
+            quotedValue.append(c);
+        }
+        quotedValueLength++;
+    }
+
+    @Override
     public String nextColumnOrNull()
     {
         String v = nextColumn();
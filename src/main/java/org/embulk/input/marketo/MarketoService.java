@@ -4,6 +4,7 @@ import com.fasterxml.jackson.databind.node.ObjectNode;
 import org.embulk.input.marketo.model.MarketoField;
 
 import java.io.File;
+import java.io.InputStream;
 import java.util.Date;
 import java.util.List;
 import java.util.Set;
@@ -17,8 +18,36 @@ public interface MarketoService
 
     File extractLead(Date startTime, Date endTime, List<String> extractedFields, String filterField, int pollingTimeIntervalSecond, int bulkJobTimeoutSecond);
 
+    String startLeadExtract(Date startTime, Date endTime, List<String> extractedFields, String filterField);
+
+    ObjectNode waitLeadExtract(String exportId, int pollingTimeIntervalSecond, int bulkJobTimeoutSecond);
+
+    ObjectNode getLeadExtractStatus(String exportId);
+
+    void cancelLeadExtract(String exportId);
+
+    File downloadLeadExtract(String exportId, long fileSize, int numberOfConnections);
+
+    File downloadCompressedLeadExtract(String exportId);
+
+    InputStream streamLeadExtract(String exportId);
+
     File extractAllActivity(List<Integer> activityTypeIds, Date startTime, Date endTime, int pollingTimeIntervalSecond, int bulkJobTimeoutSecond);
 
+    String startActivityExtract(List<Integer> activityTypeIds, Date startTime, Date endTime);
+
+    ObjectNode waitActivityExtract(String exportId, int pollingTimeIntervalSecond, int bulkJobTimeoutSecond);
+
+    ObjectNode getActivityExtractStatus(String exportId);
+
+    void cancelActivityExtract(String exportId);
+
+    File downloadActivityExtract(String exportId, long fileSize, int numberOfConnections);
+
+    File downloadCompressedActivityExtract(String exportId);
+
+    InputStream streamActivityExtract(String exportId);
+
     Iterable<ObjectNode> getAllListLead(List<String> extractFields, Iterable<ObjectNode> inputListIds);
 
     Iterable<ObjectNode> getAllProgramLead(List<String> extractFields, Iterable<ObjectNode> requestProgs);
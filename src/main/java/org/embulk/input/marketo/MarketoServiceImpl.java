@@ -5,8 +5,11 @@ import com.google.common.base.Function;
 import com.google.common.collect.Iterables;
 import com.google.common.collect.Lists;
 import org.apache.commons.lang3.StringUtils;
+import org.embulk.input.marketo.bulk_extract.ResumableBulkExtractInputStream;
+import org.embulk.input.marketo.exception.BulkExtractRangeException;
 import org.embulk.input.marketo.model.BulkExtractRangeHeader;
 import org.embulk.input.marketo.model.MarketoField;
+import org.embulk.input.marketo.rest.MarketoFileChannelResponseEntityReader;
 import org.embulk.input.marketo.rest.MarketoRestClient;
 import org.embulk.input.marketo.rest.RecordPagingIterable;
 import org.embulk.spi.DataException;
@@ -19,11 +22,23 @@ import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
 import java.util.Date;
 import java.util.List;
 import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.ToLongBiFunction;
 import java.util.stream.Collectors;
 import java.util.stream.IntStream;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPOutputStream;
 
 /**
  * Created by tai.khuu on 9/6/17.
@@ -34,10 +49,22 @@ public class MarketoServiceImpl implements MarketoService
 
     private static final String DEFAULT_FILE_FORMAT = "csv";
 
+    private static final String COMPRESSED_FILE_FORMAT = "csv.gz";
+
     private static final int BUF_SIZE = 0x1000;
 
     private static final int MAX_RESUME_TIME = 50;
 
+    // Ranges smaller than this are not worth an extra connection
+    private static final long MIN_DOWNLOAD_RANGE_SIZE = 0x400000;
+
+    // threads downloading the ranges of files, shared by all downloads of the JVM
+    private static final ExecutorService RANGE_DOWNLOAD_EXECUTOR = Executors.newCachedThreadPool(runnable -> {
+        Thread thread = new Thread(runnable, "bulk-extract-download");
+        thread.setDaemon(true);
+        return thread;
+    });
+
     private MarketoRestClient marketoRestClient;
 
     public MarketoServiceImpl(MarketoRestClient marketoRestClient)
@@ -47,16 +74,57 @@ public class MarketoServiceImpl implements MarketoService
 
     @Override
     public File extractLead(final Date startTime, Date endTime, List<String> extractedFields, String filterField, int pollingTimeIntervalSecond, final int bulkJobTimeoutSecond)
+    {
+        final String exportID = startLeadExtract(startTime, endTime, extractedFields, filterField);
+        ObjectNode status = waitLeadExtract(exportID, pollingTimeIntervalSecond, bulkJobTimeoutSecond);
+        return downloadLeadExtract(exportID, MarketoUtils.getFileSize(status), 1);
+    }
+
+    @Override
+    public String startLeadExtract(Date startTime, Date endTime, List<String> extractedFields, String filterField)
     {
         final String exportID = marketoRestClient.createLeadBulkExtract(startTime, endTime, extractedFields, filterField);
         marketoRestClient.startLeadBulkExtract(exportID);
+        return exportID;
+    }
+
+    @Override
+    public ObjectNode waitLeadExtract(String exportID, int pollingTimeIntervalSecond, int bulkJobTimeoutSecond)
+    {
         try {
-            marketoRestClient.waitLeadExportJobComplete(exportID, pollingTimeIntervalSecond, bulkJobTimeoutSecond);
+            return marketoRestClient.waitLeadExportJobComplete(exportID, pollingTimeIntervalSecond, bulkJobTimeoutSecond);
         }
         catch (InterruptedException e) {
             logger.error("Exception when waiting for export job id: {}", exportID, e);
             throw new DataException("Error when wait for bulk extract");
         }
+    }
+
+    @Override
+    public ObjectNode getLeadExtractStatus(String exportID)
+    {
+        return marketoRestClient.getLeadExportJobStatus(exportID);
+    }
+
+    @Override
+    public void cancelLeadExtract(String exportID)
+    {
+        marketoRestClient.cancelLeadBulkExtract(exportID);
+    }
+
+    @Override
+    public File downloadLeadExtract(final String exportID, long fileSize, int numberOfConnections)
+    {
+        if (marketoRestClient.isZeroCopyDownload()) {
+            return downloadBulkExtractToChannel(new BulkExtractChannelWriter()
+            {
+                @Override
+                public long write(BulkExtractRangeHeader bulkExtractRangeHeader, MarketoFileChannelResponseEntityReader responseReader)
+                {
+                    return marketoRestClient.writeLeadBulkExtractResult(exportID, bulkExtractRangeHeader, responseReader);
+                }
+            }, fileSize, numberOfConnections);
+        }
         return downloadBulkExtract(new Function<BulkExtractRangeHeader, InputStream>()
         {
             @Override
@@ -64,13 +132,39 @@ public class MarketoServiceImpl implements MarketoService
             {
                 return marketoRestClient.getLeadBulkExtractResult(exportID, bulkExtractRangeHeader);
             }
-        });
+        }, fileSize, numberOfConnections);
     }
 
-    private long saveExtractedFile(InputStream extractResult, File tempFile) throws DownloadBulkExtractException
+    @Override
+    public File downloadCompressedLeadExtract(final String exportID)
+    {
+        return downloadBulkExtract(new Function<BulkExtractRangeHeader, InputStream>()
+        {
+            @Override
+            public InputStream apply(BulkExtractRangeHeader bulkExtractRangeHeader)
+            {
+                return marketoRestClient.getLeadBulkExtractResult(exportID, bulkExtractRangeHeader);
+            }
+        }, true);
+    }
+
+    @Override
+    public InputStream streamLeadExtract(final String exportID)
+    {
+        return new ResumableBulkExtractInputStream(new Function<BulkExtractRangeHeader, InputStream>()
+        {
+            @Override
+            public InputStream apply(BulkExtractRangeHeader bulkExtractRangeHeader)
+            {
+                return marketoRestClient.getLeadBulkExtractResult(exportID, bulkExtractRangeHeader);
+            }
+        }, MAX_RESUME_TIME);
+    }
+
+    private long saveExtractedFile(InputStream extractResult, File tempFile, boolean compress) throws DownloadBulkExtractException
     {
         long total = 0;
-        try (OutputStream fileOuputStream = new FileOutputStream(tempFile, true)) {
+        try (OutputStream fileOuputStream = openExtractedFile(tempFile, compress)) {
             byte[] buf = new byte[BUF_SIZE];
             while (true) {
                 int r = extractResult.read(buf);
@@ -88,18 +182,84 @@ public class MarketoServiceImpl implements MarketoService
         return total;
     }
 
+    /**
+     * Open the file to append the bytes of a download attempt. Compressed attempts are written as consecutive gzip
+     * members, which are read back as a single stream.
+     */
+    private static OutputStream openExtractedFile(File tempFile, boolean compress) throws IOException
+    {
+        OutputStream fileOutputStream = new FileOutputStream(tempFile, true);
+        if (!compress) {
+            return fileOutputStream;
+        }
+        try {
+            // favor speed, the file is only kept until it is imported
+            return new GZIPOutputStream(fileOutputStream, BUF_SIZE)
+            {
+                {
+                    def.setLevel(Deflater.BEST_SPEED);
+                }
+            };
+        }
+        catch (IOException e) {
+            fileOutputStream.close();
+            throw e;
+        }
+    }
+
     @Override
     public File extractAllActivity(List<Integer> activityTypeIds, Date startTime, Date endTime, int pollingTimeIntervalSecond, int bulkJobTimeoutSecond)
+    {
+        final String exportID = startActivityExtract(activityTypeIds, startTime, endTime);
+        ObjectNode status = waitActivityExtract(exportID, pollingTimeIntervalSecond, bulkJobTimeoutSecond);
+        return downloadActivityExtract(exportID, MarketoUtils.getFileSize(status), 1);
+    }
+
+    @Override
+    public String startActivityExtract(List<Integer> activityTypeIds, Date startTime, Date endTime)
     {
         final String exportID = marketoRestClient.createActivityExtract(activityTypeIds, startTime, endTime);
         marketoRestClient.startActitvityBulkExtract(exportID);
+        return exportID;
+    }
+
+    @Override
+    public ObjectNode waitActivityExtract(String exportID, int pollingTimeIntervalSecond, int bulkJobTimeoutSecond)
+    {
         try {
-            marketoRestClient.waitActitvityExportJobComplete(exportID, pollingTimeIntervalSecond, bulkJobTimeoutSecond);
+            return marketoRestClient.waitActitvityExportJobComplete(exportID, pollingTimeIntervalSecond, bulkJobTimeoutSecond);
         }
         catch (InterruptedException e) {
             logger.error("Exception when waiting for export job id: {}", exportID, e);
             throw new DataException("Error when wait for bulk extract");
         }
+    }
+
+    @Override
+    public ObjectNode getActivityExtractStatus(String exportID)
+    {
+        return marketoRestClient.getActivityExportJobStatus(exportID);
+    }
+
+    @Override
+    public void cancelActivityExtract(String exportID)
+    {
+        marketoRestClient.cancelActivityBulkExtract(exportID);
+    }
+
+    @Override
+    public File downloadActivityExtract(final String exportID, long fileSize, int numberOfConnections)
+    {
+        if (marketoRestClient.isZeroCopyDownload()) {
+            return downloadBulkExtractToChannel(new BulkExtractChannelWriter()
+            {
+                @Override
+                public long write(BulkExtractRangeHeader bulkExtractRangeHeader, MarketoFileChannelResponseEntityReader responseReader)
+                {
+                    return marketoRestClient.writeActivitiesBulkExtractResult(exportID, bulkExtractRangeHeader, responseReader);
+                }
+            }, fileSize, numberOfConnections);
+        }
         return downloadBulkExtract(new Function<BulkExtractRangeHeader, InputStream>()
         {
             @Override
@@ -107,19 +267,236 @@ public class MarketoServiceImpl implements MarketoService
             {
                 return marketoRestClient.getActivitiesBulkExtractResult(exportID, bulkExtractRangeHeader);
             }
-        });
+        }, fileSize, numberOfConnections);
+    }
+
+    @Override
+    public File downloadCompressedActivityExtract(final String exportID)
+    {
+        return downloadBulkExtract(new Function<BulkExtractRangeHeader, InputStream>()
+        {
+            @Override
+            public InputStream apply(BulkExtractRangeHeader bulkExtractRangeHeader)
+            {
+                return marketoRestClient.getActivitiesBulkExtractResult(exportID, bulkExtractRangeHeader);
+            }
+        }, true);
     }
 
-    private File downloadBulkExtract(Function<BulkExtractRangeHeader, InputStream> getBulkExtractfunction)
+    @Override
+    public InputStream streamActivityExtract(final String exportID)
     {
+        return new ResumableBulkExtractInputStream(new Function<BulkExtractRangeHeader, InputStream>()
+        {
+            @Override
+            public InputStream apply(BulkExtractRangeHeader bulkExtractRangeHeader)
+            {
+                return marketoRestClient.getActivitiesBulkExtractResult(exportID, bulkExtractRangeHeader);
+            }
+        }, MAX_RESUME_TIME);
+    }
+
+    /**
+     * Download the file of a completed export job into a preallocated temp file, by fetching
+     * numberOfConnections byte ranges of the file concurrently.
+     * Fall back to a single connection download when the file size is unknown or too small to be split,
+     * or when the server doesn't answer with the ranges requested.
+     */
+    private File downloadBulkExtract(final Function<BulkExtractRangeHeader, InputStream> getBulkExtractfunction, long fileSize, int numberOfConnections)
+    {
+        int numberOfRanges = (int) Math.min(numberOfConnections, fileSize / MIN_DOWNLOAD_RANGE_SIZE);
+        if (numberOfRanges <= 1) {
+            return downloadBulkExtract(getBulkExtractfunction, false);
+        }
         final File tempFile = Exec.getTempFileSpace().createTempFile(DEFAULT_FILE_FORMAT);
+        try (RandomAccessFile randomAccessFile = new RandomAccessFile(tempFile, "rw")) {
+            randomAccessFile.setLength(fileSize);
+        }
+        catch (IOException e) {
+            logger.error("Encounter exception when preallocate bulk extract file", e);
+            throw new DataException("Can't down load bulk extract", e);
+        }
+        logger.info("Download [{}] bytes in [{}] ranges", fileSize, numberOfRanges);
+        try {
+            downloadRanges(fileSize, numberOfRanges, (rangeStart, rangeEnd) -> downloadBulkExtractRange(getBulkExtractfunction, tempFile, rangeStart, rangeEnd));
+        }
+        catch (DataException e) {
+            if (!BulkExtractRangeException.isCause(e)) {
+                throw e;
+            }
+            logger.warn("Byte ranges are not supported, download the file with a single connection", e);
+            if (!tempFile.delete()) {
+                logger.warn("Can't delete partially downloaded file [{}]", tempFile);
+            }
+            return downloadBulkExtract(getBulkExtractfunction, false);
+        }
+        return tempFile;
+    }
+
+    /**
+     * Download numberOfRanges byte ranges of the file concurrently, and check that they add up to the file size
+     * @param rangeDownload download of the bytes [rangeStart, rangeEnd] of the file, returning the bytes written
+     */
+    private void downloadRanges(long fileSize, int numberOfRanges, ToLongBiFunction<Long, Long> rangeDownload)
+    {
+        long rangeSize = (fileSize + numberOfRanges - 1) / numberOfRanges;
+        List<Future<Long>> futures = new ArrayList<>();
+        try {
+            for (long start = 0; start < fileSize; start += rangeSize) {
+                final long rangeStart = start;
+                final long rangeEnd = Math.min(start + rangeSize, fileSize) - 1;
+                futures.add(RANGE_DOWNLOAD_EXECUTOR.submit(() -> rangeDownload.applyAsLong(rangeStart, rangeEnd)));
+            }
+            long writtenBytes = 0;
+            for (Future<Long> future : futures) {
+                writtenBytes += future.get();
+            }
+            if (writtenBytes != fileSize) {
+                throw new DataException("Downloaded [" + writtenBytes + "] bytes of bulk extract file of [" + fileSize + "] bytes");
+            }
+        }
+        catch (InterruptedException e) {
+            logger.error("Interrupted when download bulk extract ranges", e);
+            throw new DataException("Can't down load bulk extract", e);
+        }
+        catch (ExecutionException e) {
+            if (e.getCause() instanceof DataException) {
+                throw (DataException) e.getCause();
+            }
+            throw new DataException("Can't down load bulk extract", e.getCause());
+        }
+        finally {
+            // ranges left are not needed anymore once one failed
+            for (Future<Long> future : futures) {
+                future.cancel(true);
+            }
+        }
+    }
+
+    /**
+     * Download the file of a completed export job by writing the response buffers straight into the file channel,
+     * by fetching numberOfConnections byte ranges of the file concurrently when it is large enough.
+     * Fall back to a single connection download when the server doesn't answer with the ranges requested.
+     */
+    private File downloadBulkExtractToChannel(final BulkExtractChannelWriter writer, long fileSize, int numberOfConnections)
+    {
+        int numberOfRanges = (int) Math.min(numberOfConnections, fileSize / MIN_DOWNLOAD_RANGE_SIZE);
+        final File tempFile = Exec.getTempFileSpace().createTempFile(DEFAULT_FILE_FORMAT);
+        try (FileChannel fileChannel = FileChannel.open(tempFile.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {
+            if (numberOfRanges <= 1) {
+                writeBulkExtractRange(writer, fileChannel, 0, -1);
+            }
+            else {
+                logger.info("Download [{}] bytes in [{}] ranges", fileSize, numberOfRanges);
+                downloadRanges(fileSize, numberOfRanges, (rangeStart, rangeEnd) -> writeBulkExtractRange(writer, fileChannel, rangeStart, rangeEnd));
+            }
+        }
+        catch (IOException e) {
+            logger.error("Encounter exception when write bulk extract file", e);
+            throw new DataException("Can't down load bulk extract", e);
+        }
+        catch (DataException e) {
+            if (numberOfRanges <= 1 || !BulkExtractRangeException.isCause(e)) {
+                throw e;
+            }
+            // responses of the other ranges may still be written to the closed channel, a new file is downloaded
+            logger.warn("Byte ranges are not supported, download the file with a single connection", e);
+            if (!tempFile.delete()) {
+                logger.warn("Can't delete partially downloaded file [{}]", tempFile);
+            }
+            return downloadBulkExtractToChannel(writer, fileSize, 1);
+        }
+        return tempFile;
+    }
+
+    /**
+     * Write bytes [rangeStart, rangeEnd] of the bulk extract file at the same position of the channel.
+     * A broken transfer is resumed from the last written byte.
+     * @param rangeEnd -1 for the end of the file
+     * @return bytes written
+     */
+    private long writeBulkExtractRange(BulkExtractChannelWriter writer, FileChannel fileChannel, long rangeStart, long rangeEnd)
+    {
+        long position = rangeStart;
+        int resumeTime = 0;
+        while (rangeEnd < 0 || position <= rangeEnd) {
+            if (resumeTime >= MAX_RESUME_TIME) {
+                //Too many resume we still can't get the range
+                throw new DataException("Can't down load bulk extract range [" + rangeStart + "-" + (rangeEnd < 0 ? "" : rangeEnd) + "]");
+            }
+            if (resumeTime > 0) {
+                logger.warn("will resume bulk extract at byte [{}]", position);
+            }
+            resumeTime = resumeTime + 1;
+            BulkExtractRangeHeader bulkExtractRangeHeader = rangeEnd < 0 ? new BulkExtractRangeHeader(position) : new BulkExtractRangeHeader(position, rangeEnd);
+            // the reader doesn't write past rangeEnd
+            MarketoFileChannelResponseEntityReader responseReader = marketoRestClient.newFileChannelResponseReader(fileChannel, bulkExtractRangeHeader);
+            position += writer.write(bulkExtractRangeHeader, responseReader);
+            if (rangeEnd < 0 && responseReader.isComplete()) {
+                return position - rangeStart;
+            }
+        }
+        return position - rangeStart;
+    }
+
+    /**
+     * Write bytes [rangeStart, rangeEnd] of the bulk extract file at the same position of the given file.
+     * Each range is resumed independently from its last written byte.
+     * @return bytes written
+     */
+    private long downloadBulkExtractRange(Function<BulkExtractRangeHeader, InputStream> getBulkExtractfunction, File file, long rangeStart, long rangeEnd)
+    {
+        long position = rangeStart;
+        int resumeTime = 0;
+        try (FileChannel fileChannel = FileChannel.open(file.toPath(), StandardOpenOption.WRITE)) {
+            while (position <= rangeEnd) {
+                if (resumeTime >= MAX_RESUME_TIME) {
+                    //Too many resume we still can't get the range
+                    throw new DataException("Can't down load bulk extract range [" + rangeStart + "-" + rangeEnd + "]");
+                }
+                if (resumeTime > 0) {
+                    logger.warn("will resume bulk extract range [{}-{}] at byte [{}]", rangeStart, rangeEnd, position);
+                }
+                resumeTime = resumeTime + 1;
+                try (InputStream rangeStream = getBulkExtractfunction.apply(new BulkExtractRangeHeader(position, rangeEnd))) {
+                    byte[] buf = new byte[BUF_SIZE];
+                    while (position <= rangeEnd) {
+                        int r = rangeStream.read(buf, 0, (int) Math.min(buf.length, rangeEnd - position + 1));
+                        if (r == -1) {
+                            break;
+                        }
+                        ByteBuffer byteBuffer = ByteBuffer.wrap(buf, 0, r);
+                        while (byteBuffer.hasRemaining()) {
+                            position += fileChannel.write(byteBuffer, position);
+                        }
+                    }
+                }
+                catch (IOException e) {
+                    logger.warn("Encounter exception when download bulk extract range [{}-{}]", rangeStart, rangeEnd, e);
+                }
+            }
+            return position - rangeStart;
+        }
+        catch (IOException e) {
+            logger.error("Encounter exception when write bulk extract file", e);
+            throw new DataException("Can't down load bulk extract", e);
+        }
+    }
+
+    /**
+     * Download the file of a completed export job with a single connection, resumed from the last byte received
+     * @param compress write the file gzip compressed
+     */
+    private File downloadBulkExtract(Function<BulkExtractRangeHeader, InputStream> getBulkExtractfunction, boolean compress)
+    {
+        final File tempFile = Exec.getTempFileSpace().createTempFile(compress ? COMPRESSED_FILE_FORMAT : DEFAULT_FILE_FORMAT);
         long startByte = 0;
         int resumeTime = 0;
         while (resumeTime < MAX_RESUME_TIME) {
             BulkExtractRangeHeader bulkExtractRangeHeader = new BulkExtractRangeHeader(startByte);
             InputStream bulkExtractResult = getBulkExtractfunction.apply(bulkExtractRangeHeader);
             try {
-                saveExtractedFile(bulkExtractResult, tempFile);
+                saveExtractedFile(bulkExtractResult, tempFile, compress);
                 return tempFile;
             }
             catch (DownloadBulkExtractException e) {
@@ -132,6 +509,17 @@ public class MarketoServiceImpl implements MarketoService
         throw new DataException("Can't down load bulk extract");
     }
 
+    /**
+     * Write a byte range of a bulk extract file with the given response reader
+     */
+    private interface BulkExtractChannelWriter
+    {
+        /**
+         * @return bytes written
+         */
+        long write(BulkExtractRangeHeader bulkExtractRangeHeader, MarketoFileChannelResponseEntityReader responseReader);
+    }
+
     @Override
     public Iterable<ObjectNode> getAllListLead(List<String> fieldNames, Iterable<ObjectNode> inputListIds)
     {
@@ -273,6 +661,6 @@ public class MarketoServiceImpl implements MarketoService
             {
                 return marketoRestClient.getProgramMemberBulkExtractResult(exportID, bulkExtractRangeHeader);
             }
-        });
+        }, false);
     }
 }
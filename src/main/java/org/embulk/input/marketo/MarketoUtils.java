@@ -112,6 +112,17 @@ public class MarketoUtils
         return ranges;
     }
 
+    /**
+     * @return fileSize of a completed export job status, -1 if unknown
+     */
+    public static long getFileSize(ObjectNode exportJobStatus)
+    {
+        if (exportJobStatus == null || !exportJobStatus.hasNonNull("fileSize")) {
+            return -1;
+        }
+        return exportJobStatus.get("fileSize").asLong(-1);
+    }
+
     public static String getIdentityEndPoint(String accountId)
     {
         return "https://" + accountId.trim() + ".mktorest.com/identity";
@@ -0,0 +1,350 @@
+package org.embulk.input.marketo.bulk_extract;
+
+import org.embulk.input.marketo.CsvRecordTokenizer;
+import org.embulk.input.marketo.CsvTokenizer;
+import org.embulk.spi.DataException;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Optional;
+
+/**
+ * Tokenizer of the CSV dialect of Marketo bulk extract files: comma delimiter, double quote, backslash escape.
+ * It scans the UTF-8 bytes of the file, all the syntax characters are ASCII so they can't be part of a multi-byte character,
+ * and only decodes the byte ranges of the columns that are read. Skipped columns and line breaks are never decoded.
+ * Values are the same as the ones {@link CsvTokenizer} returns with the default options.
+ */
+public class BulkExtractCsvTokenizer implements CsvRecordTokenizer
+{
+    private static final byte DELIMITER = ',';
+    private static final byte QUOTE = '"';
+    private static final byte ESCAPE = '\\';
+    private static final byte SPACE = ' ';
+    private static final byte CR = '\r';
+    private static final byte LF = '\n';
+    private static final byte[] BOM = {(byte) 0xEF, (byte) 0xBB, (byte) 0xBF};
+
+    private static final int INITIAL_BUFFER_SIZE = 0x10000;
+
+    private static final int NO_MARK = -1;
+
+    private final InputStream input;
+    private final byte[] newline;
+    private final long maxQuotedSizeLimit;
+    private final String nullStringOrNull;
+
+    private byte[] buf = new byte[INITIAL_BUFFER_SIZE];
+    private int pos;
+    private int limit;
+    private boolean endOfFile;
+    private boolean startOfFile = true;
+
+    // start of the value being read, bytes from it are kept in the buffer when more bytes are read
+    private int mark = NO_MARK;
+
+    private boolean endOfRecord = true;
+
+    private boolean wasQuotedColumn;
+
+    // bytes of the current quoted column, only built when the column is materialized
+    private byte[] quotedValue = new byte[INITIAL_BUFFER_SIZE];
+    private int quotedValueSize;
+    // number of chars of the current quoted column
+    private long quotedValueLength;
+
+    public BulkExtractCsvTokenizer(InputStream input, String newline, long maxQuotedSizeLimit, String nullStringOrNull)
+    {
+        this.input = input;
+        this.newline = newline.getBytes(StandardCharsets.UTF_8);
+        this.maxQuotedSizeLimit = maxQuotedSizeLimit;
+        this.nullStringOrNull = nullStringOrNull;
+    }
+
+    /**
+     * @return true when the task options are the ones of the dialect handled by this tokenizer
+     */
+    public static boolean isSupported(CsvTokenizer.PluginTask task)
+    {
+        Optional<CsvTokenizer.QuoteCharacter> quote = task.getQuoteChar();
+        Optional<CsvTokenizer.EscapeCharacter> escape = task.getEscapeChar();
+        return task.getDelimiter().equals(",")
+                && quote.isPresent() && quote.get().getCharacter() == QUOTE
+                && escape.isPresent() && escape.get().getCharacter() == ESCAPE
+                && task.getQuotesInQuotedFields() == CsvTokenizer.QuotesInQuotedFields.NONE
+                && !task.getTrimIfNotQuoted()
+                && !task.getCommentLineMarker().isPresent();
+    }
+
+    @Override
+    public boolean nextRecord()
+    {
+        if (!endOfRecord) {
+            throw new CsvTokenizer.InvalidFormatException("Too many columns");
+        }
+        mark = NO_MARK;
+        if (startOfFile) {
+            startOfFile = false;
+            if (ensure(BOM.length) && buf[pos] == BOM[0] && buf[pos + 1] == BOM[1] && buf[pos + 2] == BOM[2]) {
+                pos += BOM.length;
+            }
+        }
+        // skip empty lines
+        while (ensure(1)) {
+            byte c = buf[pos];
+            if (c != CR && c != LF) {
+                endOfRecord = false;
+                return true;
+            }
+            skipEndOfLine();
+        }
+        return false;
+    }
+
+    @Override
+    public boolean hasNextColumn()
+    {
+        return !endOfRecord;
+    }
+
+    @Override
+    public String nextColumn()
+    {
+        return readColumn(true);
+    }
+
+    @Override
+    public String nextColumnOrNull()
+    {
+        String v = nextColumn();
+        if (nullStringOrNull == null) {
+            return v.isEmpty() && !wasQuotedColumn ? null : v;
+        }
+        return v.equals(nullStringOrNull) ? null : v;
+    }
+
+    @Override
+    public void skipColumn()
+    {
+        readColumn(false);
+    }
+
+    private String readColumn(boolean materialize)
+    {
+        if (endOfRecord) {
+            throw new CsvTokenizer.InvalidFormatException("Too few columns");
+        }
+        wasQuotedColumn = ensure(1) && buf[pos] == QUOTE;
+        if (wasQuotedColumn) {
+            pos++;
+            return readQuotedValue(materialize);
+        }
+        return readValue(materialize);
+    }
+
+    private String readValue(boolean materialize)
+    {
+        mark = pos;
+        while (pos < limit || fill()) {
+            byte c = buf[pos];
+            if (c == DELIMITER) {
+                String value = markedValue(materialize);
+                pos++;
+                return value;
+            }
+            if (c == CR || c == LF) {
+                String value = markedValue(materialize);
+                skipEndOfLine();
+                endOfRecord = true;
+                return value;
+            }
+            pos++;
+        }
+        endOfRecord = true;
+        return markedValue(materialize);
+    }
+
+    private String markedValue(boolean materialize)
+    {
+        String value = materialize ? new String(buf, mark, pos - mark, StandardCharsets.UTF_8) : null;
+        mark = NO_MARK;
+        return value;
+    }
+
+    private String readQuotedValue(boolean materialize)
+    {
+        quotedValueSize = 0;
+        quotedValueLength = 0;
+        // mark is the start of the quoted value segment that is not appended yet
+        mark = pos;
+        while (true) {
+            if (pos == limit && !fill()) {
+                throw new CsvTokenizer.InvalidValueException("Unexpected end of line during parsing a quoted value");
+            }
+            byte c = buf[pos];
+            if (c == QUOTE) {
+                if (peek(1) == QUOTE) {
+                    // escaped by preceding it with another quote, keep one of them
+                    appendQuotedValue(materialize, mark, pos + 1);
+                    quotedValueLength++;
+                    pos += 2;
+                    mark = pos;
+                }
+                else {
+                    appendQuotedValue(materialize, mark, pos);
+                    pos++;
+                    mark = NO_MARK;
+                    return afterQuotedValue(materialize);
+                }
+            }
+            else if (c == ESCAPE) {
+                byte next = peek(1);
+                if (next == QUOTE || next == ESCAPE) {
+                    appendQuotedValue(materialize, mark, pos);
+                    appendQuotedValue(materialize, pos + 1, pos + 2);
+                    quotedValueLength++;
+                    pos += 2;
+                    mark = pos;
+                }
+                else {
+                    pos++;
+                    quotedValueLength++;
+                }
+            }
+            else if (c == CR || c == LF) {
+                // multi-line quoted value, line breaks are joined with the configured newline
+                appendQuotedValue(materialize, mark, pos);
+                appendNewline(materialize);
+                skipEndOfLine();
+                mark = pos;
+            }
+            else {
+                pos++;
+                // count chars by their first byte
+                if ((c & 0xC0) != 0x80 && ++quotedValueLength > maxQuotedSizeLimit) {
+                    throw new CsvTokenizer.QuotedSizeLimitExceededException("The size of the quoted value exceeds the limit size (" + maxQuotedSizeLimit + ")");
+                }
+            }
+        }
+    }
+
+    private String afterQuotedValue(boolean materialize)
+    {
+        while (ensure(1)) {
+            byte c = buf[pos];
+            if (c == DELIMITER) {
+                pos++;
+                return quotedValue(materialize);
+            }
+            if (c == CR || c == LF) {
+                skipEndOfLine();
+                endOfRecord = true;
+                return quotedValue(materialize);
+            }
+            if (c != SPACE) {
+                throw new CsvTokenizer.InvalidValueException(String.format("Unexpected extra character '%c' after a value quoted by '%c'", (char) (c & 0xFF), (char) QUOTE));
+            }
+            pos++;
+        }
+        endOfRecord = true;
+        return quotedValue(materialize);
+    }
+
+    private String quotedValue(boolean materialize)
+    {
+        return materialize ? new String(quotedValue, 0, quotedValueSize, StandardCharsets.UTF_8) : null;
+    }
+
+    private void appendQuotedValue(boolean materialize, int start, int end)
+    {
+        if (materialize) {
+            appendQuotedValue(buf, start, end - start);
+        }
+    }
+
+    private void appendNewline(boolean materialize)
+    {
+        if (materialize) {
+            appendQuotedValue(newline, 0, newline.length);
+        }
+        quotedValueLength += newline.length;
+    }
+
+    private void appendQuotedValue(byte[] bytes, int offset, int length)
+    {
+        if (quotedValueSize + length > quotedValue.length) {
+            quotedValue = Arrays.copyOf(quotedValue, Math.max(quotedValue.length * 2, quotedValueSize + length));
+        }
+        System.arraycopy(bytes, offset, quotedValue, quotedValueSize, length);
+        quotedValueSize += length;
+    }
+
+    /**
+     * Consume CRLF, CR or LF at the current position
+     */
+    private void skipEndOfLine()
+    {
+        if (buf[pos++] == CR && ensure(1) && buf[pos] == LF) {
+            pos++;
+        }
+    }
+
+    /**
+     * @return the byte at offset from the current position, 0 after the end of file
+     */
+    private byte peek(int offset)
+    {
+        return ensure(offset + 1) ? buf[pos + offset] : 0;
+    }
+
+    /**
+     * Make sure count bytes are available from the current position
+     * @return false when the end of file is reached before
+     */
+    private boolean ensure(int count)
+    {
+        while (limit - pos < count) {
+            if (!fill()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Read more bytes into the buffer. Bytes before the mark, or before the current position when there is no mark,
+     * are dropped to make room, the buffer is grown when nothing can be dropped.
+     * @return false at the end of file
+     */
+    private boolean fill()
+    {
+        if (endOfFile) {
+            return false;
+        }
+        int keepFrom = mark == NO_MARK ? pos : mark;
+        if (keepFrom > 0) {
+            System.arraycopy(buf, keepFrom, buf, 0, limit - keepFrom);
+            limit -= keepFrom;
+            pos -= keepFrom;
+            if (mark != NO_MARK) {
+                mark -= keepFrom;
+            }
+        }
+        if (limit == buf.length) {
+            buf = Arrays.copyOf(buf, buf.length * 2);
+        }
+        try {
+            int r = input.read(buf, limit, buf.length - limit);
+            if (r == -1) {
+                endOfFile = true;
+                return false;
+            }
+            limit += r;
+            return true;
+        }
+        catch (IOException e) {
+            throw new DataException("Can't read bulk extract file", e);
+        }
+    }
+}
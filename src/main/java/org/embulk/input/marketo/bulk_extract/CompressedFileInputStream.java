@@ -0,0 +1,27 @@
+package org.embulk.input.marketo.bulk_extract;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Read a bulk extract file staged gzip compressed, made of one or more gzip members.
+ */
+public class CompressedFileInputStream extends GZIPInputStream
+{
+    private static final int BUF_SIZE = 0x10000;
+
+    private final File file;
+
+    public CompressedFileInputStream(File file) throws IOException
+    {
+        super(new FileInputStream(file), BUF_SIZE);
+        this.file = file;
+    }
+
+    public File getFile()
+    {
+        return file;
+    }
+}
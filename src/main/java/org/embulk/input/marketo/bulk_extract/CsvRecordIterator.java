@@ -1,54 +1,80 @@
 package org.embulk.input.marketo.bulk_extract;
 
+import org.embulk.base.restclient.record.ServiceRecord;
+import org.embulk.input.marketo.CsvRecordTokenizer;
 import org.embulk.input.marketo.CsvTokenizer;
 import org.embulk.spi.DataException;
+import org.embulk.spi.Exec;
+import org.embulk.util.file.InputStreamFileInput;
 import org.embulk.util.text.LineDecoder;
 
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.Arrays;
 import java.util.Iterator;
 import java.util.List;
-import java.util.Map;
 import java.util.NoSuchElementException;
 
-public class CsvRecordIterator<T extends CsvTokenizer.PluginTask> implements Iterator<Map<String, String>>
+/**
+ * Iterate the rows of a bulk extract CSV file.
+ * The same {@link CsvServiceRecord} is returned for every row, it must be consumed before the next call.
+ * Once the first row was imported, only the columns it was read for are tokenized into values,
+ * other columns are skipped.
+ * Files in Marketo's CSV dialect are read by {@link BulkExtractCsvTokenizer}, other options fall back to {@link CsvTokenizer}.
+ */
+public class CsvRecordIterator<T extends CsvTokenizer.PluginTask> implements Iterator<ServiceRecord>
 {
-    private final CsvTokenizer tokenizer;
+    private final CsvRecordTokenizer tokenizer;
     private final List<String> headers;
-    private Map<String, String> currentCsvRecord;
+    private final CsvServiceRecord csvServiceRecord;
+    private final String[] row;
+    private boolean hasCurrentRow;
+    private boolean firstRowRead;
+    // columns to materialize, null until the first row was consumed
+    private boolean[] projection;
 
-    public CsvRecordIterator(LineDecoder lineDecoder, T task)
+    public CsvRecordIterator(InputStream extractedStream, T task)
     {
-        tokenizer = new CsvTokenizer(lineDecoder, task);
-        if (!tokenizer.nextFile()) {
-            throw new DataException("Can't read extract input stream");
-        }
+        tokenizer = createTokenizer(extractedStream, task);
         headers = new ArrayList<>();
         tokenizer.nextRecord();
         while (tokenizer.hasNextColumn()) {
             headers.add(tokenizer.nextColumn());
         }
+        row = new String[headers.size()];
+        csvServiceRecord = new CsvServiceRecord(headers);
+        csvServiceRecord.setRow(row);
+    }
+
+    private static CsvRecordTokenizer createTokenizer(InputStream extractedStream, CsvTokenizer.PluginTask task)
+    {
+        if (BulkExtractCsvTokenizer.isSupported(task)) {
+            return new BulkExtractCsvTokenizer(extractedStream, task.getNewline().getString(), task.getMaxQuotedSizeLimit(), task.getNullString().orElse(null));
+        }
+        LineDecoder lineDecoder = LineDecoder.of(new InputStreamFileInput(Exec.getBufferAllocator(), extractedStream), StandardCharsets.UTF_8, null);
+        CsvTokenizer csvTokenizer = new CsvTokenizer(lineDecoder, task);
+        if (!csvTokenizer.nextFile()) {
+            throw new DataException("Can't read extract input stream");
+        }
+        return csvTokenizer;
     }
 
     @Override
     public boolean hasNext()
     {
-        if (currentCsvRecord == null) {
-            currentCsvRecord = getNextCSVRecord();
+        if (!hasCurrentRow) {
+            hasCurrentRow = readNextCSVRecord();
         }
-        return currentCsvRecord != null;
+        return hasCurrentRow;
     }
 
     @Override
-    public Map<String, String> next()
+    public ServiceRecord next()
     {
-        try {
-            if (hasNext()) {
-                return currentCsvRecord;
-            }
-        }
-        finally {
-            currentCsvRecord = null;
+        if (hasNext()) {
+            hasCurrentRow = false;
+            return csvServiceRecord;
         }
         throw new NoSuchElementException();
     }
@@ -58,16 +84,50 @@ public class CsvRecordIterator<T extends CsvTokenizer.PluginTask> implements Ite
     {
         throw new UnsupportedOperationException();
     }
-    private Map<String, String> getNextCSVRecord()
+
+    public List<String> getHeaders()
+    {
+        return headers;
+    }
+
+    /**
+     * @return columns to materialize, null until the first row was consumed
+     */
+    public boolean[] getProjection()
     {
+        return projection;
+    }
+
+    private boolean readNextCSVRecord()
+    {
+        if (firstRowRead && projection == null) {
+            projection = csvServiceRecord.getReadColumns();
+        }
         if (!tokenizer.nextRecord()) {
-            return null;
+            return false;
         }
-        Map<String, String> kvMap = new HashMap<>();
+        firstRowRead = true;
+        readRow(tokenizer, row, projection);
+        return true;
+    }
+
+    /**
+     * Read the columns of the current record of the tokenizer into row, skipping the columns not in projection
+     */
+    static void readRow(CsvRecordTokenizer tokenizer, String[] row, boolean[] projection)
+    {
+        int i = 0;
         try {
-            int i = 0;
             while (tokenizer.hasNextColumn()) {
-                kvMap.put(headers.get(i), tokenizer.nextColumnOrNull());
+                if (i >= row.length) {
+                    throw new DataException("Row has more columns than the [" + row.length + "] columns of the header");
+                }
+                if (projection == null || projection[i]) {
+                    row[i] = tokenizer.nextColumnOrNull();
+                }
+                else {
+                    tokenizer.skipColumn();
+                }
                 i++;
             }
         }
@@ -75,6 +135,6 @@ public class CsvRecordIterator<T extends CsvTokenizer.PluginTask> implements Ite
             throw new DataException("Encounter exception when parse csv file. Please check to see if you are using the correct" +
                     "quote or escape character.", ex);
         }
-        return kvMap;
+        Arrays.fill(row, i, row.length, null);
     }
 }
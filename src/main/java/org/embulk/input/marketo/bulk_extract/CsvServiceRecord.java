@@ -0,0 +1,146 @@
+package org.embulk.input.marketo.bulk_extract;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.JsonNodeFactory;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import org.embulk.base.restclient.jackson.JacksonServiceRecord;
+import org.embulk.base.restclient.jackson.JacksonServiceValue;
+import org.embulk.base.restclient.jackson.JacksonValueLocator;
+import org.embulk.base.restclient.record.ValueLocator;
+import org.embulk.util.json.JsonParser;
+import org.embulk.util.timestamp.TimestampFormatter;
+import org.msgpack.value.Value;
+
+import java.time.Instant;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A CSV row of a bulk extract file, read by header index.
+ * Each schema column is resolved to its CSV column index on its first lookup, rows are then plain String arrays,
+ * so no per row Map or Jackson tree is built.
+ * The record and the values it returns are reused for every row of the file.
+ */
+public class CsvServiceRecord extends JacksonServiceRecord
+{
+    private static final int NOT_FOUND = -1;
+
+    // header -> column index, used to let the Jackson value locators resolve the index of their column
+    private final ObjectNode headerIndexes;
+
+    private final int numberOfColumns;
+
+    private final Map<ValueLocator, Integer> columnIndexes = new IdentityHashMap<>();
+
+    private final StringServiceValue value = new StringServiceValue();
+
+    private String[] row;
+
+    public CsvServiceRecord(List<String> headers)
+    {
+        super(null);
+        numberOfColumns = headers.size();
+        headerIndexes = JsonNodeFactory.instance.objectNode();
+        for (int i = 0; i < headers.size(); i++) {
+            headerIndexes.put(headers.get(i), i);
+        }
+    }
+
+    public void setRow(String[] row)
+    {
+        this.row = row;
+    }
+
+    @Override
+    public JacksonServiceValue getValue(ValueLocator locator)
+    {
+        int index = getColumnIndex(locator);
+        value.textValue = index == NOT_FOUND || index >= row.length ? null : row[index];
+        return value;
+    }
+
+    private int getColumnIndex(ValueLocator locator)
+    {
+        Integer index = columnIndexes.get(locator);
+        if (index == null) {
+            JsonNode indexNode = ((JacksonValueLocator) locator).seekValue(headerIndexes);
+            index = indexNode != null && indexNode.isInt() ? indexNode.intValue() : NOT_FOUND;
+            columnIndexes.put(locator, index);
+        }
+        return index;
+    }
+
+    /**
+     * @return for each CSV column, whether it was looked up by a value locator so far
+     */
+    public boolean[] getReadColumns()
+    {
+        boolean[] readColumns = new boolean[numberOfColumns];
+        for (int index : columnIndexes.values()) {
+            if (index != NOT_FOUND) {
+                readColumns[index] = true;
+            }
+        }
+        return readColumns;
+    }
+
+    @Override
+    public String toString()
+    {
+        return Arrays.toString(row);
+    }
+
+    private static class StringServiceValue extends JacksonServiceValue
+    {
+        private String textValue;
+
+        public StringServiceValue()
+        {
+            super(null);
+        }
+
+        @Override
+        public boolean isNull()
+        {
+            return textValue == null || textValue.equals("null");
+        }
+
+        @Override
+        public boolean booleanValue()
+        {
+            return Boolean.parseBoolean(textValue);
+        }
+
+        @Override
+        public double doubleValue()
+        {
+            return Double.parseDouble(textValue);
+        }
+
+        @Override
+        public Value jsonValue(JsonParser jsonParser)
+        {
+            return jsonParser.parse(textValue);
+        }
+
+        @Override
+        public long longValue()
+        {
+            return Long.parseLong(textValue);
+        }
+
+        @Override
+        public String stringValue()
+        {
+            return textValue;
+        }
+
+        @Override
+        public Instant timestampValue(TimestampFormatter timestampFormatter)
+        {
+            return timestampFormatter.parse(textValue);
+        }
+    }
+}
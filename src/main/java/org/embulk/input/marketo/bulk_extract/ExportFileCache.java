@@ -0,0 +1,196 @@
+package org.embulk.input.marketo.bulk_extract;
+
+import com.google.common.hash.Hashing;
+import org.embulk.spi.DataException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributeView;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Directory keeping the files of completed export jobs, so an export of the same data is not created and downloaded again.
+ * A file is named after the hash of its key and the size reported by Marketo, it is only used while its size still matches.
+ * Files are evicted once older than the maximum age, like Marketo removes the files of export jobs after some days,
+ * and the least recently used ones once the files take more than the byte budget. The last modified time of a file
+ * is the time it was cached, its last access time the time it was last used.
+ */
+public class ExportFileCache
+{
+    private static final Logger LOGGER = LoggerFactory.getLogger(ExportFileCache.class);
+
+    private static final String FILE_EXTENSION = ".csv";
+
+    private final Path directory;
+
+    private final long maxBytes;
+
+    private final Duration maxAge;
+
+    private final Object lock;
+
+    public ExportFileCache(Path directory, long maxBytes, Duration maxAge)
+    {
+        this.directory = directory.toAbsolutePath().normalize();
+        this.maxBytes = maxBytes;
+        this.maxAge = maxAge;
+        this.lock = LocalJsonFile.getLock(this.directory);
+    }
+
+    /**
+     * @return cached file of the key, null when there is none
+     */
+    public File get(String key)
+    {
+        String prefix = getFilePrefix(key);
+        synchronized (lock) {
+            for (Path cachedFile : listCachedFiles()) {
+                String fileName = cachedFile.getFileName().toString();
+                if (!fileName.startsWith(prefix)) {
+                    continue;
+                }
+                try {
+                    if (isExpired(cachedFile)) {
+                        LOGGER.info("Cached export file [{}] is older than [{}], it is removed", cachedFile, maxAge);
+                        Files.deleteIfExists(cachedFile);
+                        continue;
+                    }
+                    long fileSize = Long.parseLong(fileName.substring(prefix.length(), fileName.length() - FILE_EXTENSION.length()));
+                    if (Files.size(cachedFile) == fileSize) {
+                        setTimes(cachedFile, null, FileTime.fromMillis(System.currentTimeMillis()));
+                        return cachedFile.toFile();
+                    }
+                    LOGGER.warn("Cached export file [{}] doesn't have the expected size [{}], it is removed", cachedFile, fileSize);
+                    Files.deleteIfExists(cachedFile);
+                }
+                catch (NumberFormatException | IOException e) {
+                    LOGGER.warn("Can't use cached export file [{}]", cachedFile, e);
+                }
+            }
+            return null;
+        }
+    }
+
+    /**
+     * @return true when the file belongs to the cache
+     */
+    public boolean contains(File file)
+    {
+        return directory.equals(file.toPath().toAbsolutePath().normalize().getParent());
+    }
+
+    /**
+     * Move the downloaded file of a completed export job into the cache
+     * @param fileSize size of the file reported by Marketo, the file is not cached when it is unknown or doesn't match
+     * @return the cached file, or the given file when it was not cached
+     */
+    public File put(String key, File file, long fileSize)
+    {
+        if (fileSize <= 0 || fileSize > maxBytes) {
+            return file;
+        }
+        if (file.length() != fileSize) {
+            LOGGER.warn("Downloaded export file has [{}] bytes instead of [{}], it is not cached", file.length(), fileSize);
+            return file;
+        }
+        Path cachedFile = directory.resolve(getFilePrefix(key) + fileSize + FILE_EXTENSION);
+        synchronized (lock) {
+            try {
+                Files.createDirectories(directory);
+                // the file is complete once renamed, also when it is copied from another file system
+                Path tempFile = directory.resolve(cachedFile.getFileName() + ".tmp");
+                Files.move(file.toPath(), tempFile, StandardCopyOption.REPLACE_EXISTING);
+                Files.move(tempFile, cachedFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                FileTime now = FileTime.fromMillis(System.currentTimeMillis());
+                setTimes(cachedFile, now, now);
+            }
+            catch (IOException e) {
+                throw new DataException("Can't cache export file into " + directory, e);
+            }
+            evict(cachedFile);
+        }
+        return cachedFile.toFile();
+    }
+
+    // guarded by lock
+    private void evict(Path keptFile)
+    {
+        List<Path> cachedFiles = listCachedFiles();
+        cachedFiles.sort(Comparator.comparingLong(ExportFileCache::getLastAccessMillis));
+        long totalBytes = 0;
+        for (Path cachedFile : cachedFiles) {
+            totalBytes += cachedFile.toFile().length();
+        }
+        for (Path cachedFile : cachedFiles) {
+            if (cachedFile.equals(keptFile) || (totalBytes <= maxBytes && !isExpired(cachedFile))) {
+                continue;
+            }
+            long fileSize = cachedFile.toFile().length();
+            try {
+                Files.deleteIfExists(cachedFile);
+                totalBytes -= fileSize;
+                LOGGER.info("Evicted cached export file [{}] of [{}] bytes", cachedFile, fileSize);
+            }
+            catch (IOException e) {
+                LOGGER.warn("Can't evict cached export file [{}]", cachedFile, e);
+            }
+        }
+    }
+
+    private boolean isExpired(Path cachedFile)
+    {
+        return cachedFile.toFile().lastModified() < System.currentTimeMillis() - maxAge.toMillis();
+    }
+
+    private List<Path> listCachedFiles()
+    {
+        List<Path> cachedFiles = new ArrayList<>();
+        if (!Files.isDirectory(directory)) {
+            return cachedFiles;
+        }
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, "*" + FILE_EXTENSION)) {
+            for (Path cachedFile : stream) {
+                cachedFiles.add(cachedFile);
+            }
+        }
+        catch (IOException e) {
+            throw new DataException("Can't list export file cache " + directory, e);
+        }
+        return cachedFiles;
+    }
+
+    private static long getLastAccessMillis(Path file)
+    {
+        try {
+            return Files.readAttributes(file, BasicFileAttributes.class).lastAccessTime().toMillis();
+        }
+        catch (IOException e) {
+            return file.toFile().lastModified();
+        }
+    }
+
+    /**
+     * @param lastModifiedTime unchanged when null
+     */
+    private static void setTimes(Path file, FileTime lastModifiedTime, FileTime lastAccessTime) throws IOException
+    {
+        Files.getFileAttributeView(file, BasicFileAttributeView.class).setTimes(lastModifiedTime, lastAccessTime, null);
+    }
+
+    private static String getFilePrefix(String key)
+    {
+        return Hashing.sha256().hashString(key, StandardCharsets.UTF_8) + "-";
+    }
+}
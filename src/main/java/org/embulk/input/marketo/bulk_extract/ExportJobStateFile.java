@@ -0,0 +1,61 @@
+package org.embulk.input.marketo.bulk_extract;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+import java.nio.file.Path;
+import java.util.Collection;
+
+/**
+ * Local file keeping the export jobs created for the ranges of a bulk extract, so a run that failed after Marketo
+ * completed an export can reuse it instead of creating it again. Entries are keyed by range and hold the export id,
+ * the filter of the job and its last known status.
+ */
+public class ExportJobStateFile
+{
+    private static final String EXPORT_ID = "exportId";
+
+    private static final String FILTER = "filter";
+
+    private static final String STATUS = "status";
+
+    private final LocalJsonFile file;
+
+    public ExportJobStateFile(Path path)
+    {
+        this.file = new LocalJsonFile(path, "export job state file");
+    }
+
+    /**
+     * @return export id recorded for the range, null when there is none or it was created with another filter
+     */
+    public String getExportId(String rangeKey, String filter)
+    {
+        return file.read(state -> {
+            JsonNode entry = state.get(rangeKey);
+            if (entry == null || !entry.hasNonNull(EXPORT_ID) || !filter.equals(entry.path(FILTER).asText())) {
+                return null;
+            }
+            return entry.get(EXPORT_ID).asText();
+        });
+    }
+
+    public void record(String rangeKey, String filter, String exportId, String status)
+    {
+        file.update(state -> {
+            ObjectNode entry = state.putObject(rangeKey);
+            entry.put(EXPORT_ID, exportId);
+            entry.put(FILTER, filter);
+            entry.put(STATUS, status);
+            return null;
+        });
+    }
+
+    public void remove(Collection<String> rangeKeys)
+    {
+        if (rangeKeys.isEmpty()) {
+            return;
+        }
+        file.update(state -> state.remove(rangeKeys));
+    }
+}
@@ -0,0 +1,204 @@
+package org.embulk.input.marketo.bulk_extract;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import org.embulk.input.marketo.MarketoUtils;
+
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.OffsetDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Local file keeping the size of the files exported for past ranges of a bulk extract, by target (plugin, account and
+ * filter of the export jobs). It is used to slice the next ranges so each export job has about the same number of bytes.
+ */
+public class ExportStatsFile
+{
+    private static final ObjectMapper OBJECT_MAPPER = new ObjectMapper();
+
+    private static final String FROM = "from";
+
+    private static final String TO = "to";
+
+    private static final String FILE_SIZE = "fileSize";
+
+    // ranges kept by target, the most recent ones
+    private static final int MAX_ENTRIES = 1000;
+
+    // ranges are cut on steps of this duration from their start
+    private static final Duration SLICE_STEP = Duration.ofHours(1);
+
+    private final LocalJsonFile file;
+
+    public ExportStatsFile(Path path)
+    {
+        this.file = new LocalJsonFile(path, "export stats file");
+    }
+
+    /**
+     * @return entry of an exported range, to be recorded
+     */
+    public static ObjectNode newEntry(MarketoUtils.DateRange range, long fileSize)
+    {
+        return OBJECT_MAPPER.createObjectNode()
+                .put(FROM, range.fromDate.format(DateTimeFormatter.ISO_OFFSET_DATE_TIME))
+                .put(TO, range.toDate.format(DateTimeFormatter.ISO_OFFSET_DATE_TIME))
+                .put(FILE_SIZE, fileSize);
+    }
+
+    /**
+     * Record exported ranges of the target, replacing the recorded ranges they overlap
+     */
+    public void record(String target, List<ObjectNode> entries)
+    {
+        if (entries.isEmpty()) {
+            return;
+        }
+        List<Entry> added = new ArrayList<>();
+        for (ObjectNode node : entries) {
+            Entry entry = Entry.parse(node);
+            if (entry != null) {
+                added.add(entry);
+            }
+        }
+        file.update(stats -> {
+            List<Entry> recorded = getEntries(stats, target);
+            recorded.removeIf(entry -> added.stream().anyMatch(entry::overlaps));
+            recorded.addAll(added);
+            recorded.sort(Comparator.comparing(entry -> entry.fromDate));
+            ArrayNode targetStats = stats.putArray(target);
+            for (Entry entry : recorded.subList(Math.max(0, recorded.size() - MAX_ENTRIES), recorded.size())) {
+                targetStats.add(newEntry(new MarketoUtils.DateRange(entry.fromDate, entry.toDate), entry.fileSize));
+            }
+            return null;
+        });
+    }
+
+    /**
+     * Slice fromDate..toDate into ranges expected to export about targetBytes each, of maximum maxRangeDays.
+     * The bytes of a period are estimated from the recorded range covering it, or the closest one. Ranges are cut
+     * every maxRangeDays when nothing is recorded for the target, like {@link MarketoUtils#sliceRange}.
+     * A range returned sliced again gives back the same range, so tasks hinted with a range can slice it themselves.
+     */
+    public List<MarketoUtils.DateRange> sliceRange(String target, OffsetDateTime fromDate, OffsetDateTime toDate, long targetBytes, int maxRangeDays)
+    {
+        List<Entry> entries = file.read(stats -> getEntries(stats, target));
+        if (entries.isEmpty()) {
+            return MarketoUtils.sliceRange(fromDate, toDate, maxRangeDays);
+        }
+        List<MarketoUtils.DateRange> ranges = new ArrayList<>();
+        while (fromDate.isBefore(toDate)) {
+            OffsetDateTime maxToDate = fromDate.plusDays(maxRangeDays);
+            OffsetDateTime nextToDate = fromDate;
+            double bytes = 0;
+            // estimates are summed as doubles, rounding errors under half a byte don't extend the range by a step
+            while (nextToDate.isBefore(maxToDate) && nextToDate.isBefore(toDate) && bytes + 0.5 < targetBytes) {
+                OffsetDateTime stepToDate = min(min(nextToDate.plus(SLICE_STEP), maxToDate), toDate);
+                bytes += getBytesPerSecond(entries, nextToDate) * Duration.between(nextToDate, stepToDate).getSeconds();
+                nextToDate = stepToDate;
+            }
+            if (!nextToDate.isBefore(toDate)) {
+                ranges.add(new MarketoUtils.DateRange(fromDate, toDate));
+                break;
+            }
+            ranges.add(new MarketoUtils.DateRange(fromDate, nextToDate));
+            fromDate = nextToDate.plusSeconds(1);
+        }
+        return ranges;
+    }
+
+    private static double getBytesPerSecond(List<Entry> entries, OffsetDateTime dateTime)
+    {
+        Entry closest = null;
+        long closestDistance = Long.MAX_VALUE;
+        for (Entry entry : entries) {
+            long distance = entry.getDistanceSeconds(dateTime);
+            // the last recorded range wins among the ones covering the time
+            if (distance <= closestDistance) {
+                closest = entry;
+                closestDistance = distance;
+            }
+        }
+        return closest.getBytesPerSecond();
+    }
+
+    private static OffsetDateTime min(OffsetDateTime dateTime1, OffsetDateTime dateTime2)
+    {
+        return dateTime1.isBefore(dateTime2) ? dateTime1 : dateTime2;
+    }
+
+    private static List<Entry> getEntries(ObjectNode stats, String target)
+    {
+        List<Entry> entries = new ArrayList<>();
+        for (JsonNode node : stats.path(target)) {
+            Entry entry = Entry.parse(node);
+            if (entry != null) {
+                entries.add(entry);
+            }
+        }
+        return entries;
+    }
+
+    private static final class Entry
+    {
+        private final OffsetDateTime fromDate;
+        private final OffsetDateTime toDate;
+        private final long fileSize;
+
+        private Entry(OffsetDateTime fromDate, OffsetDateTime toDate, long fileSize)
+        {
+            this.fromDate = fromDate;
+            this.toDate = toDate;
+            this.fileSize = fileSize;
+        }
+
+        /**
+         * @return null when the node is not a valid entry
+         */
+        private static Entry parse(JsonNode node)
+        {
+            if (!node.hasNonNull(FROM) || !node.hasNonNull(TO) || !node.hasNonNull(FILE_SIZE) || node.get(FILE_SIZE).asLong(-1) < 0) {
+                return null;
+            }
+            try {
+                OffsetDateTime fromDate = OffsetDateTime.parse(node.get(FROM).asText(), DateTimeFormatter.ISO_OFFSET_DATE_TIME);
+                OffsetDateTime toDate = OffsetDateTime.parse(node.get(TO).asText(), DateTimeFormatter.ISO_OFFSET_DATE_TIME);
+                if (!fromDate.isBefore(toDate)) {
+                    return null;
+                }
+                return new Entry(fromDate, toDate, node.get(FILE_SIZE).asLong());
+            }
+            catch (DateTimeParseException e) {
+                return null;
+            }
+        }
+
+        private double getBytesPerSecond()
+        {
+            return (double) fileSize / Math.max(1, Duration.between(fromDate, toDate).getSeconds());
+        }
+
+        private long getDistanceSeconds(OffsetDateTime dateTime)
+        {
+            if (dateTime.isBefore(fromDate)) {
+                return Duration.between(dateTime, fromDate).getSeconds();
+            }
+            if (dateTime.isAfter(toDate)) {
+                return Duration.between(toDate, dateTime).getSeconds();
+            }
+            return 0;
+        }
+
+        private boolean overlaps(Entry other)
+        {
+            return fromDate.isBefore(other.toDate) && other.fromDate.isBefore(toDate);
+        }
+    }
+}
@@ -0,0 +1,107 @@
+package org.embulk.input.marketo.bulk_extract;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import org.embulk.spi.DataException;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.function.Function;
+
+/**
+ * JSON object kept in a local file, read and rewritten on each change. Users of the same file in the JVM are
+ * serialized on its lock, and the file is replaced at once so a run dying while writing doesn't leave a truncated file.
+ */
+public class LocalJsonFile
+{
+    private static final ObjectMapper OBJECT_MAPPER = new ObjectMapper();
+
+    private static final ConcurrentMap<Path, Object> LOCKS = new ConcurrentHashMap<>();
+
+    private final Path path;
+
+    private final String description;
+
+    private final Object lock;
+
+    /**
+     * @param description what the file is, for error messages
+     */
+    public LocalJsonFile(Path path, String description)
+    {
+        this.path = path.toAbsolutePath().normalize();
+        this.description = description;
+        this.lock = getLock(this.path);
+    }
+
+    /**
+     * @return lock serializing the users of a local file or directory in this JVM
+     */
+    static Object getLock(Path path)
+    {
+        return LOCKS.computeIfAbsent(path.toAbsolutePath().normalize(), p -> new Object());
+    }
+
+    /**
+     * @return value read from the content of the file, an empty object when the file doesn't exist
+     */
+    public <T> T read(Function<ObjectNode, T> reader)
+    {
+        synchronized (lock) {
+            return reader.apply(read());
+        }
+    }
+
+    /**
+     * Change the content of the file, no other user of the file in the JVM reads or changes it meanwhile
+     * @return value returned by the updater
+     */
+    public <T> T update(Function<ObjectNode, T> updater)
+    {
+        synchronized (lock) {
+            ObjectNode content = read();
+            T value = updater.apply(content);
+            write(content);
+            return value;
+        }
+    }
+
+    // guarded by lock
+    private ObjectNode read()
+    {
+        if (!Files.exists(path)) {
+            return OBJECT_MAPPER.createObjectNode();
+        }
+        try {
+            JsonNode content = OBJECT_MAPPER.readTree(path.toFile());
+            if (content == null || !content.isObject()) {
+                return OBJECT_MAPPER.createObjectNode();
+            }
+            return (ObjectNode) content;
+        }
+        catch (IOException e) {
+            throw new DataException("Can't read " + description + " " + path, e);
+        }
+    }
+
+    // guarded by lock
+    private void write(ObjectNode content)
+    {
+        Path tempFile = path.resolveSibling(path.getFileName() + ".tmp");
+        try {
+            if (path.getParent() != null) {
+                Files.createDirectories(path.getParent());
+            }
+            OBJECT_MAPPER.writerWithDefaultPrettyPrinter().writeValue(tempFile.toFile(), content);
+            Files.move(tempFile, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        }
+        catch (IOException e) {
+            throw new DataException("Can't write " + description + " " + path, e);
+        }
+    }
+}
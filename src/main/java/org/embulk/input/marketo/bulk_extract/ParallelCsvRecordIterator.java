@@ -0,0 +1,388 @@
+package org.embulk.input.marketo.bulk_extract;
+
+import com.google.common.annotations.VisibleForTesting;
+import org.embulk.base.restclient.record.ServiceRecord;
+import org.embulk.input.marketo.CsvTokenizer;
+import org.embulk.spi.DataException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Iterate the rows of a staged bulk extract file, tokenized by several threads.
+ * The file is cut into chunks at record boundaries found by a quote aware scan of the file. The scan is parallel too:
+ * each part of the file is scanned from every state the scan can be in at its start, the state at the start of the
+ * file is then chained through the parts, which tells the actual boundaries.
+ * The first chunk, which holds the header, is read by the calling thread. Once the first row was imported
+ * and the columns to materialize are known, worker threads tokenize the other chunks into batches of rows.
+ * Rows are still returned in file order so the records are imported by the calling thread into its PageBuilder.
+ * Only the dialect of {@link BulkExtractCsvTokenizer} is supported.
+ */
+public class ParallelCsvRecordIterator<T extends CsvTokenizer.PluginTask> implements Iterator<ServiceRecord>, Closeable
+{
+    private static final Logger LOGGER = LoggerFactory.getLogger(ParallelCsvRecordIterator.class);
+
+    private static final long MIN_CHUNK_SIZE = 0x1000000;
+
+    private static final int BATCH_SIZE = 1024;
+
+    private static final int BATCHES_PER_CHUNK = 8;
+
+    private static final List<String[]> END_OF_CHUNK = Collections.emptyList();
+
+    // states of the quote aware scan: out of quotes at the start of a column or in it, in quotes after any byte,
+    // a backslash or a quote
+    private static final int COLUMN_START = 0;
+
+    private static final int IN_COLUMN = 1;
+
+    private static final int IN_QUOTES = 2;
+
+    private static final int AFTER_BACKSLASH = 3;
+
+    private static final int AFTER_QUOTE = 4;
+
+    private static final int NUMBER_OF_STATES = 5;
+
+    // next state and line break outside quotes, by state and byte
+    private static final int[][] TRANSITIONS = new int[NUMBER_OF_STATES][256];
+
+    private static final boolean[][] LINE_BREAKS = new boolean[NUMBER_OF_STATES][256];
+
+    static {
+        for (int state = 0; state < NUMBER_OF_STATES; state++) {
+            for (int c = 0; c < 256; c++) {
+                LINE_BREAKS[state][c] = state != IN_QUOTES && state != AFTER_BACKSLASH && (c == '\r' || c == '\n');
+                TRANSITIONS[state][c] = nextState(state, c);
+            }
+        }
+    }
+
+    private final File file;
+
+    private final T task;
+
+    private final List<Long> boundaries;
+
+    private final InputStream firstChunkStream;
+
+    private final CsvRecordIterator<T> firstChunk;
+
+    private final List<ChunkReader> chunkReaders = new ArrayList<>();
+
+    private final ExecutorService executor;
+
+    private CsvServiceRecord workerRecord;
+
+    // 0 is the first chunk, read by this thread
+    private int currentChunk;
+
+    private List<String[]> currentBatch = Collections.emptyList();
+
+    private int batchIndex;
+
+    public ParallelCsvRecordIterator(File file, T task, int numberOfThreads)
+    {
+        this(file, task, numberOfThreads, Math.max(MIN_CHUNK_SIZE, file.length() / (numberOfThreads * 4L)));
+    }
+
+    @VisibleForTesting
+    ParallelCsvRecordIterator(File file, T task, int numberOfThreads, long chunkSize)
+    {
+        this.file = file;
+        this.task = task;
+        this.executor = Executors.newFixedThreadPool(numberOfThreads, runnable -> {
+            Thread thread = new Thread(runnable, "bulk-extract-parser");
+            thread.setDaemon(true);
+            return thread;
+        });
+        try {
+            this.boundaries = findRecordBoundaries(file, chunkSize, executor);
+            LOGGER.info("Parse bulk extract file of [{}] bytes in [{}] chunks with [{}] threads", file.length(), boundaries.size() - 1, numberOfThreads);
+            firstChunkStream = new StagedFileInputStream(file, 0, boundaries.get(1));
+        }
+        catch (IOException e) {
+            executor.shutdownNow();
+            throw new DataException("Can't read bulk extract file", e);
+        }
+        catch (RuntimeException e) {
+            executor.shutdownNow();
+            throw e;
+        }
+        firstChunk = new CsvRecordIterator<>(firstChunkStream, task);
+    }
+
+    @Override
+    public boolean hasNext()
+    {
+        if (currentChunk == 0) {
+            boolean hasNext = firstChunk.hasNext();
+            if (workerRecord == null && (firstChunk.getProjection() != null || !hasNext)) {
+                startChunkReaders();
+            }
+            if (hasNext) {
+                return true;
+            }
+            currentChunk = 1;
+        }
+        while (batchIndex >= currentBatch.size()) {
+            if (currentChunk > chunkReaders.size()) {
+                close();
+                return false;
+            }
+            currentBatch = chunkReaders.get(currentChunk - 1).takeBatch();
+            batchIndex = 0;
+            if (currentBatch == END_OF_CHUNK) {
+                currentChunk++;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public ServiceRecord next()
+    {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        if (currentChunk == 0) {
+            return firstChunk.next();
+        }
+        workerRecord.setRow(currentBatch.get(batchIndex++));
+        return workerRecord;
+    }
+
+    @Override
+    public void remove()
+    {
+        throw new UnsupportedOperationException();
+    }
+
+    private void startChunkReaders()
+    {
+        List<String> headers = firstChunk.getHeaders();
+        boolean[] projection = firstChunk.getProjection();
+        workerRecord = new CsvServiceRecord(headers);
+        // chunks are queued in file order so a chunk never waits for a thread held by a later chunk
+        for (int i = 1; i < boundaries.size() - 1; i++) {
+            ChunkReader chunkReader = new ChunkReader(boundaries.get(i), boundaries.get(i + 1), headers.size(), projection);
+            chunkReaders.add(chunkReader);
+            executor.submit(chunkReader);
+        }
+    }
+
+    @Override
+    public void close()
+    {
+        executor.shutdownNow();
+        try {
+            firstChunkStream.close();
+        }
+        catch (IOException e) {
+            LOGGER.warn("Encounter exception when closing bulk extract file", e);
+        }
+    }
+
+    /**
+     * Find the first record boundary after every chunkSize bytes, by scanning the parts of the file between them
+     * with the executor. Line breaks in quoted values are not boundaries.
+     * @return start offsets of the chunks followed by the file size
+     */
+    static List<Long> findRecordBoundaries(File file, long chunkSize, ExecutorService executor)
+    {
+        long fileSize = file.length();
+        int numberOfParts = (int) Math.max(1, (fileSize + chunkSize - 1) / chunkSize);
+        List<Future<PartScan>> scans = new ArrayList<>();
+        for (int i = 0; i < numberOfParts; i++) {
+            // a part starts with the last byte before its offset, a line break there makes a boundary at the offset
+            long start = i == 0 ? 0 : i * chunkSize - 1;
+            long end = i == numberOfParts - 1 ? fileSize : (i + 1) * chunkSize - 1;
+            scans.add(executor.submit(() -> scanPart(file, start, end)));
+        }
+        List<Long> boundaries = new ArrayList<>();
+        boundaries.add(0L);
+        int state = COLUMN_START;
+        try {
+            for (int i = 0; i < numberOfParts; i++) {
+                PartScan scan = scans.get(i).get();
+                // a part without line break leaves its boundary to the next part
+                long boundary = scan.firstLineBreaks[state] + 1;
+                if (i > 0 && boundary > boundaries.get(boundaries.size() - 1) && boundary < fileSize) {
+                    boundaries.add(boundary);
+                }
+                state = scan.endStates[state];
+            }
+        }
+        catch (InterruptedException e) {
+            throw new DataException("Interrupted when scanning bulk extract file", e);
+        }
+        catch (ExecutionException e) {
+            if (e.getCause() instanceof DataException) {
+                throw (DataException) e.getCause();
+            }
+            throw new DataException("Can't read bulk extract file", e.getCause());
+        }
+        finally {
+            for (Future<PartScan> scan : scans) {
+                scan.cancel(true);
+            }
+        }
+        boundaries.add(fileSize);
+        return boundaries;
+    }
+
+    /**
+     * Run the quote aware scan over bytes [start, end) of the file from every state at once
+     */
+    private static PartScan scanPart(File file, long start, long end) throws IOException
+    {
+        int[] states = new int[NUMBER_OF_STATES];
+        long[] firstLineBreaks = new long[NUMBER_OF_STATES];
+        for (int state = 0; state < NUMBER_OF_STATES; state++) {
+            states[state] = state;
+            firstLineBreaks[state] = -1;
+        }
+        if (start == end) {
+            return new PartScan(states, firstLineBreaks);
+        }
+        long position = start;
+        byte[] buf = new byte[0x10000];
+        try (InputStream in = new StagedFileInputStream(file, start, end)) {
+            int r;
+            while ((r = in.read(buf, 0, buf.length)) != -1) {
+                for (int i = 0; i < r; i++, position++) {
+                    int c = buf[i] & 0xff;
+                    for (int state = 0; state < NUMBER_OF_STATES; state++) {
+                        if (firstLineBreaks[state] < 0 && LINE_BREAKS[states[state]][c]) {
+                            firstLineBreaks[state] = position;
+                        }
+                        states[state] = TRANSITIONS[states[state]][c];
+                    }
+                }
+            }
+        }
+        return new PartScan(states, firstLineBreaks);
+    }
+
+    private static int nextState(int state, int c)
+    {
+        if (state == AFTER_BACKSLASH) {
+            return IN_QUOTES;
+        }
+        if (state == IN_QUOTES) {
+            return c == '"' ? AFTER_QUOTE : (c == '\\' ? AFTER_BACKSLASH : IN_QUOTES);
+        }
+        if (state == AFTER_QUOTE && c == '"') {
+            // escaped quote
+            return IN_QUOTES;
+        }
+        // out of quotes, a quote only opens a quoted value at the start of a column
+        if (c == '\r' || c == '\n' || c == ',') {
+            return COLUMN_START;
+        }
+        return state == COLUMN_START && c == '"' ? IN_QUOTES : IN_COLUMN;
+    }
+
+    private static final class PartScan
+    {
+        // by state at the start of the part
+        private final int[] endStates;
+
+        private final long[] firstLineBreaks;
+
+        private PartScan(int[] endStates, long[] firstLineBreaks)
+        {
+            this.endStates = endStates;
+            this.firstLineBreaks = firstLineBreaks;
+        }
+    }
+
+    private class ChunkReader implements Runnable
+    {
+        private final long start;
+
+        private final long end;
+
+        private final int numberOfColumns;
+
+        private final boolean[] projection;
+
+        private final BlockingQueue<List<String[]>> batches = new ArrayBlockingQueue<>(BATCHES_PER_CHUNK);
+
+        private volatile RuntimeException error;
+
+        ChunkReader(long start, long end, int numberOfColumns, boolean[] projection)
+        {
+            this.start = start;
+            this.end = end;
+            this.numberOfColumns = numberOfColumns;
+            this.projection = projection;
+        }
+
+        @Override
+        public void run()
+        {
+            try (InputStream in = new StagedFileInputStream(file, start, end)) {
+                BulkExtractCsvTokenizer tokenizer = new BulkExtractCsvTokenizer(in, task.getNewline().getString(), task.getMaxQuotedSizeLimit(), task.getNullString().orElse(null));
+                List<String[]> batch = new ArrayList<>(BATCH_SIZE);
+                while (tokenizer.nextRecord()) {
+                    String[] row = new String[numberOfColumns];
+                    CsvRecordIterator.readRow(tokenizer, row, projection);
+                    batch.add(row);
+                    if (batch.size() == BATCH_SIZE) {
+                        batches.put(batch);
+                        batch = new ArrayList<>(BATCH_SIZE);
+                    }
+                }
+                batches.put(batch);
+            }
+            catch (InterruptedException e) {
+                // closed by the reading thread
+                return;
+            }
+            catch (IOException e) {
+                error = new DataException("Can't read bulk extract file", e);
+            }
+            catch (RuntimeException e) {
+                error = e;
+            }
+            try {
+                batches.put(END_OF_CHUNK);
+            }
+            catch (InterruptedException e) {
+                // closed by the reading thread
+            }
+        }
+
+        List<String[]> takeBatch()
+        {
+            try {
+                List<String[]> batch = batches.take();
+                if (batch == END_OF_CHUNK && error != null) {
+                    close();
+                    throw error;
+                }
+                return batch;
+            }
+            catch (InterruptedException e) {
+                close();
+                throw new DataException("Interrupted when waiting for parsed rows", e);
+            }
+        }
+    }
+}
@@ -0,0 +1,70 @@
+package org.embulk.input.marketo.bulk_extract;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+import java.nio.file.Path;
+import java.time.LocalDate;
+
+/**
+ * Local file keeping the daily quota usage of Marketo accounts counted by the runs sharing it, so a budget covers
+ * the whole Marketo day and not only the current run. Only the usage of the last day recorded is kept by account.
+ */
+public class QuotaUsageFile
+{
+    private static final String DAY = "day";
+
+    private static final String CALLS = "calls";
+
+    private static final String EXPORTED_BYTES = "exportedBytes";
+
+    private final LocalJsonFile file;
+
+    public QuotaUsageFile(Path path)
+    {
+        this.file = new LocalJsonFile(path, "quota usage file");
+    }
+
+    /**
+     * Add usage of the account on the Marketo day
+     * @return usage of the account on the day, recorded by all runs
+     */
+    public Usage add(String account, LocalDate day, long calls, long exportedBytes)
+    {
+        return file.update(usages -> {
+            JsonNode recorded = usages.path(account);
+            boolean sameDay = day.toString().equals(recorded.path(DAY).asText());
+            Usage usage = new Usage(
+                    (sameDay ? recorded.path(CALLS).asLong() : 0) + calls,
+                    (sameDay ? recorded.path(EXPORTED_BYTES).asLong() : 0) + exportedBytes);
+            ObjectNode entry = usages.putObject(account);
+            entry.put(DAY, day.toString());
+            entry.put(CALLS, usage.getCalls());
+            entry.put(EXPORTED_BYTES, usage.getExportedBytes());
+            return usage;
+        });
+    }
+
+    public static class Usage
+    {
+        private final long calls;
+
+        private final long exportedBytes;
+
+        Usage(long calls, long exportedBytes)
+        {
+            this.calls = calls;
+            this.exportedBytes = exportedBytes;
+        }
+
+        public long getCalls()
+        {
+            return calls;
+        }
+
+        public long getExportedBytes()
+        {
+            return exportedBytes;
+        }
+    }
+}
@@ -0,0 +1,95 @@
+package org.embulk.input.marketo.bulk_extract;
+
+import com.google.common.base.Function;
+import org.embulk.input.marketo.model.BulkExtractRangeHeader;
+import org.embulk.spi.DataException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Read a bulk extract file directly from the HTTP response.
+ * If the connection fails in the middle of the file, request the rest of the file with a Range header
+ * starting from the last byte consumed and continue reading from there.
+ */
+public class ResumableBulkExtractInputStream extends InputStream
+{
+    private static final Logger LOGGER = LoggerFactory.getLogger(ResumableBulkExtractInputStream.class);
+
+    private final Function<BulkExtractRangeHeader, InputStream> getBulkExtractFunction;
+
+    private final int maxResumeTime;
+
+    private InputStream current;
+
+    private long position;
+
+    private int resumeTime;
+
+    public ResumableBulkExtractInputStream(Function<BulkExtractRangeHeader, InputStream> getBulkExtractFunction, int maxResumeTime)
+    {
+        this.getBulkExtractFunction = getBulkExtractFunction;
+        this.maxResumeTime = maxResumeTime;
+        this.current = getBulkExtractFunction.apply(new BulkExtractRangeHeader(0));
+    }
+
+    @Override
+    public int read() throws IOException
+    {
+        byte[] b = new byte[1];
+        int r = read(b, 0, 1);
+        return r == -1 ? -1 : b[0] & 0xff;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException
+    {
+        while (true) {
+            try {
+                int r = current.read(b, off, len);
+                if (r > 0) {
+                    position += r;
+                }
+                return r;
+            }
+            catch (IOException e) {
+                resume(e);
+            }
+        }
+    }
+
+    public long getPosition()
+    {
+        return position;
+    }
+
+    private void resume(IOException cause) throws IOException
+    {
+        if (resumeTime >= maxResumeTime) {
+            //Too many resume we still can't get the file
+            throw new DataException("Can't down load bulk extract", cause);
+        }
+        resumeTime++;
+        LOGGER.warn("Encounter exception when streaming bulk extract file, will resume at byte [{}]", position, cause);
+        closeQuietly();
+        current = getBulkExtractFunction.apply(new BulkExtractRangeHeader(position));
+    }
+
+    private void closeQuietly()
+    {
+        try {
+            current.close();
+        }
+        catch (IOException e) {
+            LOGGER.debug("Ignore exception when closing bulk extract stream", e);
+        }
+    }
+
+    @Override
+    public void close() throws IOException
+    {
+        current.close();
+    }
+}
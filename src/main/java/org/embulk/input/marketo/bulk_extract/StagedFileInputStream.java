@@ -0,0 +1,106 @@
+package org.embulk.input.marketo.bulk_extract;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Read a staged bulk extract file, or a byte range of it, through positional reads into a reused direct buffer.
+ * The file is not memory mapped, so it is released once the stream is closed: a mapped file keeps its disk space
+ * after being deleted, and can't be deleted at all on Windows, until the mapping is garbage collected.
+ */
+public class StagedFileInputStream extends InputStream
+{
+    private static final int BUFFER_SIZE = 0x100000;
+
+    private final File file;
+
+    private final FileChannel channel;
+
+    private final long end;
+
+    // file position of the next read into the buffer
+    private long position;
+
+    private final ByteBuffer buffer;
+
+    public StagedFileInputStream(File file) throws IOException
+    {
+        this(file, 0, -1);
+    }
+
+    /**
+     * @param end exclusive end of the range, -1 for the end of file
+     */
+    public StagedFileInputStream(File file, long start, long end) throws IOException
+    {
+        this(file, start, end, BUFFER_SIZE);
+    }
+
+    StagedFileInputStream(File file, long start, long end, int bufferSize) throws IOException
+    {
+        this.file = file;
+        this.channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+        this.end = end < 0 ? channel.size() : end;
+        this.position = start;
+        this.buffer = ByteBuffer.allocateDirect(bufferSize);
+        this.buffer.limit(0);
+    }
+
+    public File getFile()
+    {
+        return file;
+    }
+
+    @Override
+    public int read() throws IOException
+    {
+        if (!hasRemaining()) {
+            return -1;
+        }
+        return buffer.get() & 0xff;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException
+    {
+        if (len == 0) {
+            return 0;
+        }
+        if (!hasRemaining()) {
+            return -1;
+        }
+        int r = Math.min(len, buffer.remaining());
+        buffer.get(b, off, r);
+        return r;
+    }
+
+    private boolean hasRemaining() throws IOException
+    {
+        if (buffer.hasRemaining()) {
+            return true;
+        }
+        if (position >= end) {
+            return false;
+        }
+        buffer.clear();
+        buffer.limit((int) Math.min(buffer.capacity(), end - position));
+        int read = channel.read(buffer, position);
+        buffer.flip();
+        if (read <= 0) {
+            // the file is shorter than the range
+            return false;
+        }
+        position += read;
+        return true;
+    }
+
+    @Override
+    public void close() throws IOException
+    {
+        channel.close();
+    }
+}
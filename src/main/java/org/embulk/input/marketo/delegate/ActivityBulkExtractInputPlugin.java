@@ -10,13 +10,14 @@ import org.embulk.config.ConfigException;
 import org.embulk.input.marketo.MarketoService;
 import org.embulk.input.marketo.MarketoServiceImpl;
 import org.embulk.input.marketo.MarketoUtils;
+import org.embulk.input.marketo.bulk_extract.CompressedFileInputStream;
+import org.embulk.input.marketo.bulk_extract.StagedFileInputStream;
 import org.embulk.input.marketo.rest.MarketoRestClient;
 import org.embulk.spi.type.Types;
 import org.embulk.util.config.Config;
 import org.embulk.util.config.ConfigDefault;
 
-import java.io.FileInputStream;
-import java.io.FileNotFoundException;
+import java.io.IOException;
 import java.io.InputStream;
 import java.text.MessageFormat;
 import java.time.OffsetDateTime;
@@ -140,13 +141,48 @@ public class ActivityBulkExtractInputPlugin extends MarketoBaseBulkExtractInputP
     }
 
     @Override
-    protected InputStream getExtractedStream(MarketoService service, PluginTask task, OffsetDateTime fromDate, OffsetDateTime toDate)
+    protected String startExport(MarketoService service, PluginTask task, OffsetDateTime fromDate, OffsetDateTime toDate)
     {
+        return service.startActivityExtract(task.getActTypeIds(), Date.from(fromDate.toInstant()), Date.from(toDate.toInstant()));
+    }
+
+    @Override
+    protected ObjectNode waitExportComplete(MarketoService service, PluginTask task, String exportId)
+    {
+        return service.waitActivityExtract(exportId, task.getPollingIntervalSecond(), task.getBulkJobTimeoutSecond());
+    }
+
+    @Override
+    protected ObjectNode getExportStatus(MarketoService service, PluginTask task, String exportId)
+    {
+        return service.getActivityExtractStatus(exportId);
+    }
+
+    @Override
+    protected void cancelExport(MarketoService service, PluginTask task, String exportId)
+    {
+        service.cancelActivityExtract(exportId);
+    }
+
+    @Override
+    protected String getExportFilter(PluginTask task)
+    {
+        return "activityTypeIds=" + task.getActTypeIds();
+    }
+
+    @Override
+    protected InputStream getExportedStream(MarketoService service, PluginTask task, String exportId, ObjectNode exportStatus)
+    {
+        if (task.getStreamBulkExtract()) {
+            return service.streamActivityExtract(exportId);
+        }
         try {
-            return new FileInputStream(service.extractAllActivity(task.getActTypeIds(), Date.from(fromDate.toInstant()),
-                    Date.from(toDate.toInstant()), task.getPollingIntervalSecond(), task.getBulkJobTimeoutSecond()));
+            if (task.getCompressStagedFiles()) {
+                return new CompressedFileInputStream(service.downloadCompressedActivityExtract(exportId));
+            }
+            return new StagedFileInputStream(service.downloadActivityExtract(exportId, MarketoUtils.getFileSize(exportStatus), task.getDownloadConnections()));
         }
-        catch (FileNotFoundException e) {
+        catch (IOException e) {
             throw new RuntimeException("Exception when trying to extract activity", e);
         }
     }
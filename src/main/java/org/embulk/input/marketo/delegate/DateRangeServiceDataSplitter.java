@@ -0,0 +1,60 @@
+package org.embulk.input.marketo.delegate;
+
+import org.embulk.base.restclient.ServiceDataSplitter;
+import org.embulk.input.marketo.MarketoUtils;
+import org.embulk.spi.Schema;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.time.OffsetDateTime;
+import java.time.ZoneOffset;
+import java.util.Date;
+import java.util.List;
+import java.util.Optional;
+import java.util.function.BiFunction;
+
+/**
+ * Split the from_date..to_date window of a bulk extract into one Embulk task per date range slice,
+ * so Embulk executor can run the slices' export jobs concurrently.
+ */
+public class DateRangeServiceDataSplitter<T extends MarketoBaseBulkExtractInputPlugin.PluginTask> extends ServiceDataSplitter<T>
+{
+    private final Logger logger = LoggerFactory.getLogger(getClass());
+
+    private final BiFunction<OffsetDateTime, OffsetDateTime, List<MarketoUtils.DateRange>> rangeSlicer;
+
+    public DateRangeServiceDataSplitter(BiFunction<OffsetDateTime, OffsetDateTime, List<MarketoUtils.DateRange>> rangeSlicer)
+    {
+        this.rangeSlicer = rangeSlicer;
+    }
+
+    @Override
+    public int numberToSplitWithHintingInTask(T taskToHint)
+    {
+        int numberOfSlices = sliceRange(taskToHint).size();
+        logger.info("Split bulk extract into [{}] tasks", numberOfSlices);
+        return Math.max(numberOfSlices, 1);
+    }
+
+    @Override
+    public void hintInEachSplitTask(T taskToHint, Schema schema, int taskIndex)
+    {
+        List<MarketoUtils.DateRange> dateRanges = sliceRange(taskToHint);
+        if (taskIndex >= dateRanges.size()) {
+            return;
+        }
+        MarketoUtils.DateRange dateRange = dateRanges.get(taskIndex);
+        logger.info("Task [{}] will extract range [{}]", taskIndex, dateRange);
+        taskToHint.setFromDate(Date.from(dateRange.fromDate.toInstant()));
+        taskToHint.setToDate(Optional.of(Date.from(dateRange.toDate.toInstant())));
+    }
+
+    private List<MarketoUtils.DateRange> sliceRange(T task)
+    {
+        OffsetDateTime fromDate = OffsetDateTime.ofInstant(task.getFromDate().toInstant(), ZoneOffset.UTC);
+        OffsetDateTime toDate = task.getToDate().isPresent() ?
+                OffsetDateTime.ofInstant(task.getToDate().get().toInstant(), ZoneOffset.UTC) :
+                OffsetDateTime.now(ZoneOffset.UTC);
+        return rangeSlicer.apply(fromDate, toDate);
+    }
+}
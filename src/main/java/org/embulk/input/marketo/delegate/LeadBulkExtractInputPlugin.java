@@ -1,15 +1,18 @@
 package org.embulk.input.marketo.delegate;
 
+import com.fasterxml.jackson.databind.node.ObjectNode;
 import org.embulk.base.restclient.ServiceResponseMapper;
 import org.embulk.base.restclient.record.ValueLocator;
 import org.embulk.input.marketo.MarketoService;
 import org.embulk.input.marketo.MarketoServiceImpl;
+import org.embulk.input.marketo.MarketoUtils;
+import org.embulk.input.marketo.bulk_extract.CompressedFileInputStream;
+import org.embulk.input.marketo.bulk_extract.StagedFileInputStream;
 import org.embulk.input.marketo.rest.MarketoRestClient;
 import org.embulk.util.config.Config;
 import org.embulk.util.config.ConfigDefault;
 
-import java.io.FileInputStream;
-import java.io.FileNotFoundException;
+import java.io.IOException;
 import java.io.InputStream;
 import java.time.OffsetDateTime;
 import java.util.Date;
@@ -40,14 +43,50 @@ public class LeadBulkExtractInputPlugin extends MarketoBaseBulkExtractInputPlugi
     }
 
     @Override
-    protected InputStream getExtractedStream(MarketoService service, PluginTask task, OffsetDateTime fromDate, OffsetDateTime toDate)
+    protected String startExport(MarketoService service, PluginTask task, OffsetDateTime fromDate, OffsetDateTime toDate)
     {
+        List<String> fieldNames = task.getExtractedFields();
+        return service.startLeadExtract(Date.from(fromDate.toInstant()), Date.from(toDate.toInstant()),
+                fieldNames, task.getIncrementalColumn().orElse(null));
+    }
+
+    @Override
+    protected ObjectNode waitExportComplete(MarketoService service, PluginTask task, String exportId)
+    {
+        return service.waitLeadExtract(exportId, task.getPollingIntervalSecond(), task.getBulkJobTimeoutSecond());
+    }
+
+    @Override
+    protected ObjectNode getExportStatus(MarketoService service, PluginTask task, String exportId)
+    {
+        return service.getLeadExtractStatus(exportId);
+    }
+
+    @Override
+    protected void cancelExport(MarketoService service, PluginTask task, String exportId)
+    {
+        service.cancelLeadExtract(exportId);
+    }
+
+    @Override
+    protected String getExportFilter(PluginTask task)
+    {
+        return "fields=" + task.getExtractedFields() + ", filter=" + task.getIncrementalColumn().orElse(null);
+    }
+
+    @Override
+    protected InputStream getExportedStream(MarketoService service, PluginTask task, String exportId, ObjectNode exportStatus)
+    {
+        if (task.getStreamBulkExtract()) {
+            return service.streamLeadExtract(exportId);
+        }
         try {
-            List<String> fieldNames = task.getExtractedFields();
-            return new FileInputStream(service.extractLead(Date.from(fromDate.toInstant()), Date.from(toDate.toInstant()),
-                    fieldNames, task.getIncrementalColumn().orElse(null), task.getPollingIntervalSecond(), task.getBulkJobTimeoutSecond()));
+            if (task.getCompressStagedFiles()) {
+                return new CompressedFileInputStream(service.downloadCompressedLeadExtract(exportId));
+            }
+            return new StagedFileInputStream(service.downloadLeadExtract(exportId, MarketoUtils.getFileSize(exportStatus), task.getDownloadConnections()));
         }
-        catch (FileNotFoundException e) {
+        catch (IOException e) {
             throw new RuntimeException("File not found", e);
         }
     }
@@ -1,8 +1,13 @@
 package org.embulk.input.marketo.delegate;
 
+import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Function;
 import com.google.common.collect.Iterators;
+import com.google.common.io.Closer;
+import org.embulk.base.restclient.DefaultServiceDataSplitter;
+import org.embulk.base.restclient.ServiceDataSplitter;
 import org.embulk.base.restclient.record.RecordImporter;
 import org.embulk.base.restclient.record.ServiceRecord;
 import org.embulk.config.ConfigDiff;
@@ -12,30 +17,51 @@ import org.embulk.input.marketo.CsvTokenizer;
 import org.embulk.input.marketo.MarketoService;
 import org.embulk.input.marketo.MarketoServiceImpl;
 import org.embulk.input.marketo.MarketoUtils;
-import org.embulk.input.marketo.bulk_extract.AllStringJacksonServiceRecord;
+import org.embulk.input.marketo.bulk_extract.BulkExtractCsvTokenizer;
+import org.embulk.input.marketo.bulk_extract.CompressedFileInputStream;
 import org.embulk.input.marketo.bulk_extract.CsvRecordIterator;
+import org.embulk.input.marketo.bulk_extract.ExportFileCache;
+import org.embulk.input.marketo.bulk_extract.ExportJobStateFile;
+import org.embulk.input.marketo.bulk_extract.ExportStatsFile;
+import org.embulk.input.marketo.bulk_extract.ParallelCsvRecordIterator;
+import org.embulk.input.marketo.bulk_extract.QuotaUsageFile;
+import org.embulk.input.marketo.bulk_extract.StagedFileInputStream;
+import org.embulk.input.marketo.exception.ExportQuotaExceededException;
+import org.embulk.input.marketo.rest.MarketoQuotaUsage;
 import org.embulk.input.marketo.rest.MarketoRestClient;
+import org.embulk.spi.DataException;
 import org.embulk.spi.Exec;
 import org.embulk.spi.PageBuilder;
 import org.embulk.spi.Schema;
 import org.embulk.util.config.Config;
 import org.embulk.util.config.ConfigDefault;
-import org.embulk.util.file.InputStreamFileInput;
-import org.embulk.util.text.LineDecoder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
+import javax.validation.constraints.Max;
+import javax.validation.constraints.Min;
+
+import java.io.File;
+import java.io.IOException;
 import java.io.InputStream;
-import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
 import java.text.DateFormat;
 import java.text.SimpleDateFormat;
+import java.time.Duration;
+import java.time.Instant;
 import java.time.OffsetDateTime;
 import java.time.ZoneOffset;
 import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
 import java.util.Date;
 import java.util.Iterator;
 import java.util.List;
-import java.util.Map;
 import java.util.NoSuchElementException;
 import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Semaphore;
 
 import static org.embulk.input.marketo.MarketoInputPlugin.CONFIG_MAPPER_FACTORY;
 
@@ -46,13 +72,32 @@ public abstract class MarketoBaseBulkExtractInputPlugin<T extends MarketoBaseBul
 {
     private static final String FROM_DATE = "from_date";
 
+    // start of the first range that was not imported because a quota budget was exhausted
+    private static final String UNPROCESSED_FROM_DATE = "unprocessed_from_date";
+
+    // ranges whose export job is recorded in the export state file, to forget once the run is committed
+    private static final String EXPORT_STATE_KEYS = "export_state_keys";
+
+    // file sizes of the exported ranges, recorded in the export stats file once the run is committed
+    private static final String EXPORT_STATS = "export_stats";
+
     private static final int MARKETO_MAX_RANGE_EXTRACT = 30;
 
+    // files of completed export jobs are kept by Marketo for 7 days
+    private static final Duration MARKETO_EXPORT_FILE_RETENTION = Duration.ofDays(7);
+
+    // Export jobs that are queued or processing, shared by all tasks of an account in this JVM
+    private static final ConcurrentMap<String, ExportJobPermits> EXPORT_JOB_PERMITS = new ConcurrentHashMap<>();
+
+    private final Logger logger = LoggerFactory.getLogger(getClass());
+
     public interface PluginTask extends MarketoBaseInputPluginDelegate.PluginTask, CsvTokenizer.PluginTask
     {
         @Config("from_date")
         Date getFromDate();
 
+        void setFromDate(Date fromDate);
+
         @Config("fetch_days")
         @ConfigDefault("1")
         Integer getFetchDays();
@@ -87,6 +132,79 @@ public abstract class MarketoBaseBulkExtractInputPlugin<T extends MarketoBaseBul
         @ConfigDefault("null")
         Optional<String> getUidColumn();
         void setUidColumn(Optional<String> uidColumn);
+
+        @Config("split_date_range_into_tasks")
+        @ConfigDefault("false")
+        boolean getSplitDateRangeIntoTasks();
+
+        //https://developers.marketo.com/rest-api/bulk-extract/
+        @Max(2)
+        @Min(1)
+        @Config("number_concurrent_export_job")
+        @ConfigDefault("2")
+        Integer getNumberConcurrentExportJob();
+
+        @Config("pipeline_export_jobs")
+        @ConfigDefault("false")
+        boolean getPipelineExportJobs();
+
+        @Config("stream_bulk_extract")
+        @ConfigDefault("false")
+        boolean getStreamBulkExtract();
+
+        @Max(8)
+        @Min(1)
+        @Config("download_connections")
+        @ConfigDefault("1")
+        Integer getDownloadConnections();
+
+        @Min(1)
+        @Config("parse_threads")
+        @ConfigDefault("1")
+        Integer getParseThreads();
+
+        @Config("api_call_budget")
+        @ConfigDefault("null")
+        Optional<Long> getApiCallBudget();
+
+        @Config("export_bytes_budget")
+        @ConfigDefault("null")
+        Optional<Long> getExportBytesBudget();
+
+        @Config("quota_usage_file")
+        @ConfigDefault("null")
+        Optional<String> getQuotaUsageFile();
+
+        @Config("compress_staged_files")
+        @ConfigDefault("false")
+        boolean getCompressStagedFiles();
+
+        @Config("export_state_file")
+        @ConfigDefault("null")
+        Optional<String> getExportStateFile();
+
+        @Config("export_cache_directory")
+        @ConfigDefault("null")
+        Optional<String> getExportCacheDirectory();
+
+        @Min(0)
+        @Config("export_cache_bytes")
+        @ConfigDefault("10737418240")
+        Long getExportCacheBytes();
+
+        @Min(1)
+        @Config("export_cache_days")
+        @ConfigDefault("7")
+        Integer getExportCacheDays();
+
+        @Config("export_stats_file")
+        @ConfigDefault("null")
+        Optional<String> getExportStatsFile();
+
+        @Min(1)
+        @Config("range_target_bytes")
+        @ConfigDefault("null")
+        Optional<Long> getRangeTargetBytes();
     }
 
     @Override
@@ -104,6 +222,26 @@ public abstract class MarketoBaseBulkExtractInputPlugin<T extends MarketoBaseBul
                 && task.getIncrementalColumn().get().equals("updatedAt")) {
             throw new ConfigException("Column 'updatedAt' cannot be incremental imported");
         }
+        if (task.getRangeTargetBytes().isPresent() && !task.getExportStatsFile().isPresent()) {
+            throw new ConfigException("range_target_bytes requires export_stats_file");
+        }
+        // compressed files don't have the size reported by Marketo, the cache can't check them
+        if (task.getCompressStagedFiles() && task.getExportCacheDirectory().isPresent()) {
+            throw new ConfigException("compress_staged_files can't be used with export_cache_directory");
+        }
+        if (task.getApiCallBudget().isPresent() || task.getExportBytesBudget().isPresent()) {
+            // ranges left out are only imported again when the next run starts from them
+            if (!task.getIncremental() || !task.getIncrementalColumn().isPresent()) {
+                throw new ConfigException("api_call_budget and export_bytes_budget require incremental import");
+            }
+            // tasks stop at different ranges, restarting from the earliest one would import the ranges after it again
+            if (task.getSplitDateRangeIntoTasks()) {
+                throw new ConfigException("api_call_budget and export_bytes_budget can't be used with split_date_range_into_tasks");
+            }
+            if (!task.getQuotaUsageFile().isPresent()) {
+                throw new ConfigException("api_call_budget and export_bytes_budget require quota_usage_file");
+            }
+        }
         //Calculate to date
         OffsetDateTime toDate = getToDate(task);
         task.setToDate(Optional.of(Date.from(toDate.toInstant())));
@@ -131,11 +269,55 @@ public abstract class MarketoBaseBulkExtractInputPlugin<T extends MarketoBaseBul
             DateFormat df = new SimpleDateFormat(MarketoUtils.MARKETO_DATE_SIMPLE_DATE_FORMAT);
             // We will always move the range forward.
             Date toDate = task.getToDate().orElse(null);
+            // Ranges left out because of a quota budget are imported by the next run
+            for (TaskReport taskReport : taskReports) {
+                if (taskReport.has(UNPROCESSED_FROM_DATE)) {
+                    Date unprocessedFromDate = Date.from(OffsetDateTime.parse(taskReport.get(String.class, UNPROCESSED_FROM_DATE), DateTimeFormatter.ISO_OFFSET_DATE_TIME).toInstant());
+                    if (toDate == null || unprocessedFromDate.before(toDate)) {
+                        toDate = unprocessedFromDate;
+                    }
+                }
+            }
             configDiff.set(FROM_DATE, df.format(toDate));
         }
+        if (task.getExportStateFile().isPresent()) {
+            // export jobs of imported ranges won't be needed by a retry anymore
+            List<String> importedRangeKeys = new ArrayList<>();
+            for (TaskReport taskReport : taskReports) {
+                if (taskReport.has(EXPORT_STATE_KEYS)) {
+                    for (Object rangeKey : taskReport.get(List.class, EXPORT_STATE_KEYS)) {
+                        importedRangeKeys.add(rangeKey.toString());
+                    }
+                }
+            }
+            new ExportJobStateFile(Paths.get(task.getExportStateFile().get())).remove(importedRangeKeys);
+        }
+        if (task.getExportStatsFile().isPresent()) {
+            // written once committed only, so all tasks and retries of a run slice the same ranges
+            List<ObjectNode> exportStats = new ArrayList<>();
+            for (TaskReport taskReport : taskReports) {
+                if (taskReport.has(EXPORT_STATS)) {
+                    for (JsonNode entry : taskReport.get(JsonNode.class, EXPORT_STATS)) {
+                        if (entry.isObject()) {
+                            exportStats.add((ObjectNode) entry);
+                        }
+                    }
+                }
+            }
+            new ExportStatsFile(Paths.get(task.getExportStatsFile().get())).record(getStatsTarget(task), exportStats);
+        }
         return configDiff;
     }
 
+    @Override
+    public ServiceDataSplitter<T> buildServiceDataSplitter(T task)
+    {
+        if (task.getSplitDateRangeIntoTasks()) {
+            return new DateRangeServiceDataSplitter<>((fromDate, toDate) -> sliceRange(task, fromDate, toDate));
+        }
+        return new DefaultServiceDataSplitter();
+    }
+
     @Override
     public TaskReport ingestServiceData(final T task, RecordImporter recordImporter, int taskIndex, PageBuilder pageBuilder)
     {
@@ -144,34 +326,103 @@ public abstract class MarketoBaseBulkExtractInputPlugin<T extends MarketoBaseBul
             return MarketoUtils.importMockPreviewData(pageBuilder, PREVIEW_RECORD_LIMIT);
         }
         else {
-            try (LineDecoderIterator decoderIterator = getLineDecoderIterator(task)) {
-                Iterator<Map<String, String>> csvRecords = Iterators.concat(Iterators.transform(decoderIterator,
-                        (Function<LineDecoder, Iterator<Map<String, String>>>) input -> new CsvRecordIterator(input, task)));
+            try (ExtractedStreamIterator streamIterator = getExtractedStreamIterator(task); Closer closer = Closer.create()) {
+                Iterator<ServiceRecord> csvRecords = Iterators.concat(Iterators.transform(streamIterator,
+                        (Function<InputStream, Iterator<ServiceRecord>>) input -> createRecordIterator(input, task, closer)));
                 //Keep the preview code here when we can enable real preview
                 if (Exec.isPreview()) {
                     csvRecords = Iterators.limit(csvRecords, PREVIEW_RECORD_LIMIT);
                 }
                 int imported = 0;
                 while (csvRecords.hasNext()) {
-                    Map<String, String> csvRecord = csvRecords.next();
-                    ObjectNode objectNode = MarketoUtils.OBJECT_MAPPER.valueToTree(csvRecord);
-                    recordImporter.importRecord(new AllStringJacksonServiceRecord(objectNode), pageBuilder);
+                    recordImporter.importRecord(csvRecords.next(), pageBuilder);
                     imported = imported + 1;
                 }
+                logger.info("Task [{}] imported [{}] records", taskIndex, imported);
+                taskReport.set("imported", imported);
+                taskReport.set("api_calls", streamIterator.getCallCount());
+                taskReport.set("exported_bytes", streamIterator.getExportedBytes());
+                if (streamIterator.getUnprocessedRange() != null) {
+                    taskReport.set(UNPROCESSED_FROM_DATE, streamIterator.getUnprocessedRange().fromDate.format(DateTimeFormatter.ISO_OFFSET_DATE_TIME));
+                }
+                if (!streamIterator.getExportStateKeys().isEmpty()) {
+                    taskReport.set(EXPORT_STATE_KEYS, streamIterator.getExportStateKeys());
+                }
+                if (task.getExportStatsFile().isPresent()) {
+                    taskReport.set(EXPORT_STATS, streamIterator.getExportStats());
+                }
                 return taskReport;
             }
+            catch (IOException e) {
+                throw new DataException("Encounter exception when closing bulk extract parser", e);
+            }
         }
     }
 
-    private LineDecoderIterator getLineDecoderIterator(T task)
+    private Iterator<ServiceRecord> createRecordIterator(InputStream extractedStream, T task, Closer closer)
+    {
+        // Staged files can be split and parsed by several threads
+        if (task.getParseThreads() > 1 && extractedStream instanceof StagedFileInputStream && BulkExtractCsvTokenizer.isSupported(task)) {
+            return closer.register(new ParallelCsvRecordIterator<>(((StagedFileInputStream) extractedStream).getFile(), task, task.getParseThreads()));
+        }
+        return new CsvRecordIterator<>(extractedStream, task);
+    }
+
+    private ExtractedStreamIterator getExtractedStreamIterator(T task)
     {
         final OffsetDateTime fromDate = OffsetDateTime.ofInstant(task.getFromDate().toInstant(), ZoneOffset.UTC);
         final OffsetDateTime toDate = task.getToDate().isPresent() ?
                 OffsetDateTime.ofInstant(task.getToDate().get().toInstant(), ZoneOffset.UTC) :
                 OffsetDateTime.now(ZoneOffset.UTC);
-        List<MarketoUtils.DateRange> dateRanges = MarketoUtils.sliceRange(fromDate, toDate, MARKETO_MAX_RANGE_EXTRACT);
-        final Iterator<MarketoUtils.DateRange> iterator = dateRanges.iterator();
-        return new LineDecoderIterator(iterator, task);
+        List<MarketoUtils.DateRange> dateRanges = sliceRange(task, fromDate, toDate);
+        return new ExtractedStreamIterator(dateRanges, task);
+    }
+
+    /**
+     * Slice the range into ranges of maximum 30 days, sized by range_target_bytes from the recorded export stats when set
+     */
+    private List<MarketoUtils.DateRange> sliceRange(T task, OffsetDateTime fromDate, OffsetDateTime toDate)
+    {
+        if (!task.getRangeTargetBytes().isPresent()) {
+            return MarketoUtils.sliceRange(fromDate, toDate, MARKETO_MAX_RANGE_EXTRACT);
+        }
+        return new ExportStatsFile(Paths.get(task.getExportStatsFile().get()))
+                .sliceRange(getStatsTarget(task), fromDate, toDate, task.getRangeTargetBytes().get(), MARKETO_MAX_RANGE_EXTRACT);
+    }
+
+    /**
+     * Export jobs with other fields or filter don't export the same bytes for a range
+     */
+    private String getStatsTarget(T task)
+    {
+        return getClass().getSimpleName() + "/" + task.getAccountId() + "/" + getExportFilter(task);
+    }
+
+    /**
+     * Permits are created with the number_concurrent_export_job of the first task of the account, tasks of later runs
+     * in the JVM with another number share them too
+     */
+    private Semaphore getExportJobPermits(PluginTask task)
+    {
+        int concurrentExportJobs = task.getNumberConcurrentExportJob();
+        ExportJobPermits permits = EXPORT_JOB_PERMITS.computeIfAbsent(MarketoUtils.getIdentityEndPoint(task.getAccountId()), account -> new ExportJobPermits(concurrentExportJobs));
+        if (permits.size != concurrentExportJobs) {
+            logger.warn("number_concurrent_export_job [{}] is ignored, export jobs of the account are already limited to [{}] in this JVM", concurrentExportJobs, permits.size);
+        }
+        return permits.semaphore;
+    }
+
+    private static class ExportJobPermits
+    {
+        private final int size;
+
+        private final Semaphore semaphore;
+
+        ExportJobPermits(int size)
+        {
+            this.size = size;
+            this.semaphore = new Semaphore(size, true);
+        }
     }
 
     @Override
@@ -180,55 +431,492 @@ public abstract class MarketoBaseBulkExtractInputPlugin<T extends MarketoBaseBul
         throw new UnsupportedOperationException();
     }
 
-    protected abstract InputStream getExtractedStream(MarketoService service, T task, OffsetDateTime fromDate, OffsetDateTime toDate);
+    /**
+     * Create and enqueue the export job of the given range
+     * @return export job id
+     */
+    protected abstract String startExport(MarketoService service, T task, OffsetDateTime fromDate, OffsetDateTime toDate);
+
+    /**
+     * Block until the export job is completed on Marketo side
+     * @return status of the completed export job
+     */
+    protected abstract ObjectNode waitExportComplete(MarketoService service, T task, String exportId);
+
+    /**
+     * @return status of the export job, null when Marketo doesn't know the job
+     */
+    protected abstract ObjectNode getExportStatus(MarketoService service, T task, String exportId);
+
+    /**
+     * Cancel a queued or processing export job that won't be imported
+     */
+    protected abstract void cancelExport(MarketoService service, T task, String exportId);
+
+    /**
+     * @return description of the filter of the export jobs besides the date range, an export job recorded with
+     * another filter is not reused
+     */
+    protected abstract String getExportFilter(T task);
+
+    protected abstract InputStream getExportedStream(MarketoService service, T task, String exportId, ObjectNode exportStatus);
+
+    /**
+     * @return true when the file of the completed export job can still be downloaded
+     */
+    @VisibleForTesting
+    static boolean isExportFileRetained(ObjectNode exportStatus, Instant now)
+    {
+        if (!exportStatus.hasNonNull("finishedAt")) {
+            return true;
+        }
+        try {
+            return Instant.parse(exportStatus.get("finishedAt").asText()).plus(MARKETO_EXPORT_FILE_RETENTION).isAfter(now);
+        }
+        catch (DateTimeParseException e) {
+            return true;
+        }
+    }
 
-    private final class LineDecoderIterator implements Iterator<LineDecoder>, AutoCloseable
+    private final class ExtractedStreamIterator implements Iterator<InputStream>, AutoCloseable
     {
-        private LineDecoder currentLineDecoder;
+        private InputStream currentStream;
+
+        // stream of the next range, extracted by hasNext so a range stopped by the export quota is left out beforehand
+        private InputStream nextStream;
+
+        // downloaded file of the current stream, deleted once it was imported, null when the file is cached or streamed
+        private File currentStagedFile;
+
+        private final List<MarketoUtils.DateRange> dateRanges;
+
+        private int nextRangeIndex;
+
+        // Export job of the next range that was enqueued ahead in pipelined mode, it holds an export job permit
+        private String pipelinedExportId;
+
+        private final Semaphore permits;
+
+        private final MarketoQuotaUsage quotaUsage;
+
+        // null when there is no budget
+        private final QuotaUsageFile quotaUsageFile;
+
+        // first range that is not imported because a quota budget is exhausted
+        private MarketoUtils.DateRange unprocessedRange;
 
-        private final Iterator<MarketoUtils.DateRange> dateRangeIterator;
+        // null when export jobs are not recorded
+        private final ExportJobStateFile exportStateFile;
+
+        private final String exportFilter;
+
+        // null when export files are not cached
+        private final ExportFileCache exportFileCache;
+
+        private final List<String> exportStateKeys = new ArrayList<>();
+
+        private final List<ObjectNode> exportStats = new ArrayList<>();
 
         private final MarketoService marketoService;
 
         private final MarketoRestClient marketoRestClient;
         private final T task;
-        public LineDecoderIterator(Iterator<MarketoUtils.DateRange> dateRangeIterator, T task)
+        public ExtractedStreamIterator(List<MarketoUtils.DateRange> dateRanges, T task)
         {
             marketoRestClient = createMarketoRestClient(task);
             marketoService = new MarketoServiceImpl(marketoRestClient);
-            this.dateRangeIterator = dateRangeIterator;
+            permits = getExportJobPermits(task);
+            quotaUsage = MarketoQuotaUsage.getInstance(MarketoUtils.getIdentityEndPoint(task.getAccountId()));
+            quotaUsageFile = task.getQuotaUsageFile().isPresent() ? new QuotaUsageFile(Paths.get(task.getQuotaUsageFile().get())) : null;
+            exportStateFile = task.getExportStateFile().isPresent() ? new ExportJobStateFile(Paths.get(task.getExportStateFile().get())) : null;
+            exportFilter = getExportFilter(task);
+            exportFileCache = task.getExportCacheDirectory().isPresent() ? new ExportFileCache(Paths.get(task.getExportCacheDirectory().get()), task.getExportCacheBytes(), Duration.ofDays(task.getExportCacheDays())) : null;
+            this.dateRanges = dateRanges;
             this.task = task;
         }
 
         @Override
         public void close()
         {
-            if (currentLineDecoder != null) {
-                currentLineDecoder.close();
+            if (nextStream != null) {
+                setCurrentStream(nextStream);
+                nextStream = null;
+            }
+            closeCurrentStream();
+            if (pipelinedExportId != null) {
+                abandonPipelinedExport();
             }
             if (marketoRestClient != null) {
                 marketoRestClient.close();
             }
+            if (quotaUsageFile != null) {
+                recordQuotaUsage();
+            }
+        }
+
+        /**
+         * The export job enqueued ahead is kept for the next run when export jobs are recorded, it is canceled otherwise
+         * so it doesn't wait in the export queue and count in the daily export quota for nothing
+         */
+        private void abandonPipelinedExport()
+        {
+            String exportId = pipelinedExportId;
+            pipelinedExportId = null;
+            try {
+                if (exportStateFile != null) {
+                    logger.warn("Abandon export job [{}] enqueued ahead, it is recorded for the next run", exportId);
+                    return;
+                }
+                logger.warn("Cancel export job [{}] enqueued ahead", exportId);
+                cancelExport(marketoService, task, exportId);
+            }
+            catch (RuntimeException e) {
+                logger.warn("Encounter exception when canceling export job [{}]", exportId, e);
+            }
+            finally {
+                permits.release();
+            }
         }
 
         @Override
         public boolean hasNext()
         {
-            return dateRangeIterator.hasNext();
+            if (nextStream != null) {
+                return true;
+            }
+            // an export job enqueued ahead is counted by Marketo anyway, so it is still imported
+            if (unprocessedRange == null && hasNextRange() && pipelinedExportId == null && isBudgetExhausted()) {
+                unprocessedRange = dateRanges.get(nextRangeIndex);
+                logger.warn("Quota budget is exhausted, ranges from [{}] are left to the next run", unprocessedRange);
+            }
+            if (unprocessedRange != null || !hasNextRange()) {
+                return false;
+            }
+            nextStream = extractNextRange();
+            return nextStream != null;
+        }
+
+        /**
+         * @return stream of the next range, null when the daily export quota is exceeded and the range is left to the next run
+         */
+        private InputStream extractNextRange()
+        {
+            MarketoUtils.DateRange range = dateRanges.get(nextRangeIndex++);
+            String exportId = pipelinedExportId;
+            pipelinedExportId = null;
+            InputStream extractedStream = exportId == null ? getCachedStream(range) : null;
+            if (extractedStream != null) {
+                return extractedStream;
+            }
+            try {
+                return extract(range, exportId);
+            }
+            catch (RuntimeException e) {
+                if (!ExportQuotaExceededException.isCause(e) || !isResumable()) {
+                    throw e;
+                }
+                unprocessedRange = range;
+                logger.warn("Daily export quota is exceeded, ranges from [{}] are left to the next run", range, e);
+                return null;
+            }
+        }
+
+        /**
+         * Same conditions as the budgets, the next run only starts from the ranges left out of an incremental import
+         * that is not split into tasks
+         */
+        private boolean isResumable()
+        {
+            return task.getIncremental() && task.getIncrementalColumn().isPresent() && !task.getSplitDateRangeIntoTasks();
+        }
+
+        private boolean hasNextRange()
+        {
+            return nextRangeIndex < dateRanges.size();
+        }
+
+        /**
+         * Budgets are checked between ranges, the size of a range is only known once its export job completes.
+         * Usage of the day is the one recorded in the quota usage file by all runs, this one included.
+         */
+        private boolean isBudgetExhausted()
+        {
+            if (!task.getApiCallBudget().isPresent() && !task.getExportBytesBudget().isPresent()) {
+                return false;
+            }
+            QuotaUsageFile.Usage usage = recordQuotaUsage();
+            return (task.getApiCallBudget().isPresent() && usage.getCalls() >= task.getApiCallBudget().get())
+                    || (task.getExportBytesBudget().isPresent() && usage.getExportedBytes() >= task.getExportBytesBudget().get());
+        }
+
+        private QuotaUsageFile.Usage recordQuotaUsage()
+        {
+            String account = MarketoUtils.getIdentityEndPoint(task.getAccountId());
+            return quotaUsage.record((day, calls, exportedBytes) -> quotaUsageFile.add(account, day, calls, exportedBytes));
+        }
+
+        public MarketoUtils.DateRange getUnprocessedRange()
+        {
+            return unprocessedRange;
+        }
+
+        public long getCallCount()
+        {
+            return marketoRestClient.getCallCount();
+        }
+
+        public long getExportedBytes()
+        {
+            return marketoRestClient.getExportedBytes();
+        }
+
+        public List<String> getExportStateKeys()
+        {
+            return exportStateKeys;
+        }
+
+        public List<ObjectNode> getExportStats()
+        {
+            return exportStats;
         }
 
         @Override
-        public LineDecoder next()
+        public InputStream next()
         {
             if (hasNext()) {
-                MarketoUtils.DateRange next = dateRangeIterator.next();
-                InputStream extractedStream = getExtractedStream(marketoService, task, next.fromDate, next.toDate);
-                currentLineDecoder = LineDecoder.of(new InputStreamFileInput(Exec.getBufferAllocator(), extractedStream), StandardCharsets.UTF_8, null);
-                return currentLineDecoder;
+                InputStream extractedStream = nextStream;
+                nextStream = null;
+                setCurrentStream(extractedStream);
+                return currentStream;
             }
             throw new NoSuchElementException();
         }
 
+        private void setCurrentStream(InputStream extractedStream)
+        {
+            closeCurrentStream();
+            currentStream = extractedStream;
+            currentStagedFile = getStagedFile(extractedStream);
+        }
+
+        /**
+         * @param exportId export job of the range enqueued ahead, null when it has to be created
+         */
+        private InputStream extract(MarketoUtils.DateRange next, String exportId)
+        {
+            if (exportId == null) {
+                try {
+                    permits.acquire();
+                }
+                catch (InterruptedException e) {
+                    logger.error("Interrupted when waiting for export job slot for range [{}]", next, e);
+                    throw new DataException("Error when wait for bulk extract");
+                }
+            }
+            ObjectNode exportStatus = null;
+            try {
+                if (exportId == null) {
+                    ObjectNode recordedStatus = getRecordedExportStatus(next);
+                    if (recordedStatus == null) {
+                        exportId = startRecordedExport(next);
+                    }
+                    else {
+                        exportId = recordedStatus.get("exportId").asText();
+                        if ("Completed".equals(recordedStatus.get("status").asText())) {
+                            // nothing to wait, the file is downloaded right away
+                            exportStatus = recordedStatus;
+                        }
+                    }
+                }
+                if (exportStatus == null) {
+                    exportStatus = waitExportComplete(marketoService, task, exportId);
+                    recordExport(next, exportId, "Completed");
+                }
+            }
+            finally {
+                // a completed job doesn't count in the concurrent export limit while its file is downloaded
+                permits.release();
+            }
+            if (MarketoUtils.getFileSize(exportStatus) >= 0) {
+                exportStats.add(ExportStatsFile.newEntry(next, MarketoUtils.getFileSize(exportStatus)));
+            }
+            if (task.getPipelineExportJobs()) {
+                enqueueNextExport();
+            }
+            InputStream extractedStream = getExportedStream(marketoService, task, exportId, exportStatus);
+            return cacheExportedStream(next, extractedStream, exportStatus);
+        }
+
+        /**
+         * @return stream of the cached export file of the range, null when it is not cached
+         */
+        private InputStream getCachedStream(MarketoUtils.DateRange range)
+        {
+            File cachedFile = exportFileCache != null ? exportFileCache.get(getCacheKey(range)) : null;
+            if (cachedFile == null) {
+                return null;
+            }
+            logger.info("Use cached export file [{}] for range [{}]", cachedFile, range);
+            try {
+                return new StagedFileInputStream(cachedFile);
+            }
+            catch (IOException e) {
+                logger.warn("Can't read cached export file [{}], the range is exported again", cachedFile, e);
+                return null;
+            }
+        }
+
+        /**
+         * Move the downloaded file of the range into the cache, files streamed from Marketo are not cached
+         */
+        private InputStream cacheExportedStream(MarketoUtils.DateRange range, InputStream extractedStream, ObjectNode exportStatus)
+        {
+            if (exportFileCache == null || !(extractedStream instanceof StagedFileInputStream)) {
+                return extractedStream;
+            }
+            File file = ((StagedFileInputStream) extractedStream).getFile();
+            try {
+                extractedStream.close();
+                return new StagedFileInputStream(exportFileCache.put(getCacheKey(range), file, MarketoUtils.getFileSize(exportStatus)));
+            }
+            catch (IOException e) {
+                throw new DataException("Encounter exception when caching export file", e);
+            }
+        }
+
+        private void closeCurrentStream()
+        {
+            if (currentStream != null) {
+                try {
+                    currentStream.close();
+                }
+                catch (IOException e) {
+                    logger.warn("Encounter exception when closing bulk extract stream", e);
+                }
+                currentStream = null;
+            }
+            if (currentStagedFile != null) {
+                if (!currentStagedFile.delete()) {
+                    logger.warn("Can't delete staged bulk extract file [{}]", currentStagedFile);
+                }
+                currentStagedFile = null;
+            }
+        }
+
+        private File getStagedFile(InputStream extractedStream)
+        {
+            File file = null;
+            if (extractedStream instanceof StagedFileInputStream) {
+                file = ((StagedFileInputStream) extractedStream).getFile();
+            }
+            else if (extractedStream instanceof CompressedFileInputStream) {
+                file = ((CompressedFileInputStream) extractedStream).getFile();
+            }
+            if (file == null || (exportFileCache != null && exportFileCache.contains(file))) {
+                return null;
+            }
+            return file;
+        }
+
+        /**
+         * Let Marketo queue and process the next range while the current one is downloaded and parsed.
+         * Skip when all export job slots are taken, the next range will then be started on its turn.
+         */
+        private void enqueueNextExport()
+        {
+            if (!hasNextRange() || isBudgetExhausted() || isCached(dateRanges.get(nextRangeIndex)) || !permits.tryAcquire()) {
+                return;
+            }
+            MarketoUtils.DateRange nextRange = dateRanges.get(nextRangeIndex);
+            try {
+                ObjectNode recordedStatus = getRecordedExportStatus(nextRange);
+                if (recordedStatus != null) {
+                    pipelinedExportId = recordedStatus.get("exportId").asText();
+                    return;
+                }
+                pipelinedExportId = startRecordedExport(nextRange);
+                logger.info("Enqueued export job [{}] for range [{}] ahead", pipelinedExportId, nextRange);
+            }
+            catch (RuntimeException e) {
+                permits.release();
+                if (ExportQuotaExceededException.isCause(e)) {
+                    // the current range is still imported, the next one is left out on its turn
+                    logger.warn("Daily export quota is exceeded, export job for range [{}] is not enqueued ahead", nextRange);
+                    return;
+                }
+                throw e;
+            }
+        }
+
+        private String startRecordedExport(MarketoUtils.DateRange range)
+        {
+            String exportId = startExport(marketoService, task, range.fromDate, range.toDate);
+            recordExport(range, exportId, "Queued");
+            return exportId;
+        }
+
+        private void recordExport(MarketoUtils.DateRange range, String exportId, String status)
+        {
+            if (exportStateFile == null) {
+                return;
+            }
+            String rangeKey = getRangeKey(range);
+            exportStateFile.record(rangeKey, exportFilter, exportId, status);
+            if (!exportStateKeys.contains(rangeKey)) {
+                exportStateKeys.add(rangeKey);
+            }
+        }
+
+        /**
+         * Look up the export job recorded for the range by a run that failed
+         * @return status of the recorded job when it is queued, processing or completed with its file still kept, null otherwise
+         */
+        private ObjectNode getRecordedExportStatus(MarketoUtils.DateRange range)
+        {
+            if (exportStateFile == null) {
+                return null;
+            }
+            String exportId = exportStateFile.getExportId(getRangeKey(range), exportFilter);
+            if (exportId == null) {
+                return null;
+            }
+            ObjectNode exportStatus;
+            try {
+                exportStatus = getExportStatus(marketoService, task, exportId);
+            }
+            catch (RuntimeException e) {
+                logger.warn("Can't get status of export job [{}] recorded for range [{}], a new one is created", exportId, range, e);
+                return null;
+            }
+            String status = exportStatus != null && exportStatus.hasNonNull("status") ? exportStatus.get("status").asText() : null;
+            boolean reusable = "Queued".equals(status) || "Processing".equals(status)
+                    || ("Completed".equals(status) && isExportFileRetained(exportStatus, Instant.now()));
+            if (!reusable) {
+                logger.info("Export job [{}] recorded for range [{}] can't be reused, status is [{}]", exportId, range, status);
+                return null;
+            }
+            logger.info("Reuse export job [{}] recorded for range [{}], status is [{}]", exportId, range, status);
+            exportStatus.put("exportId", exportId);
+            recordExport(range, exportId, status);
+            return exportStatus;
+        }
+
+        private boolean isCached(MarketoUtils.DateRange range)
+        {
+            return exportFileCache != null && exportFileCache.get(getCacheKey(range)) != null;
+        }
+
+        private String getCacheKey(MarketoUtils.DateRange range)
+        {
+            return getRangeKey(range) + "/" + exportFilter;
+        }
+
+        private String getRangeKey(MarketoUtils.DateRange range)
+        {
+            return MarketoBaseBulkExtractInputPlugin.this.getClass().getSimpleName() + "/" + task.getAccountId() + "/"
+                    + range.fromDate.format(DateTimeFormatter.ISO_OFFSET_DATE_TIME) + "/" + range.toDate.format(DateTimeFormatter.ISO_OFFSET_DATE_TIME);
+        }
+
         @Override
         public void remove()
         {
@@ -15,8 +15,8 @@ import org.embulk.input.marketo.CsvTokenizer;
 import org.embulk.input.marketo.MarketoService;
 import org.embulk.input.marketo.MarketoServiceImpl;
 import org.embulk.input.marketo.MarketoUtils;
-import org.embulk.input.marketo.bulk_extract.AllStringJacksonServiceRecord;
 import org.embulk.input.marketo.bulk_extract.CsvRecordIterator;
+import org.embulk.input.marketo.bulk_extract.StagedFileInputStream;
 import org.embulk.input.marketo.model.MarketoField;
 import org.embulk.input.marketo.rest.MarketoRestClient;
 import org.embulk.spi.DataException;
@@ -25,30 +25,26 @@ import org.embulk.spi.PageBuilder;
 import org.embulk.spi.Schema;
 import org.embulk.util.config.Config;
 import org.embulk.util.config.ConfigDefault;
-import org.embulk.util.file.InputStreamFileInput;
-import org.embulk.util.text.LineDecoder;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import javax.validation.constraints.Max;
 import javax.validation.constraints.Min;
 
-import java.io.FileInputStream;
-import java.io.FileNotFoundException;
+import java.io.File;
+import java.io.IOException;
 import java.io.InputStream;
-import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Deque;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ExecutionException;
-import java.util.concurrent.Executors;
-import java.util.concurrent.Future;
-import java.util.concurrent.ThreadPoolExecutor;
-import java.util.stream.Collectors;
 
 import static org.embulk.input.marketo.MarketoInputPlugin.CONFIG_MAPPER_FACTORY;
 
@@ -151,29 +147,22 @@ public class ProgramMembersBulkExtractInputPlugin extends MarketoBaseInputPlugin
             if (!task.getProgramMemberFields().isPresent() || !task.getExtractedProgramIds().isPresent()) {
                 throw new ConfigException("program_member_fields or extracted_programs are missing.");
             }
-            final ThreadPoolExecutor executor = createExecutor(task);
-            final MarketoRestClient restClient = createMarketoRestClient(task);
-
-            try {
-                final List<String> fieldNames = new ArrayList<>(task.getProgramMemberFields().get().keySet());
-
-                List<Future> listFutureExportIDs = task.getExtractedProgramIds().get().stream()
-                                                       .map(programId -> createFutureTask(task, recordImporter, pageBuilder, executor, restClient, fieldNames, programId))
-                                                       .collect(Collectors.toList());
-
-                for (Future future : listFutureExportIDs) {
-                    try {
-                        future.get();
-                    }
-                    catch (InterruptedException | ExecutionException ex) {
-                        throw new RuntimeException(ex);
+            final List<String> fieldNames = new ArrayList<>(task.getProgramMemberFields().get().keySet());
+            final Deque<CompletableFuture<ProgramMembersExport>> exports = new ArrayDeque<>();
+            try (MarketoRestClient restClient = createMarketoRestClient(task)) {
+                MarketoService marketoService = createMarketoService(restClient);
+                Iterator<Integer> programIds = task.getExtractedProgramIds().get().iterator();
+                while (programIds.hasNext() || !exports.isEmpty()) {
+                    // jobs keep exporting asynchronously while a completed one is imported by this thread
+                    while (programIds.hasNext() && exports.size() < task.getNumberConcurrentExportJob()) {
+                        exports.add(exportProgramMembers(task, restClient, fieldNames, programIds.next()));
                     }
+                    importProgramMembers(task, recordImporter, pageBuilder, marketoService, waitForExport(exports.remove()));
                 }
             }
             finally {
-                restClient.close();
-                if (!executor.isShutdown()) {
-                    executor.shutdownNow();
+                for (CompletableFuture<ProgramMembersExport> export : exports) {
+                    export.cancel(false);
                 }
             }
             return taskReport;
@@ -181,59 +170,65 @@ public class ProgramMembersBulkExtractInputPlugin extends MarketoBaseInputPlugin
     }
 
     @VisibleForTesting
-    protected ThreadPoolExecutor createExecutor(PluginTask task)
+    protected MarketoService createMarketoService(MarketoRestClient restClient)
     {
-        return (ThreadPoolExecutor) Executors.newFixedThreadPool(task.getNumberConcurrentExportJob());
+        return new MarketoServiceImpl(restClient);
     }
 
-    private Future<?> createFutureTask(PluginTask task, RecordImporter recordImporter, PageBuilder pageBuilder, ThreadPoolExecutor executor, MarketoRestClient restClient, List<String> fieldNames, Integer programId)
+    /**
+     * Create, start and wait for the export job of the program, without holding a thread
+     */
+    private CompletableFuture<ProgramMembersExport> exportProgramMembers(PluginTask task, MarketoRestClient restClient, List<String> fieldNames, Integer programId)
     {
-        Runnable exportTask = () -> {
-            String exportJobID = restClient.createProgramMembersBulkExtract(fieldNames, programId);
-            restClient.startProgramMembersBulkExtract(exportJobID);
-            int numberRecord;
-            try {
-                ObjectNode status = restClient.waitProgramMembersExportJobComplete(exportJobID, task.getPollingIntervalSecond(), task.getBulkJobTimeoutSecond());
-                numberRecord = status.get("numberOfRecords").asInt();
-            }
-            catch (InterruptedException e) {
-                logger.error("Exception when waiting for export program [{}], job id [{}]", programId, exportJobID, e);
-                throw new DataException(e);
-            }
-            if (numberRecord == 0) {
-                logger.info("Export program [{}], job [{}] have no record.", programId, exportJobID);
-                return;
-            }
-            MarketoService marketoService = new MarketoServiceImpl(restClient);
-            LineDecoder lineDecoder = null;
-            try {
-                InputStream extractedStream = new FileInputStream(marketoService.extractProgramMembers(exportJobID));
-                lineDecoder = LineDecoder.of(new InputStreamFileInput(Exec.getBufferAllocator(), extractedStream), StandardCharsets.UTF_8, null);
-                Iterator<Map<String, String>> csvRecords = new CsvRecordIterator(lineDecoder, task);
-                int imported = 0;
-                while (csvRecords.hasNext()) {
-                    Map<String, String> csvRecord = csvRecords.next();
-                    ObjectNode objectNode = MarketoUtils.OBJECT_MAPPER.valueToTree(csvRecord);
-                    recordImporter.importRecord(new AllStringJacksonServiceRecord(objectNode), pageBuilder);
-                    imported = imported + 1;
-                }
+        return restClient.createProgramMembersBulkExtractAsync(fieldNames, programId)
+                .thenCompose(exportJobID -> restClient.startProgramMembersBulkExtractAsync(exportJobID)
+                        .thenCompose(started -> restClient.waitProgramMembersExportJobCompleteAsync(exportJobID, task.getPollingIntervalSecond(), task.getBulkJobTimeoutSecond()))
+                        .thenApply(status -> new ProgramMembersExport(programId, exportJobID, status.get("numberOfRecords").asInt())));
+    }
 
-                logger.info("Import data for program [{}], job_id [{}] finish.[{}] records imported/total [{}]", programId, exportJobID, imported, numberRecord);
-            }
-            catch (FileNotFoundException e) {
-                throw new RuntimeException("File export cannot be found", e);
-            }
-            finally {
-                if (lineDecoder != null) {
-                    lineDecoder.close();
-                }
+    private ProgramMembersExport waitForExport(CompletableFuture<ProgramMembersExport> export)
+    {
+        try {
+            return export.get();
+        }
+        catch (InterruptedException e) {
+            logger.error("Exception when waiting for export program members", e);
+            throw new DataException(e);
+        }
+        catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
             }
-        };
+            throw new DataException(e.getCause());
+        }
+    }
 
-        Thread exportThread = new Thread(exportTask);
-        exportThread.setDaemon(true);
+    private void importProgramMembers(PluginTask task, RecordImporter recordImporter, PageBuilder pageBuilder, MarketoService marketoService, ProgramMembersExport export)
+    {
+        if (export.numberOfRecords == 0) {
+            logger.info("Export program [{}], job [{}] have no record.", export.programId, export.exportId);
+            return;
+        }
+        File extractedFile = marketoService.extractProgramMembers(export.exportId);
+        try (InputStream extractedStream = new StagedFileInputStream(extractedFile)) {
+            Iterator<ServiceRecord> csvRecords = new CsvRecordIterator<>(extractedStream, task);
+            int imported = 0;
+            while (csvRecords.hasNext()) {
+                recordImporter.importRecord(csvRecords.next(), pageBuilder);
+                imported = imported + 1;
+            }
 
-        return executor.submit(exportThread);
+            logger.info("Import data for program [{}], job_id [{}] finish.[{}] records imported/total [{}]", export.programId, export.exportId, imported, export.numberOfRecords);
+        }
+        catch (IOException e) {
+            throw new RuntimeException("File export cannot be found", e);
+        }
+        finally {
+            // staged files of hundreds of programs would stay on disk until the JVM exits
+            if (!extractedFile.delete()) {
+                logger.warn("Can't delete staged bulk extract file [{}]", extractedFile);
+            }
+        }
     }
 
     @Override
@@ -254,4 +249,20 @@ public class ProgramMembersBulkExtractInputPlugin extends MarketoBaseInputPlugin
         }
         return MarketoUtils.buildDynamicResponseMapper(task.getSchemaColumnPrefix(), programMembersColumns);
     }
+
+    private static class ProgramMembersExport
+    {
+        private final Integer programId;
+
+        private final String exportId;
+
+        private final int numberOfRecords;
+
+        ProgramMembersExport(Integer programId, String exportId, int numberOfRecords)
+        {
+            this.programId = programId;
+            this.exportId = exportId;
+            this.numberOfRecords = numberOfRecords;
+        }
+    }
 }
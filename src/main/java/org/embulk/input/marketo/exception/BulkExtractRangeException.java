@@ -0,0 +1,28 @@
+package org.embulk.input.marketo.exception;
+
+import org.embulk.spi.DataException;
+
+/**
+ * Thrown when the response to a bulk extract file request is not the byte range requested,
+ * the file has to be downloaded again without ranges
+ */
+public class BulkExtractRangeException extends DataException
+{
+    public BulkExtractRangeException(String message)
+    {
+        super(message);
+    }
+
+    /**
+     * @return true when the exception or one of its causes is a {@link BulkExtractRangeException}
+     */
+    public static boolean isCause(Throwable exception)
+    {
+        for (Throwable cause = exception; cause != null; cause = cause.getCause()) {
+            if (cause instanceof BulkExtractRangeException) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
@@ -0,0 +1,42 @@
+package org.embulk.input.marketo.exception;
+
+import org.embulk.input.marketo.model.MarketoError;
+import org.embulk.spi.DataException;
+
+import java.util.Locale;
+
+/**
+ * Thrown when Marketo rejects a bulk extract job because the daily export quota of the account is exceeded,
+ * no more job can be created or enqueued before the quota is reset
+ */
+public class ExportQuotaExceededException extends DataException
+{
+    private static final String TOO_MANY_JOBS_ERROR_CODE = "1029";
+
+    public ExportQuotaExceededException(String message)
+    {
+        super(message);
+    }
+
+    /**
+     * Error 1029 is also returned when the export queue is full or the job is already queued, those are transient
+     */
+    public static boolean isExportQuotaExceeded(MarketoError error)
+    {
+        return TOO_MANY_JOBS_ERROR_CODE.equals(error.getCode()) && error.getMessage() != null
+                && error.getMessage().toLowerCase(Locale.ROOT).contains("quota");
+    }
+
+    /**
+     * @return true when the exception or one of its causes is a {@link ExportQuotaExceededException}
+     */
+    public static boolean isCause(Throwable exception)
+    {
+        for (Throwable cause = exception; cause != null; cause = cause.getCause()) {
+            if (cause instanceof ExportQuotaExceededException) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
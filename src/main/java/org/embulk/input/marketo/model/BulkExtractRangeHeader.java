@@ -1,10 +1,15 @@
 package org.embulk.input.marketo.model;
 
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
 /**
  * Created by tai.khuu on 10/12/17.
  */
 public class BulkExtractRangeHeader
 {
+    private static final Pattern CONTENT_RANGE = Pattern.compile("bytes (\\d+)-(\\d+)/(\\d+|\\*)");
+
     private Long start;
     private Long end;
 
@@ -19,6 +24,46 @@ public class BulkExtractRangeHeader
         this.end = end;
     }
 
+    public long getStart()
+    {
+        return start;
+    }
+
+    /**
+     * @return last byte of the range, null for the end of the file
+     */
+    public Long getEnd()
+    {
+        return end;
+    }
+
+    /**
+     * @return true when the range is the whole file
+     */
+    public boolean isWholeContent()
+    {
+        return start == 0 && end == null;
+    }
+
+    /**
+     * @param contentRange value of the Content-Range header of the response, null when there is none
+     * @return true when the response holds the bytes of this range, a server ignoring the range answers 200 with the whole file
+     */
+    public boolean isSatisfiedBy(int status, String contentRange)
+    {
+        if (status == 200) {
+            return isWholeContent();
+        }
+        if (status != 206 || contentRange == null) {
+            return false;
+        }
+        Matcher matcher = CONTENT_RANGE.matcher(contentRange.trim());
+        if (!matcher.matches()) {
+            return false;
+        }
+        return Long.parseLong(matcher.group(1)) == start && (end == null || Long.parseLong(matcher.group(2)) == end);
+    }
+
     public String toRangeHeaderValue()
     {
         return "bytes=" + start + "-" + (end != null ? end : "");
@@ -0,0 +1,79 @@
+package org.embulk.input.marketo.rest;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+import java.time.Instant;
+import java.time.format.DateTimeParseException;
+
+/**
+ * Interval between the status polls of a bulk extract job.
+ * A job is expected to stay in its status about as long as it already did, so the status is polled after half
+ * the time spent in the current status: polling starts fast and backs off geometrically.
+ * A processing job is polled when a job of the same kind processed before would have completed.
+ * Intervals are kept between the minimum and maximum intervals, both equal for fixed polling. The maximum interval
+ * can exceed the polling interval so jobs processing for an hour are not polled every minute.
+ */
+public class ExportJobPollingInterval
+{
+    private final long minIntervalMillis;
+
+    private final long maxIntervalMillis;
+
+    // processing time of the previous job, -1 when unknown
+    private final long expectedProcessingMillis;
+
+    // used when Marketo doesn't return the time of the status
+    private final long startedWaitingAt;
+
+    public ExportJobPollingInterval(long minIntervalMillis, long maxIntervalMillis, long expectedProcessingMillis, long startedWaitingAt)
+    {
+        this.minIntervalMillis = Math.min(minIntervalMillis, maxIntervalMillis);
+        this.maxIntervalMillis = maxIntervalMillis;
+        this.expectedProcessingMillis = expectedProcessingMillis;
+        this.startedWaitingAt = startedWaitingAt;
+    }
+
+    /**
+     * @param jobStatus status of the job, one of Created, Queued and Processing
+     * @return time to wait before polling the job status again
+     */
+    public long nextIntervalMillis(String jobStatus, ObjectNode status, long now)
+    {
+        boolean processing = "Processing".equals(jobStatus);
+        long statusSince = getTime(status, processing ? "startedAt" : "queuedAt");
+        long elapsed = Math.max(0, now - (statusSince < 0 ? startedWaitingAt : statusSince));
+        long interval = elapsed / 2;
+        if (processing && expectedProcessingMillis > elapsed) {
+            interval = expectedProcessingMillis - elapsed;
+        }
+        return Math.max(minIntervalMillis, Math.min(maxIntervalMillis, interval));
+    }
+
+    /**
+     * @return processing time of a completed job, -1 when unknown
+     */
+    public static long getProcessingMillis(ObjectNode status)
+    {
+        long startedAt = getTime(status, "startedAt");
+        long finishedAt = getTime(status, "finishedAt");
+        if (startedAt < 0 || finishedAt < startedAt) {
+            return -1;
+        }
+        return finishedAt - startedAt;
+    }
+
+    private static long getTime(ObjectNode status, String fieldName)
+    {
+        JsonNode time = status.get(fieldName);
+        if (time == null || !time.isTextual()) {
+            return -1;
+        }
+        try {
+            return Instant.parse(time.asText()).toEpochMilli();
+        }
+        catch (DateTimeParseException e) {
+            return -1;
+        }
+    }
+}
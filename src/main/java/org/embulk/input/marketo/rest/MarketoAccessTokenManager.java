@@ -0,0 +1,244 @@
+package org.embulk.input.marketo.rest;
+
+import com.google.common.annotations.VisibleForTesting;
+import org.embulk.input.marketo.model.MarketoAccessTokenResponse;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+import java.util.function.Supplier;
+
+/**
+ * Keep the access token of a client valid. The token is refreshed in background shortly before it expires,
+ * and a request doesn't get a token expiring in less than {@link #EXPIRY_MARGIN_MILLIS}. A token received already
+ * within the margin is not refreshed in background, the next request renews it.
+ * Concurrent refreshes are collapsed into a single identity call that the other threads wait for.
+ * Marketo returns the current token until it expires, so when a refresh gets the same token back the token is used up
+ * to its expiry, when a new one is asked for in background. Nothing waits for the expiry.
+ * The scheduler only triggers background refreshes, the identity calls are made by other threads so a slow one doesn't
+ * hold back the refreshes of other accounts.
+ */
+public class MarketoAccessTokenManager implements AutoCloseable
+{
+    private static final Logger LOGGER = LoggerFactory.getLogger(MarketoAccessTokenManager.class);
+
+    private static final long EXPIRY_MARGIN_MILLIS = 10000;
+
+    private static final ScheduledExecutorService REFRESH_SCHEDULER = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "marketo-access-token-refresh");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private static final Executor REFRESH_EXECUTOR = Executors.newCachedThreadPool(runnable -> {
+        Thread thread = new Thread(runnable, "marketo-access-token-request");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final Supplier<MarketoAccessTokenResponse> tokenRequester;
+
+    private final LongSupplier clock;
+
+    private final ScheduledExecutorService refreshScheduler;
+
+    private final Executor refreshExecutor;
+
+    private volatile AccessToken accessToken;
+
+    // refresh in progress, guarded by this
+    private CompletableFuture<AccessToken> refreshing;
+
+    private ScheduledFuture<?> scheduledRefresh;
+
+    private boolean closed;
+
+    public MarketoAccessTokenManager(Supplier<MarketoAccessTokenResponse> tokenRequester)
+    {
+        this(tokenRequester, System::currentTimeMillis, REFRESH_SCHEDULER, REFRESH_EXECUTOR);
+    }
+
+    /**
+     * @param clock current time in milliseconds
+     */
+    @VisibleForTesting
+    MarketoAccessTokenManager(Supplier<MarketoAccessTokenResponse> tokenRequester, LongSupplier clock, ScheduledExecutorService refreshScheduler, Executor refreshExecutor)
+    {
+        this.tokenRequester = tokenRequester;
+        this.clock = clock;
+        this.refreshScheduler = refreshScheduler;
+        this.refreshExecutor = refreshExecutor;
+    }
+
+    public String getAccessToken()
+    {
+        AccessToken current = accessToken;
+        if (current != null && !current.isExpiring(clock.getAsLong())) {
+            return current.value;
+        }
+        return refresh(current).value;
+    }
+
+    /**
+     * Renew the token after a request was rejected with it. Nothing is done when the token was renewed since.
+     * @param rejectedToken token of the rejected request, null when unknown
+     */
+    public void invalidate(String rejectedToken)
+    {
+        AccessToken current = accessToken;
+        if (rejectedToken == null || current == null || current.value.equals(rejectedToken)) {
+            LOGGER.info("Access token expired");
+            refresh(current);
+        }
+    }
+
+    private AccessToken refresh(AccessToken staleToken)
+    {
+        CompletableFuture<AccessToken> future;
+        boolean requester = false;
+        synchronized (this) {
+            if (accessToken != staleToken) {
+                // renewed by another thread
+                return accessToken;
+            }
+            if (refreshing == null) {
+                refreshing = new CompletableFuture<>();
+                requester = true;
+            }
+            future = refreshing;
+        }
+        if (!requester) {
+            return join(future);
+        }
+        try {
+            AccessToken newToken = requestToken(staleToken);
+            synchronized (this) {
+                accessToken = newToken;
+                refreshing = null;
+                scheduleRefresh(newToken);
+            }
+            future.complete(newToken);
+            return newToken;
+        }
+        catch (RuntimeException e) {
+            synchronized (this) {
+                refreshing = null;
+            }
+            future.completeExceptionally(e);
+            throw e;
+        }
+    }
+
+    private AccessToken requestToken(AccessToken staleToken)
+    {
+        AccessToken newToken = requestToken();
+        if (staleToken != null && newToken.value.equals(staleToken.value) && newToken.isExpiring(clock.getAsLong())) {
+            // the current token is returned until it expires, it is renewed once expired
+            return newToken.renewedAtExpiry();
+        }
+        return newToken;
+    }
+
+    private AccessToken requestToken()
+    {
+        // expiry is counted from the request so it is never later than Marketo's one
+        long requestedAt = clock.getAsLong();
+        return new AccessToken(tokenRequester.get(), requestedAt);
+    }
+
+    private void scheduleRefresh(AccessToken token)
+    {
+        if (scheduledRefresh != null) {
+            scheduledRefresh.cancel(false);
+            scheduledRefresh = null;
+        }
+        long now = clock.getAsLong();
+        // a refresh due now would get the same short lived token again and again
+        if (closed || token.expiresAt == Long.MAX_VALUE || token.isExpiring(now)) {
+            return;
+        }
+        long delay = token.renewAt - now;
+        scheduledRefresh = refreshScheduler.schedule(() -> refreshExecutor.execute(() -> {
+            try {
+                if (accessToken == token) {
+                    refresh(token);
+                }
+            }
+            catch (RuntimeException e) {
+                // next request will retry
+                LOGGER.warn("Encounter exception when refreshing access token", e);
+            }
+        }), delay, TimeUnit.MILLISECONDS);
+    }
+
+    private static AccessToken join(CompletableFuture<AccessToken> future)
+    {
+        try {
+            return future.join();
+        }
+        catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw e;
+        }
+    }
+
+    @Override
+    public synchronized void close()
+    {
+        closed = true;
+        if (scheduledRefresh != null) {
+            scheduledRefresh.cancel(false);
+            scheduledRefresh = null;
+        }
+    }
+
+    private static class AccessToken
+    {
+        private final String value;
+
+        // Long.MAX_VALUE when the expiry is not known
+        private final long expiresAt;
+
+        // time from which requests don't use the token any more
+        private final long renewAt;
+
+        AccessToken(MarketoAccessTokenResponse response, long requestedAt)
+        {
+            this(response.getAccessToken(), response.getExpiresIn() == null ? Long.MAX_VALUE : requestedAt + response.getExpiresIn() * 1000L);
+        }
+
+        private AccessToken(String value, long expiresAt)
+        {
+            this(value, expiresAt, expiresAt == Long.MAX_VALUE ? Long.MAX_VALUE : expiresAt - EXPIRY_MARGIN_MILLIS);
+        }
+
+        private AccessToken(String value, long expiresAt, long renewAt)
+        {
+            this.value = value;
+            this.expiresAt = expiresAt;
+            this.renewAt = renewAt;
+        }
+
+        /**
+         * @return the same token, used without margin until it expires
+         */
+        AccessToken renewedAtExpiry()
+        {
+            return new AccessToken(value, expiresAt, expiresAt);
+        }
+
+        boolean isExpiring(long now)
+        {
+            return now >= renewAt;
+        }
+    }
+}
@@ -0,0 +1,129 @@
+package org.embulk.input.marketo.rest;
+
+import org.eclipse.jetty.client.HttpClient;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Send requests with Jetty's asynchronous API and retry them with the exponential backoff of Jetty94RetryHelper.
+ * No thread is held while a request is in flight or waits for its next attempt, so many calls can be in flight from a few threads.
+ * Attempts and retry decisions run on the request threads, as they may block on the access token or the call limits,
+ * the retry scheduler only hands the next attempt over to them.
+ */
+public class MarketoAsyncRetryHelper
+{
+    private static final Logger LOGGER = LoggerFactory.getLogger(MarketoAsyncRetryHelper.class);
+
+    private static final ScheduledExecutorService RETRY_SCHEDULER = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "marketo-async-retry");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private static final ExecutorService REQUEST_EXECUTOR = Executors.newCachedThreadPool(runnable -> {
+        Thread thread = new Thread(runnable, "marketo-async-request");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final int maximumRetries;
+
+    private final int initialRetryIntervalMillis;
+
+    private final int maximumRetryIntervalMillis;
+
+    private final HttpClient client;
+
+    /**
+     * @param client started HTTP client, owned and stopped by the caller
+     */
+    public MarketoAsyncRetryHelper(int maximumRetries, int initialRetryIntervalMillis, int maximumRetryIntervalMillis, HttpClient client)
+    {
+        this.maximumRetries = maximumRetries;
+        this.initialRetryIntervalMillis = initialRetryIntervalMillis;
+        this.maximumRetryIntervalMillis = maximumRetryIntervalMillis;
+        this.client = client;
+    }
+
+    /**
+     * @return future completed with the result of the first successful attempt, or the exception of the last attempt
+     */
+    public <T> CompletableFuture<T> requestWithRetry(AsyncRequester<T> requester)
+    {
+        CompletableFuture<T> result = new CompletableFuture<>();
+        REQUEST_EXECUTOR.execute(() -> attempt(requester, result, 0, initialRetryIntervalMillis));
+        return result;
+    }
+
+    private <T> void attempt(AsyncRequester<T> requester, CompletableFuture<T> result, int retries, long retryIntervalMillis)
+    {
+        CompletableFuture<T> response;
+        try {
+            response = requester.requestOnce(client);
+        }
+        catch (RuntimeException e) {
+            response = new CompletableFuture<>();
+            response.completeExceptionally(e);
+        }
+        response.whenCompleteAsync((value, failure) -> {
+            if (failure == null) {
+                result.complete(value);
+                return;
+            }
+            Throwable cause = unwrap(failure);
+            if (!(cause instanceof Exception)) {
+                result.completeExceptionally(cause);
+                return;
+            }
+            Exception exception = (Exception) cause;
+            boolean retry;
+            try {
+                retry = retries < maximumRetries && requester.isExceptionToRetry(exception);
+            }
+            catch (RuntimeException e) {
+                result.completeExceptionally(e);
+                return;
+            }
+            if (!retry) {
+                result.completeExceptionally(exception);
+                return;
+            }
+            LOGGER.warn("Retrying {}/{} after {} seconds. Message: {}", retries + 1, maximumRetries, retryIntervalMillis / 1000, exception.getMessage());
+            long nextRetryIntervalMillis = Math.min(retryIntervalMillis * 2, maximumRetryIntervalMillis);
+            RETRY_SCHEDULER.schedule(() -> REQUEST_EXECUTOR.execute(() -> attempt(requester, result, retries + 1, nextRetryIntervalMillis)), retryIntervalMillis, TimeUnit.MILLISECONDS);
+        }, REQUEST_EXECUTOR);
+    }
+
+    private static Throwable unwrap(Throwable failure)
+    {
+        Throwable cause = failure;
+        while ((cause instanceof CompletionException || cause instanceof ExecutionException) && cause.getCause() != null) {
+            cause = cause.getCause();
+        }
+        return cause;
+    }
+
+    /**
+     * A single attempt of a request, and the decision to retry it
+     */
+    public interface AsyncRequester<T>
+    {
+        /**
+         * Send the request, the returned future is completed once the response was read. It runs on a request thread.
+         */
+        CompletableFuture<T> requestOnce(HttpClient client);
+
+        /**
+         * Decide to retry the failed attempt, it runs on a request thread so it may wait before the next attempt
+         */
+        boolean isExceptionToRetry(Exception exception);
+    }
+}
@@ -10,12 +10,17 @@ import org.eclipse.jetty.client.HttpResponseException;
 import org.eclipse.jetty.client.api.ContentProvider;
 import org.eclipse.jetty.client.api.Request;
 import org.eclipse.jetty.client.api.Response;
+import org.eclipse.jetty.client.api.Result;
+import org.eclipse.jetty.client.util.BufferingResponseListener;
 import org.eclipse.jetty.client.util.StringContentProvider;
+import org.eclipse.jetty.http.HttpHeader;
 import org.eclipse.jetty.http.HttpMethod;
 import org.embulk.config.ConfigException;
+import org.embulk.input.marketo.exception.ExportQuotaExceededException;
 import org.embulk.input.marketo.exception.MarketoAPIException;
 import org.embulk.input.marketo.model.MarketoAccessTokenResponse;
 import org.embulk.input.marketo.model.MarketoError;
+import org.embulk.input.marketo.model.MarketoResponse;
 import org.embulk.spi.DataException;
 import org.embulk.util.retryhelper.jetty94.Jetty94ResponseReader;
 import org.embulk.util.retryhelper.jetty94.Jetty94RetryHelper;
@@ -30,8 +35,12 @@ import java.net.SocketTimeoutException;
 import java.nio.charset.StandardCharsets;
 import java.util.Map;
 import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
 
 import static com.fasterxml.jackson.core.JsonParser.Feature.ALLOW_UNQUOTED_CONTROL_CHARS;
 import static com.fasterxml.jackson.databind.DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES;
@@ -49,21 +58,40 @@ public class MarketoBaseRestClient implements AutoCloseable
 
     private static final String AUTHORIZATION_HEADER = "Authorization";
 
+    protected static final String ACCEPT_ENCODING_HEADER = HttpHeader.ACCEPT_ENCODING.asString();
+
+    protected static final String GZIP_ENCODING = "gzip";
+
+    protected static final String IDENTITY_ENCODING = "identity";
+
+    private static final int DEFAULT_MARKETO_LIMIT_CALLS = 100;
+
+    private static final String INTERVAL_LIMIT_ERROR_CODE = "606";
+
+    // responses of asynchronous requests are buffered before being parsed
+    private static final int MAX_ASYNC_RESPONSE_SIZE = 0x4000000;
+
     private String identityEndPoint;
 
-    private String clientId;
+    private final MarketoAccessTokenManager accessTokenManager;
 
-    private String clientSecret;
+    private MarketoRateLimiter rateLimiter;
 
-    private String accessToken;
+    private MarketoConcurrencyGovernor concurrencyGovernor;
 
-    private int marketoLimitIntervalMillis;
+    private MarketoQuotaUsage quotaUsage;
+
+    // calls made by this client
+    private final AtomicLong callCount = new AtomicLong();
 
     private Jetty94RetryHelper retryHelper;
 
-    protected long readTimeoutMillis;
+    // null when the HTTP client and access token are owned by this client
+    private final MarketoSharedClient sharedClient;
 
-    private Optional<String> partnerApiKey;
+    private boolean closed;
+
+    protected long readTimeoutMillis;
 
     protected static final ObjectMapper OBJECT_MAPPER = new ObjectMapper().configure(FAIL_ON_UNKNOWN_PROPERTIES, false).configure(ALLOW_UNQUOTED_CONTROL_CHARS, false);
 
@@ -74,238 +102,541 @@ public class MarketoBaseRestClient implements AutoCloseable
                           int marketoLimitIntervalMillis,
                           long readTimeoutMillis,
                           Jetty94RetryHelper retryHelper)
+    {
+        this(identityEndPoint, clientId, clientSecret, partnerApiKey, DEFAULT_MARKETO_LIMIT_CALLS, marketoLimitIntervalMillis, readTimeoutMillis, retryHelper);
+    }
+
+    MarketoBaseRestClient(String identityEndPoint,
+                          String clientId,
+                          String clientSecret,
+                          Optional<String> partnerApiKey,
+                          int marketoLimitCalls,
+                          int marketoLimitIntervalMillis,
+                          long readTimeoutMillis,
+                          Jetty94RetryHelper retryHelper)
+    {
+        this(identityEndPoint, clientId, clientSecret, partnerApiKey, marketoLimitCalls, marketoLimitIntervalMillis, readTimeoutMillis, retryHelper, null);
+    }
+
+    MarketoBaseRestClient(String identityEndPoint,
+                          String clientId,
+                          String clientSecret,
+                          Optional<String> partnerApiKey,
+                          int marketoLimitCalls,
+                          int marketoLimitIntervalMillis,
+                          long readTimeoutMillis,
+                          MarketoSharedClient sharedClient)
+    {
+        this(identityEndPoint, clientId, clientSecret, partnerApiKey, marketoLimitCalls, marketoLimitIntervalMillis, readTimeoutMillis, sharedClient.getRetryHelper(), sharedClient);
+    }
+
+    private MarketoBaseRestClient(String identityEndPoint,
+                                  String clientId,
+                                  String clientSecret,
+                                  Optional<String> partnerApiKey,
+                                  int marketoLimitCalls,
+                                  int marketoLimitIntervalMillis,
+                                  long readTimeoutMillis,
+                                  Jetty94RetryHelper retryHelper,
+                                  MarketoSharedClient sharedClient)
     {
         this.identityEndPoint = identityEndPoint;
-        this.clientId = clientId;
-        this.clientSecret = clientSecret;
         this.readTimeoutMillis = readTimeoutMillis;
         this.retryHelper = retryHelper;
-        this.marketoLimitIntervalMillis = marketoLimitIntervalMillis;
-        this.partnerApiKey = partnerApiKey;
+        // the identity end point is unique per Munchkin account
+        this.rateLimiter = MarketoRateLimiter.getInstance(identityEndPoint, marketoLimitCalls, marketoLimitIntervalMillis);
+        this.concurrencyGovernor = MarketoConcurrencyGovernor.getInstance(identityEndPoint);
+        this.quotaUsage = MarketoQuotaUsage.getInstance(identityEndPoint);
+        this.sharedClient = sharedClient;
+        AccessTokenRequester tokenRequester = new AccessTokenRequester(identityEndPoint, clientId, clientSecret, partnerApiKey, readTimeoutMillis, retryHelper, concurrencyGovernor);
+        this.accessTokenManager = sharedClient != null ?
+                sharedClient.getAccessTokenManager(tokenRequester) :
+                new MarketoAccessTokenManager(tokenRequester);
     }
 
-    private void renewAccessToken()
+    /**
+     * @return identity end point of the client, unique per Munchkin account
+     */
+    protected String getIdentityEndPoint()
     {
-        accessToken = getAccessTokenWithWrappedException();
+        return identityEndPoint;
     }
 
     @VisibleForTesting
     public String getAccessToken()
     {
-        if (accessToken == null) {
-            synchronized (this) {
-                if (accessToken == null) {
-                    accessToken = getAccessTokenWithWrappedException();
-                }
+        return accessTokenManager.getAccessToken();
+    }
+
+    protected <T> T doGet(final String target, final Map<String, String> headers, final Multimap<String, String> params, Jetty94ResponseReader<T> responseReader)
+    {
+        return doRequestWithWrappedException(target, HttpMethod.GET, headers, params, null, responseReader);
+    }
+
+    protected <T> T doPost(final String target, final Map<String, String> headers, final Multimap<String, String> params, final String content, Jetty94ResponseReader<T> responseReader)
+    {
+        StringContentProvider contentProvider = null;
+        if (content != null) {
+            contentProvider = new StringContentProvider(APPLICATION_JSON, content, StandardCharsets.UTF_8);
+        }
+        return doPost(target, headers, params, responseReader, contentProvider);
+    }
+
+    protected <T> T doPost(final String target, final Map<String, String> headers, final Multimap<String, String> params, Jetty94ResponseReader<T> responseReader, final ContentProvider content)
+    {
+        return doRequestWithWrappedException(target, HttpMethod.POST, headers, params, content, responseReader);
+    }
+
+    private <T> T doRequestWithWrappedException(final String target, final HttpMethod method, final Map<String, String> headers, final Multimap<String, String> params, final ContentProvider contentProvider, Jetty94ResponseReader<T> responseReader)
+    {
+        try {
+            return doRequest(target, method, headers, params, contentProvider, responseReader);
+        }
+        catch (Exception e) {
+            if (e instanceof MarketoAPIException || e instanceof HttpResponseException) {
+                throw toDataException(e);
+            }
+            if (e.getCause() instanceof MarketoAPIException || e.getCause() instanceof HttpResponseException) {
+                throw toDataException(e.getCause());
             }
+            throw e;
         }
-        return accessToken;
     }
 
-    private String requestAccessToken()
+    /**
+     * An exceeded export quota is told apart, bulk extracts stop at it instead of failing
+     */
+    private static DataException toDataException(Throwable exception)
     {
-        final Multimap<String, String> params = ArrayListMultimap.create();
-        params.put("client_id", clientId.trim());
-        params.put("client_secret", clientSecret.trim());
-        params.put("grant_type", "client_credentials");
-
-        // add partner api key to the request
-        if (partnerApiKey.isPresent()) {
-            LOGGER.info("> Request access_token with partner_id: {}", StringUtils.abbreviate(partnerApiKey.get(), 8));
-            params.put("partner_id", partnerApiKey.get());
+        if (exception instanceof MarketoAPIException && ExportQuotaExceededException.isExportQuotaExceeded(((MarketoAPIException) exception).getMarketoErrors().get(0))) {
+            return new ExportQuotaExceededException(exception.getMessage());
         }
+        return new DataException(exception.getMessage());
+    }
 
-        String response = retryHelper.requestWithRetry(new StringJetty94ResponseEntityReader(readTimeoutMillis), new Jetty94SingleRequester()
+    protected <T> T doRequest(final String target, final HttpMethod method, final Map<String, String> headers, final Multimap<String, String> params, final ContentProvider contentProvider, Jetty94ResponseReader<T> responseReader)
+    {
+        return retryHelper.requestWithRetry(responseReader, new Jetty94SingleRequester()
         {
+            // token sent by the last attempt
+            private String requestAccessToken;
+
             @Override
             public void requestOnce(HttpClient client, Response.Listener responseListener)
             {
-                Request request = client.newRequest(identityEndPoint + MarketoRESTEndpoint.ACCESS_TOKEN.getEndpoint()).method(HttpMethod.GET);
-                for (String key : params.keySet()) {
-                    for (String value : params.get(key)) {
-                        request.param(key, value);
-                    }
-                }
-                request.send(responseListener);
+                requestAccessToken = getAccessToken();
+                Request request = newRequest(client, target, method, headers, params, contentProvider, requestAccessToken);
+                waitForCall();
+                sendWithinConcurrentCallLimit(concurrencyGovernor, request, getRequestPriority(target), responseListener);
             }
 
             @Override
             protected boolean isResponseStatusToRetry(Response response)
             {
-                return response.getStatus() == 502;
+                return isStatusToRetry(response.getStatus());
             }
 
             @Override
             protected boolean isExceptionToRetry(Exception exception)
             {
-                if (exception instanceof TimeoutException || exception instanceof SocketTimeoutException || exception instanceof EOFException || super.isExceptionToRetry(exception)) {
+                if (exception instanceof EOFException || exception instanceof TimeoutException || exception instanceof SocketTimeoutException || super.isExceptionToRetry(exception)) {
                     return true;
                 }
-                // unwrap
                 if (exception instanceof ExecutionException || (exception instanceof IOException && exception.getCause() != null)) {
                     return this.toRetry((Exception) exception.getCause());
                 }
+                if (exception instanceof MarketoAPIException) {
+                    return isMarketoErrorToRetry((MarketoAPIException) exception, requestAccessToken);
+                }
+                //retry in case request return data but invalid format
+                if ((exception instanceof DataException) && exception.getMessage().equals(jsonResponseInvalid)) {
+                    return true;
+                }
                 return false;
             }
         });
+    }
 
-        MarketoAccessTokenResponse accessTokenResponse;
+    protected <T> CompletableFuture<MarketoResponse<T>> doGetAsync(final String target, final Map<String, String> headers, final Multimap<String, String> params, MarketoResponseJettyEntityReader<T> responseReader)
+    {
+        return doRequestAsync(target, HttpMethod.GET, headers, params, null, responseReader);
+    }
 
-        try {
-            accessTokenResponse = OBJECT_MAPPER.readValue(response, MarketoAccessTokenResponse.class);
+    protected <T> CompletableFuture<MarketoResponse<T>> doPostAsync(final String target, final Map<String, String> headers, final Multimap<String, String> params, final String content, MarketoResponseJettyEntityReader<T> responseReader)
+    {
+        StringContentProvider contentProvider = null;
+        if (content != null) {
+            contentProvider = new StringContentProvider(APPLICATION_JSON, content, StandardCharsets.UTF_8);
+        }
+        return doRequestAsync(target, HttpMethod.POST, headers, params, contentProvider, responseReader);
+    }
+
+    /**
+     * Asynchronous version of {@link #doRequest}, with the same retries and the same exceptions as {@link #doRequestWithWrappedException}.
+     * The response is read by Jetty without holding a thread. Getting a new access token and waiting for the call limits
+     * are done by the request threads of the asynchronous retry helper, not by the calling thread.
+     */
+    protected <T> CompletableFuture<MarketoResponse<T>> doRequestAsync(final String target, final HttpMethod method, final Map<String, String> headers, final Multimap<String, String> params, final ContentProvider contentProvider, final MarketoResponseJettyEntityReader<T> responseReader)
+    {
+        MarketoAsyncRetryHelper asyncRetryHelper = sharedClient != null ? sharedClient.getAsyncRetryHelper() : null;
+        if (asyncRetryHelper == null) {
+            // the HTTP client of a given retry helper is not known, a thread of the common pool is blocked by the request instead
+            return CompletableFuture.supplyAsync(() -> doRequestWithWrappedException(target, method, headers, params, contentProvider, responseReader));
+        }
+        CompletableFuture<MarketoResponse<T>> retriedResponse = asyncRetryHelper.requestWithRetry(new MarketoAsyncRetryHelper.AsyncRequester<MarketoResponse<T>>()
+        {
+            // token sent by the last attempt
+            private String requestAccessToken;
+
+            @Override
+            public CompletableFuture<MarketoResponse<T>> requestOnce(HttpClient client)
+            {
+                requestAccessToken = getAccessToken();
+                Request request = newRequest(client, target, method, headers, params, contentProvider, requestAccessToken);
+                waitForCall();
+                CompletableFuture<MarketoResponse<T>> future = new CompletableFuture<>();
+                sendWithinConcurrentCallLimit(concurrencyGovernor, request, getRequestPriority(target), new BufferingResponseListener(MAX_ASYNC_RESPONSE_SIZE)
+                {
+                    @Override
+                    public void onComplete(Result result)
+                    {
+                        if (result.isFailed()) {
+                            future.completeExceptionally(result.getFailure());
+                            return;
+                        }
+                        Response response = result.getResponse();
+                        if (response.getStatus() / 100 != 2) {
+                            future.completeExceptionally(new HttpResponseException("Response not 2xx: " + response.getStatus() + " " + response.getReason(), response));
+                            return;
+                        }
+                        try {
+                            future.complete(responseReader.readResponseContent(response, getContentAsInputStream()));
+                        }
+                        catch (Exception e) {
+                            future.completeExceptionally(e);
+                        }
+                    }
+                });
+                return future;
+            }
+
+            @Override
+            public boolean isExceptionToRetry(Exception exception)
+            {
+                if (exception instanceof HttpResponseException) {
+                    return isStatusToRetry(((HttpResponseException) exception).getResponse().getStatus());
+                }
+                if (exception instanceof EOFException || exception instanceof TimeoutException || exception instanceof SocketTimeoutException) {
+                    return true;
+                }
+                if (exception instanceof IOException && exception.getCause() instanceof Exception) {
+                    return isExceptionToRetry((Exception) exception.getCause());
+                }
+                if (exception instanceof MarketoAPIException) {
+                    return isMarketoErrorToRetry((MarketoAPIException) exception, requestAccessToken);
+                }
+                //retry in case request return data but invalid format
+                return (exception instanceof DataException) && jsonResponseInvalid.equals(exception.getMessage());
+            }
+        });
+        CompletableFuture<MarketoResponse<T>> wrappedResponse = new CompletableFuture<>();
+        retriedResponse.whenComplete((value, failure) -> {
+            if (failure == null) {
+                wrappedResponse.complete(value);
+            }
+            else if (failure instanceof MarketoAPIException || failure instanceof HttpResponseException) {
+                wrappedResponse.completeExceptionally(toDataException(failure));
+            }
+            else {
+                wrappedResponse.completeExceptionally(failure);
+            }
+        });
+        return wrappedResponse;
+    }
+
+    private Request newRequest(HttpClient client, String target, HttpMethod method, Map<String, String> headers, Multimap<String, String> params, ContentProvider contentProvider, String accessToken)
+    {
+        Request request = client.newRequest(target).method(method);
+        if (headers != null) {
+            for (String key : headers.keySet()) {
+                request.header(key, headers.get(key));
+            }
         }
-        catch (IOException e) {
-            LOGGER.error("Exception when parse access token response", e);
-            throw new DataException("Can't parse access token response");
+        if (headers == null || !headers.containsKey(ACCEPT_ENCODING_HEADER)) {
+            // content is decoded by the response readers
+            request.header(ACCEPT_ENCODING_HEADER, isTransferCompression() ? GZIP_ENCODING : IDENTITY_ENCODING);
         }
-        if (accessTokenResponse.hasError()) {
-            throw new DataException(accessTokenResponse.getErrorDescription());
+        request.header(AUTHORIZATION_HEADER, "Bearer " + accessToken);
+        if (params != null) {
+            for (String key : params.keySet()) {
+                for (String value : params.get(key)) {
+                    request.param(key, value);
+                }
+            }
         }
-        LOGGER.info("Acquired new access token");
-        return accessTokenResponse.getAccessToken();
+        LOGGER.info("CALLING {} -> {} - params: {}", method, target, params);
+        if (contentProvider != null) {
+            request.content(contentProvider);
+        }
+        return request;
     }
 
-    protected <T> T doGet(final String target, final Map<String, String> headers, final Multimap<String, String> params, Jetty94ResponseReader<T> responseReader)
+    /**
+     * Wait until a call can be made within the call limit, and count the call
+     */
+    private void waitForCall()
     {
-        return doRequestWithWrappedException(target, HttpMethod.GET, headers, params, null, responseReader);
+        waitForCallLimit();
+        quotaUsage.addCall();
+        callCount.incrementAndGet();
     }
 
-    protected <T> T doPost(final String target, final Map<String, String> headers, final Multimap<String, String> params, final String content, Jetty94ResponseReader<T> responseReader)
+    private static boolean isStatusToRetry(int status)
     {
-        StringContentProvider contentProvider = null;
-        if (content != null) {
-            contentProvider = new StringContentProvider(APPLICATION_JSON, content, StandardCharsets.UTF_8);
+        //413 failed job
+        //414 failed job
+        //502 retry
+        return status / 4 != 100;
+    }
+
+    private boolean isMarketoErrorToRetry(MarketoAPIException exception, String rejectedAccessToken)
+    {
+        //Retry Authenticate Exception
+        MarketoError error = exception.getMarketoErrors().get(0);
+        String code = error.getCode();
+        switch (code) {
+            case "602":
+            case "601":
+                accessTokenManager.invalidate(rejectedAccessToken);
+                return true;
+            case INTERVAL_LIMIT_ERROR_CODE:
+                // the retry waits for the call limit with the other calls of the account
+                rateLimiter.backOff();
+                return true;
+            case "604":
+            case "608":
+            case "611":
+            case "615":
+            case "713":
+                return true;
+            case "1029":
+                // queue full or job already queued, an exceeded daily export quota is not reset before the next day
+                return !ExportQuotaExceededException.isExportQuotaExceeded(error);
+            default:
+                return false;
         }
-        return doPost(target, headers, params, responseReader, contentProvider);
     }
 
-    protected <T> T doPost(final String target, final Map<String, String> headers, final Multimap<String, String> params, Jetty94ResponseReader<T> responseReader, final ContentProvider content)
+    /**
+     * @return number of REST API calls made by this client, retries included
+     */
+    public long getCallCount()
     {
-        return doRequestWithWrappedException(target, HttpMethod.POST, headers, params, content, responseReader);
+        return callCount.get();
+    }
+
+    protected MarketoQuotaUsage getQuotaUsage()
+    {
+        return quotaUsage;
+    }
+
+    /**
+     * @return true to ask for gzip compressed responses, unless the request sets its own Accept-Encoding header
+     */
+    protected boolean isTransferCompression()
+    {
+        return false;
+    }
+
+    /**
+     * Priority of a call among the calls waiting for the concurrent call limit
+     */
+    protected MarketoConcurrencyGovernor.Priority getRequestPriority(String target)
+    {
+        return MarketoConcurrencyGovernor.Priority.NORMAL;
     }
 
-    private String getAccessTokenWithWrappedException()
+    /**
+     * Send the request once it doesn't exceed the concurrent call limit. The call is counted until the request completes,
+     * or released right away when the request can't be sent. The call limit has to be waited for before, so no slot is
+     * held while waiting for it.
+     */
+    private static void sendWithinConcurrentCallLimit(MarketoConcurrencyGovernor concurrencyGovernor, Request request, MarketoConcurrencyGovernor.Priority priority, Response.Listener responseListener)
     {
         try {
-            return requestAccessToken();
+            concurrencyGovernor.acquire(priority);
         }
-        catch (Exception e) {
-            if (e instanceof HttpResponseException) {
-                throw new ConfigException(e.getMessage());
-            }
-            if (e.getCause() instanceof HttpResponseException) {
-                throw new ConfigException(e.getCause().getMessage());
+        catch (InterruptedException e) {
+            LOGGER.error("Encounter exception when waiting for concurrent call limit", e);
+            throw new DataException("Exception when wait for concurrent call limit");
+        }
+        AtomicBoolean released = new AtomicBoolean();
+        Runnable release = () -> {
+            if (released.compareAndSet(false, true)) {
+                concurrencyGovernor.release();
             }
+        };
+        try {
+            request.onComplete(result -> release.run());
+            request.send(responseListener);
+        }
+        catch (RuntimeException | Error e) {
+            release.run();
             throw e;
         }
     }
 
-    private <T> T doRequestWithWrappedException(final String target, final HttpMethod method, final Map<String, String> headers, final Multimap<String, String> params, final ContentProvider contentProvider, Jetty94ResponseReader<T> responseReader)
+    private void waitForCallLimit()
     {
         try {
-            return doRequest(target, method, headers, params, contentProvider, responseReader);
+            rateLimiter.acquire();
         }
-        catch (Exception e) {
-            if (e instanceof MarketoAPIException || e instanceof HttpResponseException) {
-                throw new DataException(e.getMessage());
-            }
-            if (e.getCause() instanceof MarketoAPIException || e.getCause() instanceof HttpResponseException) {
-                throw new DataException(e.getCause().getMessage());
-            }
-            throw e;
+        catch (InterruptedException e) {
+            LOGGER.error("Encounter exception when waiting for call limit", e);
+            throw new DataException("Exception when wait for call limit");
         }
     }
 
-    protected <T> T doRequest(final String target, final HttpMethod method, final Map<String, String> headers, final Multimap<String, String> params, final ContentProvider contentProvider, Jetty94ResponseReader<T> responseReader)
+    public synchronized boolean isClosed()
     {
-        return retryHelper.requestWithRetry(responseReader, new Jetty94SingleRequester()
+        return closed;
+    }
+
+    @Override
+    public synchronized void close()
+    {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        if (sharedClient != null) {
+            // closed by the last client once idle
+            sharedClient.release();
+            return;
+        }
+        accessTokenManager.close();
+        if (retryHelper != null) {
+            retryHelper.close();
+        }
+    }
+
+    /**
+     * Request access tokens with the identity end point and credentials of the account, without referring to the client
+     * creating it, so a token manager shared by several clients doesn't keep the first of them.
+     */
+    private static class AccessTokenRequester implements Supplier<MarketoAccessTokenResponse>
+    {
+        private final String identityEndPoint;
+
+        private final String clientId;
+
+        private final String clientSecret;
+
+        private final Optional<String> partnerApiKey;
+
+        private final long readTimeoutMillis;
+
+        private final Jetty94RetryHelper retryHelper;
+
+        private final MarketoConcurrencyGovernor concurrencyGovernor;
+
+        AccessTokenRequester(String identityEndPoint,
+                             String clientId,
+                             String clientSecret,
+                             Optional<String> partnerApiKey,
+                             long readTimeoutMillis,
+                             Jetty94RetryHelper retryHelper,
+                             MarketoConcurrencyGovernor concurrencyGovernor)
         {
-            @Override
-            public void requestOnce(HttpClient client, Response.Listener responseListener)
-            {
-                Request request = client.newRequest(target).method(method);
-                if (headers != null) {
-                    for (String key : headers.keySet()) {
-                        request.header(key, headers.get(key));
-                    }
-                }
-                request.header(AUTHORIZATION_HEADER, "Bearer " + getAccessToken());
-                if (params != null) {
-                    for (String key : params.keySet()) {
-                        for (String value : params.get(key)) {
-                            request.param(key, value);
-                        }
-                    }
+            this.identityEndPoint = identityEndPoint;
+            this.clientId = clientId;
+            this.clientSecret = clientSecret;
+            this.partnerApiKey = partnerApiKey;
+            this.readTimeoutMillis = readTimeoutMillis;
+            this.retryHelper = retryHelper;
+            this.concurrencyGovernor = concurrencyGovernor;
+        }
+
+        @Override
+        public MarketoAccessTokenResponse get()
+        {
+            try {
+                return requestAccessToken();
+            }
+            catch (Exception e) {
+                if (e instanceof HttpResponseException) {
+                    throw new ConfigException(e.getMessage());
                 }
-                LOGGER.info("CALLING {} -> {} - params: {}", method, target, params);
-                if (contentProvider != null) {
-                    request.content(contentProvider);
+                if (e.getCause() instanceof HttpResponseException) {
+                    throw new ConfigException(e.getCause().getMessage());
                 }
-                request.send(responseListener);
+                throw e;
             }
+        }
 
-            @Override
-            protected boolean isResponseStatusToRetry(Response response)
-            {
-                //413 failed job
-                //414 failed job
-                //502 retry
-                return response.getStatus() / 4 != 100;
+        private MarketoAccessTokenResponse requestAccessToken()
+        {
+            final Multimap<String, String> params = ArrayListMultimap.create();
+            params.put("client_id", clientId.trim());
+            params.put("client_secret", clientSecret.trim());
+            params.put("grant_type", "client_credentials");
+
+            // add partner api key to the request
+            if (partnerApiKey.isPresent()) {
+                LOGGER.info("> Request access_token with partner_id: {}", StringUtils.abbreviate(partnerApiKey.get(), 8));
+                params.put("partner_id", partnerApiKey.get());
             }
 
-            @Override
-            protected boolean isExceptionToRetry(Exception exception)
+            String response = retryHelper.requestWithRetry(new StringJetty94ResponseEntityReader(readTimeoutMillis), new Jetty94SingleRequester()
             {
-                if (exception instanceof EOFException || exception instanceof TimeoutException || exception instanceof SocketTimeoutException || super.isExceptionToRetry(exception)) {
-                    return true;
+                @Override
+                public void requestOnce(HttpClient client, Response.Listener responseListener)
+                {
+                    Request request = client.newRequest(identityEndPoint + MarketoRESTEndpoint.ACCESS_TOKEN.getEndpoint()).method(HttpMethod.GET);
+                    for (String key : params.keySet()) {
+                        for (String value : params.get(key)) {
+                            request.param(key, value);
+                        }
+                    }
+                    // the token response is read as is
+                    request.header(ACCEPT_ENCODING_HEADER, IDENTITY_ENCODING);
+                    sendWithinConcurrentCallLimit(concurrencyGovernor, request, MarketoConcurrencyGovernor.Priority.HIGH, responseListener);
                 }
-                if (exception instanceof ExecutionException || (exception instanceof IOException && exception.getCause() != null)) {
-                    return this.toRetry((Exception) exception.getCause());
+
+                @Override
+                protected boolean isResponseStatusToRetry(Response response)
+                {
+                    return response.getStatus() == 502;
                 }
-                if (exception instanceof MarketoAPIException) {
-                    //Retry Authenticate Exception
-                    MarketoError error = ((MarketoAPIException) exception).getMarketoErrors().get(0);
-                    String code = error.getCode();
-                    switch (code) {
-                        case "602":
-                        case "601":
-                            LOGGER.info("Access token expired");
-                            renewAccessToken();
-                            return true;
-                        case "606":
-                            try {
-                                Thread.sleep(marketoLimitIntervalMillis);
-                            }
-                            catch (InterruptedException e) {
-                                LOGGER.error("Encounter exception when waiting for interval limit", e);
-                                throw new DataException("Exception when wait for interval limit");
-                            }
-                            return true;
-                        case "604":
-                        case "608":
-                        case "611":
-                        case "615":
-                        case "713":
-                        case "1029":
-                            return true;
-                        default:
-                            return false;
+
+                @Override
+                protected boolean isExceptionToRetry(Exception exception)
+                {
+                    if (exception instanceof TimeoutException || exception instanceof SocketTimeoutException || exception instanceof EOFException || super.isExceptionToRetry(exception)) {
+                        return true;
                     }
+                    // unwrap
+                    if (exception instanceof ExecutionException || (exception instanceof IOException && exception.getCause() != null)) {
+                        return this.toRetry((Exception) exception.getCause());
+                    }
+                    return false;
                 }
-                //retry in case request return data but invalid format
-                if ((exception instanceof DataException) && exception.getMessage().equals(jsonResponseInvalid)) {
-                    return true;
-                }
-                return false;
-            }
-        });
-    }
+            });
 
-    @Override
-    public void close()
-    {
-        if (retryHelper != null) {
-            retryHelper.close();
+            MarketoAccessTokenResponse accessTokenResponse;
+
+            try {
+                accessTokenResponse = OBJECT_MAPPER.readValue(response, MarketoAccessTokenResponse.class);
+            }
+            catch (IOException e) {
+                LOGGER.error("Exception when parse access token response", e);
+                throw new DataException("Can't parse access token response");
+            }
+            if (accessTokenResponse.hasError()) {
+                throw new DataException(accessTokenResponse.getErrorDescription());
+            }
+            LOGGER.info("Acquired new access token");
+            return accessTokenResponse;
         }
     }
 }
@@ -0,0 +1,130 @@
+package org.embulk.input.marketo.rest;
+
+import com.google.common.annotations.VisibleForTesting;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Limit the number of Marketo REST API calls in flight for an account, shared by every client of the account in the JVM.
+ * Marketo rejects calls over 10 concurrent ones with error 615. Waiting calls are granted in arrival order,
+ * calls of a higher priority go before the ones of a lower priority so short calls don't wait behind page fetches.
+ * A slot is held until the response is read, for the whole body of a file download, so some slots are only taken by
+ * calls of the high priority and status polls and token requests are not stuck behind long downloads.
+ */
+public class MarketoConcurrencyGovernor
+{
+    public enum Priority
+    {
+        // token requests and bulk extract status polls
+        HIGH,
+        NORMAL
+    }
+
+    //https://developers.marketo.com/rest-api/#limits
+    private static final int MAX_CONCURRENT_CALLS = 10;
+
+    private static final int RESERVED_HIGH_PRIORITY_CALLS = 1;
+
+    private static final ConcurrentMap<String, MarketoConcurrencyGovernor> GOVERNORS = new ConcurrentHashMap<>();
+
+    private final int maxConcurrentCalls;
+
+    // slots not taken by calls of the normal priority
+    private final int reservedHighPriorityCalls;
+
+    private final Map<Priority, Deque<Waiter>> waiters = new EnumMap<>(Priority.class);
+
+    private int inFlightCalls;
+
+    MarketoConcurrencyGovernor(int maxConcurrentCalls)
+    {
+        this(maxConcurrentCalls, 0);
+    }
+
+    MarketoConcurrencyGovernor(int maxConcurrentCalls, int reservedHighPriorityCalls)
+    {
+        this.maxConcurrentCalls = maxConcurrentCalls;
+        this.reservedHighPriorityCalls = reservedHighPriorityCalls;
+        for (Priority priority : Priority.values()) {
+            waiters.put(priority, new ArrayDeque<>());
+        }
+    }
+
+    public static MarketoConcurrencyGovernor getInstance(String account)
+    {
+        return GOVERNORS.computeIfAbsent(account, key -> new MarketoConcurrencyGovernor(MAX_CONCURRENT_CALLS, RESERVED_HIGH_PRIORITY_CALLS));
+    }
+
+    /**
+     * Wait until a call can be made, {@link #release()} must be called once the call completes.
+     */
+    public synchronized void acquire(Priority priority) throws InterruptedException
+    {
+        Waiter waiter = new Waiter();
+        waiters.get(priority).add(waiter);
+        grant();
+        try {
+            while (!waiter.granted) {
+                wait();
+            }
+        }
+        catch (InterruptedException e) {
+            if (waiter.granted) {
+                release();
+            }
+            else {
+                waiters.get(priority).remove(waiter);
+            }
+            throw e;
+        }
+    }
+
+    public synchronized void release()
+    {
+        inFlightCalls--;
+        grant();
+    }
+
+    @VisibleForTesting
+    synchronized int availablePermits()
+    {
+        return maxConcurrentCalls - inFlightCalls;
+    }
+
+    @VisibleForTesting
+    synchronized int getWaitingCalls()
+    {
+        int waitingCalls = 0;
+        for (Deque<Waiter> queue : waiters.values()) {
+            waitingCalls += queue.size();
+        }
+        return waitingCalls;
+    }
+
+    private void grant()
+    {
+        boolean granted = false;
+        for (Priority priority : Priority.values()) {
+            Deque<Waiter> queue = waiters.get(priority);
+            int maxCalls = priority == Priority.HIGH ? maxConcurrentCalls : maxConcurrentCalls - reservedHighPriorityCalls;
+            while (inFlightCalls < maxCalls && !queue.isEmpty()) {
+                queue.poll().granted = true;
+                inFlightCalls++;
+                granted = true;
+            }
+        }
+        if (granted) {
+            notifyAll();
+        }
+    }
+
+    private static class Waiter
+    {
+        private boolean granted;
+    }
+}
@@ -0,0 +1,264 @@
+package org.embulk.input.marketo.rest;
+
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import org.embulk.spi.DataException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Poll the status of all the export jobs of an account waited in the JVM from a single thread, whatever client and
+ * kind of export they belong to. A polling round lists the queued and processing jobs of the account once per kind
+ * of export, that is a single page since Marketo allows at most 12 of them. Only the jobs missing from that list,
+ * which are finished, have their own status call made by the client of the job, as all the jobs have when the listing
+ * fails. Polling calls don't grow with the number of jobs waited concurrently.
+ */
+public class MarketoExportJobPoller
+{
+    private static final Logger LOGGER = LoggerFactory.getLogger(MarketoExportJobPoller.class);
+
+    public enum ExportType
+    {
+        LEADS(MarketoRESTEndpoint.GET_LEAD_EXPORT_JOBS, MarketoRESTEndpoint.GET_LEAD_EXPORT_STATUS),
+        ACTIVITIES(MarketoRESTEndpoint.GET_ACTIVITY_EXPORT_JOBS, MarketoRESTEndpoint.GET_ACTIVITY_EXPORT_STATUS),
+        PROGRAM_MEMBERS(MarketoRESTEndpoint.GET_PROGRAM_MEMBERS_EXPORT_JOBS, MarketoRESTEndpoint.GET_PROGRAM_MEMBERS_EXPORT_STATUS);
+
+        private final MarketoRESTEndpoint listEndpoint;
+
+        private final MarketoRESTEndpoint statusEndpoint;
+
+        ExportType(MarketoRESTEndpoint listEndpoint, MarketoRESTEndpoint statusEndpoint)
+        {
+            this.listEndpoint = listEndpoint;
+            this.statusEndpoint = statusEndpoint;
+        }
+    }
+
+    private static final ConcurrentMap<String, MarketoExportJobPoller> POLLERS = new ConcurrentHashMap<>();
+
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "marketo-export-job-poller");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    // guarded by this
+    private final Map<String, PendingJob> pendingJobs = new LinkedHashMap<>();
+
+    private ScheduledFuture<?> nextRound;
+
+    private long nextRoundAt = Long.MAX_VALUE;
+
+    private MarketoExportJobPoller()
+    {
+    }
+
+    /**
+     * The poller of an account is shared by all its clients, its thread lives as long as the JVM.
+     */
+    public static MarketoExportJobPoller getInstance(String account)
+    {
+        return POLLERS.computeIfAbsent(account, key -> new MarketoExportJobPoller());
+    }
+
+    /**
+     * @param restClient client of the job, polling its status and counting its exported bytes
+     * @return future completed with the status of the completed job, or a DataException when it failed or timed out
+     */
+    public CompletableFuture<ObjectNode> submit(MarketoRestClient restClient, ExportType exportType, String exportId, int pollingInterval, int waitTimeout)
+    {
+        long now = System.currentTimeMillis();
+        PendingJob job = new PendingJob(restClient, exportType, exportId, restClient.newExportJobPollingInterval(exportType.statusEndpoint, pollingInterval, now),
+                pollingInterval * 1000L, now, now + waitTimeout * 1000L);
+        synchronized (this) {
+            pendingJobs.put(exportId, job);
+            scheduleRound(now);
+        }
+        return job.future;
+    }
+
+    /**
+     * Stop polling the job, when its waiter gave up
+     */
+    public synchronized void cancel(String exportId)
+    {
+        PendingJob job = pendingJobs.remove(exportId);
+        if (job != null) {
+            job.future.cancel(false);
+        }
+    }
+
+    /**
+     * Stop polling the jobs of a client being closed, they are failed
+     */
+    public void cancel(MarketoRestClient restClient)
+    {
+        List<PendingJob> abandonedJobs = new ArrayList<>();
+        synchronized (this) {
+            pendingJobs.values().removeIf(job -> job.restClient == restClient && abandonedJobs.add(job));
+        }
+        for (PendingJob job : abandonedJobs) {
+            job.future.completeExceptionally(new DataException("Marketo client closed before export job [" + job.exportId + "] completed"));
+        }
+    }
+
+    // guarded by this
+    private void scheduleRound(long at)
+    {
+        if (at >= nextRoundAt) {
+            return;
+        }
+        if (nextRound != null) {
+            nextRound.cancel(false);
+        }
+        nextRoundAt = at;
+        nextRound = scheduler.schedule(this::poll, Math.max(0, at - System.currentTimeMillis()), TimeUnit.MILLISECONDS);
+    }
+
+    private void poll()
+    {
+        long now = System.currentTimeMillis();
+        Map<ExportType, List<PendingJob>> dueJobs = new EnumMap<>(ExportType.class);
+        synchronized (this) {
+            nextRound = null;
+            nextRoundAt = Long.MAX_VALUE;
+            for (PendingJob job : pendingJobs.values()) {
+                if (job.nextPollAt <= now) {
+                    dueJobs.computeIfAbsent(job.exportType, exportType -> new ArrayList<>()).add(job);
+                }
+            }
+        }
+        try {
+            for (Map.Entry<ExportType, List<PendingJob>> entry : dueJobs.entrySet()) {
+                pollJobs(entry.getKey(), entry.getValue());
+            }
+        }
+        finally {
+            synchronized (this) {
+                long next = Long.MAX_VALUE;
+                for (PendingJob job : pendingJobs.values()) {
+                    next = Math.min(next, job.nextPollAt);
+                }
+                if (next != Long.MAX_VALUE) {
+                    scheduleRound(next);
+                }
+            }
+        }
+    }
+
+    private void pollJobs(ExportType exportType, List<PendingJob> jobs)
+    {
+        // null when the jobs couldn't be listed, each job has its status polled then
+        Map<String, ObjectNode> activeJobs = null;
+        // jobs of the account are listed by any of their clients still open
+        Optional<PendingJob> listingJob = jobs.stream().filter(job -> !job.restClient.isClosed()).findFirst();
+        if (listingJob.isPresent()) {
+            try {
+                activeJobs = new HashMap<>();
+                for (ObjectNode activeJob : listingJob.get().restClient.listActiveExportJobs(exportType.listEndpoint)) {
+                    if (activeJob.hasNonNull("exportId")) {
+                        activeJobs.put(activeJob.get("exportId").asText(), activeJob);
+                    }
+                }
+            }
+            catch (RuntimeException e) {
+                LOGGER.warn("Encounter exception when listing [{}] export jobs, poll the status of each job instead", exportType, e);
+                activeJobs = null;
+            }
+        }
+        for (PendingJob job : jobs) {
+            try {
+                pollJob(job, activeJobs != null ? activeJobs.get(job.exportId) : null);
+            }
+            catch (RuntimeException e) {
+                fail(job, e);
+            }
+        }
+    }
+
+    private void pollJob(PendingJob job, ObjectNode activeStatus)
+    {
+        // a job missing from the active ones is finished, or not listed yet
+        ObjectNode status = activeStatus != null ? activeStatus : job.restClient.getExportJobStatus(job.exportType.statusEndpoint, job.exportId);
+        long now = System.currentTimeMillis();
+        long nextIntervalMillis = job.pollingIntervalMillis;
+        if (status != null) {
+            String jobStatus = status.get("status").asText();
+            if (job.restClient.isExportJobComplete(job.exportType.statusEndpoint, job.exportId, jobStatus, status)) {
+                LOGGER.info("Total wait time ms is [{}]", now - job.startedWaitingAt);
+                complete(job, status);
+                return;
+            }
+            nextIntervalMillis = job.pollingInterval.nextIntervalMillis(jobStatus, status, now);
+        }
+        if (now >= job.timeoutAt) {
+            fail(job, new DataException("Job timeout exception, exportJob: " + job.exportId + ", run longer than " + (job.timeoutAt - job.startedWaitingAt) / 1000 + " seconds"));
+            return;
+        }
+        synchronized (this) {
+            // last poll at the timeout
+            job.nextPollAt = Math.min(now + nextIntervalMillis, job.timeoutAt);
+        }
+    }
+
+    private synchronized void complete(PendingJob job, ObjectNode status)
+    {
+        pendingJobs.remove(job.exportId);
+        job.future.complete(status);
+    }
+
+    private synchronized void fail(PendingJob job, RuntimeException e)
+    {
+        pendingJobs.remove(job.exportId);
+        job.future.completeExceptionally(e);
+    }
+
+    private static class PendingJob
+    {
+        private final MarketoRestClient restClient;
+
+        private final ExportType exportType;
+
+        private final String exportId;
+
+        private final ExportJobPollingInterval pollingInterval;
+
+        // used when the status couldn't be polled
+        private final long pollingIntervalMillis;
+
+        private final long startedWaitingAt;
+
+        private final long timeoutAt;
+
+        private final CompletableFuture<ObjectNode> future = new CompletableFuture<>();
+
+        // guarded by the poller
+        private long nextPollAt;
+
+        PendingJob(MarketoRestClient restClient, ExportType exportType, String exportId, ExportJobPollingInterval pollingInterval, long pollingIntervalMillis, long startedWaitingAt, long timeoutAt)
+        {
+            this.restClient = restClient;
+            this.exportType = exportType;
+            this.exportId = exportId;
+            this.pollingInterval = pollingInterval;
+            this.pollingIntervalMillis = pollingIntervalMillis;
+            this.startedWaitingAt = startedWaitingAt;
+            this.timeoutAt = timeoutAt;
+            this.nextPollAt = startedWaitingAt;
+        }
+    }
+}
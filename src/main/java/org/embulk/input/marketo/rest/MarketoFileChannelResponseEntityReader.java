@@ -0,0 +1,195 @@
+package org.embulk.input.marketo.rest;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import org.eclipse.jetty.client.api.Response;
+import org.eclipse.jetty.client.api.Result;
+import org.eclipse.jetty.http.HttpHeader;
+import org.embulk.input.marketo.exception.BulkExtractRangeException;
+import org.embulk.input.marketo.exception.MarketoAPIException;
+import org.embulk.input.marketo.model.BulkExtractRangeHeader;
+import org.embulk.input.marketo.model.MarketoResponse;
+import org.embulk.util.retryhelper.jetty94.Jetty94ResponseReader;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Write the content of a bulk extract file response straight from the buffers received by Jetty into a file channel,
+ * at the position of the range requested. Content is not copied through the heap and no thread reads the response.
+ * A response that is not the range requested, or goes past its end, fails with {@link BulkExtractRangeException}.
+ * A transfer broken after some bytes were written doesn't fail, {@link #isComplete()} tells whether the content has
+ * to be resumed after {@link #getWrittenBytes()}.
+ */
+public class MarketoFileChannelResponseEntityReader implements Jetty94ResponseReader<Long>
+{
+    private static final Logger LOGGER = LoggerFactory.getLogger(MarketoFileChannelResponseEntityReader.class);
+
+    private static final ObjectReader OBJECT_READER = new ObjectMapper().readerFor(new TypeReference<MarketoResponse<ObjectNode>>(){ });
+
+    private final long timeout;
+
+    private final FileChannel channel;
+
+    private final BulkExtractRangeHeader rangeHeader;
+
+    private final long position;
+
+    // bytes of the range, Long.MAX_VALUE up to the end of the file
+    private final long rangeLength;
+
+    private ChannelListener listener;
+
+    public MarketoFileChannelResponseEntityReader(long timeout, FileChannel channel, BulkExtractRangeHeader rangeHeader)
+    {
+        this.timeout = timeout;
+        this.channel = channel;
+        this.rangeHeader = rangeHeader;
+        this.position = rangeHeader.getStart();
+        this.rangeLength = rangeHeader.getEnd() != null ? rangeHeader.getEnd() - rangeHeader.getStart() + 1 : Long.MAX_VALUE;
+    }
+
+    @Override
+    public Response.Listener getListener()
+    {
+        // a retried request writes its content from the same position again
+        this.listener = new ChannelListener();
+        return this.listener;
+    }
+
+    @Override
+    public Response getResponse() throws Exception
+    {
+        return this.listener.headers.get(timeout, TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public Long readResponseContent() throws Exception
+    {
+        if (!listener.toChannel) {
+            MarketoResponse<ObjectNode> errorResponse = OBJECT_READER.readValue(readResponseContentInString());
+            if (!errorResponse.isSuccess()) {
+                throw new MarketoAPIException(errorResponse.getErrors());
+            }
+            ByteBuffer content = ByteBuffer.wrap(listener.bufferedContent.toByteArray());
+            while (content.hasRemaining()) {
+                listener.writtenBytes += channel.write(content, position + listener.writtenBytes);
+            }
+            return listener.writtenBytes;
+        }
+        try {
+            return listener.completion.get();
+        }
+        catch (ExecutionException e) {
+            if (e.getCause() instanceof BulkExtractRangeException) {
+                throw (BulkExtractRangeException) e.getCause();
+            }
+            if (listener.writtenBytes == 0) {
+                throw e;
+            }
+            // resumed by the caller
+            LOGGER.warn("Bulk extract download broken after [{}] bytes", listener.writtenBytes, e.getCause());
+            return listener.writtenBytes;
+        }
+    }
+
+    @Override
+    public String readResponseContentInString() throws Exception
+    {
+        listener.completion.get();
+        return new String(listener.bufferedContent.toByteArray(), StandardCharsets.UTF_8);
+    }
+
+    /**
+     * @return true when the whole content of the last attempt was written
+     */
+    public boolean isComplete()
+    {
+        return listener != null && listener.completion.isDone() && !listener.completion.isCompletedExceptionally();
+    }
+
+    /**
+     * @return bytes written from the position by the last attempt
+     */
+    public long getWrittenBytes()
+    {
+        return listener == null ? 0 : listener.writtenBytes;
+    }
+
+    private class ChannelListener extends Response.Listener.Adapter
+    {
+        private final CompletableFuture<Response> headers = new CompletableFuture<>();
+
+        private final CompletableFuture<Long> completion = new CompletableFuture<>();
+
+        // content of error responses, written to the file otherwise
+        private final ByteArrayOutputStream bufferedContent = new ByteArrayOutputStream();
+
+        private volatile boolean toChannel;
+
+        private volatile long writtenBytes;
+
+        @Override
+        public void onHeaders(Response response)
+        {
+            String contentType = response.getHeaders().get(HttpHeader.CONTENT_TYPE);
+            toChannel = response.getStatus() / 100 == 2 && contentType != null && contentType.contains("text/csv");
+            headers.complete(response);
+            String contentRange = response.getHeaders().get(HttpHeader.CONTENT_RANGE);
+            if (toChannel && !rangeHeader.isSatisfiedBy(response.getStatus(), contentRange)) {
+                response.abort(new BulkExtractRangeException("Response " + response.getStatus() + " with Content-Range [" + contentRange + "] doesn't match range [" + rangeHeader.toRangeHeaderValue() + "]"));
+            }
+        }
+
+        @Override
+        public void onContent(Response response, ByteBuffer content)
+        {
+            if (!toChannel) {
+                byte[] bytes = new byte[content.remaining()];
+                content.get(bytes);
+                bufferedContent.write(bytes, 0, bytes.length);
+                return;
+            }
+            boolean pastRange = content.remaining() > rangeLength - writtenBytes;
+            if (pastRange) {
+                // bytes after the range are not written over the next range
+                content.limit(content.position() + (int) (rangeLength - writtenBytes));
+            }
+            try {
+                // the buffer is released by Jetty once this returns
+                while (content.hasRemaining()) {
+                    writtenBytes += channel.write(content, position + writtenBytes);
+                }
+            }
+            catch (IOException e) {
+                response.abort(e);
+                return;
+            }
+            if (pastRange) {
+                response.abort(new BulkExtractRangeException("Response goes past the end of range [" + rangeHeader.toRangeHeaderValue() + "]"));
+            }
+        }
+
+        @Override
+        public void onComplete(Result result)
+        {
+            if (result.isFailed()) {
+                headers.completeExceptionally(result.getFailure());
+                completion.completeExceptionally(result.getFailure());
+            }
+            else {
+                completion.complete(writtenBytes);
+            }
+        }
+    }
+}
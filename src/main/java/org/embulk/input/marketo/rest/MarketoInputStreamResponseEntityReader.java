@@ -8,7 +8,9 @@ import com.google.common.io.CharStreams;
 import org.eclipse.jetty.client.api.Response;
 import org.eclipse.jetty.client.util.InputStreamResponseListener;
 import org.eclipse.jetty.http.HttpHeader;
+import org.embulk.input.marketo.exception.BulkExtractRangeException;
 import org.embulk.input.marketo.exception.MarketoAPIException;
+import org.embulk.input.marketo.model.BulkExtractRangeHeader;
 import org.embulk.input.marketo.model.MarketoResponse;
 import org.embulk.util.retryhelper.jetty94.Jetty94ResponseReader;
 
@@ -27,9 +29,18 @@ public class MarketoInputStreamResponseEntityReader implements Jetty94ResponseRe
 
     private long timeout;
 
+    // range of the bulk extract file requested, null when the response is not checked against a range
+    private final BulkExtractRangeHeader rangeHeader;
+
     public MarketoInputStreamResponseEntityReader(long timeout)
+    {
+        this(timeout, null);
+    }
+
+    public MarketoInputStreamResponseEntityReader(long timeout, BulkExtractRangeHeader rangeHeader)
     {
         this.timeout = timeout;
+        this.rangeHeader = rangeHeader;
     }
 
     @Override
@@ -56,13 +67,28 @@ public class MarketoInputStreamResponseEntityReader implements Jetty94ResponseRe
                 throw new MarketoAPIException(errorResponse.getErrors());
             }
         }
-        return this.listener.getInputStream();
+        Response response = getResponse();
+        String contentRange = response.getHeaders().get(HttpHeader.CONTENT_RANGE);
+        if (rangeHeader != null && !rangeHeader.isSatisfiedBy(response.getStatus(), contentRange)) {
+            // the content is not read, abort the response
+            this.listener.getInputStream().close();
+            throw new BulkExtractRangeException("Response " + response.getStatus() + " with Content-Range [" + contentRange + "] doesn't match range [" + rangeHeader.toRangeHeaderValue() + "]");
+        }
+        return getResponseContentStream();
+    }
+
+    /**
+     * @return content of the response, decoded when it was compressed for the transfer
+     */
+    private InputStream getResponseContentStream() throws Exception
+    {
+        return MarketoResponseJettyEntityReader.decodeContent(getResponse(), this.listener.getInputStream());
     }
 
     @Override
     public String readResponseContentInString() throws Exception
     {
-        try (InputStreamReader inputStreamReader = new InputStreamReader(this.listener.getInputStream())) {
+        try (InputStreamReader inputStreamReader = new InputStreamReader(getResponseContentStream())) {
             return CharStreams.toString(inputStreamReader);
         }
     }
@@ -0,0 +1,95 @@
+package org.embulk.input.marketo.rest;
+
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Daily quota usage of a Marketo subscription by the clients of this JVM: REST API calls, error 607 once exhausted,
+ * and bytes of bulk extract files, error 1029 once exhausted. Usage of other processes sharing the subscription is not known,
+ * unless they all {@link #record} their usage to the same place.
+ * Marketo resets the quotas at midnight US Central time, so are the counters.
+ */
+public class MarketoQuotaUsage
+{
+    private static final ZoneId QUOTA_TIME_ZONE = ZoneId.of("America/Chicago");
+
+    private static final ConcurrentMap<String, MarketoQuotaUsage> USAGES = new ConcurrentHashMap<>();
+
+    private LocalDate day;
+
+    private long calls;
+
+    private long exportedBytes;
+
+    // usage of the day already given to a recorder
+    private long recordedCalls;
+
+    private long recordedExportedBytes;
+
+    MarketoQuotaUsage()
+    {
+        this.day = LocalDate.now(QUOTA_TIME_ZONE);
+    }
+
+    public static MarketoQuotaUsage getInstance(String account)
+    {
+        return USAGES.computeIfAbsent(account, key -> new MarketoQuotaUsage());
+    }
+
+    public synchronized void addCall()
+    {
+        rollOver();
+        calls++;
+    }
+
+    public synchronized void addExportedBytes(long bytes)
+    {
+        rollOver();
+        exportedBytes += bytes;
+    }
+
+    public synchronized long getCalls()
+    {
+        rollOver();
+        return calls;
+    }
+
+    public synchronized long getExportedBytes()
+    {
+        rollOver();
+        return exportedBytes;
+    }
+
+    /**
+     * Give the usage counted since the last call to the recorder, so usage can be accumulated outside of this JVM.
+     * Usage is not marked as recorded when the recorder fails.
+     * @return value returned by the recorder
+     */
+    public synchronized <T> T record(UsageRecorder<T> recorder)
+    {
+        rollOver();
+        T value = recorder.record(day, calls - recordedCalls, exportedBytes - recordedExportedBytes);
+        recordedCalls = calls;
+        recordedExportedBytes = exportedBytes;
+        return value;
+    }
+
+    private void rollOver()
+    {
+        LocalDate today = LocalDate.now(QUOTA_TIME_ZONE);
+        if (!today.equals(day)) {
+            day = today;
+            calls = 0;
+            exportedBytes = 0;
+            recordedCalls = 0;
+            recordedExportedBytes = 0;
+        }
+    }
+
+    public interface UsageRecorder<T>
+    {
+        T record(LocalDate day, long calls, long exportedBytes);
+    }
+}
@@ -17,6 +17,10 @@ public enum MarketoRESTEndpoint
     START_ACTIVITY_EXPORT_JOB("/bulk/v1/activities/export/${export_id}/enqueue.json"),
     GET_ACTIVITY_EXPORT_STATUS("/bulk/v1/activities/export/${export_id}/status.json"),
     GET_LEAD_EXPORT_STATUS("/bulk/v1/leads/export/${export_id}/status.json"),
+    CANCEL_LEAD_EXPORT_JOB("/bulk/v1/leads/export/${export_id}/cancel.json"),
+    CANCEL_ACTIVITY_EXPORT_JOB("/bulk/v1/activities/export/${export_id}/cancel.json"),
+    GET_LEAD_EXPORT_JOBS("/bulk/v1/leads/export.json"),
+    GET_ACTIVITY_EXPORT_JOBS("/bulk/v1/activities/export.json"),
     GET_LEAD_EXPORT_RESULT("/bulk/v1/leads/export/${export_id}/file.json"),
     GET_ACTIVITY_EXPORT_RESULT("/bulk/v1/activities/export/${export_id}/file.json"),
     GET_LISTS("/rest/v1/lists.json"),
@@ -32,6 +36,7 @@ public enum MarketoRESTEndpoint
     CREATE_PROGRAM_MEMBERS_EXPORT_JOB("/bulk/v1/program/members/export/create.json"),
     START_PROGRAM_MEMBERS_EXPORT_JOB("/bulk/v1/program/members/export/${export_id}/enqueue.json"),
     GET_PROGRAM_MEMBERS_EXPORT_STATUS("/bulk/v1/program/members/export/${export_id}/status.json"),
+    GET_PROGRAM_MEMBERS_EXPORT_JOBS("/bulk/v1/program/members/export.json"),
     GET_PROGRAM_MEMBERS_EXPORT_RESULT("/bulk/v1/program/members/export/${export_id}/file.json");
     private final String endpoint;
 
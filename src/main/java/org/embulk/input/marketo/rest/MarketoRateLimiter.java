@@ -0,0 +1,100 @@
+package org.embulk.input.marketo.rest;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Client side limiter of the Marketo REST API call rate, shared by every client of an account in the JVM.
+ * Marketo allows a number of calls per rolling interval (100 calls per 20 seconds), so a call is allowed once
+ * the call made that number of calls before is older than the interval. Waiting calls go in arrival order.
+ */
+public class MarketoRateLimiter
+{
+    private static final Logger LOGGER = LoggerFactory.getLogger(MarketoRateLimiter.class);
+
+    private static final ConcurrentMap<String, MarketoRateLimiter> LIMITERS = new ConcurrentHashMap<>();
+
+    private final long intervalMillis;
+
+    private final long intervalNanos;
+
+    // time of the last calls, reserved by the calls still waiting, callTimes[next] is the oldest one
+    private final long[] callTimes;
+
+    private int next;
+
+    private final ReentrantLock lock = new ReentrantLock(true);
+
+    MarketoRateLimiter(int calls, long intervalMillis)
+    {
+        this.intervalMillis = intervalMillis;
+        this.intervalNanos = TimeUnit.MILLISECONDS.toNanos(intervalMillis);
+        this.callTimes = new long[calls];
+        Arrays.fill(callTimes, System.nanoTime() - intervalNanos);
+    }
+
+    /**
+     * The limiter of an account is created by its first client, later clients share it and its limits.
+     */
+    public static MarketoRateLimiter getInstance(String account, int calls, long intervalMillis)
+    {
+        MarketoRateLimiter limiter = LIMITERS.computeIfAbsent(account, key -> new MarketoRateLimiter(calls, intervalMillis));
+        if (limiter.callTimes.length != calls || limiter.intervalMillis != intervalMillis) {
+            LOGGER.warn("Call limit of [{}] calls per [{}] ms is ignored, calls of the account are already limited to [{}] calls per [{}] ms in this JVM",
+                    calls, intervalMillis, limiter.callTimes.length, limiter.intervalMillis);
+        }
+        return limiter;
+    }
+
+    /**
+     * Wait until a call can be made without exceeding the limit, the call is counted from then.
+     * The time of the call is reserved under the lock, the wait is done outside it.
+     */
+    public void acquire() throws InterruptedException
+    {
+        long callTime;
+        lock.lockInterruptibly();
+        try {
+            long now = System.nanoTime();
+            callTime = callTimes[next] + intervalNanos;
+            if (callTime - now < 0) {
+                callTime = now;
+            }
+            callTimes[next] = callTime;
+            next = (next + 1) % callTimes.length;
+        }
+        finally {
+            lock.unlock();
+        }
+        long waitNanos = callTime - System.nanoTime();
+        if (waitNanos > 0) {
+            TimeUnit.NANOSECONDS.sleep(waitNanos);
+        }
+    }
+
+    /**
+     * Marketo rejected a call for exceeding the limit, it also counts calls made outside this limiter.
+     * The next calls wait as if the limit was reached now, calls already reserved later keep their time.
+     */
+    public void backOff()
+    {
+        lock.lock();
+        try {
+            long now = System.nanoTime();
+            for (int i = 0; i < callTimes.length; i++) {
+                if (callTimes[i] - now < 0) {
+                    callTimes[i] = now;
+                }
+            }
+        }
+        finally {
+            lock.unlock();
+        }
+    }
+}
@@ -1,13 +1,21 @@
 package org.embulk.input.marketo.rest;
 
+import com.fasterxml.jackson.core.JsonParseException;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.core.type.TypeReference;
 import com.fasterxml.jackson.databind.DeserializationFeature;
 import com.fasterxml.jackson.databind.JavaType;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.google.common.annotations.VisibleForTesting;
 import com.google.common.io.CharStreams;
 import org.eclipse.jetty.client.api.Response;
 import org.eclipse.jetty.client.util.InputStreamResponseListener;
+import org.eclipse.jetty.http.HttpHeader;
 import org.embulk.input.marketo.exception.MarketoAPIException;
+import org.embulk.input.marketo.model.MarketoError;
 import org.embulk.input.marketo.model.MarketoResponse;
 import org.embulk.spi.DataException;
 import org.embulk.util.retryhelper.jetty94.Jetty94ResponseReader;
@@ -18,7 +26,10 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPInputStream;
 
 /**
  * Created by tai.khuu on 9/1/17.
@@ -32,21 +43,26 @@ public class MarketoResponseJettyEntityReader<T> implements Jetty94ResponseReade
     private static final Logger LOGGER = LoggerFactory.getLogger(MarketoResponseJettyEntityReader.class);
     private final Long timeout;
 
+    // type of a record of the result
     private final JavaType javaType;
 
+    private static final int GZIP_BUFFER_SIZE = 0x10000;
+
+    private static final TypeReference<List<MarketoError>> ERRORS_TYPE = new TypeReference<List<MarketoError>>() {};
+
     public static String jsonResponseInvalid = "Exception when parse json content";
 
     public MarketoResponseJettyEntityReader(long timeout)
     {
         this.timeout = timeout;
-        javaType = OBJECT_MAPPER.getTypeFactory().constructParametrizedType(MarketoResponse.class, MarketoResponse.class, ObjectNode.class);
+        javaType = OBJECT_MAPPER.getTypeFactory().constructType(ObjectNode.class);
     }
 
     public MarketoResponseJettyEntityReader(long timeout, Class<T> resultClass)
     {
         this.listener = new InputStreamResponseListener();
         this.timeout = timeout;
-        this.javaType = OBJECT_MAPPER.getTypeFactory().constructParametrizedType(MarketoResponse.class, MarketoResponse.class, resultClass);
+        this.javaType = OBJECT_MAPPER.getTypeFactory().constructType(resultClass);
     }
 
     @Override
@@ -62,27 +78,119 @@ public class MarketoResponseJettyEntityReader<T> implements Jetty94ResponseReade
         return this.listener.get(timeout, TimeUnit.MILLISECONDS);
     }
 
+    /**
+     * Parse the response from the content stream, records of the result are bound one by one without
+     * buffering the content or building the tree of the whole response.
+     * The whole result is still read before returning since success and errors can follow it.
+     */
     @Override
     public MarketoResponse<T> readResponseContent() throws Exception
     {
-        String response = readResponseContentInString();
-        try {
-            MarketoResponse<T> marketoResponse = OBJECT_MAPPER.readValue(response, javaType);
+        return readResponseContent(getResponseContentStream());
+    }
+
+    /**
+     * Parse a response of which content was received by another listener
+     */
+    MarketoResponse<T> readResponseContent(Response response, InputStream content) throws Exception
+    {
+        return readResponseContent(decodeContent(response, content));
+    }
+
+    private MarketoResponse<T> readResponseContent(InputStream content) throws Exception
+    {
+        try (InputStream inputStream = content; JsonParser parser = OBJECT_MAPPER.getFactory().createParser(inputStream)) {
+            MarketoResponse<T> marketoResponse = parseResponse(parser);
             if (!marketoResponse.isSuccess()) {
                 throw new MarketoAPIException(marketoResponse.getErrors());
             }
             return marketoResponse;
         }
-        catch (IOException ex) {
+        catch (JsonProcessingException ex) {
             LOGGER.error("Can't parse json content", ex);
             throw new DataException(jsonResponseInvalid);
         }
     }
 
+    private MarketoResponse<T> parseResponse(JsonParser parser) throws IOException
+    {
+        if (parser.nextToken() != JsonToken.START_OBJECT) {
+            throw new JsonParseException("Response is not a json object", parser.getCurrentLocation());
+        }
+        MarketoResponse<T> marketoResponse = new MarketoResponse<>();
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String fieldName = parser.getCurrentName();
+            JsonToken value = parser.nextToken();
+            if (value == JsonToken.VALUE_NULL) {
+                continue;
+            }
+            switch (fieldName) {
+                case "requestId":
+                    marketoResponse.setRequestId(parser.getValueAsString());
+                    break;
+                case "success":
+                    marketoResponse.setSuccess(parser.getValueAsBoolean());
+                    break;
+                case "nextPageToken":
+                    marketoResponse.setNextPageToken(parser.getValueAsString());
+                    break;
+                case "moreResult":
+                    marketoResponse.setMoreResult(parser.getValueAsBoolean());
+                    break;
+                case "errors":
+                    marketoResponse.setErrors(OBJECT_MAPPER.readValue(parser, ERRORS_TYPE));
+                    break;
+                case "result":
+                    marketoResponse.setResult(parseResult(parser));
+                    break;
+                default:
+                    parser.skipChildren();
+            }
+        }
+        if (parser.getCurrentToken() != JsonToken.END_OBJECT) {
+            throw new JsonParseException("Unexpected token " + parser.getCurrentToken(), parser.getCurrentLocation());
+        }
+        return marketoResponse;
+    }
+
+    private List<T> parseResult(JsonParser parser) throws IOException
+    {
+        if (parser.getCurrentToken() != JsonToken.START_ARRAY) {
+            throw new JsonParseException("Result is not a json array", parser.getCurrentLocation());
+        }
+        List<T> records = new ArrayList<>();
+        JsonToken token;
+        while ((token = parser.nextToken()) != JsonToken.END_ARRAY) {
+            if (token == null) {
+                throw new JsonParseException("Unexpected end of result", parser.getCurrentLocation());
+            }
+            records.add(OBJECT_MAPPER.readValue(parser, javaType));
+        }
+        return records;
+    }
+
+    @VisibleForTesting
+    InputStream getResponseContentStream() throws Exception
+    {
+        return decodeContent(getResponse(), this.listener.getInputStream());
+    }
+
+    /**
+     * Decode the content of a gzip encoded response. The HTTP client doesn't decode responses by itself.
+     */
+    static InputStream decodeContent(Response response, InputStream inputStream) throws IOException
+    {
+        String contentEncoding = response.getHeaders().get(HttpHeader.CONTENT_ENCODING);
+        if (contentEncoding != null && contentEncoding.trim().equalsIgnoreCase(MarketoBaseRestClient.GZIP_ENCODING)) {
+            return new GZIPInputStream(inputStream, GZIP_BUFFER_SIZE);
+        }
+        return inputStream;
+    }
+
     @Override
     public String readResponseContentInString() throws Exception
     {
-        InputStream inputStream = this.listener.getInputStream();
+        InputStream inputStream = getResponseContentStream();
         try (InputStreamReader inputStreamReader = new InputStreamReader(inputStream, StandardCharsets.UTF_8)) {
             return CharStreams.toString(inputStreamReader);
         }
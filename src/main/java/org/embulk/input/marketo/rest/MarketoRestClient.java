@@ -3,11 +3,14 @@ package org.embulk.input.marketo.rest;
 import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.google.common.base.Supplier;
+import com.google.common.base.Suppliers;
 import com.google.common.collect.ArrayListMultimap;
 import com.google.common.collect.ImmutableListMultimap;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.Multimap;
 import org.apache.commons.lang3.StringUtils;
+import org.eclipse.jetty.client.HttpClient;
 import org.eclipse.jetty.client.util.FormContentProvider;
 import org.eclipse.jetty.util.Fields;
 import org.embulk.config.ConfigException;
@@ -29,15 +32,26 @@ import org.embulk.util.retryhelper.jetty94.Jetty94RetryHelper;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import javax.validation.constraints.Max;
+import javax.validation.constraints.Min;
+
 import java.io.InputStream;
+import java.nio.channels.FileChannel;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * Created by tai.khuu on 8/22/17.
@@ -66,6 +80,12 @@ public class MarketoRestClient extends MarketoBaseRestClient
 
     private static final int MAX_REQUEST_SIZE = 300;
 
+    private static final String STATUS_ENDPOINT_SUFFIX = "/status.json";
+
+    private static final String EXPORT_JOBS_ENDPOINT_SUFFIX = "/export.json";
+
+    private static final int DEFAULT_MAX_POLLING_INTERVAL_SECOND = 600;
+
     private static final int CONNECT_TIMEOUT_IN_MILLIS = 30000;
     private static final int IDLE_TIMEOUT_IN_MILLIS = 60000;
 
@@ -75,6 +95,29 @@ public class MarketoRestClient extends MarketoBaseRestClient
 
     private final Integer maxReturn;
 
+    private final int prefetchPages;
+
+    // requests the pages ahead of all the iterators of the client, created on first use, guarded by this
+    private ExecutorService prefetchExecutor;
+
+    // ask for gzip compressed responses
+    private final boolean transferCompression;
+
+    // write downloaded bulk extract files from the response buffers instead of a stream
+    private final boolean zeroCopyDownload;
+
+    // bulk extract jobs are polled from this interval up to the maximum polling interval, empty for fixed polling
+    private final Optional<Integer> minPollingIntervalSecond;
+
+    // longest interval between the polls of a bulk extract job polled adaptively
+    private final int maxPollingIntervalSecond;
+
+    // processing time of the last completed job of each status endpoint
+    private final Map<MarketoRESTEndpoint, Long> lastProcessingMillis = new ConcurrentHashMap<>();
+
+    // bytes of the bulk extract files completed by this client
+    private final AtomicLong exportedBytes = new AtomicLong();
+
     private final Logger logger = LoggerFactory.getLogger(getClass());
 
     private static final Map<String, Type> TYPE_MAPPING = new ImmutableMap.Builder<String, Type>()
@@ -111,6 +154,11 @@ public class MarketoRestClient extends MarketoBaseRestClient
         @ConfigDefault("20000")
         Integer getMarketoLimitIntervalMilis();
 
+        @Min(1)
+        @Config("marketo_limit_calls")
+        @ConfigDefault("100")
+        Integer getMarketoLimitCalls();
+
         @Config("batch_size")
         @ConfigDefault("300")
         Integer getBatchSize();
@@ -121,6 +169,31 @@ public class MarketoRestClient extends MarketoBaseRestClient
         Integer getMaxReturn();
         void setMaxReturn(Integer maxReturn);
 
+        //Marketo limits concurrent calls to 10
+        @Max(10)
+        @Min(1)
+        @Config("prefetch_pages")
+        @ConfigDefault("1")
+        Integer getPrefetchPages();
+
+        @Min(1)
+        @Config("min_polling_interval_second")
+        @ConfigDefault("null")
+        Optional<Integer> getMinPollingIntervalSecond();
+
+        @Min(1)
+        @Config("max_polling_interval_second")
+        @ConfigDefault("600")
+        Integer getMaxPollingIntervalSecond();
+
+        @Config("transfer_compression")
+        @ConfigDefault("false")
+        Boolean getTransferCompression();
+
+        @Config("zero_copy_download")
+        @ConfigDefault("false")
+        Boolean getZeroCopyDownload();
+
         @Config("read_timeout_millis")
         @ConfigDefault("60000")
         Long getReadTimeoutMillis();
@@ -144,19 +217,61 @@ public class MarketoRestClient extends MarketoBaseRestClient
 
     public MarketoRestClient(PluginTask task)
     {
-        this(MarketoUtils.getEndPoint(task.getAccountId()),
-                MarketoUtils.getIdentityEndPoint(task.getAccountId()),
+        this(task, acquireSharedClient(task));
+    }
+
+    private MarketoRestClient(PluginTask task, MarketoSharedClient sharedClient)
+    {
+        super(MarketoUtils.getIdentityEndPoint(task.getAccountId()),
                 task.getClientId(),
                 task.getClientSecret(),
                 task.getPartnerApiKey(),
-                task.getBatchSize(),
-                task.getMaxReturn(),
-                task.getReadTimeoutMillis(),
+                task.getMarketoLimitCalls(),
                 task.getMarketoLimitIntervalMilis(),
-                new Jetty94RetryHelper(task.getMaximumRetries(),
+                task.getReadTimeoutMillis(),
+                sharedClient);
+        this.endPoint = MarketoUtils.getEndPoint(task.getAccountId());
+        this.batchSize = task.getBatchSize();
+        this.maxReturn = task.getMaxReturn();
+        this.prefetchPages = task.getPrefetchPages();
+        this.transferCompression = task.getTransferCompression();
+        this.zeroCopyDownload = task.getZeroCopyDownload();
+        this.minPollingIntervalSecond = task.getMinPollingIntervalSecond();
+        this.maxPollingIntervalSecond = task.getMaxPollingIntervalSecond();
+    }
+
+    /**
+     * Clients with the same account, credentials and retry settings share their HTTP client and access token
+     */
+    private static MarketoSharedClient acquireSharedClient(PluginTask task)
+    {
+        List<Object> key = Arrays.asList(task.getAccountId().trim(),
+                task.getClientId(),
+                task.getClientSecret(),
+                task.getPartnerApiKey(),
+                task.getReadTimeoutMillis(),
+                task.getMaximumRetries(),
+                task.getInitialRetryIntervalMilis(),
+                task.getMaximumRetriesIntervalMilis());
+        // started once, the asynchronous requests use the HTTP client of the retry helper
+        Supplier<HttpClient> httpClient = Suppliers.memoize(MarketoRestClient::createHttpClient);
+        return MarketoSharedClient.acquire(key,
+                () -> new Jetty94RetryHelper(task.getMaximumRetries(),
                         task.getInitialRetryIntervalMilis(),
                         task.getMaximumRetriesIntervalMilis(),
-                        new DefaultJetty94ClientCreator(CONNECT_TIMEOUT_IN_MILLIS, IDLE_TIMEOUT_IN_MILLIS)));
+                        httpClient::get),
+                () -> new MarketoAsyncRetryHelper(task.getMaximumRetries(),
+                        task.getInitialRetryIntervalMilis(),
+                        task.getMaximumRetriesIntervalMilis(),
+                        httpClient.get()));
+    }
+
+    private static HttpClient createHttpClient()
+    {
+        HttpClient client = new DefaultJetty94ClientCreator(CONNECT_TIMEOUT_IN_MILLIS, IDLE_TIMEOUT_IN_MILLIS).createAndStart();
+        // compressed responses are decoded by the response readers, byte ranges are offsets of the decoded content
+        client.getContentDecoderFactories().clear();
+        return client;
     }
 
     public MarketoRestClient(String endPoint,
@@ -166,14 +281,42 @@ public class MarketoRestClient extends MarketoBaseRestClient
                              Optional<String> partnerApiKey,
                              Integer batchSize,
                              Integer maxReturn,
+                             int prefetchPages,
                              long readTimeoutMilis,
+                             int marketoLimitCalls,
                              int marketoLimitIntervalMilis,
                              Jetty94RetryHelper retryHelper)
     {
-        super(identityEndPoint, clientId, clientSecret, partnerApiKey, marketoLimitIntervalMilis, readTimeoutMilis, retryHelper);
+        super(identityEndPoint, clientId, clientSecret, partnerApiKey, marketoLimitCalls, marketoLimitIntervalMilis, readTimeoutMilis, retryHelper);
         this.endPoint = endPoint;
         this.batchSize = batchSize;
         this.maxReturn = maxReturn;
+        this.prefetchPages = prefetchPages;
+        this.transferCompression = false;
+        this.zeroCopyDownload = false;
+        this.minPollingIntervalSecond = Optional.empty();
+        this.maxPollingIntervalSecond = DEFAULT_MAX_POLLING_INTERVAL_SECOND;
+    }
+
+    @Override
+    protected boolean isTransferCompression()
+    {
+        return transferCompression;
+    }
+
+    public boolean isZeroCopyDownload()
+    {
+        return zeroCopyDownload;
+    }
+
+    @Override
+    protected MarketoConcurrencyGovernor.Priority getRequestPriority(String target)
+    {
+        // bulk extract status polls are short and waited by export jobs
+        if (target.endsWith(STATUS_ENDPOINT_SUFFIX) || target.endsWith(EXPORT_JOBS_ENDPOINT_SUFFIX)) {
+            return MarketoConcurrencyGovernor.Priority.HIGH;
+        }
+        return MarketoConcurrencyGovernor.Priority.NORMAL;
     }
 
     public List<MarketoField> describeLead()
@@ -227,16 +370,32 @@ public class MarketoRestClient extends MarketoBaseRestClient
 
     public String sendCreateBulkExtractRequest(MarketoBulkExtractRequest request, MarketoRESTEndpoint endpoint)
     {
-        MarketoResponse<ObjectNode> marketoResponse;
+        String content = writeBulkExtractRequest(request);
+        return getExportId(doPost(endPoint + endpoint.getEndpoint(), null, null, content, new MarketoResponseJettyEntityReader<>(readTimeoutMillis)));
+    }
+
+    private CompletableFuture<String> sendCreateBulkExtractRequestAsync(MarketoBulkExtractRequest request, MarketoRESTEndpoint endpoint)
+    {
+        String content = writeBulkExtractRequest(request);
+        return doPostAsync(endPoint + endpoint.getEndpoint(), null, null, content, new MarketoResponseJettyEntityReader<ObjectNode>(readTimeoutMillis))
+                .thenApply(this::getExportId);
+    }
+
+    private String writeBulkExtractRequest(MarketoBulkExtractRequest request)
+    {
         try {
             logger.info("Send bulk extract request [{}]", request);
-            marketoResponse = doPost(endPoint + endpoint.getEndpoint(), null, null, OBJECT_MAPPER.writeValueAsString(request), new MarketoResponseJettyEntityReader<>(readTimeoutMillis));
-            logger.info(">> Created Bulk Extract Response with requestId : [{}] and success: [{}]", marketoResponse.getRequestId(), marketoResponse.isSuccess());
+            return OBJECT_MAPPER.writeValueAsString(request);
         }
         catch (JsonProcessingException e) {
             logger.error("Encounter exception when deserialize bulk extract request", e);
             throw new DataException("Can't create bulk extract");
         }
+    }
+
+    private String getExportId(MarketoResponse<ObjectNode> marketoResponse)
+    {
+        logger.info(">> Created Bulk Extract Response with requestId : [{}] and success: [{}]", marketoResponse.getRequestId(), marketoResponse.isSuccess());
         if (!marketoResponse.isSuccess()) {
             MarketoError marketoError = marketoResponse.getErrors().get(0);
             throw new DataException(marketoError.getCode() + ": " + marketoError.getMessage());
@@ -257,9 +416,48 @@ public class MarketoRestClient extends MarketoBaseRestClient
 
     private void startBulkExtract(MarketoRESTEndpoint marketoRESTEndpoint, String exportId)
     {
-        MarketoResponse<ObjectNode> marketoResponse = doPost(endPoint + marketoRESTEndpoint.getEndpoint(
-                new ImmutableMap.Builder<String, String>().put("export_id", exportId).build()), null, null, null,
+        checkStarted(exportId, doPost(getBulkExtractJobTarget(marketoRESTEndpoint, exportId), null, null, null,
+                new MarketoResponseJettyEntityReader<>(readTimeoutMillis)));
+    }
+
+    private CompletableFuture<Void> startBulkExtractAsync(MarketoRESTEndpoint marketoRESTEndpoint, String exportId)
+    {
+        return doPostAsync(getBulkExtractJobTarget(marketoRESTEndpoint, exportId), null, null, null, new MarketoResponseJettyEntityReader<ObjectNode>(readTimeoutMillis))
+                .thenAccept(marketoResponse -> checkStarted(exportId, marketoResponse));
+    }
+
+    private String getBulkExtractJobTarget(MarketoRESTEndpoint marketoRESTEndpoint, String exportId)
+    {
+        return endPoint + marketoRESTEndpoint.getEndpoint(new ImmutableMap.Builder<String, String>().put("export_id", exportId).build());
+    }
+
+    public void cancelLeadBulkExtract(String exportId)
+    {
+        cancelBulkExtract(MarketoRESTEndpoint.CANCEL_LEAD_EXPORT_JOB, exportId);
+    }
+
+    public void cancelActivityBulkExtract(String exportId)
+    {
+        cancelBulkExtract(MarketoRESTEndpoint.CANCEL_ACTIVITY_EXPORT_JOB, exportId);
+    }
+
+    /**
+     * Cancel a queued or processing export job, so it neither takes a place in the export queue nor counts in the daily
+     * export quota any more
+     */
+    private void cancelBulkExtract(MarketoRESTEndpoint marketoRESTEndpoint, String exportId)
+    {
+        MarketoResponse<ObjectNode> marketoResponse = doPost(getBulkExtractJobTarget(marketoRESTEndpoint, exportId), null, null, null,
                 new MarketoResponseJettyEntityReader<>(readTimeoutMillis));
+        logger.info(">> Cancel Bulk Extract Response with requestId : [{}] and success: [{}]", marketoResponse.getRequestId(), marketoResponse.isSuccess());
+        if (!marketoResponse.isSuccess()) {
+            MarketoError error = marketoResponse.getErrors().get(0);
+            throw new DataException(String.format("Can't cancel job for export Job id : %s, error code: %s, error message: %s", exportId, error.getCode(), error.getMessage()));
+        }
+    }
+
+    private void checkStarted(String exportId, MarketoResponse<ObjectNode> marketoResponse)
+    {
         logger.info(">> Start Bulk Extract Response with requestId : [{}] and success: [{}]", marketoResponse.getRequestId(), marketoResponse.isSuccess());
         if (!marketoResponse.isSuccess()) {
             MarketoError error = marketoResponse.getErrors().get(0);
@@ -272,11 +470,11 @@ public class MarketoRestClient extends MarketoBaseRestClient
      * Will block and wait until job status switch to complete
      * If job run logger than bulk job timeout then will stop and throw exception
      * If job status is failed or cancel will also throw exception
-     *
+     * @return status of the completed job
      */
-    public void waitLeadExportJobComplete(String exportId, int pollingInterval, int waitTimeout) throws InterruptedException
+    public ObjectNode waitLeadExportJobComplete(String exportId, int pollingInterval, int waitTimeout) throws InterruptedException
     {
-        waitExportJobComplete(MarketoRESTEndpoint.GET_LEAD_EXPORT_STATUS, exportId, pollingInterval, waitTimeout);
+        return waitExportJobComplete(MarketoExportJobPoller.ExportType.LEADS, exportId, pollingInterval, waitTimeout);
     }
 
     /**
@@ -284,47 +482,121 @@ public class MarketoRestClient extends MarketoBaseRestClient
      * Will block and wait until job status switch to complete
      * If job run logger than bulk job timeout then will stop and throw exception
      * If job status is failed or cancel will also throw exception
-     *
+     * @return status of the completed job
      */
-    public void waitActitvityExportJobComplete(String exportId, int pollingInterval, int waitTimeout) throws InterruptedException
+    public ObjectNode waitActitvityExportJobComplete(String exportId, int pollingInterval, int waitTimeout) throws InterruptedException
     {
-        waitExportJobComplete(MarketoRESTEndpoint.GET_ACTIVITY_EXPORT_STATUS, exportId, pollingInterval, waitTimeout);
+        return waitExportJobComplete(MarketoExportJobPoller.ExportType.ACTIVITIES, exportId, pollingInterval, waitTimeout);
     }
 
-    private ObjectNode waitExportJobComplete(MarketoRESTEndpoint marketoRESTEndpoint, String exportId, int pollingInterval, int waitTimeout) throws InterruptedException
+    /**
+     * @return status of the lead export job, null when Marketo doesn't know the job
+     */
+    public ObjectNode getLeadExportJobStatus(String exportId)
     {
-        long waitTime = 0;
-        long waitTimeoutMs = waitTimeout * 1000L;
-        long now = System.currentTimeMillis();
-        while (true) {
-            MarketoResponse<ObjectNode> marketoResponse = doGet(this.endPoint + marketoRESTEndpoint.getEndpoint(
-                    new ImmutableMap.Builder<String, String>().put("export_id", exportId).build()), null, null, new MarketoResponseJettyEntityReader<>(readTimeoutMillis));
-            if (marketoResponse.isSuccess()) {
-                ObjectNode objectNode = marketoResponse.getResult().get(0);
-                String status = objectNode.get("status").asText();
-                if (status == null) {
-                    throw new DataException("Can't get bulk extract status export job id: " + exportId);
-                }
-                logger.info("Jobs [{}] status is [{}]", exportId, status);
-                switch (status) {
-                    case "Completed":
-                        logger.info("Total wait time ms is [{}]", waitTime);
-                        logger.info("File size is [{}] bytes", objectNode.get("fileSize"));
-                        return objectNode;
-                    case "Failed":
-                        throw new DataException("Bulk extract job failed exportId: " + exportId + " errorMessage: " + objectNode.get("errorMsg").asText());
-                    case "Cancel":
-                        throw new DataException("Bulk extract job canceled, exportId: " + exportId);
-                }
+        return getExportJobStatus(MarketoRESTEndpoint.GET_LEAD_EXPORT_STATUS, exportId);
+    }
+
+    /**
+     * @return status of the activities export job, null when Marketo doesn't know the job
+     */
+    public ObjectNode getActivityExportJobStatus(String exportId)
+    {
+        return getExportJobStatus(MarketoRESTEndpoint.GET_ACTIVITY_EXPORT_STATUS, exportId);
+    }
+
+    ExportJobPollingInterval newExportJobPollingInterval(MarketoRESTEndpoint statusEndpoint, int pollingInterval, long now)
+    {
+        // jobs waited for long are polled less often than the polling interval, the last poll is at the timeout anyway
+        int maxIntervalSecond = minPollingIntervalSecond.isPresent() ? Math.max(pollingInterval, maxPollingIntervalSecond) : pollingInterval;
+        return new ExportJobPollingInterval(minPollingIntervalSecond.orElse(pollingInterval) * 1000L,
+                maxIntervalSecond * 1000L,
+                lastProcessingMillis.getOrDefault(statusEndpoint, -1L),
+                now);
+    }
+
+    /**
+     * @return status of the export job, null when the status call wasn't successful
+     */
+    ObjectNode getExportJobStatus(MarketoRESTEndpoint statusEndpoint, String exportId)
+    {
+        MarketoResponse<ObjectNode> marketoResponse = doGet(this.endPoint + statusEndpoint.getEndpoint(
+                new ImmutableMap.Builder<String, String>().put("export_id", exportId).build()), null, null, new MarketoResponseJettyEntityReader<>(readTimeoutMillis));
+        if (!marketoResponse.isSuccess()) {
+            return null;
+        }
+        return marketoResponse.getResult().get(0);
+    }
+
+    /**
+     * List the queued and processing export jobs of the account, at most 12 are allowed by Marketo
+     */
+    List<ObjectNode> listActiveExportJobs(MarketoRESTEndpoint listEndpoint)
+    {
+        List<ObjectNode> exportJobs = new ArrayList<>();
+        String nextPageToken = null;
+        do {
+            ImmutableListMultimap.Builder<String, String> params = new ImmutableListMultimap.Builder<String, String>()
+                    .put("status", "Queued,Processing")
+                    .put(BATCH_SIZE, MAX_BATCH_SIZE);
+            if (nextPageToken != null) {
+                params.put(NEXT_PAGE_TOKEN, nextPageToken);
             }
-            Thread.sleep(pollingInterval * 1000L);
-            waitTime = System.currentTimeMillis() - now;
-            if (waitTime >= waitTimeoutMs) {
-                throw new DataException("Job timeout exception, exportJob: " + exportId + ", run longer than " + waitTimeout + " seconds");
+            MarketoResponse<ObjectNode> marketoResponse = doGet(this.endPoint + listEndpoint.getEndpoint(), null, params.build(), new MarketoResponseJettyEntityReader<>(readTimeoutMillis));
+            if (marketoResponse.getResult() != null) {
+                exportJobs.addAll(marketoResponse.getResult());
             }
+            nextPageToken = marketoResponse.getNextPageToken();
+        }
+        while (nextPageToken != null);
+        return exportJobs;
+    }
+
+    /**
+     * @return true when the export job is completed
+     * @throws DataException when the export job failed or was canceled
+     */
+    boolean isExportJobComplete(MarketoRESTEndpoint statusEndpoint, String exportId, String status, ObjectNode objectNode)
+    {
+        if (status == null) {
+            throw new DataException("Can't get bulk extract status export job id: " + exportId);
+        }
+        logger.info("Jobs [{}] status is [{}]", exportId, status);
+        switch (status) {
+            case "Completed":
+                logger.info("File size is [{}] bytes", objectNode.get("fileSize"));
+                addExportedBytes(MarketoUtils.getFileSize(objectNode));
+                long processingMillis = ExportJobPollingInterval.getProcessingMillis(objectNode);
+                if (processingMillis >= 0) {
+                    lastProcessingMillis.put(statusEndpoint, processingMillis);
+                }
+                return true;
+            case "Failed":
+                throw new DataException("Bulk extract job failed exportId: " + exportId + " errorMessage: " + objectNode.get("errorMsg").asText());
+            case "Cancel":
+                throw new DataException("Bulk extract job canceled, exportId: " + exportId);
+            default:
+                return false;
+        }
+    }
+
+    private void addExportedBytes(long fileSize)
+    {
+        // bulk extract quota is counted on the size of the completed files
+        if (fileSize > 0) {
+            exportedBytes.addAndGet(fileSize);
+            getQuotaUsage().addExportedBytes(fileSize);
         }
     }
 
+    /**
+     * @return bytes of the bulk extract files completed by this client
+     */
+    public long getExportedBytes()
+    {
+        return exportedBytes.get();
+    }
+
     public InputStream getLeadBulkExtractResult(String exportId, BulkExtractRangeHeader bulkExtractRangeHeader)
     {
         return getBulkExtractResult(MarketoRESTEndpoint.GET_LEAD_EXPORT_RESULT, exportId, bulkExtractRangeHeader);
@@ -339,11 +611,51 @@ public class MarketoRestClient extends MarketoBaseRestClient
     {
         logger.info("Download bulk export job [{}]", exportId);
         Map<String, String> headers = new HashMap<>();
-        if (bulkExtractRangeHeader != null) {
+        if (bulkExtractRangeHeader != null && !(transferCompression && bulkExtractRangeHeader.isWholeContent())) {
             headers.put(RANGE_HEADER, bulkExtractRangeHeader.toRangeHeaderValue());
+            // a range of a compressed file doesn't start at the same byte as the range of the file
+            headers.put(ACCEPT_ENCODING_HEADER, IDENTITY_ENCODING);
             logger.info("Range header value [{}]", bulkExtractRangeHeader.toRangeHeaderValue());
         }
-        return doGet(this.endPoint + endpoint.getEndpoint(new ImmutableMap.Builder().put("export_id", exportId).build()), headers, null, new MarketoInputStreamResponseEntityReader(readTimeoutMillis));
+        // the response is checked against the range only when one is requested
+        BulkExtractRangeHeader requestedRange = headers.containsKey(RANGE_HEADER) ? bulkExtractRangeHeader : null;
+        return doGet(this.endPoint + endpoint.getEndpoint(new ImmutableMap.Builder().put("export_id", exportId).build()), headers, null, new MarketoInputStreamResponseEntityReader(readTimeoutMillis, requestedRange));
+    }
+
+    /**
+     * @return reader writing the content of a range of a bulk extract file into the channel at the same position
+     */
+    public MarketoFileChannelResponseEntityReader newFileChannelResponseReader(FileChannel channel, BulkExtractRangeHeader bulkExtractRangeHeader)
+    {
+        return new MarketoFileChannelResponseEntityReader(readTimeoutMillis, channel, bulkExtractRangeHeader);
+    }
+
+    /**
+     * Write a byte range of the lead bulk extract file into the channel of the reader
+     * @return bytes written
+     */
+    public long writeLeadBulkExtractResult(String exportId, BulkExtractRangeHeader bulkExtractRangeHeader, MarketoFileChannelResponseEntityReader responseReader)
+    {
+        return writeBulkExtractResult(MarketoRESTEndpoint.GET_LEAD_EXPORT_RESULT, exportId, bulkExtractRangeHeader, responseReader);
+    }
+
+    /**
+     * Write a byte range of the activities bulk extract file into the channel of the reader
+     * @return bytes written
+     */
+    public long writeActivitiesBulkExtractResult(String exportId, BulkExtractRangeHeader bulkExtractRangeHeader, MarketoFileChannelResponseEntityReader responseReader)
+    {
+        return writeBulkExtractResult(MarketoRESTEndpoint.GET_ACTIVITY_EXPORT_RESULT, exportId, bulkExtractRangeHeader, responseReader);
+    }
+
+    private long writeBulkExtractResult(MarketoRESTEndpoint endpoint, String exportId, BulkExtractRangeHeader bulkExtractRangeHeader, MarketoFileChannelResponseEntityReader responseReader)
+    {
+        logger.info("Download bulk export job [{}], range header value [{}]", exportId, bulkExtractRangeHeader.toRangeHeaderValue());
+        Map<String, String> headers = new HashMap<>();
+        headers.put(RANGE_HEADER, bulkExtractRangeHeader.toRangeHeaderValue());
+        // bytes are written as received, they can't be decoded
+        headers.put(ACCEPT_ENCODING_HEADER, IDENTITY_ENCODING);
+        return doGet(this.endPoint + endpoint.getEndpoint(new ImmutableMap.Builder().put("export_id", exportId).build()), headers, null, responseReader);
     }
 
     public RecordPagingIterable<ObjectNode> getLists()
@@ -396,21 +708,22 @@ public class MarketoRestClient extends MarketoBaseRestClient
 
     private <T> RecordPagingIterable<T> getRecordWithOffsetPagination(final String endPoint, final Multimap<String, String> parameters, final Class<T> recordClass)
     {
-        return new RecordPagingIterable<>(new RecordPagingIterable.PagingFunction<RecordPagingIterable.OffsetPage<T>>()
+        return new RecordPagingIterable<>(new RecordPagingIterable.OffsetPagingFunction<RecordPagingIterable.OffsetPage<T>>()
         {
             @Override
             public RecordPagingIterable.OffsetPage<T> getNextPage(RecordPagingIterable.OffsetPage<T> currentPage)
             {
-                return getOffsetPage(currentPage.getNextOffSet());
+                return getPage(currentPage.getNextOffSet());
             }
 
             @Override
             public RecordPagingIterable.OffsetPage<T> getFirstPage()
             {
-                return getOffsetPage(0);
+                return getPage(0);
             }
 
-            private RecordPagingIterable.OffsetPage<T> getOffsetPage(int offset)
+            @Override
+            public RecordPagingIterable.OffsetPage<T> getPage(int offset)
             {
                 ImmutableListMultimap.Builder<String, String> params = new ImmutableListMultimap.Builder<>();
                 params.put(OFFSET, String.valueOf(offset));
@@ -421,7 +734,25 @@ public class MarketoRestClient extends MarketoBaseRestClient
                 MarketoResponse<T> marketoResponse = doGet(endPoint, null, params.build(), new MarketoResponseJettyEntityReader<>(readTimeoutMillis, recordClass));
                 return new RecordPagingIterable.OffsetPage<>(marketoResponse.getResult(), offset + marketoResponse.getResult().size(), marketoResponse.getResult().size() == maxReturn);
             }
-        });
+
+            @Override
+            public int getPageSize()
+            {
+                return maxReturn;
+            }
+        }, prefetchPages, prefetchPages > 1 ? getPrefetchExecutor() : null);
+    }
+
+    private synchronized ExecutorService getPrefetchExecutor()
+    {
+        if (prefetchExecutor == null) {
+            prefetchExecutor = Executors.newFixedThreadPool(prefetchPages, runnable -> {
+                Thread thread = new Thread(runnable, "marketo-page-prefetch");
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+        return prefetchExecutor;
     }
     private <T> RecordPagingIterable<T> getRecordWithTokenPagination(final String endPoint, final Multimap<String, String> parameters, final Class<T> recordClass)
     {
@@ -599,6 +930,20 @@ public class MarketoRestClient extends MarketoBaseRestClient
     }
 
     public String createProgramMembersBulkExtract(List<String> extractFields, int programId)
+    {
+        return sendCreateBulkExtractRequest(getProgramMembersBulkExtractRequest(extractFields, programId), MarketoRESTEndpoint.CREATE_PROGRAM_MEMBERS_EXPORT_JOB);
+    }
+
+    /**
+     * Asynchronous version of {@link #createProgramMembersBulkExtract}
+     * @return future completed with the export id
+     */
+    public CompletableFuture<String> createProgramMembersBulkExtractAsync(List<String> extractFields, int programId)
+    {
+        return sendCreateBulkExtractRequestAsync(getProgramMembersBulkExtractRequest(extractFields, programId), MarketoRESTEndpoint.CREATE_PROGRAM_MEMBERS_EXPORT_JOB);
+    }
+
+    private MarketoBulkExtractRequest getProgramMembersBulkExtractRequest(List<String> extractFields, int programId)
     {
         MarketoBulkExtractRequest marketoBulkExtractRequest = new MarketoBulkExtractRequest();
         if (extractFields != null) {
@@ -608,7 +953,7 @@ public class MarketoRestClient extends MarketoBaseRestClient
         Map<String, Object> filterMap = new HashMap<>();
         filterMap.put("programId", programId);
         marketoBulkExtractRequest.setFilter(filterMap);
-        return sendCreateBulkExtractRequest(marketoBulkExtractRequest, MarketoRESTEndpoint.CREATE_PROGRAM_MEMBERS_EXPORT_JOB);
+        return marketoBulkExtractRequest;
     }
 
     public void startProgramMembersBulkExtract(String exportId)
@@ -616,9 +961,70 @@ public class MarketoRestClient extends MarketoBaseRestClient
         startBulkExtract(MarketoRESTEndpoint.START_PROGRAM_MEMBERS_EXPORT_JOB, exportId);
     }
 
+    /**
+     * Asynchronous version of {@link #startProgramMembersBulkExtract}
+     */
+    public CompletableFuture<Void> startProgramMembersBulkExtractAsync(String exportId)
+    {
+        return startBulkExtractAsync(MarketoRESTEndpoint.START_PROGRAM_MEMBERS_EXPORT_JOB, exportId);
+    }
+
+    /**
+     * Wait for program members bulk extract job
+     * @return status of the completed job
+     */
     public ObjectNode waitProgramMembersExportJobComplete(String exportId, int pollingInterval, int waitTimeout) throws InterruptedException
     {
-        return waitExportJobComplete(MarketoRESTEndpoint.GET_PROGRAM_MEMBERS_EXPORT_STATUS, exportId, pollingInterval, waitTimeout);
+        return waitExportJobComplete(MarketoExportJobPoller.ExportType.PROGRAM_MEMBERS, exportId, pollingInterval, waitTimeout);
+    }
+
+    /**
+     * Asynchronous version of {@link #waitProgramMembersExportJobComplete}, no thread is held while the job is waited
+     * @return future completed with the status of the completed job, or a DataException when it failed or timed out
+     */
+    public CompletableFuture<ObjectNode> waitProgramMembersExportJobCompleteAsync(String exportId, int pollingInterval, int waitTimeout)
+    {
+        return getExportJobPoller().submit(this, MarketoExportJobPoller.ExportType.PROGRAM_MEMBERS, exportId, pollingInterval, waitTimeout);
+    }
+
+    /**
+     * Jobs waited concurrently by the threads of all the clients of the account are polled together by its export job poller
+     */
+    private ObjectNode waitExportJobComplete(MarketoExportJobPoller.ExportType exportType, String exportId, int pollingInterval, int waitTimeout) throws InterruptedException
+    {
+        MarketoExportJobPoller poller = getExportJobPoller();
+        try {
+            return poller.submit(this, exportType, exportId, pollingInterval, waitTimeout).get();
+        }
+        catch (InterruptedException e) {
+            poller.cancel(exportId);
+            throw e;
+        }
+        catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new DataException("Can't wait for bulk extract job " + exportId, e.getCause());
+        }
+    }
+
+    /**
+     * @return poller of the export jobs of the account
+     */
+    public MarketoExportJobPoller getExportJobPoller()
+    {
+        return MarketoExportJobPoller.getInstance(getIdentityEndPoint());
+    }
+
+    @Override
+    public synchronized void close()
+    {
+        // jobs of the other clients of the account keep being polled
+        getExportJobPoller().cancel(this);
+        if (prefetchExecutor != null) {
+            prefetchExecutor.shutdownNow();
+        }
+        super.close();
     }
 
     public InputStream getProgramMemberBulkExtractResult(String exportId, BulkExtractRangeHeader bulkExtractRangeHeader)
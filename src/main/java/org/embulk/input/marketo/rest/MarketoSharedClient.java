@@ -0,0 +1,171 @@
+package org.embulk.input.marketo.rest;
+
+import org.embulk.input.marketo.model.MarketoAccessTokenResponse;
+import org.embulk.util.retryhelper.jetty94.Jetty94RetryHelper;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * HTTP client and access token shared by the Marketo clients of the JVM using the same account, credentials and retry settings.
+ * Validation, schema and ingest phases and all the tasks reuse warm connections and the same token.
+ * The client is closed once it was not used for {@link #IDLE_LINGER_MILLIS}, or when the JVM exits.
+ */
+public class MarketoSharedClient
+{
+    private static final Logger LOGGER = LoggerFactory.getLogger(MarketoSharedClient.class);
+
+    // long enough to cover the gap between Embulk phases
+    private static final long IDLE_LINGER_MILLIS = 60000;
+
+    // guarded by itself
+    private static final Map<List<Object>, MarketoSharedClient> CLIENTS = new HashMap<>();
+
+    private static final ScheduledExecutorService IDLE_CLOSER = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "marketo-shared-client-closer");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    static {
+        Runtime.getRuntime().addShutdownHook(new Thread(MarketoSharedClient::closeAll, "marketo-shared-client-shutdown"));
+    }
+
+    private final List<Object> key;
+
+    private final Jetty94RetryHelper retryHelper;
+
+    // null when asynchronous requests are not supported
+    private final Supplier<MarketoAsyncRetryHelper> asyncRetryHelperFactory;
+
+    private MarketoAsyncRetryHelper asyncRetryHelper;
+
+    private MarketoAccessTokenManager accessTokenManager;
+
+    private int references;
+
+    private ScheduledFuture<?> idleClose;
+
+    private MarketoSharedClient(List<Object> key, Jetty94RetryHelper retryHelper, Supplier<MarketoAsyncRetryHelper> asyncRetryHelperFactory)
+    {
+        this.key = key;
+        this.retryHelper = retryHelper;
+        this.asyncRetryHelperFactory = asyncRetryHelperFactory;
+    }
+
+    public static MarketoSharedClient acquire(List<Object> key, Supplier<Jetty94RetryHelper> retryHelperFactory)
+    {
+        return acquire(key, retryHelperFactory, null);
+    }
+
+    /**
+     * Get the shared client of the key, created with the given retry helper when there is none.
+     * {@link #release()} must be called once the client is not used anymore.
+     * @param asyncRetryHelperFactory called on the first asynchronous request, its helper uses the HTTP client of the retry helper
+     */
+    public static MarketoSharedClient acquire(List<Object> key, Supplier<Jetty94RetryHelper> retryHelperFactory, Supplier<MarketoAsyncRetryHelper> asyncRetryHelperFactory)
+    {
+        synchronized (CLIENTS) {
+            MarketoSharedClient client = CLIENTS.get(key);
+            if (client == null) {
+                client = new MarketoSharedClient(key, retryHelperFactory.get(), asyncRetryHelperFactory);
+                CLIENTS.put(key, client);
+            }
+            else {
+                LOGGER.debug("Reuse shared Marketo client");
+            }
+            if (client.idleClose != null) {
+                client.idleClose.cancel(false);
+                client.idleClose = null;
+            }
+            client.references++;
+            return client;
+        }
+    }
+
+    public Jetty94RetryHelper getRetryHelper()
+    {
+        return retryHelper;
+    }
+
+    /**
+     * @return helper of the asynchronous requests, created on first use, null when they are not supported
+     */
+    public MarketoAsyncRetryHelper getAsyncRetryHelper()
+    {
+        synchronized (CLIENTS) {
+            if (asyncRetryHelper == null && asyncRetryHelperFactory != null) {
+                asyncRetryHelper = asyncRetryHelperFactory.get();
+            }
+            return asyncRetryHelper;
+        }
+    }
+
+    /**
+     * @param tokenRequester used when the token manager is created by the first client, it must only depend on the key
+     */
+    public MarketoAccessTokenManager getAccessTokenManager(Supplier<MarketoAccessTokenResponse> tokenRequester)
+    {
+        synchronized (CLIENTS) {
+            if (accessTokenManager == null) {
+                accessTokenManager = new MarketoAccessTokenManager(tokenRequester);
+            }
+            return accessTokenManager;
+        }
+    }
+
+    public void release()
+    {
+        synchronized (CLIENTS) {
+            if (--references == 0 && CLIENTS.get(key) == this) {
+                idleClose = IDLE_CLOSER.schedule(this::closeIfIdle, IDLE_LINGER_MILLIS, TimeUnit.MILLISECONDS);
+            }
+        }
+    }
+
+    private void closeIfIdle()
+    {
+        synchronized (CLIENTS) {
+            if (references > 0 || CLIENTS.get(key) != this) {
+                return;
+            }
+            CLIENTS.remove(key);
+        }
+        close();
+    }
+
+    private void close()
+    {
+        if (accessTokenManager != null) {
+            accessTokenManager.close();
+        }
+        // also stops the HTTP client of the asynchronous requests
+        retryHelper.close();
+    }
+
+    private static void closeAll()
+    {
+        List<MarketoSharedClient> clients;
+        synchronized (CLIENTS) {
+            clients = new ArrayList<>(CLIENTS.values());
+            CLIENTS.clear();
+        }
+        for (MarketoSharedClient client : clients) {
+            try {
+                client.close();
+            }
+            catch (RuntimeException e) {
+                LOGGER.warn("Encounter exception when closing Marketo client", e);
+            }
+        }
+    }
+}
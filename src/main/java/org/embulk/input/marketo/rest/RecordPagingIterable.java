@@ -1,8 +1,16 @@
 package org.embulk.input.marketo.rest;
 
+import org.embulk.spi.DataException;
+
+import java.util.ArrayDeque;
+import java.util.Collections;
+import java.util.Deque;
 import java.util.Iterator;
 import java.util.List;
 import java.util.NoSuchElementException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
 
 /**
  * Record Iterable class that will go through Marketo Paging
@@ -14,14 +22,33 @@ public class RecordPagingIterable<T> implements Iterable<T>
 {
     private final PagingFunction<Page<T>> pagingFunction;
 
+    private final int prefetchPages;
+
+    private final ExecutorService prefetchExecutor;
+
     public RecordPagingIterable(PagingFunction pagingFunction)
+    {
+        this(pagingFunction, 1, null);
+    }
+
+    /**
+     * @param prefetchPages number of pages requested ahead of the page being read, only used with an {@link OffsetPagingFunction}
+     * @param prefetchExecutor executor requesting the pages ahead, owned by the caller, null when pages are not prefetched
+     */
+    public RecordPagingIterable(PagingFunction pagingFunction, int prefetchPages, ExecutorService prefetchExecutor)
     {
         this.pagingFunction = pagingFunction;
+        this.prefetchPages = prefetchPages;
+        this.prefetchExecutor = prefetchExecutor;
     }
 
     @Override
+    @SuppressWarnings("unchecked")
     public Iterator<T> iterator()
     {
+        if (prefetchPages > 1 && prefetchExecutor != null && pagingFunction instanceof OffsetPagingFunction) {
+            return this.new PrefetchRecordIterator((OffsetPagingFunction<OffsetPage<T>>) (OffsetPagingFunction) pagingFunction);
+        }
         return this.new RecordIterator();
     }
 
@@ -69,6 +96,110 @@ public class RecordPagingIterable<T> implements Iterable<T>
         }
     }
 
+    /**
+     * Iterator that keeps requests of the following pages in flight while the current page is read.
+     * The offset of the next page is known before the current page is received since every page but the last one is full.
+     * Pages are returned in offset order, the pages requested after the last one are dropped.
+     */
+    private class PrefetchRecordIterator implements Iterator<T>
+    {
+        private final OffsetPagingFunction<OffsetPage<T>> offsetPagingFunction;
+
+        private final Deque<Future<OffsetPage<T>>> pendingPages = new ArrayDeque<>();
+
+        private boolean started;
+
+        private int nextOffset;
+
+        private boolean lastPageRead;
+
+        private Iterator<T> currentIterator = Collections.emptyIterator();
+
+        public PrefetchRecordIterator(OffsetPagingFunction<OffsetPage<T>> offsetPagingFunction)
+        {
+            this.offsetPagingFunction = offsetPagingFunction;
+        }
+
+        @Override
+        public boolean hasNext()
+        {
+            while (!currentIterator.hasNext()) {
+                if (lastPageRead) {
+                    return false;
+                }
+                if (!started) {
+                    startPrefetch();
+                }
+                OffsetPage<T> page = takePage();
+                currentIterator = page.getRecordsIter();
+                if (page.isHasNext()) {
+                    requestPage();
+                }
+                else {
+                    lastPageRead = true;
+                    stopPrefetch();
+                }
+            }
+            return true;
+        }
+
+        @Override
+        public T next()
+        {
+            if (!hasNext()) {
+                throw new NoSuchElementException("Call next on an empty iterator");
+            }
+            return currentIterator.next();
+        }
+
+        @Override
+        public void remove()
+        {
+            throw new UnsupportedOperationException("RecordIterator not support remove");
+        }
+
+        private void startPrefetch()
+        {
+            started = true;
+            for (int i = 0; i < prefetchPages; i++) {
+                requestPage();
+            }
+        }
+
+        private void requestPage()
+        {
+            final int offset = nextOffset;
+            nextOffset += offsetPagingFunction.getPageSize();
+            pendingPages.add(prefetchExecutor.submit(() -> offsetPagingFunction.getPage(offset)));
+        }
+
+        private OffsetPage<T> takePage()
+        {
+            try {
+                return pendingPages.poll().get();
+            }
+            catch (InterruptedException e) {
+                stopPrefetch();
+                throw new DataException("Interrupted when waiting for a page", e);
+            }
+            catch (ExecutionException e) {
+                stopPrefetch();
+                if (e.getCause() instanceof RuntimeException) {
+                    throw (RuntimeException) e.getCause();
+                }
+                throw new DataException(e.getCause());
+            }
+        }
+
+        private void stopPrefetch()
+        {
+            for (Future<OffsetPage<T>> pendingPage : pendingPages) {
+                pendingPage.cancel(true);
+            }
+            pendingPages.clear();
+        }
+    }
+
     public interface PagingFunction<P extends Page>
     {
         P getNextPage(P currentPage);
@@ -79,6 +210,23 @@ public class RecordPagingIterable<T> implements Iterable<T>
         P getFirstPage();
     }
 
+    /**
+     * Paging function of offset paginated endpoints, pages can be requested by their offset without the previous page.
+     */
+    public interface OffsetPagingFunction<P extends OffsetPage> extends PagingFunction<P>
+    {
+        /**
+         * Implementation must support being called from several threads at once.
+         * @return the page starting at offset
+         */
+        P getPage(int offset);
+
+        /**
+         * @return number of records of a page that is not the last one
+         */
+        int getPageSize();
+    }
+
     public static class Page<T>
     {
         private Iterable<T> records;
@@ -37,4 +37,23 @@ public class CsvTokenizerTest
             Assert.assertEquals("[quotes_in_quoted_fields == ACCEPT_STRAY_QUOTES_ASSUMING_NO_DELIMITERS_IN_FIELDS] is not allowed to specify with [trim_if_not_quoted = true]", e.getMessage());
         }
     }
+
+    @Test
+    public void testSkipColumn()
+    {
+        LineDecoder lineDecoder = Mockito.mock(LineDecoder.class);
+        Mockito.when(lineDecoder.poll()).thenReturn("a,\"b,\"\"x\"\"\",c", "d,\"multi", "line\",e", null);
+        CsvTokenizer tokenizer = new CsvTokenizer(",", '"', '\\', "\n", false,
+                CsvTokenizer.QuotesInQuotedFields.NONE, 128, null, lineDecoder, "null");
+        Assert.assertTrue(tokenizer.nextRecord());
+        tokenizer.skipColumn();
+        tokenizer.skipColumn();
+        Assert.assertEquals("c", tokenizer.nextColumn());
+        Assert.assertTrue(tokenizer.nextRecord());
+        Assert.assertEquals("d", tokenizer.nextColumn());
+        tokenizer.skipColumn();
+        Assert.assertEquals("e", tokenizer.nextColumn());
+        Assert.assertFalse(tokenizer.hasNextColumn());
+        Assert.assertFalse(tokenizer.nextRecord());
+    }
 }
@@ -3,24 +3,39 @@ package org.embulk.input.marketo;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.node.ObjectNode;
 import com.google.common.io.ByteStreams;
+import org.eclipse.jetty.client.api.Response;
+import org.eclipse.jetty.client.api.Result;
+import org.eclipse.jetty.http.HttpFields;
+import org.eclipse.jetty.http.HttpHeader;
 import org.embulk.EmbulkTestRuntime;
+import org.embulk.input.marketo.bulk_extract.CompressedFileInputStream;
+import org.embulk.input.marketo.exception.BulkExtractRangeException;
 import org.embulk.input.marketo.model.BulkExtractRangeHeader;
+import org.embulk.input.marketo.rest.MarketoFileChannelResponseEntityReader;
 import org.embulk.input.marketo.rest.MarketoRestClient;
 import org.embulk.input.marketo.rest.RecordPagingIterable;
 import org.junit.Assert;
 import org.junit.Before;
 import org.junit.Rule;
 import org.junit.Test;
+import org.mockito.ArgumentCaptor;
 import org.mockito.Mockito;
 
 import java.io.ByteArrayInputStream;
+import java.io.EOFException;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.SequenceInputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Date;
 import java.util.List;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicReference;
 
 import static org.mockito.ArgumentMatchers.any;
 
@@ -75,6 +90,172 @@ public class MarketoServiceImplTest
         Mockito.verify(mockMarketoRestClient, Mockito.times(1)).waitActitvityExportJobComplete(Mockito.eq(exportId), Mockito.eq(1), Mockito.eq(3));
     }
 
+    @Test
+    public void streamLeadExtractResumeFromLastByte() throws Exception
+    {
+        String exportId = "exportId";
+        InputStream brokenStream = new SequenceInputStream(new ByteArrayInputStream("Test File".getBytes()), new InputStream()
+        {
+            @Override
+            public int read() throws IOException
+            {
+                throw new IOException("Connection reset");
+            }
+        });
+        ByteArrayInputStream restOfFile = new ByteArrayInputStream(" Content".getBytes());
+        Mockito.when(mockMarketoRestClient.getLeadBulkExtractResult(Mockito.eq(exportId), any(BulkExtractRangeHeader.class))).thenReturn(brokenStream).thenReturn(restOfFile);
+        try (InputStream stream = marketoService.streamLeadExtract(exportId)) {
+            Assert.assertEquals("Test File Content", new String(ByteStreams.toByteArray(stream)));
+        }
+        ArgumentCaptor<BulkExtractRangeHeader> rangeHeaderCaptor = ArgumentCaptor.forClass(BulkExtractRangeHeader.class);
+        Mockito.verify(mockMarketoRestClient, Mockito.times(2)).getLeadBulkExtractResult(Mockito.eq(exportId), rangeHeaderCaptor.capture());
+        Assert.assertEquals("bytes=0-", rangeHeaderCaptor.getAllValues().get(0).toRangeHeaderValue());
+        Assert.assertEquals("bytes=9-", rangeHeaderCaptor.getAllValues().get(1).toRangeHeaderValue());
+    }
+
+    @Test
+    public void downloadLeadExtractByRanges() throws Exception
+    {
+        String exportId = "exportId";
+        final byte[] content = new byte[12 * 1024 * 1024];
+        new Random(1).nextBytes(content);
+        Mockito.when(mockMarketoRestClient.getLeadBulkExtractResult(Mockito.eq(exportId), any(BulkExtractRangeHeader.class))).thenAnswer(invocation -> {
+            String range = ((BulkExtractRangeHeader) invocation.getArgument(1)).toRangeHeaderValue();
+            String[] startEnd = range.substring("bytes=".length()).split("-");
+            int start = Integer.parseInt(startEnd[0]);
+            int end = Integer.parseInt(startEnd[1]);
+            return new ByteArrayInputStream(content, start, end - start + 1);
+        });
+        File file = marketoService.downloadLeadExtract(exportId, content.length, 3);
+        Assert.assertArrayEquals(content, ByteStreams.toByteArray(new FileInputStream(file)));
+        Mockito.verify(mockMarketoRestClient, Mockito.times(3)).getLeadBulkExtractResult(Mockito.eq(exportId), any(BulkExtractRangeHeader.class));
+    }
+
+    @Test
+    public void downloadLeadExtractWithSingleConnectionWhenRangesNotSupported() throws Exception
+    {
+        String exportId = "exportId";
+        final byte[] content = new byte[12 * 1024 * 1024];
+        new Random(1).nextBytes(content);
+        Mockito.when(mockMarketoRestClient.getLeadBulkExtractResult(Mockito.eq(exportId), any(BulkExtractRangeHeader.class))).thenAnswer(invocation -> {
+            BulkExtractRangeHeader rangeHeader = invocation.getArgument(1);
+            // as the reader of a server answering the whole file to any range
+            if (!rangeHeader.isSatisfiedBy(200, null)) {
+                throw new BulkExtractRangeException("Response 200 doesn't match range [" + rangeHeader.toRangeHeaderValue() + "]");
+            }
+            return new ByteArrayInputStream(content);
+        });
+        File file = marketoService.downloadLeadExtract(exportId, content.length, 3);
+        Assert.assertArrayEquals(content, ByteStreams.toByteArray(new FileInputStream(file)));
+    }
+
+    @Test
+    public void rangeSatisfiedByResponse()
+    {
+        BulkExtractRangeHeader rangeHeader = new BulkExtractRangeHeader(100, 199);
+        Assert.assertTrue(rangeHeader.isSatisfiedBy(206, "bytes 100-199/1000"));
+        Assert.assertFalse(rangeHeader.isSatisfiedBy(200, null));
+        Assert.assertFalse(rangeHeader.isSatisfiedBy(206, null));
+        Assert.assertFalse(rangeHeader.isSatisfiedBy(206, "bytes 0-199/1000"));
+        Assert.assertFalse(rangeHeader.isSatisfiedBy(206, "bytes 100-150/151"));
+        Assert.assertTrue(new BulkExtractRangeHeader(100).isSatisfiedBy(206, "bytes 100-999/1000"));
+        Assert.assertTrue(new BulkExtractRangeHeader(0).isSatisfiedBy(200, null));
+    }
+
+    @Test
+    public void downloadLeadExtractToChannelResumeFromLastByte() throws Exception
+    {
+        String exportId = "exportId";
+        Mockito.when(mockMarketoRestClient.isZeroCopyDownload()).thenReturn(true);
+        Mockito.when(mockMarketoRestClient.newFileChannelResponseReader(any(FileChannel.class), any(BulkExtractRangeHeader.class))).thenAnswer(invocation ->
+                new MarketoFileChannelResponseEntityReader(1000, invocation.getArgument(0), invocation.getArgument(1)));
+        Mockito.when(mockMarketoRestClient.writeLeadBulkExtractResult(Mockito.eq(exportId), any(BulkExtractRangeHeader.class), any(MarketoFileChannelResponseEntityReader.class)))
+                .thenAnswer(invocation -> respond(invocation.getArgument(2), 200, null, "Test File", new EOFException()))
+                .thenAnswer(invocation -> respond(invocation.getArgument(2), 206, "bytes 9-16/17", " Content", null));
+        File file = marketoService.downloadLeadExtract(exportId, 17, 1);
+        Assert.assertEquals("Test File Content", new String(ByteStreams.toByteArray(new FileInputStream(file))));
+        ArgumentCaptor<BulkExtractRangeHeader> rangeHeaderCaptor = ArgumentCaptor.forClass(BulkExtractRangeHeader.class);
+        Mockito.verify(mockMarketoRestClient, Mockito.times(2)).writeLeadBulkExtractResult(Mockito.eq(exportId), rangeHeaderCaptor.capture(), any(MarketoFileChannelResponseEntityReader.class));
+        Assert.assertEquals("bytes=0-", rangeHeaderCaptor.getAllValues().get(0).toRangeHeaderValue());
+        Assert.assertEquals("bytes=9-", rangeHeaderCaptor.getAllValues().get(1).toRangeHeaderValue());
+    }
+
+    @Test
+    public void downloadLeadExtractToChannelWithSingleConnectionWhenRangesNotSupported() throws Exception
+    {
+        String exportId = "exportId";
+        final byte[] content = new byte[12 * 1024 * 1024];
+        new Random(1).nextBytes(content);
+        Mockito.when(mockMarketoRestClient.isZeroCopyDownload()).thenReturn(true);
+        Mockito.when(mockMarketoRestClient.newFileChannelResponseReader(any(FileChannel.class), any(BulkExtractRangeHeader.class))).thenAnswer(invocation ->
+                new MarketoFileChannelResponseEntityReader(1000, invocation.getArgument(0), invocation.getArgument(1)));
+        // the server answers the whole file to any range
+        Mockito.when(mockMarketoRestClient.writeLeadBulkExtractResult(Mockito.eq(exportId), any(BulkExtractRangeHeader.class), any(MarketoFileChannelResponseEntityReader.class)))
+                .thenAnswer(invocation -> respond(invocation.getArgument(2), 200, null, content, null));
+        File file = marketoService.downloadLeadExtract(exportId, content.length, 3);
+        Assert.assertArrayEquals(content, ByteStreams.toByteArray(new FileInputStream(file)));
+    }
+
+    private static long respond(MarketoFileChannelResponseEntityReader reader, int status, String contentRange, String content, Throwable failure) throws Exception
+    {
+        return respond(reader, status, contentRange, content.getBytes(), failure);
+    }
+
+    /**
+     * Deliver the content to the reader as Jetty does, then read it. The response is aborted as Jetty does when the reader aborts it.
+     */
+    private static long respond(MarketoFileChannelResponseEntityReader reader, int status, String contentRange, byte[] content, Throwable failure) throws Exception
+    {
+        HttpFields headers = new HttpFields();
+        headers.put(HttpHeader.CONTENT_TYPE, "text/csv");
+        if (contentRange != null) {
+            headers.put(HttpHeader.CONTENT_RANGE, contentRange);
+        }
+        Response response = Mockito.mock(Response.class);
+        Mockito.doReturn(status).when(response).getStatus();
+        Mockito.doReturn(headers).when(response).getHeaders();
+        AtomicReference<Throwable> abortFailure = new AtomicReference<>();
+        Mockito.doAnswer(invocation -> abortFailure.compareAndSet(null, invocation.getArgument(0))).when(response).abort(any(Throwable.class));
+        Response.Listener listener = reader.getListener();
+        listener.onHeaders(response);
+        if (abortFailure.get() == null) {
+            listener.onContent(response, ByteBuffer.wrap(content));
+        }
+        Throwable resultFailure = abortFailure.get() != null ? abortFailure.get() : failure;
+        Result result = Mockito.mock(Result.class);
+        Mockito.doReturn(resultFailure != null).when(result).isFailed();
+        Mockito.doReturn(resultFailure).when(result).getFailure();
+        listener.onComplete(result);
+        return reader.readResponseContent();
+    }
+
+    @Test
+    public void downloadCompressedLeadExtractResumeFromLastByte() throws Exception
+    {
+        String exportId = "exportId";
+        InputStream brokenStream = new SequenceInputStream(new ByteArrayInputStream("Test File".getBytes()), new InputStream()
+        {
+            @Override
+            public int read() throws IOException
+            {
+                throw new IOException("Connection reset");
+            }
+        });
+        ByteArrayInputStream restOfFile = new ByteArrayInputStream(" Content".getBytes());
+        Mockito.when(mockMarketoRestClient.getLeadBulkExtractResult(Mockito.eq(exportId), any(BulkExtractRangeHeader.class))).thenReturn(brokenStream).thenReturn(restOfFile);
+        File file = marketoService.downloadCompressedLeadExtract(exportId);
+        byte[] staged = ByteStreams.toByteArray(new FileInputStream(file));
+        // gzip magic number
+        Assert.assertEquals((byte) 0x1f, staged[0]);
+        Assert.assertEquals((byte) 0x8b, staged[1]);
+        try (InputStream stream = new CompressedFileInputStream(file)) {
+            Assert.assertEquals("Test File Content", new String(ByteStreams.toByteArray(stream)));
+        }
+        ArgumentCaptor<BulkExtractRangeHeader> rangeHeaderCaptor = ArgumentCaptor.forClass(BulkExtractRangeHeader.class);
+        Mockito.verify(mockMarketoRestClient, Mockito.times(2)).getLeadBulkExtractResult(Mockito.eq(exportId), rangeHeaderCaptor.capture());
+        Assert.assertEquals("bytes=9-", rangeHeaderCaptor.getAllValues().get(1).toRangeHeaderValue());
+    }
+
     @Test
     public void getAllListLead() throws Exception
     {
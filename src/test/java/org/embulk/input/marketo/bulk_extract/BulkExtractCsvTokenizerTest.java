@@ -0,0 +1,79 @@
+package org.embulk.input.marketo.bulk_extract;
+
+import org.embulk.input.marketo.CsvRecordTokenizer;
+import org.embulk.input.marketo.CsvTokenizer;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+public class BulkExtractCsvTokenizerTest
+{
+    @Test
+    public void testReadRecords()
+    {
+        String csv = "\uFEFFid,name,note\r\n" +
+                "1,\"Doe, \"\"John\"\"\",\"multi\r\nline\nvalue\"\r\n" +
+                "\r\n" +
+                "2,null,\"escaped \\\" and \\\\ but not \\n\"  \r\n" +
+                "3,,\"\"";
+        BulkExtractCsvTokenizer tokenizer = new BulkExtractCsvTokenizer(new ByteArrayInputStream(csv.getBytes(StandardCharsets.UTF_8)), "\r\n", 128, "null");
+        Assert.assertEquals(Arrays.asList("id", "name", "note"), nextRecord(tokenizer));
+        Assert.assertEquals(Arrays.asList("1", "Doe, \"John\"", "multi\r\nline\r\nvalue"), nextRecord(tokenizer));
+        Assert.assertEquals(Arrays.asList("2", null, "escaped \" and \\ but not \\n"), nextRecord(tokenizer));
+        Assert.assertEquals(Arrays.asList("3", "", ""), nextRecord(tokenizer));
+        Assert.assertFalse(tokenizer.nextRecord());
+    }
+
+    @Test
+    public void testSkipColumn()
+    {
+        String csv = "a,\"b,\r\nb\",c\r\n";
+        BulkExtractCsvTokenizer tokenizer = new BulkExtractCsvTokenizer(new ByteArrayInputStream(csv.getBytes(StandardCharsets.UTF_8)), "\r\n", 128, "null");
+        Assert.assertTrue(tokenizer.nextRecord());
+        tokenizer.skipColumn();
+        tokenizer.skipColumn();
+        Assert.assertEquals("c", tokenizer.nextColumn());
+        Assert.assertFalse(tokenizer.hasNextColumn());
+        Assert.assertFalse(tokenizer.nextRecord());
+    }
+
+    @Test
+    public void testMultiByteValues()
+    {
+        String csv = "Nguy\u1EC5n,\"\u6771\u4EAC,\r\n\u5927\u962A\",\u00FC\r\n";
+        BulkExtractCsvTokenizer tokenizer = new BulkExtractCsvTokenizer(new ByteArrayInputStream(csv.getBytes(StandardCharsets.UTF_8)), "\r\n", 7, "null");
+        Assert.assertEquals(Arrays.asList("Nguy\u1EC5n", "\u6771\u4EAC,\r\n\u5927\u962A", "\u00FC"), nextRecord(tokenizer));
+        Assert.assertFalse(tokenizer.nextRecord());
+    }
+
+    @Test(expected = CsvTokenizer.QuotedSizeLimitExceededException.class)
+    public void testQuotedSizeLimit()
+    {
+        BulkExtractCsvTokenizer tokenizer = new BulkExtractCsvTokenizer(new ByteArrayInputStream("\"too long\"\r\n".getBytes(StandardCharsets.UTF_8)), "\r\n", 4, "null");
+        tokenizer.nextRecord();
+        tokenizer.nextColumn();
+    }
+
+    @Test(expected = CsvTokenizer.InvalidValueException.class)
+    public void testUnclosedQuote()
+    {
+        BulkExtractCsvTokenizer tokenizer = new BulkExtractCsvTokenizer(new ByteArrayInputStream("\"unclosed\r\n".getBytes(StandardCharsets.UTF_8)), "\r\n", 128, "null");
+        tokenizer.nextRecord();
+        tokenizer.nextColumn();
+    }
+
+    private static List<String> nextRecord(CsvRecordTokenizer tokenizer)
+    {
+        Assert.assertTrue(tokenizer.nextRecord());
+        List<String> values = new ArrayList<>();
+        while (tokenizer.hasNextColumn()) {
+            values.add(tokenizer.nextColumnOrNull());
+        }
+        return values;
+    }
+}
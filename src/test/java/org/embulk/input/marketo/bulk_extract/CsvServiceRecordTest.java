@@ -0,0 +1,97 @@
+package org.embulk.input.marketo.bulk_extract;
+
+import org.embulk.base.restclient.jackson.JacksonServiceValue;
+import org.embulk.base.restclient.jackson.JacksonTopLevelValueLocator;
+import org.embulk.base.restclient.record.ValueLocator;
+import org.embulk.input.marketo.MarketoUtils;
+import org.embulk.util.json.JsonParser;
+import org.embulk.util.timestamp.TimestampFormatter;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.time.Instant;
+import java.util.Arrays;
+
+public class CsvServiceRecordTest
+{
+    private static final ValueLocator ID = new JacksonTopLevelValueLocator("id");
+
+    private static final ValueLocator SCORE = new JacksonTopLevelValueLocator("score");
+
+    private static final ValueLocator ACTIVE = new JacksonTopLevelValueLocator("active");
+
+    private static final ValueLocator CREATED_AT = new JacksonTopLevelValueLocator("createdAt");
+
+    private static final ValueLocator ATTRIBUTES = new JacksonTopLevelValueLocator("attributes");
+
+    private static final ValueLocator NOTE = new JacksonTopLevelValueLocator("note");
+
+    @Test
+    public void testTypedValues()
+    {
+        CsvServiceRecord record = newRecord();
+        record.setRow(new String[] {"12", "1.5", "true", "2017-09-21T10:15:30+0000", "{\"key\":\"value\"}", "text"});
+        Assert.assertEquals(12L, record.getValue(ID).longValue());
+        Assert.assertEquals(1.5, record.getValue(SCORE).doubleValue(), 0);
+        Assert.assertTrue(record.getValue(ACTIVE).booleanValue());
+        TimestampFormatter formatter = TimestampFormatter.builder(MarketoUtils.MARKETO_DATE_TIME_FORMAT, true).build();
+        Assert.assertEquals(Instant.parse("2017-09-21T10:15:30Z"), record.getValue(CREATED_AT).timestampValue(formatter));
+        Assert.assertEquals("{\"key\":\"value\"}", record.getValue(ATTRIBUTES).jsonValue(new JsonParser()).toJson());
+        Assert.assertEquals("text", record.getValue(NOTE).stringValue());
+    }
+
+    @Test
+    public void testValuesOfNextRow()
+    {
+        CsvServiceRecord record = newRecord();
+        record.setRow(new String[] {"1", "1.5", "true", "", "", "first"});
+        Assert.assertEquals("first", record.getValue(NOTE).stringValue());
+        // the record is reused for the next row of the file
+        record.setRow(new String[] {"2", "2.5", "false", "", "", "second"});
+        Assert.assertEquals(2L, record.getValue(ID).longValue());
+        Assert.assertEquals("second", record.getValue(NOTE).stringValue());
+    }
+
+    @Test
+    public void testMissingColumns()
+    {
+        CsvServiceRecord record = newRecord();
+        // column not in the header
+        record.setRow(new String[] {"1", "1.5", "true", "", "", "note"});
+        Assert.assertTrue(record.getValue(new JacksonTopLevelValueLocator("unknown")).isNull());
+        // row shorter than the header
+        record.setRow(new String[] {"1", "1.5"});
+        Assert.assertFalse(record.getValue(SCORE).isNull());
+        Assert.assertTrue(record.getValue(ACTIVE).isNull());
+        Assert.assertTrue(record.getValue(NOTE).isNull());
+    }
+
+    @Test
+    public void testEmptyStringAndNull()
+    {
+        CsvServiceRecord record = newRecord();
+        record.setRow(new String[] {"1", null, "null", "", "", ""});
+        JacksonServiceValue empty = record.getValue(NOTE);
+        Assert.assertFalse(empty.isNull());
+        Assert.assertEquals("", empty.stringValue());
+        // a null field and the null literal are both null values
+        Assert.assertTrue(record.getValue(SCORE).isNull());
+        Assert.assertTrue(record.getValue(ACTIVE).isNull());
+    }
+
+    @Test
+    public void testReadColumns()
+    {
+        CsvServiceRecord record = newRecord();
+        record.setRow(new String[] {"1", "1.5", "true", "", "", "note"});
+        record.getValue(ID);
+        record.getValue(NOTE);
+        record.getValue(new JacksonTopLevelValueLocator("unknown"));
+        Assert.assertArrayEquals(new boolean[] {true, false, false, false, false, true}, record.getReadColumns());
+    }
+
+    private static CsvServiceRecord newRecord()
+    {
+        return new CsvServiceRecord(Arrays.asList("id", "score", "active", "createdAt", "attributes", "note"));
+    }
+}
@@ -0,0 +1,103 @@
+package org.embulk.input.marketo.bulk_extract;
+
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributeView;
+import java.nio.file.attribute.FileTime;
+import java.time.Duration;
+
+public class ExportFileCacheTest
+{
+    private static final Duration MAX_AGE = Duration.ofDays(7);
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    @Test
+    public void testPutAndGet() throws Exception
+    {
+        ExportFileCache cache = new ExportFileCache(temporaryFolder.getRoot().toPath().resolve("cache"), 100, MAX_AGE);
+        Assert.assertNull(cache.get("range1"));
+        File file = newFile(10);
+        File cachedFile = cache.put("range1", file, 10);
+        Assert.assertFalse(file.exists());
+        Assert.assertEquals(cachedFile, cache.get("range1"));
+        Assert.assertEquals(10, cachedFile.length());
+        Assert.assertNull(cache.get("range2"));
+    }
+
+    @Test
+    public void testNotCachedWhenSizeDoesNotMatch() throws Exception
+    {
+        ExportFileCache cache = new ExportFileCache(temporaryFolder.getRoot().toPath().resolve("cache"), 100, MAX_AGE);
+        File file = newFile(10);
+        Assert.assertEquals(file, cache.put("range1", file, 20));
+        // unknown size
+        Assert.assertEquals(file, cache.put("range1", file, -1));
+        Assert.assertNull(cache.get("range1"));
+    }
+
+    @Test
+    public void testTruncatedFileIsRemoved() throws Exception
+    {
+        ExportFileCache cache = new ExportFileCache(temporaryFolder.getRoot().toPath().resolve("cache"), 100, MAX_AGE);
+        File cachedFile = cache.put("range1", newFile(10), 10);
+        Files.write(cachedFile.toPath(), new byte[5]);
+        Assert.assertNull(cache.get("range1"));
+        Assert.assertFalse(cachedFile.exists());
+    }
+
+    @Test
+    public void testEvictLeastRecentlyUsed() throws Exception
+    {
+        ExportFileCache cache = new ExportFileCache(temporaryFolder.getRoot().toPath().resolve("cache"), 100, MAX_AGE);
+        File file1 = cache.put("range1", newFile(40), 40);
+        File file2 = cache.put("range2", newFile(40), 40);
+        setLastAccessTime(file1, System.currentTimeMillis() - 20000);
+        setLastAccessTime(file2, System.currentTimeMillis() - 10000);
+        // range1 is used again, range2 becomes the least recently used
+        Assert.assertNotNull(cache.get("range1"));
+        cache.put("range3", newFile(40), 40);
+        Assert.assertNotNull(cache.get("range1"));
+        Assert.assertNull(cache.get("range2"));
+        Assert.assertNotNull(cache.get("range3"));
+        // files larger than the budget are not cached
+        File largeFile = newFile(120);
+        Assert.assertEquals(largeFile, cache.put("range4", largeFile, 120));
+    }
+
+    @Test
+    public void testEvictOlderThanMaxAge() throws Exception
+    {
+        ExportFileCache cache = new ExportFileCache(temporaryFolder.getRoot().toPath().resolve("cache"), 100, MAX_AGE);
+        File file1 = cache.put("range1", newFile(10), 10);
+        File file2 = cache.put("range2", newFile(10), 10);
+        // used recently, but cached more than the max age ago
+        Files.setLastModifiedTime(file1.toPath(), FileTime.fromMillis(System.currentTimeMillis() - MAX_AGE.toMillis() - 10000));
+        Files.setLastModifiedTime(file2.toPath(), FileTime.fromMillis(System.currentTimeMillis() - MAX_AGE.toMillis() - 10000));
+        Assert.assertNull(cache.get("range1"));
+        Assert.assertFalse(file1.exists());
+        // evicted when another file is cached, also under the byte budget
+        cache.put("range3", newFile(10), 10);
+        Assert.assertFalse(file2.exists());
+        Assert.assertNotNull(cache.get("range3"));
+    }
+
+    private void setLastAccessTime(File file, long millis) throws Exception
+    {
+        Files.getFileAttributeView(file.toPath(), BasicFileAttributeView.class).setTimes(null, FileTime.fromMillis(millis), null);
+    }
+
+    private File newFile(int size) throws Exception
+    {
+        Path path = temporaryFolder.newFile().toPath();
+        Files.write(path, new byte[size]);
+        return path.toFile();
+    }
+}
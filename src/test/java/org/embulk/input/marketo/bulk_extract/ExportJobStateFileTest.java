@@ -0,0 +1,46 @@
+package org.embulk.input.marketo.bulk_extract;
+
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+public class ExportJobStateFileTest
+{
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    @Test
+    public void testRecordAndGetExportId() throws Exception
+    {
+        Path path = temporaryFolder.getRoot().toPath().resolve("state/export_jobs.json");
+        ExportJobStateFile stateFile = new ExportJobStateFile(path);
+        Assert.assertNull(stateFile.getExportId("range1", "filter"));
+        stateFile.record("range1", "filter", "export1", "Queued");
+        stateFile.record("range2", "filter", "export2", "Queued");
+        stateFile.record("range1", "filter", "export1", "Completed");
+        Assert.assertTrue(Files.exists(path));
+        // read again from the file
+        ExportJobStateFile reopened = new ExportJobStateFile(path);
+        Assert.assertEquals("export1", reopened.getExportId("range1", "filter"));
+        Assert.assertEquals("export2", reopened.getExportId("range2", "filter"));
+        Assert.assertNull(reopened.getExportId("range1", "other filter"));
+    }
+
+    @Test
+    public void testRemove() throws Exception
+    {
+        ExportJobStateFile stateFile = new ExportJobStateFile(temporaryFolder.getRoot().toPath().resolve("export_jobs.json"));
+        stateFile.record("range1", "filter", "export1", "Completed");
+        stateFile.record("range2", "filter", "export2", "Completed");
+        stateFile.record("range3", "filter", "export3", "Queued");
+        stateFile.remove(Arrays.asList("range1", "range3"));
+        Assert.assertNull(stateFile.getExportId("range1", "filter"));
+        Assert.assertEquals("export2", stateFile.getExportId("range2", "filter"));
+        Assert.assertNull(stateFile.getExportId("range3", "filter"));
+    }
+}
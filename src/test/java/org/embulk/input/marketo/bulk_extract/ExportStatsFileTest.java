@@ -0,0 +1,66 @@
+package org.embulk.input.marketo.bulk_extract;
+
+import org.embulk.input.marketo.MarketoUtils;
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.time.OffsetDateTime;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+public class ExportStatsFileTest
+{
+    private static final OffsetDateTime START_DATE = OffsetDateTime.parse("2017-01-01T00:00:00Z");
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    @Test
+    public void testSliceWithoutStats() throws Exception
+    {
+        ExportStatsFile statsFile = new ExportStatsFile(temporaryFolder.getRoot().toPath().resolve("export_stats.json"));
+        List<MarketoUtils.DateRange> ranges = statsFile.sliceRange("target", START_DATE, START_DATE.plusDays(90), 1000, 30);
+        Assert.assertEquals(3, ranges.size());
+        Assert.assertEquals(START_DATE.plusDays(30), ranges.get(0).toDate);
+    }
+
+    @Test
+    public void testSliceByRecordedDensity() throws Exception
+    {
+        ExportStatsFile statsFile = new ExportStatsFile(temporaryFolder.getRoot().toPath().resolve("export_stats.json"));
+        // 200 bytes a day in January, nothing in February
+        statsFile.record("target", Arrays.asList(
+                ExportStatsFile.newEntry(new MarketoUtils.DateRange(START_DATE, START_DATE.plusDays(30)), 6000),
+                ExportStatsFile.newEntry(new MarketoUtils.DateRange(START_DATE.plusDays(30).plusSeconds(1), START_DATE.plusDays(60)), 0)));
+        // read again from the file
+        statsFile = new ExportStatsFile(temporaryFolder.getRoot().toPath().resolve("export_stats.json"));
+        List<MarketoUtils.DateRange> ranges = statsFile.sliceRange("target", START_DATE, START_DATE.plusDays(60), 1000, 30);
+        Assert.assertEquals(START_DATE.plusDays(5), ranges.get(0).toDate);
+        Assert.assertEquals(START_DATE.plusDays(5).plusSeconds(1), ranges.get(1).fromDate);
+        // sparse ranges are still cut every 30 days
+        MarketoUtils.DateRange lastRange = ranges.get(ranges.size() - 1);
+        Assert.assertEquals(START_DATE.plusDays(60), lastRange.toDate);
+        Assert.assertFalse(lastRange.fromDate.plusDays(30).isBefore(lastRange.toDate));
+        // a planned range is not sliced again by the task it is hinted to
+        for (MarketoUtils.DateRange range : ranges) {
+            Assert.assertEquals(1, statsFile.sliceRange("target", range.fromDate, range.toDate, 1000, 30).size());
+        }
+        // other targets are not affected
+        Assert.assertEquals(2, statsFile.sliceRange("other target", START_DATE, START_DATE.plusDays(60), 1000, 30).size());
+    }
+
+    @Test
+    public void testRecordReplacesOverlappingRanges() throws Exception
+    {
+        ExportStatsFile statsFile = new ExportStatsFile(temporaryFolder.getRoot().toPath().resolve("export_stats.json"));
+        statsFile.record("target", Collections.singletonList(ExportStatsFile.newEntry(new MarketoUtils.DateRange(START_DATE, START_DATE.plusDays(30)), 30000)));
+        statsFile.record("target", Collections.singletonList(ExportStatsFile.newEntry(new MarketoUtils.DateRange(START_DATE, START_DATE.plusDays(10)), 1000)));
+        // 100 bytes a day, the dates after the recorded range take the density of the closest one
+        List<MarketoUtils.DateRange> ranges = statsFile.sliceRange("target", START_DATE, START_DATE.plusDays(20), 1000, 30);
+        Assert.assertEquals(2, ranges.size());
+        Assert.assertEquals(START_DATE.plusDays(10), ranges.get(0).toDate);
+    }
+}
@@ -0,0 +1,34 @@
+package org.embulk.input.marketo.bulk_extract;
+
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+public class LocalJsonFileTest
+{
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    @Test
+    public void testUpdateAndRead() throws Exception
+    {
+        Path path = temporaryFolder.getRoot().toPath().resolve("state/file.json");
+        LocalJsonFile file = new LocalJsonFile(path, "test file");
+        Assert.assertEquals(0, (int) file.read(content -> content.size()));
+        Assert.assertEquals("value", file.update(content -> content.put("key", "value").get("key").asText()));
+        // read again from the file, the temporary file was moved
+        Assert.assertEquals("value", new LocalJsonFile(path, "test file").read(content -> content.get("key").asText()));
+        Assert.assertFalse(Files.exists(path.resolveSibling("file.json.tmp")));
+    }
+
+    @Test
+    public void testLockSharedByPath()
+    {
+        Path path = temporaryFolder.getRoot().toPath().resolve("file.json");
+        Assert.assertSame(LocalJsonFile.getLock(path), LocalJsonFile.getLock(path.resolveSibling("state/../file.json")));
+    }
+}
@@ -0,0 +1,125 @@
+package org.embulk.input.marketo.bulk_extract;
+
+import org.embulk.EmbulkTestRuntime;
+import org.embulk.base.restclient.jackson.JacksonTopLevelValueLocator;
+import org.embulk.base.restclient.record.ServiceRecord;
+import org.embulk.base.restclient.record.ValueLocator;
+import org.embulk.input.marketo.CsvTokenizer;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static org.embulk.input.marketo.MarketoInputPlugin.CONFIG_MAPPER_FACTORY;
+import static org.embulk.input.marketo.MarketoUtilsTest.CONFIG_MAPPER;
+
+public class ParallelCsvRecordIteratorTest
+{
+    @Rule
+    public EmbulkTestRuntime embulkTestRuntime = new EmbulkTestRuntime();
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private final ExecutorService executor = Executors.newFixedThreadPool(2);
+
+    @After
+    public void tearDown()
+    {
+        executor.shutdownNow();
+    }
+
+    @Test
+    public void testFindRecordBoundariesSkipQuotedLineBreaks() throws Exception
+    {
+        String csv = "id,note\r\n" +
+                "1,\"a\r\nb\"\r\n" +
+                "2,\"c\\\"\r\n,d\"\r\n" +
+                "3,e\"\r\n" +
+                "4,\"\"\"\r\n\"\r\n";
+        File file = temporaryFolder.newFile();
+        Files.write(file.toPath(), csv.getBytes(StandardCharsets.UTF_8));
+        List<Long> boundaries = ParallelCsvRecordIterator.findRecordBoundaries(file, 1, executor);
+        long row1 = "id,note\r\n".length();
+        long row2 = row1 + "1,\"a\r\nb\"\r\n".length();
+        long row3 = row2 + "2,\"c\\\"\r\n,d\"\r\n".length();
+        long row4 = row3 + "3,e\"\r\n".length();
+        // a chunk can start with the LF of a CRLF, it is then read as an empty line
+        Assert.assertEquals(Arrays.asList(0L, row1 - 1, row1, row2 - 1, row2, row3 - 1, row3, row4 - 1, row4, (long) csv.length() - 1, (long) csv.length()), boundaries);
+    }
+
+    @Test
+    public void testFindRecordBoundariesByChunkSize() throws Exception
+    {
+        StringBuilder csv = new StringBuilder("id,name\r\n");
+        for (int i = 0; i < 100; i++) {
+            csv.append(i).append(",\"name\r\n").append(i).append("\"\r\n");
+        }
+        File file = temporaryFolder.newFile();
+        Files.write(file.toPath(), csv.toString().getBytes(StandardCharsets.UTF_8));
+        List<Long> boundaries = ParallelCsvRecordIterator.findRecordBoundaries(file, 200, executor);
+        Assert.assertEquals(0L, (long) boundaries.get(0));
+        Assert.assertEquals(file.length(), (long) boundaries.get(boundaries.size() - 1));
+        byte[] bytes = Files.readAllBytes(file.toPath());
+        for (int i = 1; i < boundaries.size() - 1; i++) {
+            long boundary = boundaries.get(i);
+            Assert.assertTrue(boundary > boundaries.get(i - 1) && boundary >= i * 200);
+            // every chunk starts with a row id, after the LF of a cut CRLF
+            int start = bytes[(int) boundary] == '\n' ? (int) boundary + 1 : (int) boundary;
+            Assert.assertTrue(Character.isDigit(bytes[start]));
+        }
+    }
+
+    @Test
+    public void testSameRecordsAsSequentialIterator() throws Exception
+    {
+        StringBuilder csv = new StringBuilder("id,name,note\r\n");
+        for (int i = 0; i < 200; i++) {
+            // quoted line breaks, escaped and doubled quotes land on every offset of the small chunks
+            csv.append(i).append(",\"name ").append(i).append("\r\n\\\",\r\n\",\"\"\"note\r\n").append(i % 7).append("\"\"\"\r\n");
+            if (i % 3 == 0) {
+                csv.append(i).append(",null,\r\n");
+            }
+        }
+        File file = temporaryFolder.newFile();
+        Files.write(file.toPath(), csv.toString().getBytes(StandardCharsets.UTF_8));
+        CsvTokenizer.PluginTask task = CONFIG_MAPPER.map(CONFIG_MAPPER_FACTORY.newConfigSource(), CsvTokenizer.PluginTask.class);
+        List<List<String>> expected;
+        try (InputStream in = new StagedFileInputStream(file)) {
+            expected = readRecords(new CsvRecordIterator<>(in, task));
+        }
+        Assert.assertEquals(267, expected.size());
+        for (long chunkSize : new long[] {7, 64, 1000}) {
+            try (ParallelCsvRecordIterator<CsvTokenizer.PluginTask> iterator = new ParallelCsvRecordIterator<>(file, task, 3, chunkSize)) {
+                Assert.assertEquals(expected, readRecords(iterator));
+            }
+        }
+    }
+
+    private static List<List<String>> readRecords(Iterator<ServiceRecord> iterator)
+    {
+        List<ValueLocator> locators = Arrays.asList(new JacksonTopLevelValueLocator("id"), new JacksonTopLevelValueLocator("name"), new JacksonTopLevelValueLocator("note"));
+        List<List<String>> records = new ArrayList<>();
+        while (iterator.hasNext()) {
+            ServiceRecord record = iterator.next();
+            List<String> values = new ArrayList<>();
+            for (ValueLocator locator : locators) {
+                values.add(record.getValue(locator).isNull() ? null : record.getValue(locator).stringValue());
+            }
+            records.add(values);
+        }
+        return records;
+    }
+}
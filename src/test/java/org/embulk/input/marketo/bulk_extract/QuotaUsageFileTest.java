@@ -0,0 +1,41 @@
+package org.embulk.input.marketo.bulk_extract;
+
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.nio.file.Path;
+import java.time.LocalDate;
+
+public class QuotaUsageFileTest
+{
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    @Test
+    public void testAddUsageOfDay()
+    {
+        Path path = temporaryFolder.getRoot().toPath().resolve("quota_usage.json");
+        LocalDate day = LocalDate.of(2017, 7, 1);
+        new QuotaUsageFile(path).add("account_1", day, 10, 1024);
+        // another run sharing the file
+        QuotaUsageFile.Usage usage = new QuotaUsageFile(path).add("account_1", day, 5, 2048);
+        Assert.assertEquals(15, usage.getCalls());
+        Assert.assertEquals(3072, usage.getExportedBytes());
+
+        usage = new QuotaUsageFile(path).add("account_2", day, 1, 0);
+        Assert.assertEquals(1, usage.getCalls());
+        Assert.assertEquals(0, usage.getExportedBytes());
+    }
+
+    @Test
+    public void testUsageResetOnNextDay()
+    {
+        QuotaUsageFile file = new QuotaUsageFile(temporaryFolder.getRoot().toPath().resolve("quota_usage.json"));
+        file.add("account_1", LocalDate.of(2017, 7, 1), 10, 1024);
+        QuotaUsageFile.Usage usage = file.add("account_1", LocalDate.of(2017, 7, 2), 1, 0);
+        Assert.assertEquals(1, usage.getCalls());
+        Assert.assertEquals(0, usage.getExportedBytes());
+    }
+}
@@ -0,0 +1,65 @@
+package org.embulk.input.marketo.bulk_extract;
+
+import com.google.common.io.ByteStreams;
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+
+public class StagedFileInputStreamTest
+{
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    @Test
+    public void testReadRangeOverSeveralBuffers() throws Exception
+    {
+        File file = newFile("0123456789abcdefghij");
+        try (InputStream in = new StagedFileInputStream(file, 3, 17, 4)) {
+            Assert.assertEquals('3', in.read());
+            Assert.assertEquals("456789abcdefg", new String(ByteStreams.toByteArray(in), StandardCharsets.UTF_8));
+            Assert.assertEquals(-1, in.read());
+        }
+    }
+
+    @Test
+    public void testReadWholeFile() throws Exception
+    {
+        File file = newFile("0123456789");
+        try (InputStream in = new StagedFileInputStream(file)) {
+            Assert.assertEquals("0123456789", new String(ByteStreams.toByteArray(in), StandardCharsets.UTF_8));
+        }
+    }
+
+    @Test
+    public void testFileShorterThanRange() throws Exception
+    {
+        File file = newFile("0123456789");
+        try (InputStream in = new StagedFileInputStream(file, 5, 20, 4)) {
+            Assert.assertEquals("56789", new String(ByteStreams.toByteArray(in), StandardCharsets.UTF_8));
+        }
+    }
+
+    @Test
+    public void testFileReleasedOnClose() throws Exception
+    {
+        File file = newFile("0123456789");
+        InputStream in = new StagedFileInputStream(file, 0, -1, 4);
+        Assert.assertEquals('0', in.read());
+        in.close();
+        // nothing keeps the file once closed, it can be deleted and its space is freed
+        Assert.assertTrue(file.delete());
+    }
+
+    private File newFile(String content) throws Exception
+    {
+        File file = temporaryFolder.newFile();
+        Files.write(file.toPath(), content.getBytes(StandardCharsets.UTF_8));
+        return file;
+    }
+}
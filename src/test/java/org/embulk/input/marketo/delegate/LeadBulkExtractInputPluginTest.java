@@ -11,6 +11,7 @@ import org.embulk.config.ConfigSource;
 import org.embulk.config.TaskReport;
 import org.embulk.input.marketo.CsvTokenizer;
 import org.embulk.input.marketo.MarketoUtils;
+import org.embulk.input.marketo.exception.ExportQuotaExceededException;
 import org.embulk.input.marketo.model.BulkExtractRangeHeader;
 import org.embulk.input.marketo.model.MarketoField;
 import org.embulk.input.marketo.rest.MarketoRestClient;
@@ -22,12 +23,14 @@ import org.junit.Before;
 import org.junit.Rule;
 import org.junit.Test;
 import org.mockito.ArgumentCaptor;
+import org.mockito.InOrder;
 
 import java.io.IOException;
 import java.text.DateFormat;
 import java.text.SimpleDateFormat;
 import java.time.OffsetDateTime;
 import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
 import java.util.Arrays;
 import java.util.Date;
 import java.util.List;
@@ -36,7 +39,9 @@ import static org.embulk.input.marketo.MarketoUtilsTest.CONFIG_MAPPER;
 import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.ArgumentMatchers.eq;
 import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.inOrder;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.spy;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
@@ -107,6 +112,111 @@ public class LeadBulkExtractInputPluginTest
         Assert.assertArrayEquals(new Long[]{102488L, 102456L, 102445L, 102439L, 102471L, 102503L, 102424L, 102473L, 102505L, 102492L, 102495L, 102452L, 102435L, 102467L, 102420L, 102496L, 102448L, 102499L, 102431L}, leadIds.toArray());
     }
 
+    @Test
+    public void testRunPipelined() throws InterruptedException, IOException
+    {
+        LeadBulkExtractInputPlugin.PluginTask task = CONFIG_MAPPER.map(configSource.deepCopy().set("pipeline_export_jobs", true), LeadBulkExtractInputPlugin.PluginTask.class);
+        PageBuilder pageBuilder = mock(PageBuilder.class);
+        String exportId1 = "exportId1";
+        String exportId2 = "exportId2";
+        JavaType javaType = OBJECT_MAPPER.getTypeFactory().constructParametrizedType(List.class, List.class, MarketoField.class);
+        List<MarketoField> marketoFields = OBJECT_MAPPER.readValue(this.getClass().getResourceAsStream("/fixtures/lead_describe_marketo_fields_full.json"), javaType);
+        when(mockMarketoRestclient.describeLead()).thenReturn(marketoFields);
+        when(mockMarketoRestclient.createLeadBulkExtract(any(Date.class), any(Date.class), any(List.class), any(String.class))).thenReturn(exportId1).thenReturn(exportId2).thenReturn(null);
+        when(mockMarketoRestclient.getLeadBulkExtractResult(eq(exportId1), any(BulkExtractRangeHeader.class))).thenReturn(this.getClass().getResourceAsStream("/fixtures/lead_extract1.csv"));
+        when(mockMarketoRestclient.getLeadBulkExtractResult(eq(exportId2), any(BulkExtractRangeHeader.class))).thenReturn(this.getClass().getResourceAsStream("/fixtures/leads_extract2.csv"));
+        ServiceResponseMapper<? extends ValueLocator> mapper = bulkExtractInputPlugin.buildServiceResponseMapper(task);
+        bulkExtractInputPlugin.validateInputTask(task);
+        bulkExtractInputPlugin.ingestServiceData(task, mapper.createRecordImporter(), 1, pageBuilder);
+        Column idColumn = mapper.getEmbulkSchema().lookupColumn("mk_id");
+        verify(pageBuilder, times(19)).setLong(eq(idColumn), any(Long.class));
+        // second range is enqueued as soon as the first one completed, before the first file is downloaded
+        InOrder inOrder = inOrder(mockMarketoRestclient);
+        inOrder.verify(mockMarketoRestclient).waitLeadExportJobComplete(eq(exportId1), eq(task.getPollingIntervalSecond()), eq(task.getBulkJobTimeoutSecond()));
+        inOrder.verify(mockMarketoRestclient).startLeadBulkExtract(eq(exportId2));
+        inOrder.verify(mockMarketoRestclient).getLeadBulkExtractResult(eq(exportId1), any(BulkExtractRangeHeader.class));
+        inOrder.verify(mockMarketoRestclient).waitLeadExportJobComplete(eq(exportId2), eq(task.getPollingIntervalSecond()), eq(task.getBulkJobTimeoutSecond()));
+        inOrder.verify(mockMarketoRestclient).getLeadBulkExtractResult(eq(exportId2), any(BulkExtractRangeHeader.class));
+    }
+
+    @Test
+    public void testRunPipelinedWithSingleExportJob() throws InterruptedException, IOException
+    {
+        // the export job permits of an account are shared in the JVM
+        ConfigSource cfg = configSource.deepCopy().set("account_id", "single_export_job_account").set("number_concurrent_export_job", 1).set("pipeline_export_jobs", true);
+        LeadBulkExtractInputPlugin.PluginTask task = CONFIG_MAPPER.map(cfg, LeadBulkExtractInputPlugin.PluginTask.class);
+        String exportId1 = "exportId1";
+        String exportId2 = "exportId2";
+        JavaType javaType = OBJECT_MAPPER.getTypeFactory().constructParametrizedType(List.class, List.class, MarketoField.class);
+        List<MarketoField> marketoFields = OBJECT_MAPPER.readValue(this.getClass().getResourceAsStream("/fixtures/lead_describe_marketo_fields_full.json"), javaType);
+        when(mockMarketoRestclient.describeLead()).thenReturn(marketoFields);
+        when(mockMarketoRestclient.createLeadBulkExtract(any(Date.class), any(Date.class), any(List.class), any(String.class))).thenReturn(exportId1).thenReturn(exportId2).thenReturn(null);
+        when(mockMarketoRestclient.getLeadBulkExtractResult(eq(exportId1), any(BulkExtractRangeHeader.class))).thenReturn(this.getClass().getResourceAsStream("/fixtures/lead_extract1.csv"));
+        when(mockMarketoRestclient.getLeadBulkExtractResult(eq(exportId2), any(BulkExtractRangeHeader.class))).thenReturn(this.getClass().getResourceAsStream("/fixtures/leads_extract2.csv"));
+        ServiceResponseMapper<? extends ValueLocator> mapper = bulkExtractInputPlugin.buildServiceResponseMapper(task);
+        bulkExtractInputPlugin.validateInputTask(task);
+        bulkExtractInputPlugin.ingestServiceData(task, mapper.createRecordImporter(), 1, mock(PageBuilder.class));
+        // the permit of the first job is released once it completed, so the second one is enqueued before the first file is downloaded
+        InOrder inOrder = inOrder(mockMarketoRestclient);
+        inOrder.verify(mockMarketoRestclient).waitLeadExportJobComplete(eq(exportId1), eq(task.getPollingIntervalSecond()), eq(task.getBulkJobTimeoutSecond()));
+        inOrder.verify(mockMarketoRestclient).startLeadBulkExtract(eq(exportId2));
+        inOrder.verify(mockMarketoRestclient).getLeadBulkExtractResult(eq(exportId1), any(BulkExtractRangeHeader.class));
+    }
+
+    @Test
+    public void testRangeLeftToNextRunWhenExportQuotaExceeded() throws IOException
+    {
+        LeadBulkExtractInputPlugin.PluginTask task = CONFIG_MAPPER.map(configSource, LeadBulkExtractInputPlugin.PluginTask.class);
+        OffsetDateTime startDate = OffsetDateTime.ofInstant(task.getFromDate().toInstant(), ZoneOffset.UTC);
+        String exportId1 = "exportId1";
+        JavaType javaType = OBJECT_MAPPER.getTypeFactory().constructParametrizedType(List.class, List.class, MarketoField.class);
+        List<MarketoField> marketoFields = OBJECT_MAPPER.readValue(this.getClass().getResourceAsStream("/fixtures/lead_describe_marketo_fields_full.json"), javaType);
+        when(mockMarketoRestclient.describeLead()).thenReturn(marketoFields);
+        when(mockMarketoRestclient.createLeadBulkExtract(any(Date.class), any(Date.class), any(List.class), any(String.class)))
+                .thenReturn(exportId1)
+                .thenThrow(new ExportQuotaExceededException("Marketo API Error, code: 1029, message: Export daily quota 500MB exceeded"));
+        when(mockMarketoRestclient.getLeadBulkExtractResult(eq(exportId1), any(BulkExtractRangeHeader.class))).thenReturn(this.getClass().getResourceAsStream("/fixtures/lead_extract1.csv"));
+        ServiceResponseMapper<? extends ValueLocator> mapper = bulkExtractInputPlugin.buildServiceResponseMapper(task);
+        bulkExtractInputPlugin.validateInputTask(task);
+        TaskReport taskReport = bulkExtractInputPlugin.ingestServiceData(task, mapper.createRecordImporter(), 1, mock(PageBuilder.class));
+        // the first range is imported, the next run starts from the second one
+        OffsetDateTime startDate2 = startDate.plusDays(30).plusSeconds(1);
+        Assert.assertEquals(startDate2.format(DateTimeFormatter.ISO_OFFSET_DATE_TIME), taskReport.get(String.class, "unprocessed_from_date"));
+        ConfigDiff configDiff = bulkExtractInputPlugin.buildConfigDiff(task, mock(Schema.class), 1, Arrays.asList(taskReport));
+        DateFormat df = new SimpleDateFormat(MarketoUtils.MARKETO_DATE_SIMPLE_DATE_FORMAT);
+        Assert.assertEquals(df.format(Date.from(startDate2.toInstant())), configDiff.get(String.class, "from_date"));
+    }
+
+    @Test
+    public void testPipelinedExportCanceledOnFailure() throws IOException
+    {
+        ConfigSource cfg = configSource.deepCopy().set("pipeline_export_jobs", true).set("included_fields", Arrays.asList("firstName", "lastName"));
+        LeadBulkExtractInputPlugin.PluginTask task = CONFIG_MAPPER.map(cfg, LeadBulkExtractInputPlugin.PluginTask.class);
+        String exportId1 = "exportId1";
+        String exportId2 = "exportId2";
+        JavaType javaType = OBJECT_MAPPER.getTypeFactory().constructParametrizedType(List.class, List.class, MarketoField.class);
+        List<MarketoField> marketoFields = OBJECT_MAPPER.readValue(this.getClass().getResourceAsStream("/fixtures/lead_describe_marketo_fields_full.json"), javaType);
+        when(mockMarketoRestclient.describeLead()).thenReturn(marketoFields);
+        when(mockMarketoRestclient.createLeadBulkExtract(any(Date.class), any(Date.class), any(List.class), any(String.class))).thenReturn(exportId1).thenReturn(exportId2).thenReturn(null);
+        // the first file can't be parsed, once the second range was enqueued ahead
+        when(mockMarketoRestclient.getLeadBulkExtractResult(eq(exportId1), any(BulkExtractRangeHeader.class))).thenReturn(this.getClass().getResourceAsStream("/fixtures/lead_extract_with_quote_in_quote_field.csv"));
+        ServiceResponseMapper<? extends ValueLocator> mapper = bulkExtractInputPlugin.buildServiceResponseMapper(task);
+        bulkExtractInputPlugin.validateInputTask(task);
+        try {
+            bulkExtractInputPlugin.ingestServiceData(task, mapper.createRecordImporter(), 1, mock(PageBuilder.class));
+            Assert.fail("Expected exception due to quote char in quoted fields");
+        }
+        catch (Exception e) {
+            Assert.assertTrue(e.getCause() instanceof CsvTokenizer.InvalidValueException);
+        }
+        // nothing will import the job enqueued ahead without an export state file
+        InOrder inOrder = inOrder(mockMarketoRestclient);
+        inOrder.verify(mockMarketoRestclient).startLeadBulkExtract(eq(exportId2));
+        inOrder.verify(mockMarketoRestclient).cancelLeadBulkExtract(eq(exportId2));
+        inOrder.verify(mockMarketoRestclient).close();
+        verify(mockMarketoRestclient, never()).cancelLeadBulkExtract(eq(exportId1));
+    }
+
     @Test
     public void testImportWithoutQuotesInQuotedFieldsConfig() throws IOException
     {
@@ -1,6 +1,9 @@
 package org.embulk.input.marketo.delegate;
 
+import com.fasterxml.jackson.databind.node.ObjectNode;
 import org.embulk.EmbulkTestRuntime;
+import org.embulk.base.restclient.DefaultServiceDataSplitter;
+import org.embulk.base.restclient.ServiceDataSplitter;
 import org.embulk.config.ConfigDiff;
 import org.embulk.config.ConfigException;
 import org.embulk.config.ConfigLoader;
@@ -8,14 +11,18 @@ import org.embulk.config.ConfigSource;
 import org.embulk.config.TaskReport;
 import org.embulk.input.marketo.MarketoInputPluginDelegate;
 import org.embulk.input.marketo.MarketoUtils;
+import org.embulk.input.marketo.bulk_extract.ExportJobStateFile;
+import org.embulk.input.marketo.bulk_extract.ExportStatsFile;
 import org.embulk.spi.Schema;
 import org.junit.Before;
 import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
 import org.mockito.ArgumentCaptor;
 import org.mockito.Mockito;
 
 import java.io.IOException;
+import java.nio.file.Path;
 import java.text.DateFormat;
 import java.text.SimpleDateFormat;
 import java.time.Instant;
@@ -26,9 +33,13 @@ import java.util.Arrays;
 import java.util.Date;
 import java.util.Optional;
 
+import static org.embulk.input.marketo.MarketoInputPlugin.CONFIG_MAPPER_FACTORY;
 import static org.embulk.input.marketo.MarketoUtilsTest.CONFIG_MAPPER;
 import static org.embulk.input.marketo.delegate.MarketoBaseBulkExtractInputPlugin.PluginTask;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 import static org.mockito.AdditionalAnswers.delegatesTo;
 import static org.mockito.Mockito.mock;
@@ -42,15 +53,20 @@ public class MarketoBaseBulkExtractInputPluginTest
     @Rule
     public EmbulkTestRuntime embulkTestRuntime = new EmbulkTestRuntime();
 
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
     private MarketoBaseBulkExtractInputPlugin<PluginTask> baseBulkExtractInputPlugin;
     private PluginTask validBaseTask;
 
+    private ConfigSource configSource;
+
     @Before
     public void prepare() throws IOException
     {
         baseBulkExtractInputPlugin = Mockito.mock(MarketoBaseBulkExtractInputPlugin.class, Mockito.CALLS_REAL_METHODS);
         ConfigLoader configLoader = embulkTestRuntime.getInjector().getInstance(ConfigLoader.class);
-        ConfigSource configSource = configLoader.fromYaml(
+        configSource = configLoader.fromYaml(
                 this.getClass().getResourceAsStream("/config/activity_bulk_extract_config.yaml"));
         validBaseTask = CONFIG_MAPPER.map(configSource, PluginTask.class);
     }
@@ -164,4 +180,146 @@ public class MarketoBaseBulkExtractInputPluginTest
         DateFormat df = new SimpleDateFormat(MarketoUtils.MARKETO_DATE_SIMPLE_DATE_FORMAT);
         assertEquals(df.format(toDate), configDiff.get(String.class, "from_date"));
     }
+
+    @Test
+    public void buildConfigDiffWithUnprocessedRange()
+    {
+        MarketoInputPluginDelegate.PluginTask task = Mockito.mock(MarketoInputPluginDelegate.PluginTask.class);
+        Mockito.when(task.getIncremental()).thenReturn(true);
+        Mockito.when(task.getIncrementalColumn()).thenReturn(Optional.of("createdAt"));
+        Date toDate = new Date(1507625728000L);
+        Mockito.when(task.getToDate()).thenReturn(Optional.of(toDate));
+        TaskReport completedReport = CONFIG_MAPPER_FACTORY.newTaskReport();
+        OffsetDateTime unprocessedFromDate = OffsetDateTime.ofInstant(toDate.toInstant(), ZoneOffset.UTC).minusDays(20);
+        // a task stopped by a quota budget reports the first range it did not import
+        TaskReport stoppedReport = CONFIG_MAPPER_FACTORY.newTaskReport().set("unprocessed_from_date", unprocessedFromDate.format(DateTimeFormatter.ISO_OFFSET_DATE_TIME));
+        ConfigDiff configDiff = baseBulkExtractInputPlugin.buildConfigDiff(task, Mockito.mock(Schema.class), 2, Arrays.asList(completedReport, stoppedReport));
+        DateFormat df = new SimpleDateFormat(MarketoUtils.MARKETO_DATE_SIMPLE_DATE_FORMAT);
+        assertEquals(df.format(Date.from(unprocessedFromDate.toInstant())), configDiff.get(String.class, "from_date"));
+    }
+
+    @Test
+    public void buildConfigDiffForgetImportedExportJobs() throws IOException
+    {
+        Path stateFilePath = temporaryFolder.getRoot().toPath().resolve("export_jobs.json");
+        ExportJobStateFile stateFile = new ExportJobStateFile(stateFilePath);
+        stateFile.record("range1", "filter", "export1", "Completed");
+        stateFile.record("range2", "filter", "export2", "Completed");
+        MarketoInputPluginDelegate.PluginTask task = Mockito.mock(MarketoInputPluginDelegate.PluginTask.class);
+        Mockito.when(task.getIncremental()).thenReturn(false);
+        Mockito.when(task.getExportStateFile()).thenReturn(Optional.of(stateFilePath.toString()));
+        TaskReport taskReport = CONFIG_MAPPER_FACTORY.newTaskReport().set("export_state_keys", Arrays.asList("range1"));
+        baseBulkExtractInputPlugin.buildConfigDiff(task, Mockito.mock(Schema.class), 1, Arrays.asList(taskReport));
+        assertNull(stateFile.getExportId("range1", "filter"));
+        assertEquals("export2", stateFile.getExportId("range2", "filter"));
+    }
+
+    @Test
+    public void isExportFileRetained()
+    {
+        ObjectNode exportStatus = MarketoUtils.OBJECT_MAPPER.createObjectNode().put("status", "Completed").put("finishedAt", "2017-10-01T00:00:00Z");
+        assertTrue(MarketoBaseBulkExtractInputPlugin.isExportFileRetained(exportStatus, Instant.parse("2017-10-07T00:00:00Z")));
+        assertFalse(MarketoBaseBulkExtractInputPlugin.isExportFileRetained(exportStatus, Instant.parse("2017-10-08T00:00:00Z")));
+        // unknown completion time
+        assertTrue(MarketoBaseBulkExtractInputPlugin.isExportFileRetained(MarketoUtils.OBJECT_MAPPER.createObjectNode().put("status", "Completed"), Instant.parse("2017-10-08T00:00:00Z")));
+    }
+
+    @Test
+    public void buildDefaultServiceDataSplitter()
+    {
+        baseBulkExtractInputPlugin.validateInputTask(validBaseTask);
+        ServiceDataSplitter<PluginTask> splitter = baseBulkExtractInputPlugin.buildServiceDataSplitter(validBaseTask);
+        assertTrue(splitter instanceof DefaultServiceDataSplitter);
+        assertEquals(1, splitter.numberToSplitWithHintingInTask(validBaseTask));
+    }
+
+    @Test
+    public void splitDateRangeIntoTasks()
+    {
+        PluginTask task = CONFIG_MAPPER.map(configSource.deepCopy().set("split_date_range_into_tasks", true), PluginTask.class);
+        baseBulkExtractInputPlugin.validateInputTask(task);
+        ServiceDataSplitter<PluginTask> splitter = baseBulkExtractInputPlugin.buildServiceDataSplitter(task);
+        // from_date 2017-07-01 with fetch_days 60 is sliced into 2 ranges of maximum 30 days
+        assertEquals(2, splitter.numberToSplitWithHintingInTask(task));
+
+        OffsetDateTime fromDate = OffsetDateTime.ofInstant(task.getFromDate().toInstant(), ZoneOffset.UTC);
+        splitter.hintInEachSplitTask(task, Mockito.mock(Schema.class), 1);
+        assertEquals(fromDate.plusDays(30).plusSeconds(1).toInstant(), task.getFromDate().toInstant());
+        assertEquals(fromDate.plusDays(60).toInstant(), task.getToDate().get().toInstant());
+    }
+
+    @Test(expected = ConfigException.class)
+    public void invalidInputTaskWhenRangeTargetBytesWithoutStatsFile()
+    {
+        PluginTask task = CONFIG_MAPPER.map(configSource.deepCopy().set("range_target_bytes", 1000000), PluginTask.class);
+        baseBulkExtractInputPlugin.validateInputTask(task);
+    }
+
+    @Test(expected = ConfigException.class)
+    public void invalidInputTaskWhenCompressedFilesCached()
+    {
+        PluginTask task = CONFIG_MAPPER.map(configSource.deepCopy()
+                .set("compress_staged_files", true)
+                .set("export_cache_directory", temporaryFolder.getRoot().toPath().resolve("cache").toString()), PluginTask.class);
+        baseBulkExtractInputPlugin.validateInputTask(task);
+    }
+
+    @Test
+    public void validInputTaskWithBudget()
+    {
+        PluginTask task = CONFIG_MAPPER.map(configSource.deepCopy()
+                .set("export_bytes_budget", 400000000)
+                .set("quota_usage_file", temporaryFolder.getRoot().toPath().resolve("quota_usage.json").toString()), PluginTask.class);
+        baseBulkExtractInputPlugin.validateInputTask(task);  // should not throw
+    }
+
+    @Test(expected = ConfigException.class)
+    public void invalidInputTaskWhenBudgetWithoutQuotaUsageFile()
+    {
+        PluginTask task = CONFIG_MAPPER.map(configSource.deepCopy().set("api_call_budget", 10000), PluginTask.class);
+        baseBulkExtractInputPlugin.validateInputTask(task);
+    }
+
+    @Test(expected = ConfigException.class)
+    public void invalidInputTaskWhenBudgetWithoutIncremental()
+    {
+        PluginTask task = CONFIG_MAPPER.map(configSource.deepCopy()
+                .set("incremental", false)
+                .set("api_call_budget", 10000)
+                .set("quota_usage_file", temporaryFolder.getRoot().toPath().resolve("quota_usage.json").toString()), PluginTask.class);
+        baseBulkExtractInputPlugin.validateInputTask(task);
+    }
+
+    @Test(expected = ConfigException.class)
+    public void invalidInputTaskWhenBudgetWithSplitDateRange()
+    {
+        PluginTask task = CONFIG_MAPPER.map(configSource.deepCopy()
+                .set("split_date_range_into_tasks", true)
+                .set("export_bytes_budget", 400000000)
+                .set("quota_usage_file", temporaryFolder.getRoot().toPath().resolve("quota_usage.json").toString()), PluginTask.class);
+        baseBulkExtractInputPlugin.validateInputTask(task);
+    }
+
+    @Test
+    public void splitDateRangeIntoTasksByExportStats()
+    {
+        Path statsFilePath = temporaryFolder.getRoot().toPath().resolve("export_stats.json");
+        PluginTask task = CONFIG_MAPPER.map(configSource.deepCopy()
+                .set("split_date_range_into_tasks", true)
+                .set("export_stats_file", statsFilePath.toString())
+                .set("range_target_bytes", 3000), PluginTask.class);
+        baseBulkExtractInputPlugin.validateInputTask(task);
+        OffsetDateTime fromDate = OffsetDateTime.ofInstant(task.getFromDate().toInstant(), ZoneOffset.UTC);
+        // the first 30 days exported 6000 bytes in a previous run
+        TaskReport taskReport = CONFIG_MAPPER_FACTORY.newTaskReport()
+                .set("export_stats", Arrays.asList(ExportStatsFile.newEntry(new MarketoUtils.DateRange(fromDate, fromDate.plusDays(30)), 6000)));
+        baseBulkExtractInputPlugin.buildConfigDiff(task, Mockito.mock(Schema.class), 1, Arrays.asList(taskReport));
+
+        ServiceDataSplitter<PluginTask> splitter = baseBulkExtractInputPlugin.buildServiceDataSplitter(task);
+        // from_date 2017-07-01 with fetch_days 60 is sliced into 4 ranges of 15 days
+        assertEquals(4, splitter.numberToSplitWithHintingInTask(task));
+        splitter.hintInEachSplitTask(task, Mockito.mock(Schema.class), 1);
+        assertEquals(fromDate.plusDays(15).plusSeconds(1).toInstant(), task.getFromDate().toInstant());
+        assertEquals(fromDate.plusDays(30).plusSeconds(1).toInstant(), task.getToDate().get().toInstant());
+    }
 }
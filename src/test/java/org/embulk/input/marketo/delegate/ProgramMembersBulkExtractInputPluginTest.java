@@ -8,6 +8,8 @@ import org.embulk.base.restclient.record.RecordImporter;
 import org.embulk.base.restclient.record.ValueLocator;
 import org.embulk.config.ConfigLoader;
 import org.embulk.config.ConfigSource;
+import org.embulk.input.marketo.MarketoService;
+import org.embulk.input.marketo.MarketoServiceImpl;
 import org.embulk.input.marketo.model.BulkExtractRangeHeader;
 import org.embulk.input.marketo.rest.MarketoRestClient;
 import org.embulk.input.marketo.rest.RecordPagingIterable;
@@ -19,15 +21,16 @@ import org.junit.Rule;
 import org.junit.Test;
 import org.mockito.ArgumentCaptor;
 
+import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
-import java.util.concurrent.Executors;
-import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.CompletableFuture;
 
 import static org.embulk.input.marketo.MarketoUtilsTest.CONFIG_MAPPER;
 import static org.mockito.ArgumentMatchers.any;
@@ -35,9 +38,10 @@ import static org.mockito.ArgumentMatchers.anyInt;
 import static org.mockito.ArgumentMatchers.anyList;
 import static org.mockito.ArgumentMatchers.anyString;
 import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doAnswer;
 import static org.mockito.Mockito.doReturn;
-import static org.mockito.Mockito.doThrow;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.spy;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
@@ -78,9 +82,10 @@ public class ProgramMembersBulkExtractInputPluginTest
         ObjectNode marketoFields = (ObjectNode) OBJECT_MAPPER.readTree(this.getClass().getResourceAsStream("/fixtures/program_members_describe.json"));
         when(mockProgramRecords.iterator()).thenReturn(programs.iterator());
         ObjectNode objectNode = OBJECT_MAPPER.createObjectNode().put("numberOfRecords", 3);
-        when(mockMarketoRestclient.waitProgramMembersExportJobComplete(anyString(), anyInt(), anyInt())).thenReturn(objectNode);
+        when(mockMarketoRestclient.waitProgramMembersExportJobCompleteAsync(anyString(), anyInt(), anyInt())).thenReturn(CompletableFuture.completedFuture(objectNode));
         when(mockMarketoRestclient.describeProgramMembers()).thenReturn(marketoFields);
-        when(mockMarketoRestclient.createProgramMembersBulkExtract(any(List.class), any(Integer.class))).thenReturn(exportId1).thenReturn(null);
+        when(mockMarketoRestclient.createProgramMembersBulkExtractAsync(any(List.class), any(Integer.class))).thenReturn(CompletableFuture.completedFuture(exportId1));
+        when(mockMarketoRestclient.startProgramMembersBulkExtractAsync(anyString())).thenReturn(CompletableFuture.completedFuture(null));
         when(mockMarketoRestclient.getProgramMemberBulkExtractResult(eq(exportId1), any(BulkExtractRangeHeader.class))).thenReturn(this.getClass().getResourceAsStream("/fixtures/program_members_extract.csv"));
         when(mockMarketoRestclient.getPrograms()).thenReturn(mockProgramRecords);
         bulkExtractInputPlugin.validateInputTask(task);
@@ -89,9 +94,9 @@ public class ProgramMembersBulkExtractInputPluginTest
         ArgumentCaptor<Long> argumentCaptor = ArgumentCaptor.forClass(Long.class);
         Column idColumn = mapper.getEmbulkSchema().lookupColumn("mk_leadId");
         verify(pageBuilder, times(3)).setLong(eq(idColumn), argumentCaptor.capture());
-        verify(mockMarketoRestclient, times(1)).startProgramMembersBulkExtract(eq(exportId1));
-        verify(mockMarketoRestclient, times(1)).waitProgramMembersExportJobComplete(eq(exportId1), eq(task.getPollingIntervalSecond()), eq(task.getBulkJobTimeoutSecond()));
-        verify(mockMarketoRestclient, times(1)).createProgramMembersBulkExtract(anyList(), anyInt());
+        verify(mockMarketoRestclient, times(1)).startProgramMembersBulkExtractAsync(eq(exportId1));
+        verify(mockMarketoRestclient, times(1)).waitProgramMembersExportJobCompleteAsync(eq(exportId1), eq(task.getPollingIntervalSecond()), eq(task.getBulkJobTimeoutSecond()));
+        verify(mockMarketoRestclient, times(1)).createProgramMembersBulkExtractAsync(anyList(), anyInt());
         List<Long> leadIds = argumentCaptor.getAllValues();
         Assert.assertEquals(3, leadIds.size());
         Assert.assertTrue(leadIds.contains(452L));
@@ -100,13 +105,40 @@ public class ProgramMembersBulkExtractInputPluginTest
     }
 
     @Test
-    public void shouldShutdownExecutor()
+    public void shouldDeleteStagedFilesOnceImported() throws IOException
     {
-        ThreadPoolExecutor sampleExec = (ThreadPoolExecutor) Executors.newFixedThreadPool(5);
-        doReturn(sampleExec).when(bulkExtractInputPlugin).createExecutor(any());
+        ProgramMembersBulkExtractInputPlugin.PluginTask task = CONFIG_MAPPER.map(configSource, ProgramMembersBulkExtractInputPlugin.PluginTask.class);
+        String exportId1 = "exportId1";
+        RecordPagingIterable<ObjectNode> mockProgramRecords = mock(RecordPagingIterable.class);
+        when(mockProgramRecords.iterator()).thenReturn(Collections.singletonList(OBJECT_MAPPER.createObjectNode().put("id", 100)).iterator());
+        ObjectNode marketoFields = (ObjectNode) OBJECT_MAPPER.readTree(this.getClass().getResourceAsStream("/fixtures/program_members_describe.json"));
+        when(mockMarketoRestclient.waitProgramMembersExportJobCompleteAsync(anyString(), anyInt(), anyInt())).thenReturn(CompletableFuture.completedFuture(OBJECT_MAPPER.createObjectNode().put("numberOfRecords", 3)));
+        when(mockMarketoRestclient.describeProgramMembers()).thenReturn(marketoFields);
+        when(mockMarketoRestclient.createProgramMembersBulkExtractAsync(any(List.class), any(Integer.class))).thenReturn(CompletableFuture.completedFuture(exportId1));
+        when(mockMarketoRestclient.startProgramMembersBulkExtractAsync(anyString())).thenReturn(CompletableFuture.completedFuture(null));
+        when(mockMarketoRestclient.getProgramMemberBulkExtractResult(eq(exportId1), any(BulkExtractRangeHeader.class))).thenReturn(this.getClass().getResourceAsStream("/fixtures/program_members_extract.csv"));
+        when(mockMarketoRestclient.getPrograms()).thenReturn(mockProgramRecords);
+        List<File> stagedFiles = new ArrayList<>();
+        MarketoService marketoService = spy(new MarketoServiceImpl(mockMarketoRestclient));
+        doAnswer(invocation -> {
+            File stagedFile = (File) invocation.callRealMethod();
+            stagedFiles.add(stagedFile);
+            return stagedFile;
+        }).when(marketoService).extractProgramMembers(anyString());
+        doReturn(marketoService).when(bulkExtractInputPlugin).createMarketoService(mockMarketoRestclient);
+        bulkExtractInputPlugin.validateInputTask(task);
+        ServiceResponseMapper<? extends ValueLocator> mapper = bulkExtractInputPlugin.buildServiceResponseMapper(task);
+        bulkExtractInputPlugin.ingestServiceData(task, mapper.createRecordImporter(), 1, mock(PageBuilder.class));
+        Assert.assertEquals(1, stagedFiles.size());
+        Assert.assertFalse(stagedFiles.get(0).exists());
+    }
 
+    @Test
+    public void shouldCloseClientAndCancelExports()
+    {
         ProgramMembersBulkExtractInputPlugin.PluginTask task = mock(ProgramMembersBulkExtractInputPlugin.PluginTask.class);
         doReturn(Optional.of(Arrays.asList(1, 3, 4))).when(task).getExtractedProgramIds();
+        doReturn(2).when(task).getNumberConcurrentExportJob();
 
         Map<String, String> fields = new HashMap<>();
         fields.put("field1", "value1");
@@ -114,18 +146,21 @@ public class ProgramMembersBulkExtractInputPluginTest
         doReturn(Optional.of(fields)).when(task).getProgramMemberFields();
 
         // mimic an unexpected exception during process
-        doThrow(new RuntimeException("Unexpected error")).when(mockMarketoRestclient).createProgramMembersBulkExtract(anyList(), anyInt());
+        CompletableFuture<String> failedExport = new CompletableFuture<>();
+        failedExport.completeExceptionally(new RuntimeException("Unexpected error"));
+        CompletableFuture<String> pendingExport = new CompletableFuture<>();
+        doReturn(failedExport).when(mockMarketoRestclient).createProgramMembersBulkExtractAsync(anyList(), eq(1));
+        doReturn(pendingExport).when(mockMarketoRestclient).createProgramMembersBulkExtractAsync(anyList(), eq(3));
 
         try {
             bulkExtractInputPlugin.ingestServiceData(task, mock(RecordImporter.class), 0, mock(PageBuilder.class));
             Assert.fail("Should not reach here");
         }
         catch (RuntimeException e) {
-            //
-        }
-        finally {
-            // the executor should be shutdown properly
-            Assert.assertTrue(sampleExec.isShutdown());
+            Assert.assertEquals("Unexpected error", e.getMessage());
         }
+        // no more jobs than number_concurrent_export_job are exported at once
+        verify(mockMarketoRestclient, never()).createProgramMembersBulkExtractAsync(anyList(), eq(4));
+        verify(mockMarketoRestclient, times(1)).close();
     }
 }
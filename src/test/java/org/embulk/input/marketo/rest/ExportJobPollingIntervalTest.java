@@ -0,0 +1,71 @@
+package org.embulk.input.marketo.rest;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.time.Instant;
+
+public class ExportJobPollingIntervalTest
+{
+    private static final ObjectMapper OBJECT_MAPPER = new ObjectMapper();
+
+    private static final long NOW = Instant.parse("2017-10-13T05:30:00Z").toEpochMilli();
+
+    @Test
+    public void testBackOffFromStatusTime()
+    {
+        ExportJobPollingInterval interval = new ExportJobPollingInterval(1000, 60000, -1, NOW);
+        ObjectNode status = OBJECT_MAPPER.createObjectNode().put("status", "Queued").put("queuedAt", "2017-10-13T05:29:59Z");
+        Assert.assertEquals(1000, interval.nextIntervalMillis("Queued", status, NOW));
+        status.put("queuedAt", "2017-10-13T05:29:50Z");
+        Assert.assertEquals(5000, interval.nextIntervalMillis("Queued", status, NOW));
+        status.put("queuedAt", "2017-10-13T05:00:00Z");
+        Assert.assertEquals(60000, interval.nextIntervalMillis("Queued", status, NOW));
+        // processing time is counted from the start of the processing
+        status.put("startedAt", "2017-10-13T05:29:40Z");
+        Assert.assertEquals(10000, interval.nextIntervalMillis("Processing", status, NOW));
+    }
+
+    @Test
+    public void testPollWhenPreviousJobWouldComplete()
+    {
+        ExportJobPollingInterval interval = new ExportJobPollingInterval(1000, 60000, 25000, NOW);
+        ObjectNode status = OBJECT_MAPPER.createObjectNode().put("status", "Processing").put("startedAt", "2017-10-13T05:29:50Z");
+        Assert.assertEquals(15000, interval.nextIntervalMillis("Processing", status, NOW));
+        // longer than the previous job
+        status.put("startedAt", "2017-10-13T05:29:00Z");
+        Assert.assertEquals(30000, interval.nextIntervalMillis("Processing", status, NOW));
+    }
+
+    @Test
+    public void testWithoutStatusTime()
+    {
+        ExportJobPollingInterval interval = new ExportJobPollingInterval(1000, 60000, -1, NOW - 8000);
+        ObjectNode status = OBJECT_MAPPER.createObjectNode().put("status", "Processing");
+        Assert.assertEquals(4000, interval.nextIntervalMillis("Processing", status, NOW));
+        // fixed polling
+        Assert.assertEquals(60000, new ExportJobPollingInterval(60000, 60000, -1, NOW).nextIntervalMillis("Processing", status, NOW));
+    }
+
+    @Test
+    public void testBackOffForHourLongJob()
+    {
+        ExportJobPollingInterval interval = new ExportJobPollingInterval(1000, 600000, -1, NOW);
+        ObjectNode status = OBJECT_MAPPER.createObjectNode().put("status", "Processing").put("startedAt", "2017-10-13T05:20:00Z");
+        // polled less often than the usual 60 seconds
+        Assert.assertEquals(300000, interval.nextIntervalMillis("Processing", status, NOW));
+        status.put("startedAt", "2017-10-13T04:35:00Z");
+        Assert.assertEquals(600000, interval.nextIntervalMillis("Processing", status, NOW));
+    }
+
+    @Test
+    public void testGetProcessingMillis()
+    {
+        ObjectNode status = OBJECT_MAPPER.createObjectNode().put("status", "Completed").put("startedAt", "2017-10-13T05:29:00Z").put("finishedAt", "2017-10-13T05:29:42Z");
+        Assert.assertEquals(42000, ExportJobPollingInterval.getProcessingMillis(status));
+        status.remove("finishedAt");
+        Assert.assertEquals(-1, ExportJobPollingInterval.getProcessingMillis(status));
+    }
+}
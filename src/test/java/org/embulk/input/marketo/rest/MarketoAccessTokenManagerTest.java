@@ -0,0 +1,149 @@
+package org.embulk.input.marketo.rest;
+
+import org.embulk.input.marketo.model.MarketoAccessTokenResponse;
+import org.junit.Assert;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mockito;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+public class MarketoAccessTokenManagerTest
+{
+    @Test
+    public void testConcurrentRefreshesCollapsed() throws Exception
+    {
+        AtomicInteger requests = new AtomicInteger();
+        CountDownLatch requested = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        MarketoAccessTokenManager tokenManager = new MarketoAccessTokenManager(() -> {
+            requests.incrementAndGet();
+            requested.countDown();
+            try {
+                release.await();
+            }
+            catch (InterruptedException e) {
+                throw new RuntimeException(e);
+            }
+            return tokenResponse("token", 3600);
+        });
+        ExecutorService executor = Executors.newFixedThreadPool(5);
+        try {
+            List<Future<String>> tokens = new ArrayList<>();
+            for (int i = 0; i < 5; i++) {
+                tokens.add(executor.submit(tokenManager::getAccessToken));
+            }
+            requested.await();
+            release.countDown();
+            for (Future<String> token : tokens) {
+                Assert.assertEquals("token", token.get());
+            }
+            Assert.assertEquals(1, requests.get());
+        }
+        finally {
+            executor.shutdownNow();
+            tokenManager.close();
+        }
+    }
+
+    @Test
+    public void testInvalidateOnlyCurrentToken()
+    {
+        AtomicInteger requests = new AtomicInteger();
+        MarketoAccessTokenManager tokenManager = new MarketoAccessTokenManager(() -> tokenResponse("token" + requests.incrementAndGet(), 3600));
+        Assert.assertEquals("token1", tokenManager.getAccessToken());
+        tokenManager.invalidate("token1");
+        Assert.assertEquals("token2", tokenManager.getAccessToken());
+        // a request rejected with the previous token doesn't renew the new one
+        tokenManager.invalidate("token1");
+        Assert.assertEquals("token2", tokenManager.getAccessToken());
+        Assert.assertEquals(2, requests.get());
+        tokenManager.close();
+    }
+
+    @Test
+    public void testExpiringTokenRefreshed()
+    {
+        AtomicInteger requests = new AtomicInteger();
+        AtomicLong clock = new AtomicLong(1000000);
+        ScheduledExecutorService scheduler = Mockito.mock(ScheduledExecutorService.class);
+        MarketoAccessTokenManager tokenManager = new MarketoAccessTokenManager(() -> tokenResponse("token" + requests.incrementAndGet(), 3600), clock::get, scheduler, Runnable::run);
+        Assert.assertEquals("token1", tokenManager.getAccessToken());
+        // refreshed in background 10 seconds before expiry
+        Mockito.verify(scheduler).schedule(Mockito.any(Runnable.class), Mockito.eq(3590000L), Mockito.eq(TimeUnit.MILLISECONDS));
+        clock.addAndGet(3589999);
+        Assert.assertEquals("token1", tokenManager.getAccessToken());
+        // or by the next request once within the margin
+        clock.addAndGet(1);
+        Assert.assertEquals("token2", tokenManager.getAccessToken());
+        Assert.assertEquals(2, requests.get());
+        tokenManager.close();
+    }
+
+    @Test
+    public void testShortLivedTokenNotRefreshedInBackground()
+    {
+        AtomicInteger requests = new AtomicInteger();
+        ScheduledExecutorService scheduler = Mockito.mock(ScheduledExecutorService.class);
+        // expires within the margin so every access renews it
+        MarketoAccessTokenManager tokenManager = new MarketoAccessTokenManager(() -> tokenResponse("token" + requests.incrementAndGet(), 5), () -> 1000000L, scheduler, Runnable::run);
+        Assert.assertEquals("token1", tokenManager.getAccessToken());
+        Assert.assertEquals("token2", tokenManager.getAccessToken());
+        Mockito.verifyZeroInteractions(scheduler);
+        tokenManager.close();
+    }
+
+    @Test
+    public void testSameTokenUsedUntilExpiry()
+    {
+        AtomicInteger requests = new AtomicInteger();
+        AtomicLong clock = new AtomicLong(1000000);
+        ScheduledExecutorService scheduler = Mockito.mock(ScheduledExecutorService.class);
+        List<Runnable> refreshes = new ArrayList<>();
+        MarketoAccessTokenManager tokenManager = new MarketoAccessTokenManager(() -> {
+            // Marketo returns the current token with its remaining lifetime until it expires
+            int request = requests.incrementAndGet();
+            if (request == 1) {
+                return tokenResponse("token1", 3600);
+            }
+            if (request == 2) {
+                return tokenResponse("token1", 5);
+            }
+            return tokenResponse("token2", 3600);
+        }, clock::get, scheduler, refreshes::add);
+        Assert.assertEquals("token1", tokenManager.getAccessToken());
+        clock.addAndGet(3595000);
+        // the same token is returned right away and used up to its expiry
+        Assert.assertEquals("token1", tokenManager.getAccessToken());
+        Assert.assertEquals("token1", tokenManager.getAccessToken());
+        Assert.assertEquals(2, requests.get());
+        ArgumentCaptor<Runnable> scheduledRefresh = ArgumentCaptor.forClass(Runnable.class);
+        Mockito.verify(scheduler).schedule(scheduledRefresh.capture(), Mockito.eq(5000L), Mockito.eq(TimeUnit.MILLISECONDS));
+        // the scheduler hands the identity call over to another thread
+        clock.addAndGet(5000);
+        scheduledRefresh.getValue().run();
+        Assert.assertEquals(2, requests.get());
+        Assert.assertEquals(1, refreshes.size());
+        refreshes.get(0).run();
+        Assert.assertEquals(3, requests.get());
+        Assert.assertEquals("token2", tokenManager.getAccessToken());
+        tokenManager.close();
+    }
+
+    private static MarketoAccessTokenResponse tokenResponse(String accessToken, int expiresIn)
+    {
+        MarketoAccessTokenResponse response = new MarketoAccessTokenResponse();
+        response.setAccessToken(accessToken);
+        response.setExpiresIn(expiresIn);
+        return response;
+    }
+}
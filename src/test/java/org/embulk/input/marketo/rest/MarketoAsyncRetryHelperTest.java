@@ -0,0 +1,98 @@
+package org.embulk.input.marketo.rest;
+
+import org.eclipse.jetty.client.HttpClient;
+import org.embulk.spi.DataException;
+import org.junit.Assert;
+import org.junit.Test;
+import org.mockito.Mockito;
+
+import java.io.EOFException;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class MarketoAsyncRetryHelperTest
+{
+    @Test
+    public void testRetryUntilSuccess() throws Exception
+    {
+        MarketoAsyncRetryHelper retryHelper = new MarketoAsyncRetryHelper(3, 1, 2, Mockito.mock(HttpClient.class));
+        CountingRequester requester = new CountingRequester(2, new EOFException());
+        Assert.assertEquals("response", retryHelper.requestWithRetry(requester).get(10, TimeUnit.SECONDS));
+        Assert.assertEquals(3, requester.attempts.get());
+        // retries are handed over by the scheduler, which doesn't run the attempts itself
+        Assert.assertFalse(requester.threadNames.contains("marketo-async-retry"));
+        Assert.assertFalse(requester.threadNames.contains(Thread.currentThread().getName()));
+    }
+
+    @Test
+    public void testGiveUpAfterMaximumRetries() throws Exception
+    {
+        MarketoAsyncRetryHelper retryHelper = new MarketoAsyncRetryHelper(2, 1, 2, Mockito.mock(HttpClient.class));
+        CountingRequester requester = new CountingRequester(5, new EOFException());
+        try {
+            retryHelper.requestWithRetry(requester).get(10, TimeUnit.SECONDS);
+            Assert.fail();
+        }
+        catch (ExecutionException e) {
+            Assert.assertTrue(e.getCause() instanceof EOFException);
+        }
+        Assert.assertEquals(3, requester.attempts.get());
+    }
+
+    @Test
+    public void testNoRetryOnOtherException() throws Exception
+    {
+        MarketoAsyncRetryHelper retryHelper = new MarketoAsyncRetryHelper(3, 1, 2, Mockito.mock(HttpClient.class));
+        CountingRequester requester = new CountingRequester(1, new DataException("invalid"));
+        try {
+            retryHelper.requestWithRetry(requester).get(10, TimeUnit.SECONDS);
+            Assert.fail();
+        }
+        catch (ExecutionException e) {
+            Assert.assertTrue(e.getCause() instanceof DataException);
+        }
+        Assert.assertEquals(1, requester.attempts.get());
+    }
+
+    private static class CountingRequester implements MarketoAsyncRetryHelper.AsyncRequester<String>
+    {
+        private final AtomicInteger attempts = new AtomicInteger();
+
+        private final List<String> threadNames = new CopyOnWriteArrayList<>();
+
+        private final int failures;
+
+        private final Exception failure;
+
+        CountingRequester(int failures, Exception failure)
+        {
+            this.failures = failures;
+            this.failure = failure;
+        }
+
+        @Override
+        public CompletableFuture<String> requestOnce(HttpClient client)
+        {
+            threadNames.add(Thread.currentThread().getName());
+            CompletableFuture<String> future = new CompletableFuture<>();
+            if (attempts.incrementAndGet() <= failures) {
+                // completed by another thread as Jetty does
+                CompletableFuture.runAsync(() -> future.completeExceptionally(failure));
+            }
+            else {
+                future.complete("response");
+            }
+            return future;
+        }
+
+        @Override
+        public boolean isExceptionToRetry(Exception exception)
+        {
+            return exception instanceof EOFException;
+        }
+    }
+}
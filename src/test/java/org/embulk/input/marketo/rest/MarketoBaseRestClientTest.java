@@ -1,5 +1,6 @@
 package org.embulk.input.marketo.rest;
 
+import com.fasterxml.jackson.databind.node.ObjectNode;
 import com.google.common.collect.ImmutableListMultimap;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
@@ -10,6 +11,9 @@ import org.eclipse.jetty.client.api.Request;
 import org.eclipse.jetty.client.api.Response;
 import org.eclipse.jetty.client.util.StringContentProvider;
 import org.eclipse.jetty.http.HttpMethod;
+import org.eclipse.jetty.server.Server;
+import org.eclipse.jetty.server.ServerConnector;
+import org.eclipse.jetty.server.handler.AbstractHandler;
 import org.embulk.EmbulkTestRuntime;
 import org.embulk.config.ConfigException;
 import org.embulk.input.marketo.exception.MarketoAPIException;
@@ -28,15 +32,23 @@ import org.junit.Test;
 import org.mockito.ArgumentCaptor;
 import org.mockito.Mockito;
 
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import java.io.ByteArrayInputStream;
 import java.io.EOFException;
 import java.io.IOException;
 import java.net.SocketTimeoutException;
 import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Optional;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import static org.embulk.input.marketo.rest.MarketoResponseJettyEntityReader.jsonResponseInvalid;
 
@@ -75,6 +87,22 @@ public class MarketoBaseRestClientTest
         Assert.assertEquals("access_token", accessToken);
     }
 
+    @Test
+    public void testSharedAccessTokenAfterFirstClientClosed()
+    {
+        List<Object> key = Arrays.asList("sharedTokenIdentityEndPoint", "clientId", "clientSecret");
+        MarketoBaseRestClient firstClient = new MarketoBaseRestClient("sharedTokenIdentityEndPoint", "clientId", "clientSecret", Optional.empty(), 100, MARKETO_LIMIT_INTERVAL_MILIS, 60000,
+                MarketoSharedClient.acquire(key, () -> mockJetty94));
+        MarketoBaseRestClient secondClient = new MarketoBaseRestClient("sharedTokenIdentityEndPoint", "clientId", "clientSecret", Optional.empty(), 100, MARKETO_LIMIT_INTERVAL_MILIS, 60000,
+                MarketoSharedClient.acquire(key, () -> Mockito.mock(Jetty94RetryHelper.class)));
+        firstClient.close();
+        Mockito.when(mockJetty94.requestWithRetry(Mockito.any(StringJetty94ResponseEntityReader.class), Mockito.any(Jetty94SingleRequester.class))).thenReturn("{\"access_token\": \"access_token\", \"expires_in\": 3599}");
+        // the token is still requested with the credentials of the account once the client creating the manager is closed
+        Assert.assertEquals("access_token", secondClient.getAccessToken());
+        Mockito.verify(mockJetty94, Mockito.times(1)).requestWithRetry(Mockito.any(StringJetty94ResponseEntityReader.class), Mockito.any(Jetty94SingleRequester.class));
+        secondClient.close();
+    }
+
     @Test
     public void testGetAccessTokenRequester()
     {
@@ -231,6 +259,63 @@ public class MarketoBaseRestClientTest
         Mockito.verify(spy, Mockito.times(1)).doRequest(Mockito.anyString(), Mockito.eq(HttpMethod.POST), Mockito.any(Map.class), Mockito.any(Multimap.class), Mockito.any(StringContentProvider.class), Mockito.any(StringJetty94ResponseEntityReader.class));
     }
 
+    @Test
+    public void testDoGetAsyncWithoutSharedClient() throws Exception
+    {
+        MarketoBaseRestClient spy = Mockito.spy(marketoBaseRestClient);
+        MarketoResponse<ObjectNode> response = new MarketoResponse<>();
+        response.setSuccess(true);
+        MarketoResponseJettyEntityReader<ObjectNode> reader = new MarketoResponseJettyEntityReader<>(10, ObjectNode.class);
+        Mockito.doReturn(response).when(spy).doRequest(Mockito.eq("target"), Mockito.eq(HttpMethod.GET), Mockito.isNull(), Mockito.isNull(), Mockito.isNull(), Mockito.eq(reader));
+        // the blocking request path is used when the HTTP client is not known
+        Assert.assertSame(response, spy.doGetAsync("target", null, null, reader).get(10, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void testDoGetAsyncRetriedWithJettyServer() throws Exception
+    {
+        AtomicInteger attempts = new AtomicInteger();
+        Server server = new Server(0);
+        server.setHandler(new AbstractHandler()
+        {
+            @Override
+            public void handle(String target, org.eclipse.jetty.server.Request baseRequest, HttpServletRequest request, HttpServletResponse response) throws IOException
+            {
+                baseRequest.setHandled(true);
+                response.setContentType("application/json");
+                if (target.endsWith(MarketoRESTEndpoint.ACCESS_TOKEN.getEndpoint())) {
+                    response.getWriter().write("{\"access_token\": \"token\", \"token_type\": \"bearer\", \"expires_in\": 3600}");
+                }
+                else if (attempts.incrementAndGet() <= 2) {
+                    response.setStatus(502);
+                }
+                else {
+                    response.getWriter().write("{\"requestId\": \"1\", \"success\": true, \"result\": [{\"id\": 1}]}");
+                }
+            }
+        });
+        server.start();
+        HttpClient httpClient = new HttpClient();
+        httpClient.start();
+        try {
+            String url = "http://localhost:" + ((ServerConnector) server.getConnectors()[0]).getLocalPort();
+            MarketoSharedClient sharedClient = MarketoSharedClient.acquire(Arrays.asList(url, "clientId", "clientSecret"),
+                    () -> new Jetty94RetryHelper(3, 1, 2, () -> httpClient),
+                    () -> new MarketoAsyncRetryHelper(3, 1, 2, httpClient));
+            MarketoBaseRestClient restClient = new MarketoBaseRestClient(url + "/identity", "clientId", "clientSecret", Optional.empty(), 100, MARKETO_LIMIT_INTERVAL_MILIS, 10000, sharedClient);
+            MarketoResponse<ObjectNode> response = restClient.doGetAsync(url + "/rest/v1/target.json", null, null, new MarketoResponseJettyEntityReader<>(10000, ObjectNode.class)).get(10, TimeUnit.SECONDS);
+            Assert.assertTrue(response.isSuccess());
+            Assert.assertEquals(1, response.getResult().get(0).get("id").asInt());
+            Assert.assertEquals(3, attempts.get());
+            Assert.assertEquals(3, restClient.getCallCount());
+            restClient.close();
+        }
+        finally {
+            httpClient.stop();
+            server.stop();
+        }
+    }
+
     @Test
     public void testDoGet()
     {
@@ -312,6 +397,10 @@ public class MarketoBaseRestClientTest
         Assert.assertTrue(jetty94SingleRequester.toRetry(createMarketoAPIException("615", "")));
         Assert.assertTrue(jetty94SingleRequester.toRetry(createMarketoAPIException("713", "")));
         Assert.assertTrue(jetty94SingleRequester.toRetry(createMarketoAPIException("1029", "")));
+        Assert.assertTrue(jetty94SingleRequester.toRetry(createMarketoAPIException("1029", "Too many jobs (10) in queue")));
+        Assert.assertTrue(jetty94SingleRequester.toRetry(createMarketoAPIException("1029", "Job already queued")));
+        // the daily export quota is not reset by retries
+        Assert.assertFalse(jetty94SingleRequester.toRetry(createMarketoAPIException("1029", "Export daily quota 500MB exceeded")));
         // Retry wrap SocketTimeoutException, TimeoutException and EOFException
         Assert.assertTrue(jetty94SingleRequester.toRetry(new ExecutionException(new TimeoutException())));
         Assert.assertTrue(jetty94SingleRequester.toRetry(new ExecutionException(new EOFException())));
@@ -331,6 +420,60 @@ public class MarketoBaseRestClientTest
         Mockito.verify(mockJetty94, Mockito.times(3)).requestWithRetry(Mockito.any(StringJetty94ResponseEntityReader.class), Mockito.any(Jetty94SingleRequester.class));
     }
 
+    @Test
+    public void testConcurrentCallReleasedWhenSendFails()
+    {
+        MarketoBaseRestClient restClient = new MarketoBaseRestClient("sendFailureIdentityEndPoint", "clientId", "clientSecret", Optional.empty(), MARKETO_LIMIT_INTERVAL_MILIS, 60000, mockJetty94);
+        MarketoConcurrencyGovernor governor = MarketoConcurrencyGovernor.getInstance("sendFailureIdentityEndPoint");
+        int availablePermits = governor.availablePermits();
+        ArgumentCaptor<Jetty94SingleRequester> jetty94SingleRequesterArgumentCaptor = ArgumentCaptor.forClass(Jetty94SingleRequester.class);
+        Mockito.when(mockJetty94.requestWithRetry(Mockito.any(MarketoResponseJettyEntityReader.class), jetty94SingleRequesterArgumentCaptor.capture())).thenReturn(new MarketoResponse<>());
+        Mockito.when(mockJetty94.requestWithRetry(Mockito.any(StringJetty94ResponseEntityReader.class), Mockito.any(Jetty94SingleRequester.class))).thenReturn("{\"access_token\": \"access_token\"}");
+        restClient.doRequest("target", HttpMethod.GET, null, null, null, new MarketoResponseJettyEntityReader<>(10));
+
+        HttpClient client = Mockito.mock(HttpClient.class);
+        Request mockRequest = Mockito.mock(Request.class);
+        Mockito.when(client.newRequest(Mockito.anyString())).thenReturn(mockRequest);
+        Mockito.when(mockRequest.method(Mockito.eq(HttpMethod.GET))).thenReturn(mockRequest);
+        Mockito.doThrow(new IllegalStateException("closed")).when(mockRequest).send(Mockito.any(Response.CompleteListener.class));
+        try {
+            jetty94SingleRequesterArgumentCaptor.getValue().requestOnce(client, Mockito.mock(Response.Listener.class));
+            Assert.fail();
+        }
+        catch (IllegalStateException e) {
+            Assert.assertEquals(availablePermits, governor.availablePermits());
+        }
+    }
+
+    @Test
+    public void testConcurrentCallNotAcquiredWhenCallLimitInterrupted()
+    {
+        MarketoBaseRestClient restClient = new MarketoBaseRestClient("interruptedIdentityEndPoint", "clientId", "clientSecret", Optional.empty(), MARKETO_LIMIT_INTERVAL_MILIS, 60000, mockJetty94);
+        MarketoConcurrencyGovernor governor = MarketoConcurrencyGovernor.getInstance("interruptedIdentityEndPoint");
+        int availablePermits = governor.availablePermits();
+        ArgumentCaptor<Jetty94SingleRequester> jetty94SingleRequesterArgumentCaptor = ArgumentCaptor.forClass(Jetty94SingleRequester.class);
+        Mockito.when(mockJetty94.requestWithRetry(Mockito.any(MarketoResponseJettyEntityReader.class), jetty94SingleRequesterArgumentCaptor.capture())).thenReturn(new MarketoResponse<>());
+        Mockito.when(mockJetty94.requestWithRetry(Mockito.any(StringJetty94ResponseEntityReader.class), Mockito.any(Jetty94SingleRequester.class))).thenReturn("{\"access_token\": \"access_token\"}");
+        restClient.doRequest("target", HttpMethod.GET, null, null, null, new MarketoResponseJettyEntityReader<>(10));
+
+        HttpClient client = Mockito.mock(HttpClient.class);
+        Request mockRequest = Mockito.mock(Request.class);
+        Mockito.when(client.newRequest(Mockito.anyString())).thenReturn(mockRequest);
+        Mockito.when(mockRequest.method(Mockito.eq(HttpMethod.GET))).thenReturn(mockRequest);
+        Thread.currentThread().interrupt();
+        try {
+            jetty94SingleRequesterArgumentCaptor.getValue().requestOnce(client, Mockito.mock(Response.Listener.class));
+            Assert.fail();
+        }
+        catch (DataException e) {
+            Assert.assertEquals(availablePermits, governor.availablePermits());
+            Mockito.verify(mockRequest, Mockito.never()).send(Mockito.any(Response.CompleteListener.class));
+        }
+        finally {
+            Thread.interrupted();
+        }
+    }
+
     @Test(expected = DataException.class)
     public void testResponseInvalidJson() throws Exception
     {
@@ -351,7 +494,7 @@ public class MarketoBaseRestClientTest
                 "    ,\n" +
                 "    \"success\": true\n" +
                 "}\n";
-        Mockito.doReturn(ret).when(reader).readResponseContentInString();
+        Mockito.doReturn(new ByteArrayInputStream(ret.getBytes(StandardCharsets.UTF_8))).when(reader).getResponseContentStream();
         Jetty94RetryHelper retryHelper = Mockito.spy(new Jetty94RetryHelper(1,
                 1000, 12000,
                 new DefaultJetty94ClientCreator(10000, 10000)));
@@ -0,0 +1,86 @@
+package org.embulk.input.marketo.rest;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+public class MarketoConcurrencyGovernorTest
+{
+    @Test
+    public void testHighPriorityGrantedFirst() throws Exception
+    {
+        MarketoConcurrencyGovernor governor = new MarketoConcurrencyGovernor(1);
+        governor.acquire(MarketoConcurrencyGovernor.Priority.NORMAL);
+        List<String> granted = new CopyOnWriteArrayList<>();
+        Thread pageFetch = startCall(governor, MarketoConcurrencyGovernor.Priority.NORMAL, "page", granted);
+        waitForWaitingCalls(governor, 1);
+        Thread statusPoll = startCall(governor, MarketoConcurrencyGovernor.Priority.HIGH, "status", granted);
+        waitForWaitingCalls(governor, 2);
+        governor.release();
+        pageFetch.join(10000);
+        statusPoll.join(10000);
+        Assert.assertEquals("status", granted.get(0));
+        Assert.assertEquals("page", granted.get(1));
+    }
+
+    @Test
+    public void testHighPriorityCallNotStarvedByDownloads() throws Exception
+    {
+        MarketoConcurrencyGovernor governor = new MarketoConcurrencyGovernor(10, 1);
+        for (int i = 0; i < 9; i++) {
+            governor.acquire(MarketoConcurrencyGovernor.Priority.NORMAL);
+        }
+        // the tenth download waits for one of the others
+        List<String> granted = new CopyOnWriteArrayList<>();
+        Thread download = startCall(governor, MarketoConcurrencyGovernor.Priority.NORMAL, "download", granted);
+        waitForWaitingCalls(governor, 1);
+        Thread statusPoll = startCall(governor, MarketoConcurrencyGovernor.Priority.HIGH, "status", granted);
+        statusPoll.join(10000);
+        Assert.assertEquals(1, granted.size());
+        Assert.assertEquals("status", granted.get(0));
+        Assert.assertEquals(1, governor.getWaitingCalls());
+        governor.release();
+        download.join(10000);
+        Assert.assertEquals("download", granted.get(1));
+    }
+
+    @Test
+    public void testInterruptedWaitingCall() throws Exception
+    {
+        MarketoConcurrencyGovernor governor = new MarketoConcurrencyGovernor(1);
+        governor.acquire(MarketoConcurrencyGovernor.Priority.NORMAL);
+        Thread call = startCall(governor, MarketoConcurrencyGovernor.Priority.NORMAL, "page", new CopyOnWriteArrayList<>());
+        waitForWaitingCalls(governor, 1);
+        call.interrupt();
+        call.join(10000);
+        Assert.assertEquals(0, governor.getWaitingCalls());
+        governor.release();
+        // the permit of the interrupted call is not leaked
+        governor.acquire(MarketoConcurrencyGovernor.Priority.NORMAL);
+    }
+
+    private static Thread startCall(MarketoConcurrencyGovernor governor, MarketoConcurrencyGovernor.Priority priority, String name, List<String> granted)
+    {
+        Thread thread = new Thread(() -> {
+            try {
+                governor.acquire(priority);
+                granted.add(name);
+                governor.release();
+            }
+            catch (InterruptedException e) {
+                // interrupted while waiting
+            }
+        });
+        thread.start();
+        return thread;
+    }
+
+    private static void waitForWaitingCalls(MarketoConcurrencyGovernor governor, int waitingCalls) throws InterruptedException
+    {
+        while (governor.getWaitingCalls() < waitingCalls) {
+            Thread.sleep(10);
+        }
+    }
+}
@@ -0,0 +1,189 @@
+package org.embulk.input.marketo.rest;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import org.embulk.EmbulkTestRuntime;
+import org.embulk.config.ConfigSource;
+import org.embulk.spi.DataException;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+
+import java.util.Collections;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static org.embulk.input.marketo.MarketoInputPlugin.CONFIG_MAPPER_FACTORY;
+import static org.embulk.input.marketo.MarketoUtilsTest.CONFIG_MAPPER;
+import static org.mockito.Mockito.anyString;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.eq;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.spy;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+public class MarketoExportJobPollerTest
+{
+    private static final ObjectMapper OBJECT_MAPPER = new ObjectMapper();
+
+    @Rule
+    public EmbulkTestRuntime embulkTestRuntime = new EmbulkTestRuntime();
+
+    private MarketoRestClient.PluginTask task;
+
+    private MarketoRestClient marketoRestClient;
+
+    @Before
+    public void prepare()
+    {
+        ConfigSource configSource = CONFIG_MAPPER_FACTORY.newConfigSource();
+        configSource.set("account_id", "poller_account_id");
+        configSource.set("client_secret", "client_secret");
+        configSource.set("client_id", "client_id");
+        task = CONFIG_MAPPER.map(configSource, MarketoRestClient.PluginTask.class);
+        marketoRestClient = spy(new MarketoRestClient(task));
+    }
+
+    @After
+    public void close()
+    {
+        marketoRestClient.close();
+    }
+
+    @Test
+    public void testPollJobsTogether() throws Exception
+    {
+        MarketoRESTEndpoint statusEndpoint = MarketoRESTEndpoint.GET_PROGRAM_MEMBERS_EXPORT_STATUS;
+        // job1 is finished, job2 is still processing in the first round
+        doReturn(Collections.singletonList(status("job2", "Processing")))
+                .doReturn(Collections.emptyList())
+                .when(marketoRestClient).listActiveExportJobs(MarketoRESTEndpoint.GET_PROGRAM_MEMBERS_EXPORT_JOBS);
+        doReturn(status("job1", "Completed")).when(marketoRestClient).getExportJobStatus(statusEndpoint, "job1");
+        doReturn(status("job2", "Completed")).when(marketoRestClient).getExportJobStatus(statusEndpoint, "job2");
+        MarketoExportJobPoller poller = marketoRestClient.getExportJobPoller();
+        CompletableFuture<ObjectNode> job1 = poller.submit(marketoRestClient, MarketoExportJobPoller.ExportType.PROGRAM_MEMBERS, "job1", 1, 10);
+        CompletableFuture<ObjectNode> job2 = poller.submit(marketoRestClient, MarketoExportJobPoller.ExportType.PROGRAM_MEMBERS, "job2", 1, 10);
+        Assert.assertEquals("job1", job1.get(10, TimeUnit.SECONDS).get("exportId").asText());
+        Assert.assertEquals("job2", job2.get(10, TimeUnit.SECONDS).get("exportId").asText());
+        verify(marketoRestClient, times(1)).getExportJobStatus(statusEndpoint, "job1");
+        verify(marketoRestClient, times(1)).getExportJobStatus(statusEndpoint, "job2");
+    }
+
+    @Test
+    public void testFailedJob() throws Exception
+    {
+        MarketoRESTEndpoint statusEndpoint = MarketoRESTEndpoint.GET_LEAD_EXPORT_STATUS;
+        doReturn(Collections.emptyList()).when(marketoRestClient).listActiveExportJobs(MarketoRESTEndpoint.GET_LEAD_EXPORT_JOBS);
+        doReturn(status("job1", "Failed").put("errorMsg", "ErrorMessage")).when(marketoRestClient).getExportJobStatus(statusEndpoint, "job1");
+        try {
+            marketoRestClient.getExportJobPoller().submit(marketoRestClient, MarketoExportJobPoller.ExportType.LEADS, "job1", 1, 10).get(10, TimeUnit.SECONDS);
+            Assert.fail();
+        }
+        catch (ExecutionException e) {
+            Assert.assertTrue(e.getCause() instanceof DataException);
+            Assert.assertTrue(e.getCause().getMessage().contains("ErrorMessage"));
+        }
+    }
+
+    @Test
+    public void testTimeout() throws Exception
+    {
+        doReturn(Collections.singletonList(status("job1", "Queued"))).when(marketoRestClient).listActiveExportJobs(MarketoRESTEndpoint.GET_ACTIVITY_EXPORT_JOBS);
+        try {
+            marketoRestClient.getExportJobPoller().submit(marketoRestClient, MarketoExportJobPoller.ExportType.ACTIVITIES, "job1", 1, 2).get(10, TimeUnit.SECONDS);
+            Assert.fail();
+        }
+        catch (ExecutionException e) {
+            Assert.assertTrue(e.getCause().getMessage().contains("Job timeout exception"));
+        }
+        // queued jobs are only seen in the list
+        verify(marketoRestClient, never()).getExportJobStatus(eq(MarketoRESTEndpoint.GET_ACTIVITY_EXPORT_STATUS), anyString());
+    }
+
+    @Test
+    public void testJobsOfClientsPolledTogether() throws Exception
+    {
+        MarketoRESTEndpoint statusEndpoint = MarketoRESTEndpoint.GET_LEAD_EXPORT_STATUS;
+        MarketoRestClient otherRestClient = spy(new MarketoRestClient(task));
+        try {
+            MarketoExportJobPoller poller = marketoRestClient.getExportJobPoller();
+            Assert.assertSame(poller, otherRestClient.getExportJobPoller());
+            doReturn(Collections.emptyList()).when(marketoRestClient).listActiveExportJobs(MarketoRESTEndpoint.GET_LEAD_EXPORT_JOBS);
+            doReturn(Collections.emptyList()).when(otherRestClient).listActiveExportJobs(MarketoRESTEndpoint.GET_LEAD_EXPORT_JOBS);
+            doReturn(status("job1", "Completed")).when(marketoRestClient).getExportJobStatus(statusEndpoint, "job1");
+            doReturn(status("job2", "Completed")).when(otherRestClient).getExportJobStatus(statusEndpoint, "job2");
+            CompletableFuture<ObjectNode> job1 = poller.submit(marketoRestClient, MarketoExportJobPoller.ExportType.LEADS, "job1", 1, 10);
+            CompletableFuture<ObjectNode> job2 = poller.submit(otherRestClient, MarketoExportJobPoller.ExportType.LEADS, "job2", 1, 10);
+            Assert.assertEquals("job1", job1.get(10, TimeUnit.SECONDS).get("exportId").asText());
+            Assert.assertEquals("job2", job2.get(10, TimeUnit.SECONDS).get("exportId").asText());
+            // each job has its status polled by its own client
+            verify(otherRestClient, never()).getExportJobStatus(statusEndpoint, "job1");
+            verify(marketoRestClient, never()).getExportJobStatus(statusEndpoint, "job2");
+        }
+        finally {
+            otherRestClient.close();
+        }
+    }
+
+    @Test
+    public void testJobsPolledOneByOneWhenListingFails() throws Exception
+    {
+        MarketoRESTEndpoint statusEndpoint = MarketoRESTEndpoint.GET_LEAD_EXPORT_STATUS;
+        doThrow(new DataException("Listing failed")).when(marketoRestClient).listActiveExportJobs(MarketoRESTEndpoint.GET_LEAD_EXPORT_JOBS);
+        doReturn(status("job1", "Processing"))
+                .doReturn(status("job1", "Completed"))
+                .when(marketoRestClient).getExportJobStatus(statusEndpoint, "job1");
+        CompletableFuture<ObjectNode> job1 = marketoRestClient.getExportJobPoller().submit(marketoRestClient, MarketoExportJobPoller.ExportType.LEADS, "job1", 1, 10);
+        Assert.assertEquals("job1", job1.get(10, TimeUnit.SECONDS).get("exportId").asText());
+        verify(marketoRestClient, times(2)).getExportJobStatus(statusEndpoint, "job1");
+    }
+
+    @Test
+    public void testJobsListedByOpenClient() throws Exception
+    {
+        MarketoRESTEndpoint statusEndpoint = MarketoRESTEndpoint.GET_LEAD_EXPORT_STATUS;
+        MarketoRestClient otherRestClient = spy(new MarketoRestClient(task));
+        try {
+            MarketoExportJobPoller poller = marketoRestClient.getExportJobPoller();
+            // the client of job1 is being closed
+            doReturn(true).when(marketoRestClient).isClosed();
+            doReturn(Collections.singletonList(status("job1", "Queued"))).when(marketoRestClient).listActiveExportJobs(MarketoRESTEndpoint.GET_LEAD_EXPORT_JOBS);
+            doReturn(Collections.emptyList()).when(otherRestClient).listActiveExportJobs(MarketoRESTEndpoint.GET_LEAD_EXPORT_JOBS);
+            doReturn(status("job1", "Completed")).when(marketoRestClient).getExportJobStatus(statusEndpoint, "job1");
+            doReturn(status("job2", "Completed")).when(otherRestClient).getExportJobStatus(statusEndpoint, "job2");
+            CompletableFuture<ObjectNode> job1 = poller.submit(marketoRestClient, MarketoExportJobPoller.ExportType.LEADS, "job1", 1, 10);
+            CompletableFuture<ObjectNode> job2 = poller.submit(otherRestClient, MarketoExportJobPoller.ExportType.LEADS, "job2", 1, 10);
+            Assert.assertEquals("job1", job1.get(10, TimeUnit.SECONDS).get("exportId").asText());
+            Assert.assertEquals("job2", job2.get(10, TimeUnit.SECONDS).get("exportId").asText());
+            verify(marketoRestClient, never()).listActiveExportJobs(MarketoRESTEndpoint.GET_LEAD_EXPORT_JOBS);
+        }
+        finally {
+            otherRestClient.close();
+        }
+    }
+
+    @Test
+    public void testJobsOfClosedClientCanceled() throws Exception
+    {
+        doReturn(Collections.singletonList(status("job1", "Queued"))).when(marketoRestClient).listActiveExportJobs(MarketoRESTEndpoint.GET_LEAD_EXPORT_JOBS);
+        CompletableFuture<ObjectNode> job1 = marketoRestClient.getExportJobPoller().submit(marketoRestClient, MarketoExportJobPoller.ExportType.LEADS, "job1", 1, 10);
+        marketoRestClient.close();
+        try {
+            job1.get(10, TimeUnit.SECONDS);
+            Assert.fail();
+        }
+        catch (ExecutionException e) {
+            Assert.assertTrue(e.getCause() instanceof DataException);
+        }
+    }
+
+    private static ObjectNode status(String exportId, String status)
+    {
+        return OBJECT_MAPPER.createObjectNode().put("exportId", exportId).put("status", status);
+    }
+}
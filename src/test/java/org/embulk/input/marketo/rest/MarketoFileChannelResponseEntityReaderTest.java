@@ -0,0 +1,160 @@
+package org.embulk.input.marketo.rest;
+
+import org.eclipse.jetty.client.api.Response;
+import org.eclipse.jetty.client.api.Result;
+import org.eclipse.jetty.http.HttpFields;
+import org.eclipse.jetty.http.HttpHeader;
+import org.embulk.input.marketo.exception.BulkExtractRangeException;
+import org.embulk.input.marketo.exception.MarketoAPIException;
+import org.embulk.input.marketo.model.BulkExtractRangeHeader;
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mockito;
+
+import java.io.EOFException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+public class MarketoFileChannelResponseEntityReaderTest
+{
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    @Test
+    public void testWriteContentAtPosition() throws Exception
+    {
+        Path path = temporaryFolder.newFile().toPath();
+        Files.write(path, "id,".getBytes(StandardCharsets.UTF_8));
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.WRITE)) {
+            MarketoFileChannelResponseEntityReader reader = new MarketoFileChannelResponseEntityReader(1000, channel, new BulkExtractRangeHeader(3));
+            Response response = mockResponse(206, "text/csv", "bytes 3-18/19");
+            Response.Listener listener = reader.getListener();
+            listener.onHeaders(response);
+            listener.onContent(response, directBuffer("email\n"));
+            listener.onContent(response, directBuffer("1,a@b.com\n"));
+            listener.onComplete(mockResult(null));
+            Assert.assertEquals(response, reader.getResponse());
+            Assert.assertEquals(16L, (long) reader.readResponseContent());
+            Assert.assertTrue(reader.isComplete());
+        }
+        Assert.assertEquals("id,email\n1,a@b.com\n", new String(Files.readAllBytes(path), StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void testBrokenTransferReturnsWrittenBytes() throws Exception
+    {
+        Path path = temporaryFolder.newFile().toPath();
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.WRITE)) {
+            MarketoFileChannelResponseEntityReader reader = new MarketoFileChannelResponseEntityReader(1000, channel, new BulkExtractRangeHeader(0));
+            Response response = mockResponse(200, "text/csv", null);
+            Response.Listener listener = reader.getListener();
+            listener.onHeaders(response);
+            listener.onContent(response, directBuffer("id,email\n1,a@"));
+            listener.onComplete(mockResult(new EOFException()));
+            // resumed by the caller from the written bytes
+            Assert.assertEquals(13L, (long) reader.readResponseContent());
+            Assert.assertFalse(reader.isComplete());
+            Assert.assertEquals(13L, reader.getWrittenBytes());
+        }
+    }
+
+    @Test
+    public void testReadErrorResponse() throws Exception
+    {
+        Path path = temporaryFolder.newFile().toPath();
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.WRITE)) {
+            MarketoFileChannelResponseEntityReader reader = new MarketoFileChannelResponseEntityReader(1000, channel, new BulkExtractRangeHeader(0));
+            Response response = mockResponse(200, "application/json;charset=UTF-8", null);
+            Response.Listener listener = reader.getListener();
+            listener.onHeaders(response);
+            listener.onContent(response, directBuffer("{\"requestId\": \"a9ae#148add1e53d\", \"success\": false, \"errors\": [{\"code\": \"1029\", \"message\": \"Too many jobs in queue\"}]}"));
+            listener.onComplete(mockResult(null));
+            reader.readResponseContent();
+            Assert.fail();
+        }
+        catch (MarketoAPIException e) {
+            Assert.assertEquals("1029", e.getMarketoErrors().get(0).getCode());
+        }
+        Assert.assertEquals(0, Files.size(path));
+    }
+
+    @Test
+    public void testResponseNotMatchingRangeFails() throws Exception
+    {
+        Path path = temporaryFolder.newFile().toPath();
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.WRITE)) {
+            MarketoFileChannelResponseEntityReader reader = new MarketoFileChannelResponseEntityReader(1000, channel, new BulkExtractRangeHeader(9, 16));
+            // the server ignored the range
+            Response response = mockResponse(200, "text/csv", null);
+            Response.Listener listener = reader.getListener();
+            listener.onHeaders(response);
+            ArgumentCaptor<Throwable> failure = ArgumentCaptor.forClass(Throwable.class);
+            Mockito.verify(response).abort(failure.capture());
+            listener.onComplete(mockResult(failure.getValue()));
+            reader.readResponseContent();
+            Assert.fail();
+        }
+        catch (BulkExtractRangeException e) {
+            Assert.assertEquals(0, Files.size(path));
+        }
+    }
+
+    @Test
+    public void testContentPastRangeFails() throws Exception
+    {
+        Path path = temporaryFolder.newFile().toPath();
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.WRITE)) {
+            MarketoFileChannelResponseEntityReader reader = new MarketoFileChannelResponseEntityReader(1000, channel, new BulkExtractRangeHeader(0, 8));
+            Response response = mockResponse(206, "text/csv", "bytes 0-8/17");
+            Response.Listener listener = reader.getListener();
+            listener.onHeaders(response);
+            listener.onContent(response, directBuffer("id,email\n1,a@"));
+            ArgumentCaptor<Throwable> failure = ArgumentCaptor.forClass(Throwable.class);
+            Mockito.verify(response).abort(failure.capture());
+            listener.onComplete(mockResult(failure.getValue()));
+            reader.readResponseContent();
+            Assert.fail();
+        }
+        catch (BulkExtractRangeException e) {
+            // bytes after the range are not written
+            Assert.assertEquals("id,email\n", new String(Files.readAllBytes(path), StandardCharsets.UTF_8));
+        }
+    }
+
+    private static Response mockResponse(int status, String contentType, String contentRange)
+    {
+        HttpFields headers = new HttpFields();
+        headers.put(HttpHeader.CONTENT_TYPE, contentType);
+        if (contentRange != null) {
+            headers.put(HttpHeader.CONTENT_RANGE, contentRange);
+        }
+        Response response = Mockito.mock(Response.class);
+        Mockito.doReturn(status).when(response).getStatus();
+        Mockito.doReturn(headers).when(response).getHeaders();
+        return response;
+    }
+
+    private static Result mockResult(Throwable failure)
+    {
+        Result result = Mockito.mock(Result.class);
+        Mockito.doReturn(failure != null).when(result).isFailed();
+        Mockito.doReturn(failure).when(result).getFailure();
+        return result;
+    }
+
+    private static ByteBuffer directBuffer(String content)
+    {
+        byte[] bytes = content.getBytes(StandardCharsets.UTF_8);
+        ByteBuffer buffer = ByteBuffer.allocateDirect(bytes.length);
+        buffer.put(bytes);
+        buffer.flip();
+        return buffer;
+    }
+}
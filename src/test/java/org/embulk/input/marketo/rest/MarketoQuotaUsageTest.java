@@ -0,0 +1,40 @@
+package org.embulk.input.marketo.rest;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class MarketoQuotaUsageTest
+{
+    @Test
+    public void testCountUsage()
+    {
+        MarketoQuotaUsage quotaUsage = new MarketoQuotaUsage();
+        quotaUsage.addCall();
+        quotaUsage.addCall();
+        quotaUsage.addExportedBytes(1024);
+        quotaUsage.addExportedBytes(2048);
+        Assert.assertEquals(2, quotaUsage.getCalls());
+        Assert.assertEquals(3072, quotaUsage.getExportedBytes());
+    }
+
+    @Test
+    public void testRecordUsageSinceLastRecord()
+    {
+        MarketoQuotaUsage quotaUsage = new MarketoQuotaUsage();
+        quotaUsage.addCall();
+        quotaUsage.addExportedBytes(1024);
+        Assert.assertEquals("1/1024", quotaUsage.record((day, calls, exportedBytes) -> calls + "/" + exportedBytes));
+        quotaUsage.addCall();
+        Assert.assertEquals("1/0", quotaUsage.record((day, calls, exportedBytes) -> calls + "/" + exportedBytes));
+        Assert.assertEquals("0/0", quotaUsage.record((day, calls, exportedBytes) -> calls + "/" + exportedBytes));
+        Assert.assertEquals(2, quotaUsage.getCalls());
+    }
+
+    @Test
+    public void testInstanceSharedByAccount()
+    {
+        MarketoQuotaUsage quotaUsage = MarketoQuotaUsage.getInstance("quota_account_1");
+        Assert.assertSame(quotaUsage, MarketoQuotaUsage.getInstance("quota_account_1"));
+        Assert.assertNotSame(quotaUsage, MarketoQuotaUsage.getInstance("quota_account_2"));
+    }
+}
@@ -0,0 +1,63 @@
+package org.embulk.input.marketo.rest;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class MarketoRateLimiterTest
+{
+    @Test
+    public void testAcquireWaitsForInterval() throws Exception
+    {
+        MarketoRateLimiter rateLimiter = new MarketoRateLimiter(3, 200);
+        long start = System.nanoTime();
+        for (int i = 0; i < 3; i++) {
+            rateLimiter.acquire();
+        }
+        Assert.assertTrue(System.nanoTime() - start < 200_000_000L);
+        // the 4th call waits for the 1st one to leave the interval
+        rateLimiter.acquire();
+        Assert.assertTrue(System.nanoTime() - start >= 200_000_000L);
+    }
+
+    @Test
+    public void testBackOffWaitsForInterval() throws Exception
+    {
+        MarketoRateLimiter rateLimiter = new MarketoRateLimiter(3, 200);
+        long start = System.nanoTime();
+        // Marketo rejected a call, calls made elsewhere filled its interval
+        rateLimiter.backOff();
+        rateLimiter.acquire();
+        Assert.assertTrue(System.nanoTime() - start >= 200_000_000L);
+    }
+
+    @Test
+    public void testWaitOutsideLock() throws Exception
+    {
+        MarketoRateLimiter rateLimiter = new MarketoRateLimiter(1, 1000);
+        rateLimiter.acquire();
+        Thread waitingCall = new Thread(() -> {
+            try {
+                rateLimiter.acquire();
+            }
+            catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        waitingCall.start();
+        Thread.sleep(100);
+        // the call waiting for the interval doesn't hold the lock
+        long start = System.nanoTime();
+        rateLimiter.backOff();
+        Assert.assertTrue(System.nanoTime() - start < 500_000_000L);
+        waitingCall.interrupt();
+        waitingCall.join();
+    }
+
+    @Test
+    public void testInstanceSharedByAccount()
+    {
+        MarketoRateLimiter rateLimiter = MarketoRateLimiter.getInstance("account_1", 100, 20000);
+        Assert.assertSame(rateLimiter, MarketoRateLimiter.getInstance("account_1", 10, 1000));
+        Assert.assertNotSame(rateLimiter, MarketoRateLimiter.getInstance("account_2", 100, 20000));
+    }
+}
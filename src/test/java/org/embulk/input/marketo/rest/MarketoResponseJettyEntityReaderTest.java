@@ -0,0 +1,93 @@
+package org.embulk.input.marketo.rest;
+
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.google.common.io.ByteStreams;
+import org.eclipse.jetty.client.api.Response;
+import org.eclipse.jetty.http.HttpFields;
+import org.eclipse.jetty.http.HttpHeader;
+import org.embulk.input.marketo.exception.MarketoAPIException;
+import org.embulk.input.marketo.model.MarketoResponse;
+import org.embulk.spi.DataException;
+import org.junit.Assert;
+import org.junit.Test;
+import org.mockito.Mockito;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.GZIPOutputStream;
+
+public class MarketoResponseJettyEntityReaderTest
+{
+    @Test
+    public void testReadResponseContent() throws Exception
+    {
+        String content = "{\n" +
+                "    \"requestId\": \"e42b#14272d07d78\",\n" +
+                "    \"warnings\": [\"a warning\"],\n" +
+                "    \"result\": [\n" +
+                "        {\"id\": 50, \"email\": \"kjashaedd-1@klooblept.com\", \"nested\": {\"values\": [1, 2]}},\n" +
+                "        {\"id\": 51, \"email\": null}\n" +
+                "    ],\n" +
+                "    \"nextPageToken\": \"GIYDAOBNGEYS2MBWKQYDAORQGA5DAMBOGAYDAKZQGAYDALBQ\",\n" +
+                "    \"moreResult\": true,\n" +
+                "    \"success\": true\n" +
+                "}";
+        MarketoResponse<ObjectNode> response = read(content);
+        Assert.assertTrue(response.isSuccess());
+        Assert.assertTrue(response.isMoreResult());
+        Assert.assertEquals("e42b#14272d07d78", response.getRequestId());
+        Assert.assertEquals("GIYDAOBNGEYS2MBWKQYDAORQGA5DAMBOGAYDAKZQGAYDALBQ", response.getNextPageToken());
+        Assert.assertEquals(2, response.getResult().size());
+        Assert.assertEquals(50, response.getResult().get(0).get("id").asInt());
+        Assert.assertEquals(2, response.getResult().get(0).get("nested").get("values").get(1).asInt());
+        Assert.assertTrue(response.getResult().get(1).get("email").isNull());
+    }
+
+    @Test
+    public void testReadErrorResponse() throws Exception
+    {
+        String content = "{\"requestId\": \"a9ae#148add1e53d\", \"success\": false, \"errors\": [{\"code\": \"601\", \"message\": \"Access token invalid\"}]}";
+        try {
+            read(content);
+            Assert.fail();
+        }
+        catch (MarketoAPIException e) {
+            Assert.assertEquals("601", e.getMarketoErrors().get(0).getCode());
+        }
+    }
+
+    @Test(expected = DataException.class)
+    public void testReadTruncatedResponse() throws Exception
+    {
+        read("{\"requestId\": \"a9ae#148add1e53d\", \"result\": [{\"id\": 50}, {\"id\"");
+    }
+
+    @Test
+    public void testDecodeGzipContent() throws Exception
+    {
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+        try (GZIPOutputStream gzipOutputStream = new GZIPOutputStream(compressed)) {
+            gzipOutputStream.write("id,email\n1,a@b.com\n".getBytes(StandardCharsets.UTF_8));
+        }
+        HttpFields headers = new HttpFields();
+        headers.put(HttpHeader.CONTENT_ENCODING, "gzip");
+        Response response = Mockito.mock(Response.class);
+        Mockito.doReturn(headers).when(response).getHeaders();
+        InputStream decoded = MarketoResponseJettyEntityReader.decodeContent(response, new ByteArrayInputStream(compressed.toByteArray()));
+        Assert.assertEquals("id,email\n1,a@b.com\n", new String(ByteStreams.toByteArray(decoded), StandardCharsets.UTF_8));
+
+        // not encoded content is returned as is
+        InputStream content = new ByteArrayInputStream(new byte[0]);
+        Mockito.doReturn(new HttpFields()).when(response).getHeaders();
+        Assert.assertSame(content, MarketoResponseJettyEntityReader.decodeContent(response, content));
+    }
+
+    private static MarketoResponse<ObjectNode> read(String content) throws Exception
+    {
+        MarketoResponseJettyEntityReader<ObjectNode> reader = Mockito.spy(new MarketoResponseJettyEntityReader<>(1000, ObjectNode.class));
+        Mockito.doReturn(new ByteArrayInputStream(content.getBytes(StandardCharsets.UTF_8))).when(reader).getResponseContentStream();
+        return reader.readResponseContent();
+    }
+}
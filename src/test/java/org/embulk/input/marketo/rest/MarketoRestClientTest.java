@@ -14,6 +14,7 @@ import org.eclipse.jetty.client.util.FormContentProvider;
 import org.embulk.EmbulkTestRuntime;
 import org.embulk.config.ConfigSource;
 import org.embulk.input.marketo.MarketoUtils;
+import org.embulk.input.marketo.model.BulkExtractRangeHeader;
 import org.embulk.input.marketo.model.MarketoError;
 import org.embulk.input.marketo.model.MarketoField;
 import org.embulk.input.marketo.model.MarketoResponse;
@@ -34,6 +35,7 @@ import java.time.OffsetDateTime;
 import java.time.format.DateTimeFormatter;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.HashSet;
@@ -41,11 +43,14 @@ import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.RejectedExecutionException;
 
 import static org.embulk.input.marketo.MarketoInputPlugin.CONFIG_MAPPER_FACTORY;
 import static org.embulk.input.marketo.MarketoUtilsTest.CONFIG_MAPPER;
 import static org.mockito.Mockito.any;
+import static org.mockito.Mockito.atLeast;
 import static org.mockito.Mockito.anyString;
+import static org.mockito.Mockito.doAnswer;
 import static org.mockito.Mockito.doReturn;
 import static org.mockito.Mockito.eq;
 import static org.mockito.Mockito.isNull;
@@ -209,6 +214,19 @@ public class MarketoRestClientTest
         Assert.fail();
     }
 
+    @Test
+    public void cancelLeadBulkExtract()
+    {
+        String bulkExportId = "bulkExportId";
+        Map<String, String> pathParams = new HashMap<>();
+        pathParams.put("export_id", bulkExportId);
+        MarketoResponse<ObjectNode> marketoResponse = new MarketoResponse<>();
+        marketoResponse.setSuccess(true);
+        doReturn(marketoResponse).when(marketoRestClient).doPost(eq(END_POINT + MarketoRESTEndpoint.CANCEL_LEAD_EXPORT_JOB.getEndpoint(pathParams)), isNull(), isNull(), isNull(), any(MarketoResponseJettyEntityReader.class));
+        marketoRestClient.cancelLeadBulkExtract(bulkExportId);
+        verify(marketoRestClient, times(1)).doPost(eq(END_POINT + MarketoRESTEndpoint.CANCEL_LEAD_EXPORT_JOB.getEndpoint(pathParams)), isNull(), isNull(), isNull(), any(MarketoResponseJettyEntityReader.class));
+    }
+
     @Test
     public void startActivityBulkExtract()
     {
@@ -233,6 +251,8 @@ public class MarketoRestClientTest
         ObjectNode result = mock(ObjectNode.class);
         when(marketoResponse.getResult()).thenReturn(Arrays.asList(result));
         when(result.get("status")).thenReturn(new TextNode("Queued")).thenReturn(new TextNode("Processing")).thenReturn(new TextNode("Completed"));
+        // no job listed as active, the status of the job is polled
+        doReturn(Collections.emptyList()).when(marketoRestClient).listActiveExportJobs(MarketoRESTEndpoint.GET_LEAD_EXPORT_JOBS);
         doReturn(marketoResponse).when(marketoRestClient).doGet(eq(END_POINT + MarketoRESTEndpoint.GET_LEAD_EXPORT_STATUS.getEndpoint(pathParams)), isNull(), isNull(), any(MarketoResponseJettyEntityReader.class));
         marketoRestClient.waitLeadExportJobComplete(bulkExportId, 1, 4);
         verify(marketoRestClient, times(3)).doGet(eq(END_POINT + MarketoRESTEndpoint.GET_LEAD_EXPORT_STATUS.getEndpoint(pathParams)), isNull(), isNull(), any(MarketoResponseJettyEntityReader.class));
@@ -249,13 +269,16 @@ public class MarketoRestClientTest
         ObjectNode result = mock(ObjectNode.class);
         when(marketoResponse.getResult()).thenReturn(Arrays.asList(result));
         when(result.get("status")).thenReturn(new TextNode("Queued")).thenReturn(new TextNode("Processing"));
+        // no job listed as active, the status of the job is polled
+        doReturn(Collections.emptyList()).when(marketoRestClient).listActiveExportJobs(MarketoRESTEndpoint.GET_LEAD_EXPORT_JOBS);
         doReturn(marketoResponse).when(marketoRestClient).doGet(eq(END_POINT + MarketoRESTEndpoint.GET_LEAD_EXPORT_STATUS.getEndpoint(pathParams)), isNull(), isNull(), any(MarketoResponseJettyEntityReader.class));
         try {
             marketoRestClient.waitLeadExportJobComplete(bulkExportId, 2, 4);
         }
         catch (DataException e) {
             Assert.assertTrue(e.getMessage().contains("Job timeout exception"));
-            verify(marketoRestClient, times(2)).doGet(eq(END_POINT + MarketoRESTEndpoint.GET_LEAD_EXPORT_STATUS.getEndpoint(pathParams)), isNull(), isNull(), any(MarketoResponseJettyEntityReader.class));
+            // the last poll is at the timeout
+            verify(marketoRestClient, times(3)).doGet(eq(END_POINT + MarketoRESTEndpoint.GET_LEAD_EXPORT_STATUS.getEndpoint(pathParams)), isNull(), isNull(), any(MarketoResponseJettyEntityReader.class));
             return;
         }
         Assert.fail();
@@ -273,6 +296,8 @@ public class MarketoRestClientTest
         when(marketoResponse.getResult()).thenReturn(Arrays.asList(result));
         when(result.get("status")).thenReturn(new TextNode("Queued")).thenReturn(new TextNode("Failed"));
         when(result.get("errorMsg")).thenReturn(new TextNode("ErrorMessage"));
+        // no job listed as active, the status of the job is polled
+        doReturn(Collections.emptyList()).when(marketoRestClient).listActiveExportJobs(MarketoRESTEndpoint.GET_LEAD_EXPORT_JOBS);
         doReturn(marketoResponse).when(marketoRestClient).doGet(eq(END_POINT + MarketoRESTEndpoint.GET_LEAD_EXPORT_STATUS.getEndpoint(pathParams)), isNull(), isNull(), any(MarketoResponseJettyEntityReader.class));
         try {
             marketoRestClient.waitLeadExportJobComplete(bulkExportId, 1, 4);
@@ -297,6 +322,8 @@ public class MarketoRestClientTest
         ObjectNode mockObjectNode = mock(ObjectNode.class);
         when(marketoResponse.getResult()).thenReturn(Arrays.asList(mockObjectNode));
         when(mockObjectNode.get("status")).thenReturn(new TextNode("Completed"));
+        // no job listed as active, the status of the job is polled
+        doReturn(Collections.emptyList()).when(marketoRestClient).listActiveExportJobs(MarketoRESTEndpoint.GET_ACTIVITY_EXPORT_JOBS);
         doReturn(marketoResponse).when(marketoRestClient).doGet(anyString(), isNull(), isNull(), any(Jetty94ResponseReader.class));
         marketoRestClient.waitActitvityExportJobComplete(exportId, 1, 3);
         verify(marketoRestClient, times(1)).doGet(eq(END_POINT + MarketoRESTEndpoint.GET_ACTIVITY_EXPORT_STATUS.getEndpoint(pathParamMap)), isNull(), isNull(), any(Jetty94ResponseReader.class));
@@ -324,6 +351,60 @@ public class MarketoRestClientTest
         verify(marketoRestClient, times(1)).doGet(eq(END_POINT + MarketoRESTEndpoint.GET_ACTIVITY_EXPORT_RESULT.getEndpoint(pathParamMap)), any(Map.class), isNull(), any(MarketoInputStreamResponseEntityReader.class));
     }
 
+    @Test
+    public void testAdaptivePollingBacksOffPastPollingInterval()
+    {
+        ConfigSource configSource = CONFIG_MAPPER_FACTORY.newConfigSource();
+        configSource.set("account_id", TEST_ACCOUNT_ID);
+        configSource.set("client_secret", TEST_CLIENT_SECRET);
+        configSource.set("client_id", TEST_CLIENT_ID);
+        configSource.set("min_polling_interval_second", 1);
+        configSource.set("max_polling_interval_second", 900);
+        MarketoRestClient.PluginTask task = CONFIG_MAPPER.map(configSource, MarketoRestClient.PluginTask.class);
+        MarketoRestClient adaptiveRestClient = new MarketoRestClient(task);
+        try {
+            long now = OffsetDateTime.parse("2017-10-13T06:00:00Z").toInstant().toEpochMilli();
+            // processing for about an hour
+            ObjectNode status = OBJECT_MAPPER.createObjectNode().put("status", "Processing").put("startedAt", "2017-10-13T05:01:00Z");
+            ExportJobPollingInterval adaptiveInterval = adaptiveRestClient.newExportJobPollingInterval(MarketoRESTEndpoint.GET_LEAD_EXPORT_STATUS, 60, now);
+            Assert.assertEquals(900000, adaptiveInterval.nextIntervalMillis("Processing", status, now));
+            // fixed polling stays at the polling interval
+            ExportJobPollingInterval fixedInterval = marketoRestClient.newExportJobPollingInterval(MarketoRESTEndpoint.GET_LEAD_EXPORT_STATUS, 60, now);
+            Assert.assertEquals(60000, fixedInterval.nextIntervalMillis("Processing", status, now));
+        }
+        finally {
+            adaptiveRestClient.close();
+        }
+    }
+
+    @Test
+    public void getBulkExtractResultWithTransferCompression()
+    {
+        ConfigSource configSource = CONFIG_MAPPER_FACTORY.newConfigSource();
+        configSource.set("account_id", TEST_ACCOUNT_ID);
+        configSource.set("client_secret", TEST_CLIENT_SECRET);
+        configSource.set("client_id", TEST_CLIENT_ID);
+        configSource.set("transfer_compression", true);
+        MarketoRestClient.PluginTask task = CONFIG_MAPPER.map(configSource, MarketoRestClient.PluginTask.class);
+        MarketoRestClient compressionRestClient = spy(new MarketoRestClient(task));
+        String exportId = "exportId";
+        Map<String, String> pathParamMap = new HashMap<>();
+        pathParamMap.put("export_id", exportId);
+        String target = END_POINT + MarketoRESTEndpoint.GET_LEAD_EXPORT_RESULT.getEndpoint(pathParamMap);
+        ArgumentCaptor<Map> headersCaptor = ArgumentCaptor.forClass(Map.class);
+        doReturn(mock(InputStream.class)).when(compressionRestClient).doGet(eq(target), any(Map.class), isNull(), any(MarketoInputStreamResponseEntityReader.class));
+        compressionRestClient.getLeadBulkExtractResult(exportId, new BulkExtractRangeHeader(0));
+        compressionRestClient.getLeadBulkExtractResult(exportId, new BulkExtractRangeHeader(100));
+        verify(compressionRestClient, times(2)).doGet(eq(target), headersCaptor.capture(), isNull(), any(MarketoInputStreamResponseEntityReader.class));
+        // the whole file is downloaded compressed
+        Assert.assertTrue(headersCaptor.getAllValues().get(0).isEmpty());
+        Assert.assertTrue(compressionRestClient.isTransferCompression());
+        // a range is resumed uncompressed
+        Assert.assertEquals("bytes=100-", headersCaptor.getAllValues().get(1).get("Range"));
+        Assert.assertEquals("identity", headersCaptor.getAllValues().get(1).get("Accept-Encoding"));
+        compressionRestClient.close();
+    }
+
     @Test
     public void getLists() throws Exception
     {
@@ -370,6 +451,47 @@ public class MarketoRestClientTest
         Assert.assertEquals("2", params2.get("offset").get(0));
     }
 
+    @Test
+    public void getProgramsWithPrefetch() throws Exception
+    {
+        ConfigSource configSource = CONFIG_MAPPER_FACTORY.newConfigSource();
+        configSource.set("account_id", TEST_ACCOUNT_ID);
+        configSource.set("client_secret", TEST_CLIENT_SECRET);
+        configSource.set("client_id", TEST_CLIENT_ID);
+        configSource.set("max_return", 2);
+        configSource.set("prefetch_pages", 3);
+        MarketoRestClient.PluginTask task = CONFIG_MAPPER.map(configSource, MarketoRestClient.PluginTask.class);
+        MarketoRestClient prefetchRestClient = spy(new MarketoRestClient(task));
+        // 5 programs, the page at offset 4 is the last one
+        doAnswer(invocation -> {
+            Multimap<String, String> params = invocation.getArgument(2);
+            int offset = Integer.parseInt(params.get("offset").iterator().next());
+            List<ObjectNode> programs = new ArrayList<>();
+            for (int id = offset; id < Math.min(offset + 2, 5); id++) {
+                programs.add(OBJECT_MAPPER.createObjectNode().put("id", id));
+            }
+            MarketoResponse<ObjectNode> page = new MarketoResponse<>();
+            page.setSuccess(true);
+            page.setResult(programs);
+            return page;
+        }).when(prefetchRestClient).doGet(eq(END_POINT + MarketoRESTEndpoint.GET_PROGRAMS.getEndpoint()), isNull(), any(Multimap.class), any(MarketoResponseJettyEntityReader.class));
+        List<Integer> ids = new ArrayList<>();
+        for (ObjectNode program : prefetchRestClient.getPrograms()) {
+            ids.add(program.get("id").asInt());
+        }
+        Assert.assertEquals(Arrays.asList(0, 1, 2, 3, 4), ids);
+        ArgumentCaptor<ImmutableListMultimap> immutableListMultimapArgumentCaptor = ArgumentCaptor.forClass(ImmutableListMultimap.class);
+        verify(prefetchRestClient, atLeast(3)).doGet(eq(END_POINT + MarketoRESTEndpoint.GET_PROGRAMS.getEndpoint()), isNull(), immutableListMultimapArgumentCaptor.capture(), any(MarketoResponseJettyEntityReader.class));
+        Set<String> offsets = new HashSet<>();
+        for (ImmutableListMultimap params : immutableListMultimapArgumentCaptor.getAllValues()) {
+            offsets.add((String) params.get("offset").get(0));
+        }
+        Assert.assertTrue(offsets.containsAll(Arrays.asList("0", "2", "4")));
+        // the threads requesting the pages ahead are the client's, stopped when it is closed
+        prefetchRestClient.close();
+        Assert.assertThrows(RejectedExecutionException.class, () -> prefetchRestClient.getPrograms().iterator().hasNext());
+    }
+
     private void mockMarketoPageResponse(String fixtureName, String mockEndpoint) throws IOException
     {
         ArrayNode listPages = (ArrayNode) OBJECT_MAPPER.readTree(new String(ByteStreams.toByteArray(this.getClass().getResourceAsStream(fixtureName)))).get("responses");
@@ -0,0 +1,41 @@
+package org.embulk.input.marketo.rest;
+
+import org.embulk.util.retryhelper.jetty94.Jetty94RetryHelper;
+import org.junit.Assert;
+import org.junit.Test;
+import org.mockito.Mockito;
+
+import java.util.Arrays;
+import java.util.List;
+
+public class MarketoSharedClientTest
+{
+    @Test
+    public void testSharedByKey()
+    {
+        List<Object> key = Arrays.asList("shared_account", "client_id", "client_secret");
+        MarketoSharedClient client1 = MarketoSharedClient.acquire(key, () -> Mockito.mock(Jetty94RetryHelper.class));
+        MarketoSharedClient client2 = MarketoSharedClient.acquire(Arrays.asList("shared_account", "client_id", "client_secret"), () -> Mockito.mock(Jetty94RetryHelper.class));
+        Assert.assertSame(client1, client2);
+        Assert.assertSame(client1.getRetryHelper(), client2.getRetryHelper());
+        Assert.assertSame(client1.getAccessTokenManager(() -> null), client2.getAccessTokenManager(() -> null));
+        MarketoSharedClient otherClient = MarketoSharedClient.acquire(Arrays.asList("shared_account", "other_client_id", "client_secret"), () -> Mockito.mock(Jetty94RetryHelper.class));
+        Assert.assertNotSame(client1, otherClient);
+        client1.release();
+        client2.release();
+        otherClient.release();
+    }
+
+    @Test
+    public void testReusedAfterRelease()
+    {
+        List<Object> key = Arrays.asList("released_account", "client_id", "client_secret");
+        Jetty94RetryHelper retryHelper = Mockito.mock(Jetty94RetryHelper.class);
+        MarketoSharedClient client = MarketoSharedClient.acquire(key, () -> retryHelper);
+        client.release();
+        // the next phase gets the same warm client
+        Assert.assertSame(client, MarketoSharedClient.acquire(key, () -> Mockito.mock(Jetty94RetryHelper.class)));
+        Mockito.verify(retryHelper, Mockito.never()).close();
+        client.release();
+    }
+}